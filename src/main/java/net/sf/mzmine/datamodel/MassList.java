@@ -21,6 +21,8 @@ package net.sf.mzmine.datamodel;
 
 import javax.annotation.Nonnull;
 
+import com.google.common.collect.Range;
+
 /**
  * This class represent detected masses (ions) in one mass spectrum. Each ion is
  * represented by a DataPoint
@@ -36,4 +38,29 @@ public interface MassList {
     @Nonnull
     public DataPoint[] getDataPoints();
 
+    /**
+     * @return Number of detected masses
+     */
+    public int getNumberOfDataPoints();
+
+    /**
+     * Copies the m/z and intensity values of the detected masses, sorted in m/z
+     * order, into the given arrays, without creating DataPoint instances. Both
+     * arrays must be at least getNumberOfDataPoints() long.
+     * 
+     * @return Number of data points copied into the arrays
+     */
+    public int getDataPoints(@Nonnull double mzValues[],
+	    @Nonnull double intensityValues[]);
+
+    /**
+     * Copies the m/z and intensity values of the detected masses in given m/z
+     * range into the given arrays. Both arrays must be at least
+     * getNumberOfDataPoints() long.
+     * 
+     * @return Number of data points copied into the arrays
+     */
+    public int getDataPointsByMass(@Nonnull Range<Double> mzRange,
+	    @Nonnull double mzValues[], @Nonnull double intensityValues[]);
+
 }
@@ -88,6 +88,28 @@ public interface MassSpectrum {
     @Nonnull
     public DataPoint[] getDataPointsByMass(@Nonnull Range<Double> mzRange);
 
+    /**
+     * Copies the m/z and intensity values of this spectrum, sorted in m/z
+     * order, into the given arrays. Unlike getDataPoints(), this method does
+     * not create any DataPoint instances, so callers can reuse the same arrays
+     * for many spectra. Both arrays must be at least getNumberOfDataPoints()
+     * long.
+     * 
+     * @return Number of data points copied into the arrays
+     */
+    public int getDataPoints(@Nonnull double mzValues[],
+	    @Nonnull double intensityValues[]);
+
+    /**
+     * Copies the m/z and intensity values in given m/z range, sorted in m/z
+     * order, into the given arrays. Both arrays must be at least
+     * getNumberOfDataPoints() long.
+     * 
+     * @return Number of data points copied into the arrays
+     */
+    public int getDataPointsByMass(@Nonnull Range<Double> mzRange,
+	    @Nonnull double mzValues[], @Nonnull double intensityValues[]);
+
     /**
      * Returns data points over given intensity, sorted in m/z order.
      * 
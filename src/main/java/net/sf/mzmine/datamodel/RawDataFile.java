@@ -107,6 +107,30 @@ public interface RawDataFile {
 
     public double getDataMaxTotalIonCurrent(int msLevel);
 
+    /**
+     * Extracts the ion chromatogram of given m/z range in given scans. For
+     * each scan, the m/z and intensity of its base peak within the m/z range
+     * and its total ion count within the m/z range are set to the given
+     * arrays, at the same index as the scan number. If the scan has no data
+     * point within the m/z range, its base peak m/z is NaN and its
+     * intensities are 0. The arrays must be at least as long as the
+     * scanNumbers array, and the totalIntensities array may be null.
+     * 
+     * Implementations without an index of the data points can read the scans
+     * by ScanUtils.extractXIC().
+     */
+    public void extractXIC(@Nonnull int scanNumbers[],
+	    @Nonnull Range<Double> mzRange, @Nonnull double basePeakMZValues[],
+	    @Nonnull double basePeakIntensities[], double totalIntensities[]);
+
+    /**
+     * Returns true if extractXIC() currently reads the MS1 scans from an index
+     * of their data points. Then extracting the ion chromatograms of many
+     * small m/z ranges is cheaper than reading all scans. Otherwise, the
+     * callers should rather read each scan once for all m/z ranges.
+     */
+    public boolean hasXICIndex();
+
     /**
      * Close the file in case it is removed from the project
      */
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.sf.mzmine.datamodel.DataPoint;
+
+/**
+ * Data points of a feature, packed in primitive arrays instead of keeping an
+ * instance of DataPoint per scan. The m/z and intensity values belong to a
+ * range of consecutive scans of a sorted table of scan numbers, which can be
+ * shared by many features, e.g. the scan numbers of a raw data file which the
+ * features were built from. Scans of the range without a data point have NaN
+ * values. Instances are immutable, so they can be shared by copies of the
+ * feature. DataPoint instances are only created on request by getDataPoint().
+ */
+public class PackedDataPoints {
+
+    private final int scanTable[];
+    private final int firstIndex;
+    private final double mzValues[], intensityValues[];
+
+    // Scan numbers of the range, copied from the scan table on first use if
+    // the range does not span the whole table
+    private volatile int scanNumbers[];
+
+    /**
+     * @param scanTable
+     *            sorted scan numbers, the array is not copied
+     * @param firstIndex
+     *            index of the scan of the first values in scanTable
+     * @param mzValues
+     *            m/z values of the consecutive scans of scanTable starting at
+     *            firstIndex, NaN if there is no data point
+     * @param intensityValues
+     *            intensity values of the same scans
+     */
+    public PackedDataPoints(@Nonnull int scanTable[], int firstIndex,
+	    @Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+	if ((mzValues.length != intensityValues.length) || (firstIndex < 0)
+		|| (firstIndex + mzValues.length > scanTable.length)) {
+	    throw new IllegalArgumentException(
+		    "The values do not match the scan table");
+	}
+	this.scanTable = scanTable;
+	this.firstIndex = firstIndex;
+	this.mzValues = mzValues;
+	this.intensityValues = intensityValues;
+    }
+
+    /**
+     * Packs given data points of given scans. Null data points are packed as
+     * missing.
+     * 
+     * @param scanNumbers
+     *            sorted scan numbers, used as the scan table without copying
+     */
+    public static PackedDataPoints pack(@Nonnull int scanNumbers[],
+	    @Nonnull DataPoint dataPoints[]) {
+	if (scanNumbers.length != dataPoints.length) {
+	    throw new IllegalArgumentException(
+		    "The number of data points does not match the number of scans");
+	}
+	double mzValues[] = new double[dataPoints.length];
+	double intensityValues[] = new double[dataPoints.length];
+	for (int i = 0; i < dataPoints.length; i++) {
+	    if (dataPoints[i] == null) {
+		mzValues[i] = Double.NaN;
+		intensityValues[i] = Double.NaN;
+	    } else {
+		mzValues[i] = dataPoints[i].getMZ();
+		intensityValues[i] = dataPoints[i].getIntensity();
+	    }
+	}
+	return new PackedDataPoints(scanNumbers, 0, mzValues, intensityValues);
+    }
+
+    /**
+     * Returns the number of scans of the range, including those without a
+     * data point
+     */
+    public int getNumberOfScans() {
+	return mzValues.length;
+    }
+
+    /**
+     * Returns the scan numbers of the range. The returned array must not be
+     * modified, because it may be the shared scan table.
+     */
+    public @Nonnull int[] getScanNumbers() {
+	if ((firstIndex == 0) && (mzValues.length == scanTable.length))
+	    return scanTable;
+	int rangeScanNumbers[] = scanNumbers;
+	if (rangeScanNumbers == null) {
+	    rangeScanNumbers = Arrays.copyOfRange(scanTable, firstIndex,
+		    firstIndex + mzValues.length);
+	    scanNumbers = rangeScanNumbers;
+	}
+	return rangeScanNumbers;
+    }
+
+    public int getScanNumber(int index) {
+	return scanTable[firstIndex + index];
+    }
+
+    /**
+     * Returns the index of given scan within the range, or a negative number
+     * if the scan is not in the range
+     */
+    public int getIndex(int scanNumber) {
+	int index = Arrays.binarySearch(scanTable, firstIndex, firstIndex
+		+ mzValues.length, scanNumber);
+	return (index < 0) ? -1 : index - firstIndex;
+    }
+
+    /**
+     * Returns false if there is no data point in the scan at given index
+     */
+    public boolean hasDataPoint(int index) {
+	return !Double.isNaN(mzValues[index]);
+    }
+
+    public double getMZ(int index) {
+	return mzValues[index];
+    }
+
+    public double getIntensity(int index) {
+	return intensityValues[index];
+    }
+
+    /**
+     * Creates the data point of given scan, or returns null if there is no
+     * data point in that scan
+     */
+    public @Nullable DataPoint getDataPoint(int scanNumber) {
+	int index = getIndex(scanNumber);
+	if ((index < 0) || !hasDataPoint(index))
+	    return null;
+	return new SimpleDataPoint(mzValues[index], intensityValues[index]);
+    }
+
+    /**
+     * Collects the data points of a feature being built, whose scans are added
+     * in the order of the scan table. The values are kept only for the scans
+     * with a data point, so the builder does not take memory for the gaps.
+     */
+    public static class Builder {
+
+	private final int scanTable[];
+	private int tableIndices[] = new int[16];
+	private double mzValues[] = new double[16],
+		intensityValues[] = new double[16];
+	private int size = 0;
+
+	/**
+	 * @param scanTable
+	 *            sorted scan numbers, the array is not copied
+	 */
+	public Builder(@Nonnull int scanTable[]) {
+	    this.scanTable = scanTable;
+	}
+
+	/**
+	 * Adds a data point of given scan, which must follow the scans of the
+	 * data points added before in the scan table
+	 */
+	public void add(int scanNumber, double mz, double intensity) {
+	    final int fromIndex = (size == 0) ? 0 : tableIndices[size - 1] + 1;
+	    final int tableIndex = Arrays.binarySearch(scanTable, fromIndex,
+		    scanTable.length, scanNumber);
+	    if (tableIndex < 0) {
+		throw new IllegalArgumentException("Scan #" + scanNumber
+			+ " does not follow the scans of the data points");
+	    }
+	    if (size == tableIndices.length) {
+		final int newLength = size * 2;
+		tableIndices = Arrays.copyOf(tableIndices, newLength);
+		mzValues = Arrays.copyOf(mzValues, newLength);
+		intensityValues = Arrays.copyOf(intensityValues, newLength);
+	    }
+	    tableIndices[size] = tableIndex;
+	    mzValues[size] = mz;
+	    intensityValues[size] = intensity;
+	    size++;
+	}
+
+	/**
+	 * Returns the number of added data points
+	 */
+	public int size() {
+	    return size;
+	}
+
+	/**
+	 * Removes the data points added after the first newSize data points
+	 */
+	public void truncate(int newSize) {
+	    if ((newSize < 0) || (newSize > size))
+		throw new IllegalArgumentException("Invalid size " + newSize);
+	    size = newSize;
+	}
+
+	public int getScanNumber(int index) {
+	    return scanTable[tableIndices[index]];
+	}
+
+	public double getMZ(int index) {
+	    return mzValues[index];
+	}
+
+	public double getIntensity(int index) {
+	    return intensityValues[index];
+	}
+
+	/**
+	 * Creates the data point of given scan, or returns null if no data
+	 * point was added for that scan
+	 */
+	public @Nullable DataPoint getDataPoint(int scanNumber) {
+	    int tableIndex = Arrays.binarySearch(scanTable, scanNumber);
+	    if (tableIndex < 0)
+		return null;
+	    int index = Arrays.binarySearch(tableIndices, 0, size, tableIndex);
+	    if (index < 0)
+		return null;
+	    return new SimpleDataPoint(mzValues[index], intensityValues[index]);
+	}
+
+	/**
+	 * Packs the added data points. The range of the packed data points
+	 * spans from the scan of the first data point to the scan of the last
+	 * one.
+	 */
+	public PackedDataPoints build() {
+	    if (size == 0) {
+		return new PackedDataPoints(scanTable, 0, new double[0],
+			new double[0]);
+	    }
+	    final int firstIndex = tableIndices[0];
+	    final int length = tableIndices[size - 1] - firstIndex + 1;
+	    double packedMzValues[] = new double[length];
+	    double packedIntensityValues[] = new double[length];
+	    Arrays.fill(packedMzValues, Double.NaN);
+	    Arrays.fill(packedIntensityValues, Double.NaN);
+	    for (int i = 0; i < size; i++) {
+		packedMzValues[tableIndices[i] - firstIndex] = mzValues[i];
+		packedIntensityValues[tableIndices[i] - firstIndex] = intensityValues[i];
+	    }
+	    return new PackedDataPoints(scanTable, firstIndex, packedMzValues,
+		    packedIntensityValues);
+	}
+
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.Arrays;
+
+import com.google.common.collect.Range;
+
+/**
+ * Immutable 2-D index of peak list items (rows or features) over their m/z and
+ * retention time values. The items are kept in two orders, sorted by m/z and
+ * sorted by RT. A range query locates the candidates in both orders by binary
+ * search and then checks only the candidates of the narrower dimension, so
+ * narrow windows (as used by the aligners and searches) cost O(log n + k)
+ * instead of O(n).
+ *
+ * Values are compared in the Double.compare() order, which is the order used
+ * by Range<Double>, so the query returns exactly the items that a linear scan
+ * with Range.contains() would return, in the original item order.
+ */
+class PeakListIndex<T> {
+
+    private final T items[];
+    private final double mzValues[], rtValues[];
+
+    // Item positions sorted by m/z and by RT, and the sorted values
+    private final int mzOrder[], rtOrder[];
+    private final double sortedMZ[], sortedRT[];
+
+    PeakListIndex(T items[], double mzValues[], double rtValues[]) {
+	this.items = items;
+	this.mzValues = mzValues;
+	this.rtValues = rtValues;
+	this.mzOrder = sortPositions(mzValues);
+	this.rtOrder = sortPositions(rtValues);
+	this.sortedMZ = new double[mzValues.length];
+	this.sortedRT = new double[rtValues.length];
+	for (int i = 0; i < items.length; i++) {
+	    sortedMZ[i] = mzValues[mzOrder[i]];
+	    sortedRT[i] = rtValues[rtOrder[i]];
+	}
+    }
+
+    /**
+     * Returns the items whose m/z and RT values fall inside given ranges, in
+     * the order in which the items were passed to the constructor
+     */
+    T[] getItemsInside(Range<Double> rtRange, Range<Double> mzRange) {
+
+	int mzStart = findStart(sortedMZ, mzRange);
+	int mzEnd = findEnd(sortedMZ, mzRange);
+	int rtStart = findStart(sortedRT, rtRange);
+	int rtEnd = findEnd(sortedRT, rtRange);
+
+	// Scan the candidates of the more selective dimension
+	final int order[], start, end;
+	if (mzEnd - mzStart <= rtEnd - rtStart) {
+	    order = mzOrder;
+	    start = mzStart;
+	    end = mzEnd;
+	} else {
+	    order = rtOrder;
+	    start = rtStart;
+	    end = rtEnd;
+	}
+
+	int positions[] = new int[Math.max(end - start, 0)];
+	int numOfPositions = 0;
+	for (int i = start; i < end; i++) {
+	    int position = order[i];
+	    if (rtRange.contains(rtValues[position])
+		    && mzRange.contains(mzValues[position]))
+		positions[numOfPositions++] = position;
+	}
+
+	// Keep the original order of the items
+	Arrays.sort(positions, 0, numOfPositions);
+
+	T result[] = Arrays.copyOf(items, numOfPositions);
+	for (int i = 0; i < numOfPositions; i++)
+	    result[i] = items[positions[i]];
+	return result;
+    }
+
+    /**
+     * Returns the index of the first value which is not below the lower bound
+     * of given range
+     */
+    private static int findStart(double sortedValues[], Range<Double> range) {
+	if (!range.hasLowerBound())
+	    return 0;
+	final double lower = range.lowerEndpoint();
+	int low = 0, high = sortedValues.length;
+	while (low < high) {
+	    int mid = (low + high) >>> 1;
+	    if (Double.compare(sortedValues[mid], lower) < 0)
+		low = mid + 1;
+	    else
+		high = mid;
+	}
+	return low;
+    }
+
+    /**
+     * Returns the index following the last value which is not above the upper
+     * bound of given range
+     */
+    private static int findEnd(double sortedValues[], Range<Double> range) {
+	if (!range.hasUpperBound())
+	    return sortedValues.length;
+	final double upper = range.upperEndpoint();
+	int low = 0, high = sortedValues.length;
+	while (low < high) {
+	    int mid = (low + high) >>> 1;
+	    if (Double.compare(sortedValues[mid], upper) <= 0)
+		low = mid + 1;
+	    else
+		high = mid;
+	}
+	return low;
+    }
+
+    /**
+     * Returns the positions of given values sorted by value, using a bottom-up
+     * merge sort of a primitive array, so that no boxed positions or
+     * comparator calls are needed. Positions of equal values stay in their
+     * original order.
+     */
+    private static int[] sortPositions(final double values[]) {
+	final int n = values.length;
+	int positions[] = new int[n];
+	int buffer[] = new int[n];
+	for (int i = 0; i < n; i++)
+	    positions[i] = i;
+
+	for (int width = 1; width < n; width *= 2) {
+	    for (int left = 0; left < n; left += 2 * width) {
+		final int middle = Math.min(left + width, n);
+		final int right = Math.min(left + 2 * width, n);
+		int i = left, j = middle, k = left;
+		while ((i < middle) && (j < right)) {
+		    if (Double.compare(values[positions[j]],
+			    values[positions[i]]) < 0)
+			buffer[k++] = positions[j++];
+		    else
+			buffer[k++] = positions[i++];
+		}
+		while (i < middle)
+		    buffer[k++] = positions[i++];
+		while (j < right)
+		    buffer[k++] = positions[j++];
+	    }
+	    int swap[] = positions;
+	    positions = buffer;
+	    buffer = swap;
+	}
+
+	return positions;
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index stamps of the peak lists which contain a row. Each SimplePeakList has
+ * a stamp which invalidates its range indexes (see PeakListIndex) when it
+ * changes. The list adds its stamp to each of its rows, and the row adds these
+ * stamps to its SimpleFeatures, so that a change of the m/z or RT of a row or
+ * feature invalidates the indexes of the peak lists containing it, but not of
+ * other peak lists.
+ *
+ * Only the stamps are referenced, not the peak lists, so rows shared with a
+ * discarded peak list do not keep it in memory.
+ */
+class PeakListIndexStamps {
+
+    private volatile AtomicLong stamps[] = new AtomicLong[0];
+
+    synchronized void add(AtomicLong stamp) {
+	for (AtomicLong s : stamps) {
+	    if (s == stamp)
+		return;
+	}
+	AtomicLong newStamps[] = Arrays.copyOf(stamps, stamps.length + 1);
+	newStamps[stamps.length] = stamp;
+	stamps = newStamps;
+    }
+
+    synchronized void remove(AtomicLong stamp) {
+	for (int i = 0; i < stamps.length; i++) {
+	    if (stamps[i] != stamp)
+		continue;
+	    AtomicLong newStamps[] = new AtomicLong[stamps.length - 1];
+	    System.arraycopy(stamps, 0, newStamps, 0, i);
+	    System.arraycopy(stamps, i + 1, newStamps, i, stamps.length - i
+		    - 1);
+	    stamps = newStamps;
+	    return;
+	}
+    }
+
+    /**
+     * Invalidates the range indexes of all peak lists containing the row
+     */
+    void increment() {
+	for (AtomicLong stamp : stamps)
+	    stamp.incrementAndGet();
+    }
+
+}
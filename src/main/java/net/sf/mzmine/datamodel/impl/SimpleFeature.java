@@ -40,10 +40,8 @@ public class SimpleFeature implements Feature {
     private FeatureStatus peakStatus;
     private RawDataFile dataFile;
 
-    // Scan numbers
-    private int scanNumbers[];
-
-    private DataPoint dataPointsPerScan[];
+    // Scan numbers and data points, packed in primitive arrays
+    private PackedDataPoints dataPoints;
 
     // M/Z, RT, Height and Area, FWHM, Tailing factor, Asymmetry factor
     private double mz, rt, height, area;
@@ -63,6 +61,15 @@ public class SimpleFeature implements Feature {
     private IsotopePattern isotopePattern;
     private int charge = 0;
 
+    // Changes whenever a value saved in the project is set, see
+    // SimplePeakList.getModificationStamp()
+    private volatile long modificationStamp = SimplePeakList
+	    .nextModificationStamp();
+
+    // Index stamps of the rows containing this peak, incremented when the m/z,
+    // RT or data file changes (see PeakListIndexStamps)
+    private PeakListIndexStamps indexStamps[];
+
     /**
      * Initializes a new peak using given values
      * 
@@ -74,7 +81,22 @@ public class SimpleFeature implements Feature {
 	    Range<Double> rtRange, Range<Double> mzRange,
 	    Range<Double> intensityRange) {
 
-	if (dataPointsPerScan.length == 0) {
+	this(dataFile, MZ, RT, height, area, PackedDataPoints.pack(scanNumbers,
+		dataPointsPerScan), peakStatus, representativeScan,
+		fragmentScanNumber, rtRange, mzRange, intensityRange);
+    }
+
+    /**
+     * Initializes a new peak using given values and packed data points
+     * 
+     */
+    public SimpleFeature(RawDataFile dataFile, double MZ, double RT,
+	    double height, double area, PackedDataPoints dataPoints,
+	    FeatureStatus peakStatus, int representativeScan,
+	    int fragmentScanNumber, Range<Double> rtRange,
+	    Range<Double> mzRange, Range<Double> intensityRange) {
+
+	if (dataPoints.getNumberOfScans() == 0) {
 	    throw new IllegalArgumentException(
 		    "Cannot create a SimplePeak instance with no data points");
 	}
@@ -84,14 +106,13 @@ public class SimpleFeature implements Feature {
 	this.rt = RT;
 	this.height = height;
 	this.area = area;
-	this.scanNumbers = scanNumbers;
+	this.dataPoints = dataPoints;
 	this.peakStatus = peakStatus;
 	this.representativeScan = representativeScan;
 	this.fragmentScanNumber = fragmentScanNumber;
 	this.rtRange = rtRange;
 	this.mzRange = mzRange;
 	this.intensityRange = intensityRange;
-	this.dataPointsPerScan = dataPointsPerScan;
         this.fwhm = null;
         this.tf = null;
         this.af = null;
@@ -117,13 +138,23 @@ public class SimpleFeature implements Feature {
 	this.mzRange = p.getRawDataPointsMZRange();
 	this.intensityRange = p.getRawDataPointsIntensityRange();
 
-	this.scanNumbers = p.getScanNumbers();
-
-	this.dataPointsPerScan = new DataPoint[scanNumbers.length];
-
-	for (int i = 0; i < scanNumbers.length; i++) {
-	    dataPointsPerScan[i] = p.getDataPoint(scanNumbers[i]);
-
+	// The packed data points are immutable, so the copy can share them.
+	// Other features (e.g. chromatograms) may return all scans of the raw
+	// data file, so only the range from the first to the last data point is
+	// packed, using their scan numbers as the scan table.
+	if (p instanceof SimpleFeature) {
+	    this.dataPoints = ((SimpleFeature) p).dataPoints;
+	} else {
+	    int scanNumbers[] = p.getScanNumbers();
+	    PackedDataPoints.Builder builder = new PackedDataPoints.Builder(
+		    scanNumbers);
+	    for (int scanNumber : scanNumbers) {
+		DataPoint dataPoint = p.getDataPoint(scanNumber);
+		if (dataPoint != null)
+		    builder.add(scanNumber, dataPoint.getMZ(),
+			    dataPoint.getIntensity());
+	    }
+	    this.dataPoints = builder.build();
 	}
 
 	this.peakStatus = p.getFeatureStatus();
@@ -149,10 +180,14 @@ public class SimpleFeature implements Feature {
 
     public void setMZ(double mz) {
 	this.mz = mz;
+	modificationStamp = SimplePeakList.nextModificationStamp();
+	incrementIndexStamps();
     }
 
     public void setRT(double rt) {
 	this.rt = rt;
+	modificationStamp = SimplePeakList.nextModificationStamp();
+	incrementIndexStamps();
     }
 
     /**
@@ -177,6 +212,7 @@ public class SimpleFeature implements Feature {
 	this.height = height;
 
         intensityRange = Range.closed(0.0, height);
+        modificationStamp = SimplePeakList.nextModificationStamp();
     }
 
     /**
@@ -192,13 +228,14 @@ public class SimpleFeature implements Feature {
      */
     public void setArea(double area) {
 	this.area = area;
+	modificationStamp = SimplePeakList.nextModificationStamp();
     }
 
     /**
      * This method returns numbers of scans that contain this peak
      */
     public @Nonnull int[] getScanNumbers() {
-	return scanNumbers;
+	return dataPoints.getScanNumbers();
     }
 
     /**
@@ -206,10 +243,14 @@ public class SimpleFeature implements Feature {
      * scan
      */
     public DataPoint getDataPoint(int scanNumber) {
-	int index = Arrays.binarySearch(scanNumbers, scanNumber);
-	if (index < 0)
-	    return null;
-	return dataPointsPerScan[index];
+	return dataPoints.getDataPoint(scanNumber);
+    }
+
+    /**
+     * Returns the data points of this peak packed in primitive arrays
+     */
+    public @Nonnull PackedDataPoints getPackedDataPoints() {
+	return dataPoints;
     }
 
     /**
@@ -224,6 +265,47 @@ public class SimpleFeature implements Feature {
      */
     public void setDataFile(RawDataFile dataFile) {
 	this.dataFile = dataFile;
+	modificationStamp = SimplePeakList.nextModificationStamp();
+	incrementIndexStamps();
+    }
+
+    synchronized void addIndexStamps(PeakListIndexStamps stamps) {
+	if (indexStamps == null) {
+	    indexStamps = new PeakListIndexStamps[] { stamps };
+	    return;
+	}
+	for (PeakListIndexStamps s : indexStamps) {
+	    if (s == stamps)
+		return;
+	}
+	indexStamps = Arrays.copyOf(indexStamps, indexStamps.length + 1);
+	indexStamps[indexStamps.length - 1] = stamps;
+    }
+
+    synchronized void removeIndexStamps(PeakListIndexStamps stamps) {
+	if (indexStamps == null)
+	    return;
+	for (int i = 0; i < indexStamps.length; i++) {
+	    if (indexStamps[i] != stamps)
+		continue;
+	    if (indexStamps.length == 1) {
+		indexStamps = null;
+		return;
+	    }
+	    PeakListIndexStamps newStamps[] = new PeakListIndexStamps[indexStamps.length - 1];
+	    System.arraycopy(indexStamps, 0, newStamps, 0, i);
+	    System.arraycopy(indexStamps, i + 1, newStamps, i,
+		    indexStamps.length - i - 1);
+	    indexStamps = newStamps;
+	    return;
+	}
+    }
+
+    private synchronized void incrementIndexStamps() {
+	if (indexStamps == null)
+	    return;
+	for (PeakListIndexStamps stamps : indexStamps)
+	    stamps.increment();
     }
 
     /**
@@ -272,6 +354,7 @@ public class SimpleFeature implements Feature {
 
     public void setIsotopePattern(@Nonnull IsotopePattern isotopePattern) {
 	this.isotopePattern = isotopePattern;
+	modificationStamp = SimplePeakList.nextModificationStamp();
     }
 
     public int getCharge() {
@@ -280,6 +363,7 @@ public class SimpleFeature implements Feature {
 
     public void setCharge(int charge) {
 	this.charge = charge;
+	modificationStamp = SimplePeakList.nextModificationStamp();
     }
 
     /**
@@ -295,6 +379,7 @@ public class SimpleFeature implements Feature {
      */
     public void setFWHM(Double fwhm) {
         this.fwhm = fwhm;
+        modificationStamp = SimplePeakList.nextModificationStamp();
     }
 
     /**
@@ -310,6 +395,7 @@ public class SimpleFeature implements Feature {
      */
     public void setTailingFactor(Double tf) {
         this.tf = tf;
+        modificationStamp = SimplePeakList.nextModificationStamp();
     }
 
     /**
@@ -325,6 +411,14 @@ public class SimpleFeature implements Feature {
      */
     public void setAsymmetryFactor(Double af) {
         this.af = af;
+        modificationStamp = SimplePeakList.nextModificationStamp();
+    }
+
+    /**
+     * Returns a number which changes whenever a value of this peak is set
+     */
+    public long getModificationStamp() {
+	return modificationStamp;
     }
 
     //dulab Edit
@@ -333,6 +427,7 @@ public class SimpleFeature implements Feature {
     }
     public void setPeakInformation(SimplePeakInformation peakInfoIn){
         this.peakInfo = peakInfoIn;
+        modificationStamp = SimplePeakList.nextModificationStamp();
     }
     public SimplePeakInformation getPeakInformation(){
         return peakInfo;
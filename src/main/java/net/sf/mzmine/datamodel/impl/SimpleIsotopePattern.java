@@ -99,7 +99,29 @@ public class SimpleIsotopePattern implements IsotopePattern {
     @Override
     @Nonnull
     public DataPoint[] getDataPointsByMass(@Nonnull Range<Double> mzRange) {
-	throw new UnsupportedOperationException();
+	return ScanUtils.selectDataPointsByMass(dataPoints, mzRange);
+    }
+
+    @Override
+    public int getDataPoints(@Nonnull double mzValues[],
+	    @Nonnull double intensityValues[]) {
+	return ScanUtils.copyDataPoints(dataPoints, mzValues, intensityValues);
+    }
+
+    @Override
+    public int getDataPointsByMass(@Nonnull Range<Double> mzRange,
+	    @Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+	// The isotopes are not necessarily sorted by m/z, so all of them are
+	// checked
+	int numOfDataPoints = 0;
+	for (DataPoint dataPoint : dataPoints) {
+	    if (!mzRange.contains(dataPoint.getMZ()))
+		continue;
+	    mzValues[numOfDataPoints] = dataPoint.getMZ();
+	    intensityValues[numOfDataPoints] = dataPoint.getIntensity();
+	    numOfDataPoints++;
+	}
+	return numOfDataPoints;
     }
 
     @Override
@@ -24,6 +24,9 @@ import javax.annotation.Nonnull;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.MassList;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.util.ScanUtils;
+
+import com.google.common.collect.Range;
 
 /**
  * This class represent detected masses (ions) in one mass spectrum
@@ -59,6 +62,24 @@ public class SimpleMassList implements MassList {
 	return mzPeaks;
     }
 
+    @Override
+    public int getNumberOfDataPoints() {
+	return mzPeaks.length;
+    }
+
+    @Override
+    public int getDataPoints(@Nonnull double mzValues[],
+	    @Nonnull double intensityValues[]) {
+	return ScanUtils.copyDataPoints(mzPeaks, mzValues, intensityValues);
+    }
+
+    @Override
+    public int getDataPointsByMass(@Nonnull Range<Double> mzRange,
+	    @Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+	return ScanUtils.copyDataPointsByMass(mzPeaks, mzRange, mzValues,
+		intensityValues);
+    }
+
     public void setDataPoints(DataPoint mzPeaks[]) {
 	this.mzPeaks = mzPeaks;
     }
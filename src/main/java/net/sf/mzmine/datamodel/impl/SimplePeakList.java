@@ -24,8 +24,11 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.PeakList;
@@ -34,6 +37,7 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.desktop.impl.projecttree.PeakListTreeModel;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.project.impl.ProjectFileEntry;
 
 import com.google.common.collect.Range;
 
@@ -50,6 +54,32 @@ public class SimplePeakList implements PeakList {
     private String dateCreated;
     private Range<Double> mzRange, rtRange;
 
+    /**
+     * Range indexes of the rows and of the peaks of each data file. They are
+     * built lazily and dropped whenever a row is added or removed, or the
+     * m/z or RT of any of the rows or their peaks changes. The rows and peaks
+     * increment indexStamp on such changes (see PeakListIndexStamps).
+     */
+    private PeakListIndex<PeakListRow> rowIndex;
+    private final Map<RawDataFile, PeakListIndex<Feature>> peakIndexes =
+	    new HashMap<RawDataFile, PeakListIndex<Feature>>();
+    private final AtomicLong indexStamp = new AtomicLong();
+    private long indexedStamp = -1;
+    private boolean queriedSinceChange;
+
+    /**
+     * Modification stamps of the peak lists, rows and peaks. Every
+     * modification takes a new, higher stamp, so the highest stamp of a peak
+     * list, its rows and their peaks changes whenever any of them is modified,
+     * even though rows and peaks do not know their peak list.
+     */
+    private static final AtomicLong modificationStamps = new AtomicLong();
+    private volatile long modificationStamp = nextModificationStamp();
+
+    // Entries of this peak list in the project file it was last saved to or
+    // loaded from, null if it was not saved yet
+    private volatile ProjectFileEntry projectFileEntry;
+
     public static DateFormat dateFormat = new SimpleDateFormat(
 	    "yyyy/MM/dd HH:mm:ss");
 
@@ -161,6 +191,11 @@ public class SimplePeakList implements PeakList {
 
     public PeakListRow[] getRowsInsideScanAndMZRange(Range<Double> rtRange,
 	    Range<Double> mzRange) {
+
+	PeakListIndex<PeakListRow> index = getRowIndex();
+	if (index != null)
+	    return index.getItemsInside(rtRange, mzRange);
+
 	Vector<PeakListRow> rowsInside = new Vector<PeakListRow>();
 
 	for (PeakListRow row : peakListRows) {
@@ -181,6 +216,10 @@ public class SimplePeakList implements PeakList {
 	}
 
 	peakListRows.add(row);
+	if (row instanceof SimplePeakListRow)
+	    ((SimplePeakListRow) row).getIndexStamps().add(indexStamp);
+	invalidateIndexes();
+	modificationStamp = nextModificationStamp();
 	if (row.getDataPointMaxIntensity() > maxDataPointIntensity) {
 	    maxDataPointIntensity = row.getDataPointMaxIntensity();
 	}
@@ -225,6 +264,11 @@ public class SimplePeakList implements PeakList {
      */
     public Feature[] getPeaksInsideScanAndMZRange(RawDataFile file,
 	    Range<Double> rtRange, Range<Double> mzRange) {
+
+	PeakListIndex<Feature> index = getPeakIndex(file);
+	if (index != null)
+	    return index.getItemsInside(rtRange, mzRange);
+
 	Vector<Feature> peaksInside = new Vector<Feature>();
 
 	Feature[] peaks = getPeaks(file);
@@ -241,6 +285,10 @@ public class SimplePeakList implements PeakList {
      */
     public void removeRow(PeakListRow row) {
 	peakListRows.remove(row);
+	if ((row instanceof SimplePeakListRow) && !peakListRows.contains(row))
+	    ((SimplePeakListRow) row).getIndexStamps().remove(indexStamp);
+	invalidateIndexes();
+	modificationStamp = nextModificationStamp();
 
 	// We have to update the project tree model
 	MZmineProjectImpl project = (MZmineProjectImpl) MZmineCore
@@ -258,6 +306,69 @@ public class SimplePeakList implements PeakList {
 	removeRow(peakListRows.get(rowNum));
     }
 
+    /**
+     * Returns the range index of the rows, or null if the rows have changed
+     * since the last query. Building the index costs O(n log n), so it is only
+     * built for the second query after a change; lists which are modified
+     * between every two queries are scanned linearly as before.
+     */
+    private synchronized PeakListIndex<PeakListRow> getRowIndex() {
+	if (!useIndexes())
+	    return null;
+	if (rowIndex == null) {
+	    PeakListRow rows[] = getRows();
+	    double mzValues[] = new double[rows.length];
+	    double rtValues[] = new double[rows.length];
+	    for (int i = 0; i < rows.length; i++) {
+		mzValues[i] = rows[i].getAverageMZ();
+		rtValues[i] = rows[i].getAverageRT();
+	    }
+	    rowIndex = new PeakListIndex<PeakListRow>(rows, mzValues, rtValues);
+	}
+	return rowIndex;
+    }
+
+    /**
+     * Returns the range index of the peaks of given data file, or null if the
+     * rows have changed since the last query
+     */
+    private synchronized PeakListIndex<Feature> getPeakIndex(RawDataFile file) {
+	if (!useIndexes())
+	    return null;
+	PeakListIndex<Feature> index = peakIndexes.get(file);
+	if (index == null) {
+	    Feature peaks[] = getPeaks(file);
+	    double mzValues[] = new double[peaks.length];
+	    double rtValues[] = new double[peaks.length];
+	    for (int i = 0; i < peaks.length; i++) {
+		mzValues[i] = peaks[i].getMZ();
+		rtValues[i] = peaks[i].getRT();
+	    }
+	    index = new PeakListIndex<Feature>(peaks, mzValues, rtValues);
+	    peakIndexes.put(file, index);
+	}
+	return index;
+    }
+
+    private synchronized boolean useIndexes() {
+	long stamp = indexStamp.get();
+	if (stamp != indexedStamp) {
+	    invalidateIndexes();
+	    indexedStamp = stamp;
+	}
+	if (!queriedSinceChange) {
+	    queriedSinceChange = true;
+	    return false;
+	}
+	return true;
+    }
+
+    private synchronized void invalidateIndexes() {
+	rowIndex = null;
+	peakIndexes.clear();
+	queriedSinceChange = false;
+    }
+
     private void updateMaxIntensity() {
 	maxDataPointIntensity = 0;
 	mzRange = null;
@@ -317,10 +428,12 @@ public class SimplePeakList implements PeakList {
 
     public void setName(String name) {
 	this.name = name;
+	modificationStamp = nextModificationStamp();
     }
 
     public void addDescriptionOfAppliedTask(PeakListAppliedMethod appliedMethod) {
 	descriptionOfAppliedTasks.add(appliedMethod);
+	modificationStamp = nextModificationStamp();
     }
 
     public PeakListAppliedMethod[] getAppliedMethods() {
@@ -333,6 +446,42 @@ public class SimplePeakList implements PeakList {
 
     public void setDateCreated(String date) {
 	this.dateCreated = date;
+	modificationStamp = nextModificationStamp();
+    }
+
+    static long nextModificationStamp() {
+	return modificationStamps.incrementAndGet();
+    }
+
+    /**
+     * Returns a number which changes whenever this peak list, any of its rows
+     * or any of their peaks is modified, or -1 if the modifications cannot be
+     * tracked (e.g. the peaks are not SimpleFeature instances). Takes time
+     * linear in the number of peaks.
+     */
+    public long getModificationStamp() {
+	long stamp = modificationStamp;
+	for (PeakListRow row : getRows()) {
+	    if (!(row instanceof SimplePeakListRow))
+		return -1;
+	    long rowStamp = ((SimplePeakListRow) row).getModificationStamp();
+	    if (rowStamp < 0)
+		return -1;
+	    stamp = Math.max(stamp, rowStamp);
+	}
+	return stamp;
+    }
+
+    /**
+     * Returns the entries of this peak list in the project file it was last
+     * saved to or loaded from, or null
+     */
+    public ProjectFileEntry getProjectFileEntry() {
+	return projectFileEntry;
+    }
+
+    public void setProjectFileEntry(ProjectFileEntry projectFileEntry) {
+	this.projectFileEntry = projectFileEntry;
     }
 
     public Range<Double> getRowsMZRange() {
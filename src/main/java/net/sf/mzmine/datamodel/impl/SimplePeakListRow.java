@@ -58,6 +58,15 @@ public class SimplePeakListRow implements PeakListRow {
     private double averageRT, averageMZ, averageHeight, averageArea;
     private int rowCharge;
 
+    // Stamps of the range indexes of the peak lists containing this row,
+    // incremented when the average m/z or RT changes
+    private final PeakListIndexStamps indexStamps = new PeakListIndexStamps();
+
+    // Changes whenever a value saved in the project is modified, see
+    // SimplePeakList.getModificationStamp()
+    private volatile long modificationStamp = SimplePeakList
+	    .nextModificationStamp();
+
     public SimplePeakListRow(int myID) {
 	this.myID = myID;
 	peaks = new Hashtable<RawDataFile, Feature>();
@@ -81,7 +90,9 @@ public class SimplePeakListRow implements PeakListRow {
     }
 
     public void removePeak(RawDataFile file) {
-	this.peaks.remove(file);
+	Feature removedPeak = this.peaks.remove(file);
+	if (removedPeak instanceof SimpleFeature)
+	    ((SimpleFeature) removedPeak).removeIndexStamps(indexStamps);
 	calculateAverageValues();
     }
 
@@ -106,7 +117,11 @@ public class SimplePeakListRow implements PeakListRow {
 	    throw new IllegalArgumentException(
 		    "Cannot add null peak to a peak list row");
 
-	peaks.put(rawData, peak);
+	Feature replacedPeak = peaks.put(rawData, peak);
+	if (replacedPeak instanceof SimpleFeature)
+	    ((SimpleFeature) replacedPeak).removeIndexStamps(indexStamps);
+	if (peak instanceof SimpleFeature)
+	    ((SimpleFeature) peak).addIndexStamps(indexStamps);
 
 	if (peak.getRawDataPointsIntensityRange().upperEndpoint() > maxDataPointIntensity)
 	    maxDataPointIntensity = peak.getRawDataPointsIntensityRange()
@@ -155,6 +170,31 @@ public class SimplePeakListRow implements PeakListRow {
 	averageHeight = heightSum / peaks.size();
 	averageArea = areaSum / peaks.size();
 	if (chargeArr.size() < 2) { rowCharge = charge; } else { rowCharge = 0; }
+	indexStamps.increment();
+	modificationStamp = SimplePeakList.nextModificationStamp();
+    }
+
+    /**
+     * Returns a number which changes whenever this row or any of its peaks is
+     * modified, or -1 if the modifications of the peaks cannot be tracked
+     */
+    long getModificationStamp() {
+	long stamp = modificationStamp;
+	for (Feature peak : peaks.values()) {
+	    if (!(peak instanceof SimpleFeature))
+		return -1;
+	    stamp = Math.max(stamp,
+		    ((SimpleFeature) peak).getModificationStamp());
+	}
+	return stamp;
+    }
+
+    /**
+     * Returns the stamps of the range indexes of the peak lists containing
+     * this row
+     */
+    PeakListIndexStamps getIndexStamps() {
+	return indexStamps;
     }
 
     /**
@@ -191,6 +231,7 @@ public class SimplePeakListRow implements PeakListRow {
      */
     public void setComment(String comment) {
 	this.comment = comment;
+	modificationStamp = SimplePeakList.nextModificationStamp();
     }
     
     /**
@@ -198,6 +239,8 @@ public class SimplePeakListRow implements PeakListRow {
      */
     public void setAverageMZ(double mz) {
 	this.averageMZ = mz;
+	indexStamps.increment();
+	modificationStamp = SimplePeakList.nextModificationStamp();
     }
 
     /**
@@ -205,6 +248,8 @@ public class SimplePeakListRow implements PeakListRow {
      */
     public void setAverageRT(double rt) {
 	this.averageRT = rt;
+	indexStamps.increment();
+	modificationStamp = SimplePeakList.nextModificationStamp();
     }
 
     /**
@@ -221,6 +266,7 @@ public class SimplePeakListRow implements PeakListRow {
 	}
 
 	identities.add(identity);
+	modificationStamp = SimplePeakList.nextModificationStamp();
 	if ((preferredIdentity == null) || (preferred)) {
 	    setPreferredPeakIdentity(identity);
 	}
@@ -231,6 +277,7 @@ public class SimplePeakListRow implements PeakListRow {
      */
     public synchronized void removePeakIdentity(PeakIdentity identity) {
 	identities.remove(identity);
+	modificationStamp = SimplePeakList.nextModificationStamp();
 	if (preferredIdentity == identity) {
 	    if (identities.size() > 0) {
 		PeakIdentity[] identitiesArray = identities
@@ -268,12 +315,14 @@ public class SimplePeakListRow implements PeakListRow {
 	if (!identities.contains(identity)) {
 	    identities.add(identity);
 	}
+	modificationStamp = SimplePeakList.nextModificationStamp();
 
     }
 
     @Override
     public void setPeakInformation(PeakInformation information) {
         this.information = information;
+        modificationStamp = SimplePeakList.nextModificationStamp();
     }
     
     @Override
@@ -333,6 +382,7 @@ public class SimplePeakListRow implements PeakListRow {
 
     public void setID (int id){
     	myID =id;
+    	modificationStamp = SimplePeakList.nextModificationStamp();
     	return;
     }
 }
@@ -106,25 +106,26 @@ public class SimpleScan implements Scan {
      */
     public @Nonnull DataPoint[] getDataPointsByMass(
 	    @Nonnull Range<Double> mzRange) {
+	return ScanUtils.selectSortedDataPointsByMass(dataPoints, mzRange);
+    }
 
-	int startIndex, endIndex;
-	for (startIndex = 0; startIndex < dataPoints.length; startIndex++) {
-	    if (dataPoints[startIndex].getMZ() >= mzRange.lowerEndpoint())
-		break;
-	}
-
-	for (endIndex = startIndex; endIndex < dataPoints.length; endIndex++) {
-	    if (dataPoints[endIndex].getMZ() > mzRange.upperEndpoint())
-		break;
-	}
-
-	DataPoint pointsWithinRange[] = new DataPoint[endIndex - startIndex];
-
-	// Copy the relevant points
-	System.arraycopy(dataPoints, startIndex, pointsWithinRange, 0, endIndex
-		- startIndex);
+    /**
+     * @see net.sf.mzmine.datamodel.MassSpectrum#getDataPoints(double[],
+     *      double[])
+     */
+    public int getDataPoints(@Nonnull double mzValues[],
+	    @Nonnull double intensityValues[]) {
+	return ScanUtils.copyDataPoints(dataPoints, mzValues, intensityValues);
+    }
 
-	return pointsWithinRange;
+    /**
+     * @see net.sf.mzmine.datamodel.MassSpectrum#getDataPointsByMass(Range,
+     *      double[], double[])
+     */
+    public int getDataPointsByMass(@Nonnull Range<Double> mzRange,
+	    @Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+	return ScanUtils.copyDataPointsByMass(dataPoints, mzRange, mzValues,
+		intensityValues);
     }
 
     /**
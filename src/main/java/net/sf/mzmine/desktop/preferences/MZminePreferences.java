@@ -27,9 +27,13 @@ import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
 import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
+import net.sf.mzmine.parameters.parametertypes.ComboParameter;
+import net.sf.mzmine.parameters.parametertypes.IntegerParameter;
 import net.sf.mzmine.parameters.parametertypes.OptionalModuleParameter;
+import net.sf.mzmine.parameters.parametertypes.PercentParameter;
 import net.sf.mzmine.parameters.parametertypes.WindowSettingsParameter;
 import net.sf.mzmine.parameters.parametertypes.filenames.FileNameParameter;
+import net.sf.mzmine.project.impl.DataPointsCompression;
 import net.sf.mzmine.util.ExitCode;
 
 import org.w3c.dom.Element;
@@ -50,6 +54,31 @@ public class MZminePreferences extends SimpleParameterSet {
 
     public static final NumOfThreadsParameter numOfThreads = new NumOfThreadsParameter();
 
+    public static final BooleanParameter memoryMappedStorage = new BooleanParameter(
+            "Memory-mapped raw data access",
+            "Map the temporary raw data files into memory, so that scans can be read faster and by multiple threads at once. Applies to raw data files opened after the change.",
+            true);
+
+    public static final ComboParameter<DataPointsCompression> storageCompression = new ComboParameter<DataPointsCompression>(
+            "Raw data compression",
+            "Compression of the data points in the temporary raw data files. Lossless compression saves disk space at some CPU cost, lossy compression saves more space but changes the m/z and intensity values slightly. Applies to raw data files opened after the change.",
+            DataPointsCompression.values(), DataPointsCompression.NONE);
+
+    public static final IntegerParameter scanCacheSize = new IntegerParameter(
+            "Scan cache size (MB)",
+            "Memory used to keep recently read scans and mass lists, so that they do not need to be read from the temporary files again. 0 disables the cache.",
+            256, 0, null);
+
+    public static final PercentParameter compactionThreshold = new PercentParameter(
+            "Temporary file compaction threshold",
+            "When the free space in a temporary raw data file exceeds this fraction of the file size, the file is compacted to release the space.",
+            0.5);
+
+    public static final BooleanParameter xicIndex = new BooleanParameter(
+            "Extracted ion chromatogram index",
+            "Index the MS1 data points of each raw data file by m/z in a temporary file, so that extracted ion chromatograms can be read without reading all scans. The index is built in the background after a raw data file is imported or opened, and takes 12 bytes of temporary disk space per MS1 data point, about 1.5 times the uncompressed MS1 scans.",
+            false);
+
     public static final OptionalModuleParameter proxySettings = new OptionalModuleParameter(
             "Use proxy", "Use proxy for internet connection?",
             new ProxySettings());
@@ -67,8 +96,9 @@ public class MZminePreferences extends SimpleParameterSet {
 
     public MZminePreferences() {
         super(new Parameter[] { mzFormat, rtFormat, intensityFormat,
-                numOfThreads, proxySettings, rExecPath, sendStatistics,
-                windowSetttings });
+                numOfThreads, memoryMappedStorage, storageCompression,
+                scanCacheSize, compactionThreshold, xicIndex, proxySettings,
+                rExecPath, sendStatistics, windowSetttings });
     }
 
     @Override
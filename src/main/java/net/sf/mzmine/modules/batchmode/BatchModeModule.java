@@ -98,6 +98,13 @@ public class BatchModeModule implements MZmineProcessingModule {
 	    ParameterSet parameters = new BatchModeParameters();
 	    parameters.getParameter(BatchModeParameters.batchQueue).setValue(
 		    newQueue);
+
+	    // Use the pipelining setting of the configured batch mode
+	    ParameterSet configuredParameters = MZmineCore.getConfiguration()
+		    .getModuleParameters(BatchModeModule.class);
+	    parameters.getParameter(BatchModeParameters.pipelinePerFile)
+		    .setValue(configuredParameters.getParameter(
+			    BatchModeParameters.pipelinePerFile).getValue());
 	    Task batchTask = new BatchTask(project, parameters);
 	    batchTask.run();
 	    if (batchTask.getStatus() == TaskStatus.FINISHED)
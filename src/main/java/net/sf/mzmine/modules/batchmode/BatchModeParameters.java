@@ -21,13 +21,19 @@ package net.sf.mzmine.modules.batchmode;
 
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
 
 public class BatchModeParameters extends SimpleParameterSet {
 
     public static final BatchQueueParameter batchQueue = new BatchQueueParameter();
 
+    public static final BooleanParameter pipelinePerFile = new BooleanParameter(
+	    "Pipeline per-file steps",
+	    "If checked, consecutive steps which process each raw data file separately (import, mass detection, chromatogram building, deconvolution, deisotoping, ...) are run as a pipeline: each file proceeds to the next step as soon as its previous step is finished, without waiting for the other files",
+	    false);
+
     public BatchModeParameters() {
-	super(new Parameter[] { batchQueue });
+	super(new Parameter[] { batchQueue, pipelinePerFile });
     }
 
 }
@@ -21,7 +21,12 @@ package net.sf.mzmine.modules.batchmode;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.MZmineProject;
@@ -31,10 +36,21 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.MZmineProcessingModule;
 import net.sf.mzmine.modules.MZmineProcessingStep;
+import net.sf.mzmine.modules.masslistmethods.chromatogrambuilder.ChromatogramBuilderModule;
+import net.sf.mzmine.modules.masslistmethods.shoulderpeaksfilter.ShoulderPeaksFilterModule;
+import net.sf.mzmine.modules.peaklistmethods.isotopes.deisotoper.IsotopeGrouperModule;
+import net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionModule;
+import net.sf.mzmine.modules.peaklistmethods.peakpicking.smoothing.SmoothingModule;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.MassDetectionModule;
+import net.sf.mzmine.modules.rawdatamethods.rawdataimport.RawDataImportModule;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsParameter;
+import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsSelection;
+import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsSelectionType;
 import net.sf.mzmine.parameters.parametertypes.selectors.RawDataFilesParameter;
+import net.sf.mzmine.parameters.parametertypes.selectors.RawDataFilesSelection;
+import net.sf.mzmine.parameters.parametertypes.selectors.RawDataFilesSelectionType;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskStatus;
@@ -47,7 +63,21 @@ public class BatchTask extends AbstractTask {
 
     private Logger logger = Logger.getLogger(this.getClass().getName());
 
+    /**
+     * Modules which process each raw data file or peak list independently. A
+     * peak list created by these modules always belongs to a single raw data
+     * file, and only the import module creates new raw data files. Consecutive
+     * steps of these modules can be pipelined per raw data file.
+     */
+    private static final Set<Class<?>> perFileModules = new HashSet<Class<?>>(
+            Arrays.<Class<?>> asList(RawDataImportModule.class,
+                    MassDetectionModule.class,
+                    ShoulderPeaksFilterModule.class,
+                    ChromatogramBuilderModule.class, SmoothingModule.class,
+                    DeconvolutionModule.class, IsotopeGrouperModule.class));
+
     private int totalSteps, processedSteps;
+    private final boolean pipelinePerFile;
 
     private MZmineProject project;
     private final BatchQueue queue;
@@ -60,6 +90,9 @@ public class BatchTask extends AbstractTask {
         this.queue = parameters.getParameter(BatchModeParameters.batchQueue)
                 .getValue();
         totalSteps = queue.size();
+        Boolean pipeline = parameters.getParameter(
+                BatchModeParameters.pipelinePerFile).getValue();
+        pipelinePerFile = (pipeline != null) && pipeline;
         createdDataFiles = new ArrayList<>();
         createdPeakLists = new ArrayList<>();
         previousCreatedDataFiles = new ArrayList<>();
@@ -75,12 +108,16 @@ public class BatchTask extends AbstractTask {
         MZmineProjectListener listener = new MZmineProjectListener() {
             @Override
             public void peakListAdded(PeakList newPeakList) {
-                createdPeakLists.add(newPeakList);
+                synchronized (createdPeakLists) {
+                    createdPeakLists.add(newPeakList);
+                }
             }
 
             @Override
             public void dataFileAdded(RawDataFile newFile) {
-                createdDataFiles.add(newFile);
+                synchronized (createdDataFiles) {
+                    createdDataFiles.add(newFile);
+                }
             }
         };
         project.addProjectListener(listener);
@@ -88,8 +125,15 @@ public class BatchTask extends AbstractTask {
         // Process individual batch steps
         for (int i = 0; i < totalSteps; i++) {
 
-            processQueueStep(i);
-            processedSteps++;
+            int pipelineEnd = pipelinePerFile ? findPipelineEnd(i) : i + 1;
+            if (pipelineEnd - i > 1) {
+                processPipelinedSteps(i, pipelineEnd);
+                processedSteps += pipelineEnd - i;
+                i = pipelineEnd - 1;
+            } else {
+                processQueueStep(i);
+                processedSteps++;
+            }
             
             // Update the project reference in case new project was loaded
             if (project != MZmineCore.getProjectManager().getCurrentProject()) {
@@ -245,6 +289,358 @@ public class BatchTask extends AbstractTask {
 
     }
 
+    /**
+     * Returns the index following the last step of the pipeline which starts
+     * at given step. Only the first step of a pipeline may import raw data
+     * files, because the files imported by that step start the pipelines of
+     * the individual files.
+     */
+    private int findPipelineEnd(int firstStep) {
+
+        // All input peak lists must belong to a single raw data file
+        List<PeakList> inputPeakLists = createdPeakLists.isEmpty() ? previousCreatedPeakLists
+                : createdPeakLists;
+        for (PeakList peakList : inputPeakLists) {
+            if (peakList.getNumberOfRawDataFiles() != 1)
+                return firstStep + 1;
+        }
+
+        int end = firstStep;
+        while ((end < totalSteps) && isPerFileStep(end)) {
+            if ((end > firstStep) && (queue.get(end)
+                    .getModule() instanceof RawDataImportModule))
+                break;
+            end++;
+        }
+        return Math.max(end, firstStep + 1);
+    }
+
+    /**
+     * Returns true if given step processes each raw data file or peak list
+     * independently, and it takes its input from the preceding batch step
+     */
+    private boolean isPerFileStep(int stepNumber) {
+        MZmineProcessingStep<?> step = queue.get(stepNumber);
+        if (!perFileModules.contains(step.getModule().getClass()))
+            return false;
+        for (Parameter<?> p : step.getParameterSet().getParameters()) {
+            if (p instanceof RawDataFilesParameter) {
+                RawDataFilesSelection selection = ((RawDataFilesParameter) p)
+                        .getValue();
+                if ((selection == null) || (selection
+                        .getSelectionType() != RawDataFilesSelectionType.BATCH_LAST_FILES))
+                    return false;
+            }
+            if (p instanceof PeakListsParameter) {
+                PeakListsSelection selection = ((PeakListsParameter) p)
+                        .getValue();
+                if ((selection == null) || (selection
+                        .getSelectionType() != PeakListsSelectionType.BATCH_LAST_PEAKLISTS))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs steps firstStep to lastStep - 1 as a pipeline per raw data file.
+     * Each file proceeds to the next step as soon as its own task of the
+     * previous step is finished, without waiting for the other files. When all
+     * files have passed all steps, the created data files and peak lists are
+     * set as if the steps had run one by one.
+     */
+    private void processPipelinedSteps(int firstStep, int lastStep) {
+
+        logger.info("Starting steps # " + (firstStep + 1) + " to # "
+                + lastStep + " pipelined per raw data file");
+
+        // If the last step did not produce any data files or peak lists, use
+        // the ones from the previous step
+        if (createdDataFiles.isEmpty())
+            createdDataFiles.addAll(previousCreatedDataFiles);
+        if (createdPeakLists.isEmpty())
+            createdPeakLists.addAll(previousCreatedPeakLists);
+
+        List<FilePipeline> pipelines = new ArrayList<FilePipeline>();
+        Map<RawDataFile, FilePipeline> pipelinesByFile = new HashMap<RawDataFile, FilePipeline>();
+        List<Task> importTasks = new ArrayList<Task>();
+        int pipelineStart = firstStep;
+
+        if (queue.get(firstStep).getModule() instanceof RawDataImportModule) {
+
+            createdDataFiles.clear();
+            createdPeakLists.clear();
+
+            // Run the import step as usual, the pipelines start as the
+            // imported files are added to the project
+            MZmineProcessingStep<?> importStep = queue.get(firstStep);
+            if (!runStep(importStep, importStep.getParameterSet(), importTasks))
+                return;
+            pipelineStart++;
+
+        } else {
+
+            // Start a pipeline for each input raw data file
+            for (RawDataFile dataFile : createdDataFiles) {
+                if (!pipelinesByFile.containsKey(dataFile)) {
+                    FilePipeline pipeline = new FilePipeline(dataFile,
+                            pipelineStart);
+                    pipelines.add(pipeline);
+                    pipelinesByFile.put(dataFile, pipeline);
+                }
+            }
+            for (PeakList peakList : createdPeakLists) {
+                RawDataFile dataFile = peakList.getRawDataFile(0);
+                FilePipeline pipeline = pipelinesByFile.get(dataFile);
+                if (pipeline == null) {
+                    pipeline = new FilePipeline(dataFile, pipelineStart);
+                    pipelines.add(pipeline);
+                    pipelinesByFile.put(dataFile, pipeline);
+                }
+                pipeline.peakList = peakList;
+            }
+
+            createdDataFiles.clear();
+            createdPeakLists.clear();
+
+        }
+
+        while (true) {
+
+            // If we canceled the batch, cancel all running tasks
+            if (isCanceled()) {
+                cancelPipelineTasks(importTasks, pipelines);
+                return;
+            }
+
+            // Check the tasks before collecting the new data files and peak
+            // lists, because the tasks add their results to the project
+            // before they finish
+            boolean importFinished = checkTasks(importTasks);
+            List<FilePipeline> finishedPipelineSteps = new ArrayList<FilePipeline>();
+            for (FilePipeline pipeline : pipelines) {
+                if ((pipeline.tasks != null) && checkTasks(pipeline.tasks))
+                    finishedPipelineSteps.add(pipeline);
+            }
+
+            if (isCanceled() || (getStatus() == TaskStatus.ERROR)) {
+                cancelPipelineTasks(importTasks, pipelines);
+                return;
+            }
+
+            // Each imported data file starts a new pipeline
+            synchronized (createdDataFiles) {
+                for (RawDataFile dataFile : createdDataFiles) {
+                    if (!pipelinesByFile.containsKey(dataFile)) {
+                        FilePipeline pipeline = new FilePipeline(dataFile,
+                                pipelineStart);
+                        pipelines.add(pipeline);
+                        pipelinesByFile.put(dataFile, pipeline);
+                    }
+                }
+                createdDataFiles.clear();
+            }
+
+            // Assign the new peak lists to the pipelines of their data files
+            synchronized (createdPeakLists) {
+                for (PeakList peakList : createdPeakLists) {
+                    if (peakList.getNumberOfRawDataFiles() != 1)
+                        continue;
+                    FilePipeline pipeline = pipelinesByFile.get(peakList
+                            .getRawDataFile(0));
+                    if (pipeline != null)
+                        pipeline.stepPeakLists.add(peakList);
+                }
+                createdPeakLists.clear();
+            }
+
+            for (FilePipeline pipeline : finishedPipelineSteps)
+                pipeline.finishStep();
+
+            // Start the next steps of the pipelines which are not busy
+            boolean allFinished = importFinished;
+            for (FilePipeline pipeline : pipelines) {
+                while ((pipeline.tasks == null)
+                        && (pipeline.nextStep < lastStep)) {
+                    if (!startPipelineStep(pipeline)) {
+                        cancelPipelineTasks(importTasks, pipelines);
+                        return;
+                    }
+                }
+                if (pipeline.tasks != null)
+                    allFinished = false;
+            }
+
+            if (allFinished)
+                break;
+
+            // Wait 1s before checking the tasks again
+            synchronized (this) {
+                try {
+                    this.wait(1000);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+
+        }
+
+        // Leave the data files and peak lists in the same state as the last
+        // step would leave them in sequential processing: the inputs of the
+        // last step are the "previous" ones, its results are the new ones
+        previousCreatedDataFiles.clear();
+        previousCreatedPeakLists.clear();
+        for (FilePipeline pipeline : pipelines) {
+            previousCreatedDataFiles.add(pipeline.dataFile);
+            if (pipeline.lastInputPeakList != null)
+                previousCreatedPeakLists.add(pipeline.lastInputPeakList);
+            createdPeakLists.addAll(pipeline.lastStepPeakLists);
+        }
+
+    }
+
+    /**
+     * Starts the next step of given pipeline. If the step produced no tasks,
+     * the step is finished immediately.
+     */
+    private boolean startPipelineStep(FilePipeline pipeline) {
+
+        MZmineProcessingStep<?> step = queue.get(pipeline.nextStep);
+
+        // Each pipeline step gets its own copy of the parameters, because the
+        // tasks may keep a reference to them
+        ParameterSet stepParameters = step.getParameterSet()
+                .cloneParameterSet();
+        for (Parameter<?> p : stepParameters.getParameters()) {
+            if (p instanceof RawDataFilesParameter) {
+                ((RawDataFilesParameter) p).getValue().setBatchLastFiles(
+                        new RawDataFile[] { pipeline.dataFile });
+            }
+            if (p instanceof PeakListsParameter) {
+                PeakList peakLists[] = pipeline.peakList == null ? new PeakList[0]
+                        : new PeakList[] { pipeline.peakList };
+                ((PeakListsParameter) p).getValue().setBatchLastPeakLists(
+                        peakLists);
+            }
+        }
+
+        List<Task> stepTasks = new ArrayList<Task>();
+        if (!runStep(step, stepParameters, stepTasks))
+            return false;
+
+        pipeline.tasks = stepTasks;
+        if (stepTasks.isEmpty())
+            pipeline.finishStep();
+        return true;
+    }
+
+    /**
+     * Checks the parameters of given step, runs its module and submits the
+     * created tasks to the task controller
+     */
+    private boolean runStep(MZmineProcessingStep<?> step,
+            ParameterSet stepParameters, List<Task> stepTasks) {
+
+        MZmineProcessingModule method = (MZmineProcessingModule) step
+                .getModule();
+
+        ArrayList<String> messages = new ArrayList<String>();
+        if (!stepParameters.checkParameterValues(messages)) {
+            setStatus(TaskStatus.ERROR);
+            setErrorMessage(
+                    "Invalid parameter settings for module " + method.getName()
+                            + ": " + Arrays.toString(messages.toArray()));
+            return false;
+        }
+
+        ExitCode exitCode = method.runModule(project, stepParameters,
+                stepTasks);
+        if (exitCode != ExitCode.OK) {
+            setStatus(TaskStatus.ERROR);
+            setErrorMessage("Could not start batch step " + method.getName());
+            return false;
+        }
+
+        if (!stepTasks.isEmpty())
+            MZmineCore.getTaskController()
+                    .addTasks(stepTasks.toArray(new Task[0]));
+        return true;
+    }
+
+    /**
+     * Returns true if all given tasks are finished. If any of them failed or
+     * was canceled, the status of the batch is set accordingly.
+     */
+    private boolean checkTasks(Collection<Task> tasks) {
+        boolean allTasksFinished = true;
+        for (Task stepTask : tasks) {
+            TaskStatus stepStatus = stepTask.getStatus();
+            if (stepStatus != TaskStatus.FINISHED)
+                allTasksFinished = false;
+            if (stepStatus == TaskStatus.ERROR) {
+                setStatus(TaskStatus.ERROR);
+                setErrorMessage(stepTask.getTaskDescription() + ": "
+                        + stepTask.getErrorMessage());
+            }
+            if (stepStatus == TaskStatus.CANCELED)
+                setStatus(TaskStatus.CANCELED);
+        }
+        return allTasksFinished;
+    }
+
+    private void cancelPipelineTasks(List<Task> importTasks,
+            List<FilePipeline> pipelines) {
+        for (Task t : importTasks)
+            t.cancel();
+        for (FilePipeline pipeline : pipelines) {
+            if (pipeline.tasks != null) {
+                for (Task t : pipeline.tasks)
+                    t.cancel();
+            }
+        }
+    }
+
+    /**
+     * State of one raw data file passing through the pipelined steps
+     */
+    private static class FilePipeline {
+
+        private final RawDataFile dataFile;
+
+        // Index of the next step to run, and the tasks of the running step
+        private int nextStep;
+        private List<Task> tasks;
+
+        // Current peak list of the file, and the peak lists created by the
+        // running step
+        private PeakList peakList;
+        private final List<PeakList> stepPeakLists = new ArrayList<PeakList>();
+
+        // Input and results of the last finished step
+        private PeakList lastInputPeakList;
+        private final List<PeakList> lastStepPeakLists = new ArrayList<PeakList>();
+
+        FilePipeline(RawDataFile dataFile, int firstStep) {
+            this.dataFile = dataFile;
+            this.nextStep = firstStep;
+        }
+
+        void finishStep() {
+            lastInputPeakList = peakList;
+            lastStepPeakLists.clear();
+            lastStepPeakLists.addAll(stepPeakLists);
+
+            // If the step did not produce a peak list, keep the previous one
+            if (!stepPeakLists.isEmpty())
+                peakList = stepPeakLists.get(stepPeakLists.size() - 1);
+            stepPeakLists.clear();
+
+            tasks = null;
+            nextStep++;
+        }
+
+    }
+
     public double getFinishedPercentage() {
         if (totalSteps == 0)
             return 0;
@@ -46,6 +46,7 @@ import net.sf.mzmine.util.ScanUtils;
 import java.io.PrintWriter;
 import java.io.FileNotFoundException;
 import java.io.*;
+import net.sf.mzmine.datamodel.impl.PackedDataPoints;
 import net.sf.mzmine.datamodel.impl.SimplePeakInformation;
 
 
@@ -63,6 +64,10 @@ public class Chromatogram implements Feature {
     //private Hashtable<Integer, DataPoint> dataPointsMap;
     private HashMap<Integer, DataPoint> dataPointsMap;
 
+    // Data points packed when the chromatogram is finished, replacing the
+    // dataPointsMap
+    private PackedDataPoints dataPoints;
+
     // Chromatogram m/z, RT, height, area. The mz value will be the highest points mz value
     private double mz, rt, height, area, weightedMz;
     private Double fwhm = null, tf = null, af = null;
@@ -129,11 +134,12 @@ public class Chromatogram implements Feature {
         List intensityList = new ArrayList();
 
         for (int curScanNum=0; curScanNum<scanNumbers.length; curScanNum++){
-            if (dataPointsMap.get(curScanNum) == null){
+            DataPoint curDataPoint = getDataPoint(curScanNum);
+            if (curDataPoint == null){
                 intensityList.add(0.0);
             }
             else{
-                intensityList.add(dataPointsMap.get(curScanNum).getIntensity());
+                intensityList.add(curDataPoint.getIntensity());
             }
         }
 
@@ -142,64 +148,53 @@ public class Chromatogram implements Feature {
     }
 
     
+    /**
+     * Returns the length of the longest run of data points in consecutive
+     * scans with intensity above given noise level. Must be called after
+     * finishChromatogram(), when the data points are packed in the order of
+     * the scans.
+     */
     public int findNumberOfContinuousPointsAboveNoise(double noise){
-        // sort the array containing all of the scan numbers of the point added
-        // loop over the sorted array now.
+        // loop over the data points in the order of the scans.
         // if you find a point with intensity higher than noise start the count
         // if the next scan contains a point higher than the noise update the count
         // otherwise start it oer when you hit a sufficiently high point.
         // keep track of the largest count which will be returned.
-        Collections.sort(chromScanList);
-
-
         int bestCount = 0;
         int curCount = 0;
-        int lastScanNum = 0;
-        int scanListLength = chromScanList.size();
-
-        int curScanNum;
-        DataPoint curDataPoint;
 
-        for (int i=1; i < scanListLength; i ++ ){
-            
+        // Index of the previous data point within the packed scan range
+        int lastIndex = -1;
 
+        for (int i = 0; i < dataPoints.getNumberOfScans(); i++) {
 
+            if (!dataPoints.hasDataPoint(i))
+                continue;
 
-            curScanNum = chromScanList.get(i);
-            curDataPoint = dataPointsMap.get(curScanNum);
-
-            if (curDataPoint.getIntensity()>noise){
-
-                lastScanNum = chromScanList.get(i-1);
-                int lastScanNumsActIndex = Arrays.binarySearch(scanNumbers,lastScanNum );
-                int seqNextScanShouldBe = scanNumbers[lastScanNumsActIndex+1];
-
-                if (seqNextScanShouldBe == curScanNum){
-                    curCount += 1;
-                    if (curCount > bestCount){
-                        bestCount = curCount;
+            if (lastIndex >= 0) {
+                if (dataPoints.getIntensity(i) > noise) {
+                    // The scans are consecutive if there is no gap between
+                    // the data points in the packed range
+                    if (i == lastIndex + 1) {
+                        curCount += 1;
+                        if (curCount > bestCount) {
+                            bestCount = curCount;
+                        }
+                    }
+                    else {
+                        curCount = 0;
                     }
                 }
                 else {
                     curCount = 0;
                 }
-
-            }
-            else{
-                curCount = 0;
             }
 
-
+            lastIndex = i;
         }
 
-        
-
-        //System.out.println("bestCount");
-        //System.out.println(bestCount);
-        
         // plus one because first point considered in advancing curcount is actualy going to be the second point/
         return bestCount+1;
-        
 
     }
 
@@ -246,6 +241,8 @@ public class Chromatogram implements Feature {
     }
 
     public DataPoint getDataPoint(int scanNumber) {
+        if (dataPoints != null)
+            return dataPoints.getDataPoint(scanNumber);
         return dataPointsMap.get(scanNumber);
     }
 
@@ -472,7 +469,18 @@ public class Chromatogram implements Feature {
                         .span(Range.singleton(scanRt));
         }
 
+        // Pack the data points in the order of the scans
+        PackedDataPoints.Builder builder = new PackedDataPoints.Builder(
+                scanNumbers);
+        for (int scanNumber : allScanNumbers) {
+            DataPoint dp = dataPointsMap.get(scanNumber);
+            builder.add(scanNumber, dp.getMZ(), dp.getIntensity());
+        }
+        dataPoints = builder.build();
+
         // Discard the fields we don't need anymore
+        dataPointsMap = null;
+        chromScanList = null;
         buildingSegment = null;
         lastMzPeak = null;
 
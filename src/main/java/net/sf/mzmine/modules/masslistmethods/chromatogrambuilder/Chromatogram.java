@@ -19,21 +19,17 @@
 
 package net.sf.mzmine.modules.masslistmethods.chromatogrambuilder;
 
-import java.util.Arrays;
-import java.util.Hashtable;
-import java.util.Map.Entry;
-import java.util.Vector;
-
 import javax.annotation.Nonnull;
 
 import com.google.common.collect.Range;
-import com.google.common.primitives.Ints;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.IsotopePattern;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.PackedDataPoints;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimplePeakInformation;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.util.MathUtils;
@@ -49,8 +45,10 @@ public class Chromatogram implements Feature {
     // Data file of this chromatogram
     private RawDataFile dataFile;
 
-    // Data points of the chromatogram (map of scan number -> m/z peak)
-    private Hashtable<Integer, DataPoint> dataPointsMap;
+    // Data points of the chromatogram, collected by the builder until the
+    // chromatogram is finished and then packed
+    private PackedDataPoints.Builder dataPointsBuilder;
+    private PackedDataPoints dataPoints;
 
     // Chromatogram m/z, RT, height, area
     private double mz, rt, height, area;
@@ -63,8 +61,9 @@ public class Chromatogram implements Feature {
     private Range<Double> rawDataPointsIntensityRange, rawDataPointsMZRange,
             rawDataPointsRTRange;
 
-    // A set of scan numbers of a segment which is currently being connected
-    private Vector<Integer> buildingSegment;
+    // Index of the first data point of a segment which is currently being
+    // connected
+    private int buildingSegmentStart = 0;
 
     // Keep track of last added data point
     private DataPoint lastMzPeak;
@@ -97,8 +96,7 @@ public class Chromatogram implements Feature {
 
         rawDataPointsRTRange = dataFile.getDataRTRange(1);
 
-        dataPointsMap = new Hashtable<Integer, DataPoint>();
-        buildingSegment = new Vector<Integer>(128);
+        dataPointsBuilder = new PackedDataPoints.Builder(scanNumbers);
     }
 
     /**
@@ -108,17 +106,19 @@ public class Chromatogram implements Feature {
      * @param mzValue
      */
     public void addMzPeak(int scanNumber, DataPoint mzValue) {
-        dataPointsMap.put(scanNumber, mzValue);
+        dataPointsBuilder.add(scanNumber, mzValue.getMZ(),
+                mzValue.getIntensity());
         lastMzPeak = mzValue;
         mzSum += mzValue.getMZ();
         mzN++;
         mz = mzSum / mzN;
-        buildingSegment.add(scanNumber);
 
     }
 
     public DataPoint getDataPoint(int scanNumber) {
-        return dataPointsMap.get(scanNumber);
+        if (dataPoints != null)
+            return dataPoints.getDataPoint(scanNumber);
+        return dataPointsBuilder.getDataPoint(scanNumber);
     }
 
     /**
@@ -201,58 +201,52 @@ public class Chromatogram implements Feature {
 
     public void finishChromatogram() {
 
-        int allScanNumbers[] = Ints.toArray(dataPointsMap.keySet());
-        Arrays.sort(allScanNumbers);
+        final PackedDataPoints.Builder builder = dataPointsBuilder;
+        final int numOfDataPoints = builder.size();
 
         // Calculate median m/z
-        double allMzValues[] = new double[allScanNumbers.length];
-        for (int i = 0; i < allScanNumbers.length; i++) {
-            allMzValues[i] = dataPointsMap.get(allScanNumbers[i]).getMZ();
+        double allMzValues[] = new double[numOfDataPoints];
+        for (int i = 0; i < numOfDataPoints; i++) {
+            allMzValues[i] = builder.getMZ(i);
         }
         mz = MathUtils.calcQuantile(allMzValues, 0.5f);
 
         // Update raw data point ranges, height, rt and representative scan
         height = Double.MIN_VALUE;
-        for (int i = 0; i < allScanNumbers.length; i++) {
-
-            DataPoint mzPeak = dataPointsMap.get(allScanNumbers[i]);
-
-            // Replace the MzPeak instance with an instance of SimpleDataPoint,
-            // to reduce the memory usage. After we finish this Chromatogram, we
-            // don't need the additional data provided by the MzPeak
+        for (int i = 0; i < numOfDataPoints; i++) {
 
-            dataPointsMap.put(allScanNumbers[i], mzPeak);
+            final double dataPointMZ = builder.getMZ(i);
+            final double dataPointIntensity = builder.getIntensity(i);
 
             if (i == 0) {
                 rawDataPointsIntensityRange = Range
-                        .singleton(mzPeak.getIntensity());
-                rawDataPointsMZRange = Range.singleton(mzPeak.getMZ());
+                        .singleton(dataPointIntensity);
+                rawDataPointsMZRange = Range.singleton(dataPointMZ);
             } else {
                 rawDataPointsIntensityRange = rawDataPointsIntensityRange
-                        .span(Range.singleton(mzPeak.getIntensity()));
+                        .span(Range.singleton(dataPointIntensity));
                 rawDataPointsMZRange = rawDataPointsMZRange
-                        .span(Range.singleton(mzPeak.getMZ()));
+                        .span(Range.singleton(dataPointMZ));
             }
 
-            if (height < mzPeak.getIntensity()) {
-                height = mzPeak.getIntensity();
-                rt = dataFile.getScan(allScanNumbers[i]).getRetentionTime();
-                representativeScan = allScanNumbers[i];
+            if (height < dataPointIntensity) {
+                height = dataPointIntensity;
+                rt = dataFile.getScan(builder.getScanNumber(i))
+                        .getRetentionTime();
+                representativeScan = builder.getScanNumber(i);
             }
         }
 
         // Update area
         area = 0;
-        for (int i = 1; i < allScanNumbers.length; i++) {
+        for (int i = 1; i < numOfDataPoints; i++) {
             // For area calculation, we use retention time in seconds
-            double previousRT = dataFile.getScan(allScanNumbers[i - 1])
+            double previousRT = dataFile.getScan(builder.getScanNumber(i - 1))
                     .getRetentionTime() * 60d;
-            double currentRT = dataFile.getScan(allScanNumbers[i])
+            double currentRT = dataFile.getScan(builder.getScanNumber(i))
                     .getRetentionTime() * 60d;
-            double previousHeight = dataPointsMap.get(allScanNumbers[i - 1])
-                    .getIntensity();
-            double currentHeight = dataPointsMap.get(allScanNumbers[i])
-                    .getIntensity();
+            double previousHeight = builder.getIntensity(i - 1);
+            double currentHeight = builder.getIntensity(i);
             area += (currentRT - previousRT) * (currentHeight + previousHeight)
                     / 2;
         }
@@ -270,11 +264,11 @@ public class Chromatogram implements Feature {
 
         rawDataPointsRTRange = null;
 
-        for (int scanNum : allScanNumbers) {
-            double scanRt = dataFile.getScan(scanNum).getRetentionTime();
-            DataPoint dp = getDataPoint(scanNum);
+        for (int i = 0; i < numOfDataPoints; i++) {
+            double scanRt = dataFile.getScan(builder.getScanNumber(i))
+                    .getRetentionTime();
 
-            if ((dp == null) || (dp.getIntensity() == 0.0))
+            if (builder.getIntensity(i) == 0.0)
                 continue;
 
             if (rawDataPointsRTRange == null)
@@ -284,17 +278,19 @@ public class Chromatogram implements Feature {
                         .span(Range.singleton(scanRt));
         }
 
-        // Discard the fields we don't need anymore
-        buildingSegment = null;
+        // Pack the data points and discard the fields we don't need anymore
+        dataPoints = builder.build();
+        dataPointsBuilder = null;
         lastMzPeak = null;
 
     }
 
     public double getBuildingSegmentLength() {
-        if (buildingSegment.size() < 2)
+        final int segmentEnd = dataPointsBuilder.size();
+        if (segmentEnd - buildingSegmentStart < 2)
             return 0;
-        int firstScan = buildingSegment.firstElement();
-        int lastScan = buildingSegment.lastElement();
+        int firstScan = dataPointsBuilder.getScanNumber(buildingSegmentStart);
+        int lastScan = dataPointsBuilder.getScanNumber(segmentEnd - 1);
         double firstRT = dataFile.getScan(firstScan).getRetentionTime();
         double lastRT = dataFile.getScan(lastScan).getRetentionTime();
         return (lastRT - firstRT);
@@ -305,19 +301,23 @@ public class Chromatogram implements Feature {
     }
 
     public void removeBuildingSegment() {
-        for (int scanNumber : buildingSegment)
-            dataPointsMap.remove(scanNumber);
-        buildingSegment.clear();
+        dataPointsBuilder.truncate(buildingSegmentStart);
     }
 
     public void commitBuildingSegment() {
-        buildingSegment.clear();
+        buildingSegmentStart = dataPointsBuilder.size();
         numOfCommittedSegments++;
     }
 
+    /**
+     * Adds the data points of given chromatogram, whose scans must follow the
+     * scans of the data points of this chromatogram
+     */
     public void addDataPointsFromChromatogram(Chromatogram ch) {
-        for (Entry<Integer, DataPoint> dp : ch.dataPointsMap.entrySet()) {
-            addMzPeak(dp.getKey(), dp.getValue());
+        final PackedDataPoints.Builder builder = ch.dataPointsBuilder;
+        for (int i = 0; i < builder.size(); i++) {
+            addMzPeak(builder.getScanNumber(i), new SimpleDataPoint(
+                    builder.getMZ(i), builder.getIntensity(i)));
         }
     }
 
@@ -19,10 +19,15 @@
 
 package net.sf.mzmine.modules.masslistmethods.chromatogrambuilder;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import com.google.common.collect.Range;
 
@@ -69,23 +74,47 @@ public class HighestDataPointConnector {
         // Set of already connected chromatograms in each iteration
         Set<Chromatogram> connectedChromatograms = new LinkedHashSet<Chromatogram>();
 
-        // TODO: these two nested cycles should be optimized for speed
+        // Index the building chromatograms by the m/z of their last data
+        // point, so we only need to test the chromatograms close to each m/z
+        // peak. The order of the chromatograms in buildingChromatograms is
+        // remembered to resolve ties in the same way as iterating the set.
+        TreeMap<Double, List<Chromatogram>> chromatogramIndex = new TreeMap<Double, List<Chromatogram>>();
+        Map<Chromatogram, Integer> chromatogramOrder = new HashMap<Chromatogram, Integer>();
+        for (Chromatogram testChrom : buildingChromatograms) {
+            chromatogramOrder.put(testChrom, chromatogramOrder.size());
+            addToIndex(chromatogramIndex, testChrom);
+        }
+
         for (DataPoint mzPeak : mzValues) {
 
             // Search for best chromatogram, which has highest last data point
             Chromatogram bestChromatogram = null;
-
-            for (Chromatogram testChrom : buildingChromatograms) {
-
-                DataPoint lastMzPeak = testChrom.getLastMzPeak();
-                Range<Double> toleranceRange = mzTolerance
-                        .getToleranceRange(lastMzPeak.getMZ());
-                if (toleranceRange.contains(mzPeak.getMZ())) {
-                    if ((bestChromatogram == null) || (testChrom.getLastMzPeak()
-                            .getIntensity() > bestChromatogram.getLastMzPeak()
-                                    .getIntensity())) {
+            int bestOrder = 0;
+
+            Range<Double> searchRange = getSearchRange(mzPeak.getMZ());
+            for (List<Chromatogram> sameMzChroms : chromatogramIndex.subMap(
+                    searchRange.lowerEndpoint(), true,
+                    searchRange.upperEndpoint(), true).values()) {
+
+                for (Chromatogram testChrom : sameMzChroms) {
+
+                    DataPoint lastMzPeak = testChrom.getLastMzPeak();
+                    Range<Double> toleranceRange = mzTolerance
+                            .getToleranceRange(lastMzPeak.getMZ());
+                    if (!toleranceRange.contains(mzPeak.getMZ()))
+                        continue;
+
+                    int testOrder = chromatogramOrder.get(testChrom);
+                    if ((bestChromatogram == null)
+                            || (lastMzPeak.getIntensity() > bestChromatogram
+                                    .getLastMzPeak().getIntensity())
+                            || ((lastMzPeak.getIntensity() == bestChromatogram
+                                    .getLastMzPeak().getIntensity())
+                                    && (testOrder < bestOrder))) {
                         bestChromatogram = testChrom;
+                        bestOrder = testOrder;
                     }
+
                 }
 
             }
@@ -97,12 +126,18 @@ public class HighestDataPointConnector {
                 if (connectedChromatograms.contains(bestChromatogram)) {
                     continue;
                 }
+
+                // Add this mzPeak to the chromatogram. Its last data point
+                // changes, so we have to re-index it.
+                removeFromIndex(chromatogramIndex, bestChromatogram);
+                bestChromatogram.addMzPeak(scanNumber, mzPeak);
+                addToIndex(chromatogramIndex, bestChromatogram);
             } else {
                 bestChromatogram = new Chromatogram(dataFile, allScanNumbers);
-            }
 
-            // Add this mzPeak to the chromatogram
-            bestChromatogram.addMzPeak(scanNumber, mzPeak);
+                // Add this mzPeak to the new chromatogram
+                bestChromatogram.addMzPeak(scanNumber, mzPeak);
+            }
 
             // Move the chromatogram to the set of connected chromatograms
             connectedChromatograms.add(bestChromatogram);
@@ -143,6 +178,51 @@ public class HighestDataPointConnector {
 
     }
 
+    /**
+     * Returns the range of last data point m/z values of the chromatograms
+     * which can be within the m/z tolerance of given m/z value. The tolerance
+     * is calculated from the m/z of the chromatogram, so the range is slightly
+     * asymmetric. Candidates in this range are tested exactly afterwards.
+     */
+    private Range<Double> getSearchRange(double mz) {
+        final double absTolerance = mzTolerance.getMzTolerance();
+        final double relTolerance = mzTolerance.getPpmTolerance() / 1000000.0;
+        double upper = mz + absTolerance;
+        if (relTolerance >= 1.0)
+            upper = Double.POSITIVE_INFINITY;
+        else
+            upper = Math.max(upper, mz / (1.0 - relTolerance));
+        double lower = mzTolerance.getToleranceRange(mz).lowerEndpoint();
+
+        // Widen the range a bit to stay safe from rounding errors
+        double slack = Math.ulp(upper) * 4;
+        return Range.closed(lower - slack, upper + slack);
+    }
+
+    private static void addToIndex(
+            TreeMap<Double, List<Chromatogram>> chromatogramIndex,
+            Chromatogram chromatogram) {
+        Double key = chromatogram.getLastMzPeak().getMZ();
+        List<Chromatogram> sameMzChroms = chromatogramIndex.get(key);
+        if (sameMzChroms == null) {
+            sameMzChroms = new ArrayList<Chromatogram>(1);
+            chromatogramIndex.put(key, sameMzChroms);
+        }
+        sameMzChroms.add(chromatogram);
+    }
+
+    private static void removeFromIndex(
+            TreeMap<Double, List<Chromatogram>> chromatogramIndex,
+            Chromatogram chromatogram) {
+        Double key = chromatogram.getLastMzPeak().getMZ();
+        List<Chromatogram> sameMzChroms = chromatogramIndex.get(key);
+        if (sameMzChroms == null)
+            return;
+        sameMzChroms.remove(chromatogram);
+        if (sameMzChroms.isEmpty())
+            chromatogramIndex.remove(key);
+    }
+
     public Chromatogram[] finishChromatograms() {
 
         // Iterate through current chromatograms and remove those which do not
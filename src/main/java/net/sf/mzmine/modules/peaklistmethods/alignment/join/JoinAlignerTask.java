@@ -19,10 +19,16 @@
 
 package net.sf.mzmine.modules.peaklistmethods.alignment.join;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.IsotopePattern;
@@ -39,8 +45,10 @@ import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.PeakUtils;
 import net.sf.mzmine.util.RangeUtils;
+import net.sf.mzmine.util.ThreadUtils;
 
 import com.google.common.collect.Range;
 
@@ -51,8 +59,12 @@ class JoinAlignerTask extends AbstractTask {
     private final MZmineProject project;
     private PeakList peakLists[], alignedPeakList;
 
+    // Number of rows scored in one parallel job
+    private static final int ROWS_PER_JOB = 256;
+
     // Processed rows counter
-    private int processedRows, totalRows;
+    private final AtomicInteger processedRows = new AtomicInteger();
+    private int totalRows;
 
     private String peakListName;
     private MZTolerance mzTolerance;
@@ -111,7 +123,7 @@ class JoinAlignerTask extends AbstractTask {
     public double getFinishedPercentage() {
         if (totalRows == 0)
             return 0f;
-        return (double) processedRows / (double) totalRows;
+        return (double) processedRows.get() / (double) totalRows;
     }
 
     /**
@@ -164,66 +176,52 @@ class JoinAlignerTask extends AbstractTask {
 
             PeakListRow allRows[] = peakList.getRows();
 
-            // Calculate scores for all possible alignments of this row
-            for (PeakListRow row : allRows) {
-
-                if (isCanceled())
-                    return;
-
-                // Calculate limits for a row with which the row can be aligned
-                Range<Double> mzRange = mzTolerance.getToleranceRange(row
-                        .getAverageMZ());
-                Range<Double> rtRange = rtTolerance.getToleranceRange(row
-                        .getAverageRT());
-
-                // Get all rows of the aligned peaklist within parameter limits
-                PeakListRow candidateRows[] = alignedPeakList
-                        .getRowsInsideScanAndMZRange(rtRange, mzRange);
-
-                // Calculate scores and store them
-                for (PeakListRow candidate : candidateRows) {
-
-                    if (sameChargeRequired) {
-                        if (!PeakUtils.compareChargeState(row, candidate))
-                            continue;
-                    }
-
-                    if (sameIDRequired) {
-                        if (!PeakUtils.compareIdentities(row, candidate))
-                            continue;
-                    }
-
-                    if (compareIsotopePattern) {
-                        IsotopePattern ip1 = row.getBestIsotopePattern();
-                        IsotopePattern ip2 = candidate.getBestIsotopePattern();
-
-                        if ((ip1 != null) && (ip2 != null)) {
-                            ParameterSet isotopeParams = parameters
-                                    .getParameter(
-                                            JoinAlignerParameters.compareIsotopePattern)
-                                    .getEmbeddedParameters();
-
-                            if (!IsotopePatternScoreCalculator.checkMatch(ip1,
-                                    ip2, isotopeParams)) {
-                                continue;
-                            }
+            // Calculate scores for all possible alignments of the rows. The
+            // rows are scored in parallel, but the scores are collected in the
+            // order of the rows, so the result is the same as in sequential
+            // processing.
+            List<Callable<List<RowVsRowScore>>> jobs = new ArrayList<Callable<List<RowVsRowScore>>>();
+            for (int first = 0; first < allRows.length; first += ROWS_PER_JOB) {
+                final int from = first;
+                final int to = Math.min(first + ROWS_PER_JOB, allRows.length);
+                final PeakListRow rows[] = allRows;
+                jobs.add(new Callable<List<RowVsRowScore>>() {
+                    public List<RowVsRowScore> call() {
+                        List<RowVsRowScore> scores = new ArrayList<RowVsRowScore>();
+                        for (int i = from; i < to; i++) {
+                            if (isCanceled())
+                                break;
+                            calculateScores(rows[i], scores);
+                            processedRows.incrementAndGet();
                         }
+                        return scores;
                     }
+                });
+            }
 
-                    RowVsRowScore score = new RowVsRowScore(row, candidate,
-                            RangeUtils.rangeLength(mzRange) / 2.0, mzWeight,
-                            RangeUtils.rangeLength(rtRange) / 2.0, rtWeight);
-
-                    scoreSet.add(score);
-
-                }
+            List<List<RowVsRowScore>> results;
+            try {
+                results = ThreadUtils.runInParallel(jobs);
+            } catch (InterruptedException e) {
+                setStatus(TaskStatus.CANCELED);
+                return;
+            } catch (ExecutionException e) {
+                setStatus(TaskStatus.ERROR);
+                setErrorMessage(ExceptionUtils.exceptionToString(e.getCause()));
+                return;
+            }
 
-                processedRows++;
+            if (isCanceled())
+                return;
 
+            for (List<RowVsRowScore> scores : results) {
+                scoreSet.addAll(scores);
             }
 
-            // Create a table of mappings for best scores
+            // Create a table of mappings for best scores, and a set of the
+            // aligned rows which are already filled
             Hashtable<PeakListRow, PeakListRow> alignmentMapping = new Hashtable<PeakListRow, PeakListRow>();
+            HashSet<PeakListRow> mappedAlignedRows = new HashSet<PeakListRow>();
 
             // Iterate scores by descending order
             Iterator<RowVsRowScore> scoreIterator = scoreSet.iterator();
@@ -236,11 +234,12 @@ class JoinAlignerTask extends AbstractTask {
                     continue;
 
                 // Check if the aligned row is already filled
-                if (alignmentMapping.containsValue(score.getAlignedRow()))
+                if (mappedAlignedRows.contains(score.getAlignedRow()))
                     continue;
 
                 alignmentMapping.put(score.getPeakListRow(),
                         score.getAlignedRow());
+                mappedAlignedRows.add(score.getAlignedRow());
 
             }
 
@@ -265,7 +264,7 @@ class JoinAlignerTask extends AbstractTask {
                 // aligned row
                 PeakUtils.copyPeakListRowProperties(row, targetRow);
 
-                processedRows++;
+                processedRows.incrementAndGet();
 
             }
 
@@ -284,4 +283,60 @@ class JoinAlignerTask extends AbstractTask {
 
     }
 
+    /**
+     * Calculates the scores of all possible alignments of given row with the
+     * rows of the aligned peak list, and adds them to given list
+     */
+    private void calculateScores(PeakListRow row, List<RowVsRowScore> scores) {
+
+        // Calculate limits for a row with which the row can be aligned
+        Range<Double> mzRange = mzTolerance.getToleranceRange(row
+                .getAverageMZ());
+        Range<Double> rtRange = rtTolerance.getToleranceRange(row
+                .getAverageRT());
+
+        // Get all rows of the aligned peaklist within parameter limits
+        PeakListRow candidateRows[] = alignedPeakList
+                .getRowsInsideScanAndMZRange(rtRange, mzRange);
+
+        // Calculate scores and store them
+        for (PeakListRow candidate : candidateRows) {
+
+            if (sameChargeRequired) {
+                if (!PeakUtils.compareChargeState(row, candidate))
+                    continue;
+            }
+
+            if (sameIDRequired) {
+                if (!PeakUtils.compareIdentities(row, candidate))
+                    continue;
+            }
+
+            if (compareIsotopePattern) {
+                IsotopePattern ip1 = row.getBestIsotopePattern();
+                IsotopePattern ip2 = candidate.getBestIsotopePattern();
+
+                if ((ip1 != null) && (ip2 != null)) {
+                    ParameterSet isotopeParams = parameters
+                            .getParameter(
+                                    JoinAlignerParameters.compareIsotopePattern)
+                            .getEmbeddedParameters();
+
+                    if (!IsotopePatternScoreCalculator.checkMatch(ip1,
+                            ip2, isotopeParams)) {
+                        continue;
+                    }
+                }
+            }
+
+            RowVsRowScore score = new RowVsRowScore(row, candidate,
+                    RangeUtils.rangeLength(mzRange) / 2.0, mzWeight,
+                    RangeUtils.rangeLength(rtRange) / 2.0, rtWeight);
+
+            scores.add(score);
+
+        }
+
+    }
+
 }
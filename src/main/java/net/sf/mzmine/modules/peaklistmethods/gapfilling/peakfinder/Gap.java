@@ -66,7 +66,32 @@ class Gap {
 
     }
 
-    void offerNextScan(Scan scan) {
+    Range<Double> getMZRange() {
+	return mzRange;
+    }
+
+    Range<Double> getRTRange() {
+	return rtRange;
+    }
+
+    /**
+     * Returns false if this gap does not need any more scans, because we have
+     * passed its RT range and finished processing the last peak
+     */
+    boolean isActive(double scanRT) {
+	return (scanRT <= rtRange.upperEndpoint())
+		|| (currentPeakDataPoints != null);
+    }
+
+    /**
+     * Offers the next scan to this gap. The scan's data points are given as
+     * m/z and intensity arrays sorted by m/z, which allows the caller to
+     * decode each scan only once for all gaps. The firstIndex points to the
+     * first data point with m/z equal or greater than the lower end of this
+     * gap's m/z range.
+     */
+    void offerNextScan(Scan scan, double mzValues[],
+	    double intensityValues[], int firstIndex, int numOfDataPoints) {
 
 	double scanRT = scan.getRetentionTime();
 
@@ -80,12 +105,20 @@ class Gap {
 	    return;
 
 	// Find top m/z peak in our range
-	DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
+	int basePeakIndex = -1;
+	final double mzMax = mzRange.upperEndpoint();
+	for (int i = firstIndex; (i < numOfDataPoints)
+		&& (mzValues[i] <= mzMax); i++) {
+	    if ((basePeakIndex < 0)
+		    || (intensityValues[i] > intensityValues[basePeakIndex]))
+		basePeakIndex = i;
+	}
 
 	GapDataPoint currentDataPoint;
-	if (basePeak != null) {
+	if (basePeakIndex >= 0) {
 	    currentDataPoint = new GapDataPoint(scan.getScanNumber(),
-		    basePeak.getMZ(), scanRT, basePeak.getIntensity());
+		    mzValues[basePeakIndex], scanRT,
+		    intensityValues[basePeakIndex]);
 	} else {
 	    currentDataPoint = new GapDataPoint(scan.getScanNumber(),
 		    RangeUtils.rangeCenter(mzRange), scanRT, 0);
@@ -19,7 +19,16 @@
 
 package net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.Feature;
@@ -38,6 +47,8 @@ import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ExceptionUtils;
+import net.sf.mzmine.util.ThreadUtils;
 
 import com.google.common.collect.Range;
 
@@ -53,7 +64,8 @@ class PeakFinderTask extends AbstractTask {
     private RTTolerance rtTolerance;
     private boolean rtCorrection;
     private ParameterSet parameters;
-    private int processedScans, totalScans;
+    private int totalScans;
+    private final AtomicInteger processedScans = new AtomicInteger();
     private boolean MASTERLIST = true, removeOriginal;
     private int masterSample = 0;
 
@@ -121,79 +133,23 @@ class PeakFinderTask extends AbstractTask {
 
 	} else {
 
-	    // Process all raw data files
-	    for (RawDataFile dataFile : peakList.getRawDataFiles()) {
-
-		// Canceled?
-		if (isCanceled()) {
-		    return;
-		}
-
-		Vector<Gap> gaps = new Vector<Gap>();
-
-		// Fill each row of this raw data file column, create new empty
-		// gaps
-		// if necessary
-		for (int row = 0; row < peakList.getNumberOfRows(); row++) {
-		    PeakListRow sourceRow = peakList.getRow(row);
-		    PeakListRow newRow = processedPeakList.getRow(row);
-
-		    Feature sourcePeak = sourceRow.getPeak(dataFile);
-
-		    if (sourcePeak == null) {
-
-			// Create a new gap
-
-			Range<Double> mzRange = mzTolerance
-				.getToleranceRange(sourceRow.getAverageMZ());
-			Range<Double> rtRange = rtTolerance
-				.getToleranceRange(sourceRow.getAverageRT());
-
-			Gap newGap = new Gap(newRow, dataFile, mzRange,
-				rtRange, intTolerance);
-
-			gaps.add(newGap);
-
-		    } else {
-			newRow.addPeak(dataFile, sourcePeak);
-		    }
-
-		}
-
-		// Stop processing this file if there are no gaps
-		if (gaps.size() == 0) {
-		    processedScans += dataFile.getNumOfScans();
-		    continue;
-		}
-
-		// Get all scans of this data file
-		int scanNumbers[] = dataFile.getScanNumbers(1);
-
-		// Process each scan
-		for (int scanNumber : scanNumbers) {
-
-		    // Canceled?
-		    if (isCanceled()) {
-			return;
-		    }
-
-		    // Get the scan
-		    Scan scan = dataFile.getScan(scanNumber);
-
-		    // Feed this scan to all gaps
-		    for (Gap gap : gaps) {
-			gap.offerNextScan(scan);
+	    // Process all raw data files in parallel
+	    List<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
+	    for (final RawDataFile dataFile : peakList.getRawDataFiles()) {
+		jobs.add(new Callable<Void>() {
+		    public Void call() {
+			fillFile(dataFile);
+			return null;
 		    }
+		});
+	    }
+	    runInParallel(jobs);
 
-		    processedScans++;
-		}
-
-		// Finalize gaps
-		for (Gap gap : gaps) {
-		    gap.noMoreOffers();
-		}
+	}
 
-	    }
+	// Canceled?
+	if (isCanceled()) {
+	    return;
 	}
 
 	// Append processed peak list to the project
@@ -216,131 +172,304 @@ class PeakFinderTask extends AbstractTask {
 
     }
 
-    public void fillList(boolean masterList) {
+    public void fillList(final boolean masterList) {
+
+	// When filling the master list, all gaps are filled in the same master
+	// sample, so the samples have to be processed one after another.
+	// Otherwise, each sample only gets gaps of its own and the samples can
+	// be processed in parallel.
+	List<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
 	for (int i = 0; i < peakList.getNumberOfRawDataFiles(); i++) {
-	    if (i != masterSample) {
 
-		RawDataFile datafile1;
-		RawDataFile datafile2;
+	    if (i == masterSample)
+		continue;
 
-		if (masterList) {
-		    datafile1 = peakList.getRawDataFile(masterSample);
-		    datafile2 = peakList.getRawDataFile(i);
-		} else {
-		    datafile1 = peakList.getRawDataFile(i);
-		    datafile2 = peakList.getRawDataFile(masterSample);
+	    if (masterList) {
+		if (isCanceled())
+		    return;
+		fillFile(i, masterList);
+		continue;
+	    }
+
+	    final int sampleIndex = i;
+	    jobs.add(new Callable<Void>() {
+		public Void call() {
+		    fillFile(sampleIndex, masterList);
+		    return null;
 		}
-		RegressionInfo info = new RegressionInfo();
+	    });
+	}
+	runInParallel(jobs);
+    }
+
+    /**
+     * Fills the gaps of one sample, using the RT correction based on the
+     * master sample
+     */
+    private void fillFile(int i, boolean masterList) {
+
+	RawDataFile datafile1;
+	RawDataFile datafile2;
+
+	if (masterList) {
+	    datafile1 = peakList.getRawDataFile(masterSample);
+	    datafile2 = peakList.getRawDataFile(i);
+	} else {
+	    datafile1 = peakList.getRawDataFile(i);
+	    datafile2 = peakList.getRawDataFile(masterSample);
+	}
+	RegressionInfo info = new RegressionInfo();
+
+	for (PeakListRow row : peakList.getRows()) {
+	    Feature peaki = row.getPeak(datafile1);
+	    Feature peake = row.getPeak(datafile2);
+	    if (peaki != null && peake != null) {
+		info.addData(peake.getRT(), peaki.getRT());
+	    }
+	}
+
+	info.setFunction();
+
+	// Canceled?
+	if (isCanceled()) {
+	    return;
+	}
+
+	Vector<Gap> gaps = new Vector<Gap>();
+
+	// Fill each row of this raw data file column, create new empty
+	// gaps
+	// if necessary
+	for (int row = 0; row < peakList.getNumberOfRows(); row++) {
+	    PeakListRow sourceRow = peakList.getRow(row);
+	    PeakListRow newRow = processedPeakList.getRow(row);
+
+	    Feature sourcePeak = sourceRow.getPeak(datafile1);
+
+	    if (sourcePeak == null) {
 
-		for (PeakListRow row : peakList.getRows()) {
-		    Feature peaki = row.getPeak(datafile1);
-		    Feature peake = row.getPeak(datafile2);
-		    if (peaki != null && peake != null) {
-			info.addData(peake.getRT(), peaki.getRT());
+		// Create a new gap
+
+		double mz = sourceRow.getAverageMZ();
+		double rt2 = -1;
+		if (!masterList) {
+		    if (processedPeakList.getRow(row)
+			    .getPeak(datafile2) != null) {
+			rt2 = processedPeakList.getRow(row)
+				.getPeak(datafile2).getRT();
+		    }
+		} else {
+		    if (peakList.getRow(row).getPeak(datafile2) != null) {
+			rt2 = peakList.getRow(row).getPeak(datafile2)
+				.getRT();
 		    }
 		}
 
-		info.setFunction();
+		if (rt2 > -1) {
 
-		// Canceled?
-		if (isCanceled()) {
-		    return;
+		    double rt = info.predict(rt2);
+
+		    if (rt != -1) {
+
+			Range<Double> mzRange = mzTolerance
+				.getToleranceRange(mz);
+			Range<Double> rtRange = rtTolerance
+				.getToleranceRange(rt);
+
+			Gap newGap = new Gap(newRow, datafile1,
+				mzRange, rtRange, intTolerance);
+
+			gaps.add(newGap);
+		    }
 		}
 
-		Vector<Gap> gaps = new Vector<Gap>();
+	    } else {
+		newRow.addPeak(datafile1, sourcePeak);
+	    }
 
-		// Fill each row of this raw data file column, create new empty
-		// gaps
-		// if necessary
-		for (int row = 0; row < peakList.getNumberOfRows(); row++) {
-		    PeakListRow sourceRow = peakList.getRow(row);
-		    PeakListRow newRow = processedPeakList.getRow(row);
+	}
 
-		    Feature sourcePeak = sourceRow.getPeak(datafile1);
+	// Stop processing this file if there are no gaps
+	if (gaps.size() == 0) {
+	    processedScans.addAndGet(datafile1.getNumOfScans());
+	    return;
+	}
 
-		    if (sourcePeak == null) {
+	fillGaps(datafile1, gaps);
 
-			// Create a new gap
+    }
 
-			double mz = sourceRow.getAverageMZ();
-			double rt2 = -1;
-			if (!masterList) {
-			    if (processedPeakList.getRow(row)
-				    .getPeak(datafile2) != null) {
-				rt2 = processedPeakList.getRow(row)
-					.getPeak(datafile2).getRT();
-			    }
-			} else {
-			    if (peakList.getRow(row).getPeak(datafile2) != null) {
-				rt2 = peakList.getRow(row).getPeak(datafile2)
-					.getRT();
-			    }
-			}
+    /**
+     * Fills the gaps of one raw data file
+     */
+    private void fillFile(RawDataFile dataFile) {
 
-			if (rt2 > -1) {
+	// Canceled?
+	if (isCanceled()) {
+	    return;
+	}
 
-			    double rt = info.predict(rt2);
+	Vector<Gap> gaps = new Vector<Gap>();
 
-			    if (rt != -1) {
+	// Fill each row of this raw data file column, create new empty gaps
+	// if necessary
+	for (int row = 0; row < peakList.getNumberOfRows(); row++) {
+	    PeakListRow sourceRow = peakList.getRow(row);
+	    PeakListRow newRow = processedPeakList.getRow(row);
 
-				Range<Double> mzRange = mzTolerance
-					.getToleranceRange(mz);
-				Range<Double> rtRange = rtTolerance
-					.getToleranceRange(rt);
+	    Feature sourcePeak = sourceRow.getPeak(dataFile);
 
-				Gap newGap = new Gap(newRow, datafile1,
-					mzRange, rtRange, intTolerance);
+	    if (sourcePeak == null) {
 
-				gaps.add(newGap);
-			    }
-			}
+		// Create a new gap
 
-		    } else {
-			newRow.addPeak(datafile1, sourcePeak);
-		    }
+		Range<Double> mzRange = mzTolerance.getToleranceRange(sourceRow
+			.getAverageMZ());
+		Range<Double> rtRange = rtTolerance.getToleranceRange(sourceRow
+			.getAverageRT());
 
-		}
+		Gap newGap = new Gap(newRow, dataFile, mzRange, rtRange,
+			intTolerance);
 
-		// Stop processing this file if there are no gaps
-		if (gaps.size() == 0) {
-		    processedScans += datafile1.getNumOfScans();
-		    continue;
-		}
+		gaps.add(newGap);
 
-		// Get all scans of this data file
-		int scanNumbers[] = datafile1.getScanNumbers(1);
+	    } else {
+		newRow.addPeak(dataFile, sourcePeak);
+	    }
 
-		// Process each scan
-		for (int scanNumber : scanNumbers) {
+	}
 
-		    // Canceled?
-		    if (isCanceled()) {
-			return;
-		    }
+	// Stop processing this file if there are no gaps
+	if (gaps.size() == 0) {
+	    processedScans.addAndGet(dataFile.getNumOfScans());
+	    return;
+	}
 
-		    // Get the scan
-		    Scan scan = datafile1.getScan(scanNumber);
+	fillGaps(dataFile, gaps);
 
-		    // Feed this scan to all gaps
-		    for (Gap gap : gaps) {
-			gap.offerNextScan(scan);
-		    }
-		    processedScans++;
-		}
+    }
+
+    /**
+     * Runs the given jobs using a pool of worker threads. If any of the jobs
+     * fails, the task ends with an error.
+     */
+    private void runInParallel(List<Callable<Void>> jobs) {
+	try {
+	    ThreadUtils.runInParallel(jobs);
+	} catch (InterruptedException e) {
+	    setStatus(TaskStatus.CANCELED);
+	} catch (ExecutionException e) {
+	    logger.log(Level.SEVERE, "Error while gap-filling " + peakList,
+		    e.getCause());
+	    setStatus(TaskStatus.ERROR);
+	    setErrorMessage(ExceptionUtils.exceptionToString(e.getCause()));
+	}
+    }
+
+    /**
+     * Feeds the MS1 scans of given raw data file to the gaps in a single sweep
+     * over the retention time. Only gaps whose RT range has already started
+     * and which still need more scans are kept in the active list, sorted by
+     * the lower end of their m/z range. Each scan is therefore decoded only
+     * once, and only if some gap is active, and the m/z ranges of all active
+     * gaps are resolved in a single pass over the sorted data points.
+     */
+    private void fillGaps(RawDataFile dataFile, List<Gap> gaps) {
+
+	// Gaps waiting for their RT range to start
+	List<Gap> pendingGaps = new ArrayList<Gap>(gaps);
+	Collections.sort(pendingGaps, new Comparator<Gap>() {
+	    public int compare(Gap g1, Gap g2) {
+		return Double.compare(g1.getRTRange().lowerEndpoint(), g2
+			.getRTRange().lowerEndpoint());
+	    }
+	});
+	int nextPendingGap = 0;
+
+	// Gaps inside their RT range
+	List<Gap> activeGaps = new ArrayList<Gap>();
+	Comparator<Gap> mzComparator = new Comparator<Gap>() {
+	    public int compare(Gap g1, Gap g2) {
+		return Double.compare(g1.getMZRange().lowerEndpoint(), g2
+			.getMZRange().lowerEndpoint());
+	    }
+	};
+
+	double mzValues[] = new double[0];
+	double intensityValues[] = new double[0];
 
-		// Finalize gaps
-		for (Gap gap : gaps) {
-		    gap.noMoreOffers();
+	// Get all scans of this data file
+	int scanNumbers[] = dataFile.getScanNumbers(1);
+
+	// Process each scan
+	for (int scanNumber : scanNumbers) {
+
+	    // Canceled?
+	    if (isCanceled()) {
+		return;
+	    }
+
+	    // Get the scan
+	    Scan scan = dataFile.getScan(scanNumber);
+	    final double scanRT = scan.getRetentionTime();
+
+	    // Activate the gaps whose RT range starts at this scan
+	    boolean activated = false;
+	    while ((nextPendingGap < pendingGaps.size())
+		    && (pendingGaps.get(nextPendingGap).getRTRange()
+			    .lowerEndpoint() <= scanRT)) {
+		activeGaps.add(pendingGaps.get(nextPendingGap));
+		nextPendingGap++;
+		activated = true;
+	    }
+	    if (activated)
+		Collections.sort(activeGaps, mzComparator);
+
+	    // Drop the gaps that do not need any more scans
+	    Iterator<Gap> activeGapsIterator = activeGaps.iterator();
+	    while (activeGapsIterator.hasNext()) {
+		if (!activeGapsIterator.next().isActive(scanRT))
+		    activeGapsIterator.remove();
+	    }
+
+	    if (!activeGaps.isEmpty()) {
+
+		// Decode the scan only once for all active gaps
+		final int scanSize = scan.getNumberOfDataPoints();
+		if (mzValues.length < scanSize) {
+		    mzValues = new double[scanSize];
+		    intensityValues = new double[scanSize];
+		}
+		final int numOfDataPoints = scan.getDataPoints(mzValues,
+			intensityValues);
+
+		// Feed this scan to all active gaps, in m/z order
+		int firstIndex = 0;
+		for (Gap gap : activeGaps) {
+		    final double mzMin = gap.getMZRange().lowerEndpoint();
+		    while ((firstIndex < numOfDataPoints)
+			    && (mzValues[firstIndex] < mzMin))
+			firstIndex++;
+		    gap.offerNextScan(scan, mzValues, intensityValues,
+			    firstIndex, numOfDataPoints);
 		}
 	    }
+
+	    processedScans.incrementAndGet();
 	}
+
+	// Finalize gaps
+	for (Gap gap : gaps) {
+	    gap.noMoreOffers();
+	}
+
     }
 
     public double getFinishedPercentage() {
 	if (totalScans == 0) {
 	    return 0;
 	}
-	return (double) processedScans / (double) totalScans;
+	return (double) processedScans.get() / (double) totalScans;
 
     }
 
@@ -34,6 +34,7 @@ import net.sf.mzmine.util.ScanUtils;
 
 import com.google.common.collect.Range;
 import com.google.common.primitives.Ints;
+import net.sf.mzmine.datamodel.impl.PackedDataPoints;
 import net.sf.mzmine.datamodel.impl.SimplePeakInformation;
 
 /**
@@ -51,8 +52,10 @@ class SameRangePeak implements Feature {
     // Boundaries of the peak
     private Range<Double> rtRange, mzRange, intensityRange;
 
-    // Map of scan number and data point
+    // Map of scan number and data point, replaced by the packed data points
+    // when the peak is finalized
     private TreeMap<Integer, DataPoint> mzPeakMap;
+    private PackedDataPoints dataPoints;
 
     // Number of most intense fragment scan
     private int fragmentScan, representativeScan;
@@ -109,6 +112,8 @@ class SameRangePeak implements Feature {
      * This method returns numbers of scans that contain this peak
      */
     public @Nonnull int[] getScanNumbers() {
+	if (dataPoints != null)
+	    return dataPoints.getScanNumbers();
 	return Ints.toArray(mzPeakMap.keySet());
     }
 
@@ -117,6 +122,8 @@ class SameRangePeak implements Feature {
      * scan
      */
     public DataPoint getDataPoint(int scanNumber) {
+	if (dataPoints != null)
+	    return dataPoints.getDataPoint(scanNumber);
 	return mzPeakMap.get(scanNumber);
     }
 
@@ -250,6 +257,11 @@ class SameRangePeak implements Feature {
 		this.charge = precursorCharge;
 	}
 
+	// Pack the data points, the map is not needed anymore
+	dataPoints = PackedDataPoints.pack(allScanNumbers, mzPeakMap.values()
+		.toArray(new DataPoint[0]));
+	mzPeakMap = null;
+
     }
 
     public void setMZ(double mz) {
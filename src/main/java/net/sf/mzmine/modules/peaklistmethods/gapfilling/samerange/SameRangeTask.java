@@ -19,6 +19,12 @@
 
 package net.sf.mzmine.modules.peaklistmethods.gapfilling.samerange;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.DataPoint;
@@ -38,8 +44,10 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.RangeUtils;
 import net.sf.mzmine.util.ScanUtils;
+import net.sf.mzmine.util.ThreadUtils;
 
 import com.google.common.collect.Range;
 
@@ -49,12 +57,14 @@ class SameRangeTask extends AbstractTask {
 
     private final MZmineProject project;
     private PeakList peakList, processedPeakList;
+    private PeakListRow newRows[];
 
     private String suffix;
     private MZTolerance mzTolerance;
     private boolean removeOriginal;
 
-    private int processedRows, totalRows;
+    private int totalRows;
+    private final AtomicInteger processedCells = new AtomicInteger();
 
     private ParameterSet parameters;
 
@@ -84,18 +94,17 @@ class SameRangeTask extends AbstractTask {
 	totalRows = peakList.getNumberOfRows();
 
 	// Get peak list columns
-	RawDataFile columns[] = peakList.getRawDataFiles();
+	final RawDataFile columns[] = peakList.getRawDataFiles();
 
 	// Create new peak list
 	processedPeakList = new SimplePeakList(peakList + " " + suffix, columns);
 
-	// Fill gaps in given column
+	// Create empty rows. They are added to the new peak list only after
+	// all the peaks are in place, so the peak list's m/z, RT and intensity
+	// ranges are calculated from the final rows.
+	newRows = new PeakListRow[totalRows];
 	for (int row = 0; row < totalRows; row++) {
 
-	    // Canceled?
-	    if (isCanceled())
-		return;
-
 	    PeakListRow sourceRow = peakList.getRow(row);
 	    PeakListRow newRow = new SimplePeakListRow(sourceRow.getID());
 
@@ -109,32 +118,39 @@ class SameRangeTask extends AbstractTask {
 		newRow.setPreferredPeakIdentity(sourceRow
 			.getPreferredPeakIdentity());
 
-	    // Copy each peaks and fill gaps
-	    for (RawDataFile column : columns) {
+	    newRows[row] = newRow;
 
-		// Canceled?
-		if (isCanceled())
-		    return;
+	}
 
-		// Get current peak
-		Feature currentPeak = sourceRow.getPeak(column);
+	// Copy each peaks and fill gaps, processing the columns in parallel
+	List<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
+	for (final RawDataFile column : columns) {
+	    jobs.add(new Callable<Void>() {
+		public Void call() {
+		    fillColumn(column);
+		    return null;
+		}
+	    });
+	}
 
-		// If there is a gap, try to fill it
-		if (currentPeak == null)
-		    currentPeak = fillGap(sourceRow, column);
+	try {
+	    ThreadUtils.runInParallel(jobs);
+	} catch (InterruptedException e) {
+	    setStatus(TaskStatus.CANCELED);
+	} catch (ExecutionException e) {
+	    logger.log(Level.SEVERE, "Error while gap-filling " + peakList,
+		    e.getCause());
+	    setStatus(TaskStatus.ERROR);
+	    setErrorMessage(ExceptionUtils.exceptionToString(e.getCause()));
+	}
 
-		// If a peak was found or created, add it
-		if (currentPeak != null)
-		    newRow.addPeak(column, currentPeak);
-
-	    }
+	// Canceled?
+	if (isCanceled())
+	    return;
 
+	for (PeakListRow newRow : newRows)
 	    processedPeakList.addRow(newRow);
 
-	    processedRows++;
-
-	}
-
 	// Append processed peak list to the project
 	project.addPeakList(processedPeakList);
 
@@ -156,6 +172,38 @@ class SameRangeTask extends AbstractTask {
 
     }
 
+    /**
+     * Copies the peaks of given column to the processed peak list and fills
+     * the gaps of that column
+     */
+    private void fillColumn(RawDataFile column) {
+
+	for (int row = 0; row < totalRows; row++) {
+
+	    // Canceled?
+	    if (isCanceled())
+		return;
+
+	    PeakListRow sourceRow = peakList.getRow(row);
+	    PeakListRow newRow = newRows[row];
+
+	    // Get current peak
+	    Feature currentPeak = sourceRow.getPeak(column);
+
+	    // If there is a gap, try to fill it
+	    if (currentPeak == null)
+		currentPeak = fillGap(sourceRow, column);
+
+	    // If a peak was found or created, add it
+	    if (currentPeak != null)
+		newRow.addPeak(column, currentPeak);
+
+	    processedCells.incrementAndGet();
+
+	}
+
+    }
+
     private Feature fillGap(PeakListRow row, RawDataFile column) {
 
 	SameRangePeak newPeak = new SameRangePeak(column);
@@ -220,9 +268,10 @@ class SameRangeTask extends AbstractTask {
     }
 
     public double getFinishedPercentage() {
-	if (totalRows == 0)
+	if ((totalRows == 0) || (peakList.getNumberOfRawDataFiles() == 0))
 	    return 0;
-	return (double) processedRows / (double) totalRows;
+	return (double) processedCells.get()
+		/ ((double) totalRows * peakList.getNumberOfRawDataFiles());
 
     }
 
@@ -114,6 +114,25 @@ public class PeptideScan implements Scan {
 	return pointsWithinRange;
     }
 
+    /**
+     * @see net.sf.mzmine.datamodel.MassSpectrum#getDataPoints(double[],
+     *      double[])
+     */
+    public int getDataPoints(@Nonnull double mzValues[],
+	    @Nonnull double intensityValues[]) {
+	return ScanUtils.copyDataPoints(dataPoints, mzValues, intensityValues);
+    }
+
+    /**
+     * @see net.sf.mzmine.datamodel.MassSpectrum#getDataPointsByMass(Range,
+     *      double[], double[])
+     */
+    public int getDataPointsByMass(@Nonnull Range<Double> mzRange,
+	    @Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+	return ScanUtils.copyDataPointsByMass(dataPoints, mzRange, mzValues,
+		intensityValues);
+    }
+
     /**
      * @return Returns scan datapoints over certain intensity
      */
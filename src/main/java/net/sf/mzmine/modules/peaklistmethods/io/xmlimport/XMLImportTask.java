@@ -133,7 +133,8 @@ public class XMLImportTask extends AbstractTask {
 
             peakListOpenHander = new PeakListOpenHandler_2_0(dataFilesIDMap);
 
-            buildingPeakList = peakListOpenHander.readPeakList(finalStream);
+            buildingPeakList = peakListOpenHander.readPeakList(finalStream,
+                    null);
             finalStream.close();
 
         } catch (Throwable e) {
@@ -19,8 +19,6 @@
 
 package net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution;
 
-import java.util.Arrays;
-
 import javax.annotation.Nonnull;
 
 import net.sf.mzmine.datamodel.DataPoint;
@@ -28,7 +26,7 @@ import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.IsotopePattern;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
-import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.PackedDataPoints;
 import net.sf.mzmine.util.MathUtils;
 import net.sf.mzmine.util.PeakUtils;
 import net.sf.mzmine.util.ScanUtils;
@@ -51,13 +49,12 @@ public class ResolvedPeak implements Feature {
     private double mz, rt, height, area;
     private Double fwhm = null, tf = null, af = null;
 
-    // Scan numbers
-    private int scanNumbers[];
-
-    // We store the values of data points as double[] arrays in order to save
+    // We store the values of data points in packed arrays in order to save
     // memory, which would be wasted by keeping a lot of instances of
-    // SimpleDataPoint (each instance takes 16 or 32 bytes of extra memory)
-    private double dataPointMZValues[], dataPointIntensityValues[];
+    // SimpleDataPoint (each instance takes 16 or 32 bytes of extra memory).
+    // The scan numbers are a range of the scan numbers of the chromatogram,
+    // which are shared by all peaks resolved from it.
+    private PackedDataPoints dataPoints;
 
     // Top intensity scan, fragment scan
     private int representativeScan, fragmentScan;
@@ -84,15 +81,16 @@ public class ResolvedPeak implements Feature {
         this.dataFile = chromatogram.getDataFile();
 
         // Make an array of scan numbers of this peak
-        scanNumbers = new int[regionEnd - regionStart + 1];
+        int scanNumbers[] = new int[regionEnd - regionStart + 1];
 
         int chromatogramScanNumbers[] = chromatogram.getScanNumbers();
 
         System.arraycopy(chromatogramScanNumbers, regionStart, scanNumbers, 0,
                 regionEnd - regionStart + 1);
 
-        dataPointMZValues = new double[regionEnd - regionStart + 1];
-        dataPointIntensityValues = new double[regionEnd - regionStart + 1];
+        double dataPointMZValues[] = new double[regionEnd - regionStart + 1];
+        double dataPointIntensityValues[] = new double[regionEnd
+                - regionStart + 1];
 
         // Set raw data point ranges, height, rt and representative scan
         height = Double.MIN_VALUE;
@@ -145,6 +143,9 @@ public class ResolvedPeak implements Feature {
         // Calculate median m/z
         mz = MathUtils.calcQuantile(dataPointMZValues, 0.5f);
 
+        dataPoints = new PackedDataPoints(chromatogramScanNumbers,
+                regionStart, dataPointMZValues, dataPointIntensityValues);
+
         // Update area
         area = 0;
         for (int i = 1; i < scanNumbers.length; i++) {
@@ -179,12 +180,7 @@ public class ResolvedPeak implements Feature {
      * scan
      */
     public DataPoint getDataPoint(int scanNumber) {
-        int index = Arrays.binarySearch(scanNumbers, scanNumber);
-        if (index < 0)
-            return null;
-        SimpleDataPoint dp = new SimpleDataPoint(dataPointMZValues[index],
-                dataPointIntensityValues[index]);
-        return dp;
+        return dataPoints.getDataPoint(scanNumber);
     }
 
     /**
@@ -241,7 +237,7 @@ public class ResolvedPeak implements Feature {
     }
 
     public @Nonnull int[] getScanNumbers() {
-        return scanNumbers;
+        return dataPoints.getScanNumbers();
     }
 
     public @Nonnull RawDataFile getDataFile() {
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectload;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Binary table of the data points of the peaks of a peak list, saved in the
+ * .peaks entry of the project (see PeakListSaveHandler). For each peak, the
+ * table contains the number of data points (int), followed by the scan
+ * numbers (int), m/z values (float) and heights (float) of the data points.
+ *
+ * The table is read from a region of a file, either the uncompressed entry
+ * within the project file or a temporary file the entry was extracted to. Each
+ * peak is read separately at its offset, so the table does not need to fit
+ * into memory.
+ */
+public class PeakDataPointsTable {
+
+    private final File file;
+    private final RandomAccessFile tableFile;
+    private final long regionStart, regionLength;
+    private final boolean temporary;
+
+    private PeakDataPointsTable(File file, long regionStart,
+            long regionLength, boolean temporary) throws IOException {
+        this.file = file;
+        this.tableFile = new RandomAccessFile(file, "r");
+        this.regionStart = regionStart;
+        this.regionLength = regionLength;
+        this.temporary = temporary;
+    }
+
+    /**
+     * Opens the table saved in the region of given length starting at given
+     * offset of given file
+     */
+    static PeakDataPointsTable open(File file, long regionStart,
+            long regionLength) throws IOException {
+        return new PeakDataPointsTable(file, regionStart, regionLength, false);
+    }
+
+    /**
+     * Extracts the table from given stream to a temporary file, which is
+     * deleted when the table is closed
+     */
+    static PeakDataPointsTable extract(InputStream is) throws IOException {
+        File tempFile = File.createTempFile("mzmine", ".peaks");
+        tempFile.deleteOnExit();
+        final long length;
+        OutputStream os = new FileOutputStream(tempFile);
+        try {
+            length = ByteStreams.copy(is, os);
+        } catch (IOException e) {
+            os.close();
+            tempFile.delete();
+            throw e;
+        }
+        os.close();
+        return new PeakDataPointsTable(tempFile, 0, length, true);
+    }
+
+    /**
+     * Reads the data points of the peak at given offset of the table into
+     * given arrays, which must have the length of the expected number of data
+     * points
+     */
+    public void readPeak(long offset, int scanNumbers[], double masses[],
+            double intensities[]) throws IOException {
+
+        final int numOfDataPoints = scanNumbers.length;
+        final int numOfBytes = 4 + numOfDataPoints * 3 * 4;
+        if ((offset < 0) || (offset + numOfBytes > regionLength))
+            throw new IOException("Invalid peak data offset " + offset
+                    + " in " + file);
+
+        ByteBuffer buffer = ByteBuffer.allocate(numOfBytes);
+        FileChannel channel = tableFile.getChannel();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, regionStart + offset + buffer.position()) < 0)
+                throw new EOFException("Unexpected end of file " + file);
+        }
+        buffer.flip();
+
+        if (buffer.getInt() != numOfDataPoints)
+            throw new IOException("Invalid peak data at offset " + offset
+                    + " in " + file);
+        for (int i = 0; i < numOfDataPoints; i++)
+            scanNumbers[i] = buffer.getInt();
+        for (int i = 0; i < numOfDataPoints; i++)
+            masses[i] = buffer.getFloat();
+        for (int i = 0; i < numOfDataPoints; i++)
+            intensities[i] = buffer.getFloat();
+
+    }
+
+    /**
+     * Closes the table, and deletes the temporary file it was extracted to
+     */
+    void close() throws IOException {
+        tableFile.close();
+        if (temporary)
+            file.delete();
+    }
+
+}
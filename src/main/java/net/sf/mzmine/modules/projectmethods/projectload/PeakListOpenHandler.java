@@ -30,8 +30,14 @@ import org.xml.sax.SAXException;
 
 public interface PeakListOpenHandler {
 
-    PeakList readPeakList(InputStream inputStream) throws IOException,
-            ParserConfigurationException, SAXException;
+    /**
+     * Reads the peak list described by given XML stream. The dataPointsTable
+     * contains the binary data points of the peaks, if they were saved
+     * separately from the XML, otherwise it is null.
+     */
+    PeakList readPeakList(InputStream inputStream,
+            PeakDataPointsTable dataPointsTable)
+            throws IOException, ParserConfigurationException, SAXException;
 
     void cancel();
 
@@ -25,8 +25,21 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -38,6 +51,7 @@ import javax.xml.parsers.ParserConfigurationException;
 
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
 import net.sf.mzmine.modules.projectmethods.projectload.version_2_0.PeakListOpenHandler_2_0;
@@ -52,12 +66,14 @@ import net.sf.mzmine.modules.projectmethods.projectsave.ProjectSavingTask;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.project.ProjectManager;
 import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.project.impl.ProjectFileEntry;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.GUIUtils;
 import net.sf.mzmine.util.StreamCopy;
+import net.sf.mzmine.util.ThreadUtils;
 
 import org.xml.sax.SAXException;
 
@@ -70,8 +86,10 @@ public class ProjectOpeningTask extends AbstractTask {
     private File openFile;
     private MZmineProjectImpl newProject;
 
-    private RawDataFileOpenHandler rawDataFileOpenHandler;
-    private PeakListOpenHandler peakListOpenHandler;
+    // Minor version of the project format (2.0, 2.3 or 2.5), which selects
+    // the opening handlers, or -1 if the version was not loaded yet
+    private int formatVersion = -1;
+
     private UserParameterOpenHandler userParameterOpenHandler;
     private StreamCopy copyMachine;
 
@@ -79,9 +97,39 @@ public class ProjectOpeningTask extends AbstractTask {
     private long totalBytes, finishedBytes;
     private String currentLoadedObjectName;
 
+    // The XML descriptions of the raw data files and peak lists are parsed in
+    // parallel by the shared worker threads, while this task keeps reading the
+    // other entries. The loaded objects are added to the project in the order
+    // of the project file.
+    private ExecutorService loadingExecutor;
+    private final List<RawDataFileLoad> rawDataFileLoads = Collections
+            .synchronizedList(new ArrayList<RawDataFileLoad>());
+    private final List<PeakListLoad> peakListLoads = Collections
+            .synchronizedList(new ArrayList<PeakListLoad>());
+
+    // Entries being read by the worker threads
+    private final Set<CountingInputStream> loadingStreams = new HashSet<CountingInputStream>();
+
+    // Number of loads running in the worker threads, and whether new loads
+    // may still start. Both are guarded by this task's monitor.
+    private int runningLoads = 0;
+    private boolean loadingShutdown = false;
+
     // This hashtable maps stored IDs to raw data file objects
-    private final Hashtable<String, RawDataFile> dataFilesIDMap = new Hashtable<>();
-    private final Hashtable<String, File> scanFilesIDMap = new Hashtable<>();
+    private final Hashtable<String, RawDataFile> dataFilesIDMap = new Hashtable<String, RawDataFile>();
+    private final Hashtable<String, File> scanFilesIDMap = new Hashtable<String, File>();
+
+    // This hashtable maps stored IDs to the offset and length of the scans
+    // data which are read in place from the project file
+    private final Hashtable<String, long[]> scanRegionsIDMap = new Hashtable<String, long[]>();
+
+    // Offsets of the local headers of the uncompressed entries
+    private final Properties entryOffsets = new Properties();
+
+    // True if the entries of the raw data files and peak lists are in the
+    // current format, so they can be copied to the project file when the
+    // project is saved again, see ProjectSavingTask
+    private boolean currentFormat = false;
 
     public ProjectOpeningTask(ParameterSet parameters) {
         this.openFile = parameters.getParameter(
@@ -106,12 +154,15 @@ public class ProjectOpeningTask extends AbstractTask {
         if (totalBytes == 0)
             return 0;
 
-        long totalReadBytes = this.finishedBytes;
+        long totalReadBytes;
 
-        // Add the current ZIP entry progress to totalReadBytes
+        // Add the current ZIP entries progress to totalReadBytes
         synchronized (this) {
+            totalReadBytes = this.finishedBytes;
             if (cis != null)
                 totalReadBytes += cis.getCount();
+            for (CountingInputStream loadingStream : loadingStreams)
+                totalReadBytes += loadingStream.getCount();
         }
 
         return (double) totalReadBytes / totalBytes;
@@ -154,6 +205,15 @@ public class ProjectOpeningTask extends AbstractTask {
             // Open the ZIP file
             ZipFile zipFile = new ZipFile(openFile);
 
+            // Load the offsets of the uncompressed entries, if present
+            ZipEntry entryOffsetsEntry = zipFile
+                    .getEntry(ProjectSavingTask.ENTRY_OFFSETS_FILENAME);
+            if (entryOffsetsEntry != null) {
+                InputStream is = zipFile.getInputStream(entryOffsetsEntry);
+                entryOffsets.load(is);
+                is.close();
+            }
+
             // Get total uncompressed size
             Enumeration<? extends ZipEntry> entries = zipFile.entries();
             while (entries.hasMoreElements()) {
@@ -170,74 +230,93 @@ public class ProjectOpeningTask extends AbstractTask {
 
             boolean versionInformationLoaded = false;
 
-            // Iterate over the entries and read them
-            entries = zipFile.entries();
-            while (entries.hasMoreElements()) {
-
-                if (isCanceled()) {
-                    zipFile.close();
-                    return;
-                }
-
-                ZipEntry entry = entries.nextElement();
-                String entryName = entry.getName();
-                cis = new CountingInputStream(zipFile.getInputStream(entry));
-
-                // Load version
-                if (entryName.equals(ProjectSavingTask.VERSION_FILENAME)) {
-                    loadVersion(cis);
-                    versionInformationLoaded = true;
-                }
-
-                // Load configuration
-                if (entryName.equals(ProjectSavingTask.CONFIG_FILENAME))
-                    loadConfiguration(cis);
+            loadingExecutor = ThreadUtils.getSharedExecutor();
+
+            try {
+
+                // Iterate over the entries and read them
+                entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+
+                    if (isCanceled())
+                        return;
+
+                    ZipEntry entry = entries.nextElement();
+                    String entryName = entry.getName();
+
+                    // Load a raw data file
+                    final Matcher rawFileMatcher = rawFilePattern
+                            .matcher(entryName);
+                    if (rawFileMatcher.matches()) {
+                        final String fileID = rawFileMatcher.group(1);
+                        final String fileName = rawFileMatcher.group(2);
+                        loadRawDataFile(zipFile, entry, fileID, fileName);
+                        continue;
+                    }
+
+                    // Load a peak list
+                    final Matcher peakListMatcher = peakListPattern
+                            .matcher(entryName);
+                    if (peakListMatcher.matches()) {
+                        final String peakListID = peakListMatcher.group(1);
+                        final String peakListName = peakListMatcher.group(2);
+                        final ZipEntry dataPointsEntry = zipFile.getEntry(entryName
+                                .replaceFirst("\\.xml$", ".peaks"));
+                        loadPeakList(zipFile, entry, dataPointsEntry, peakListID,
+                                peakListName);
+                        continue;
+                    }
+
+                    cis = new CountingInputStream(zipFile.getInputStream(entry));
+
+                    // Load version
+                    if (entryName.equals(ProjectSavingTask.VERSION_FILENAME)) {
+                        loadVersion(cis);
+                        versionInformationLoaded = true;
+                    }
+
+                    // Load configuration
+                    if (entryName.equals(ProjectSavingTask.CONFIG_FILENAME))
+                        loadConfiguration(cis);
+
+                    // Load user parameters
+                    if (entryName.equals(ProjectSavingTask.PARAMETERS_FILENAME)) {
+                        finishRawDataFiles();
+                        loadUserParameters(cis);
+                    }
+
+                    // Load the scan data of a raw data file
+                    final Matcher scansFileMatcher = scansFilePattern
+                            .matcher(entryName);
+                    if (scansFileMatcher.matches()) {
+                        final String fileID = scansFileMatcher.group(1);
+                        final String fileName = scansFileMatcher.group(2);
+                        loadScansFile(cis, entry, fileID, fileName);
+                    }
+
+                    // Close the ZIP entry
+                    cis.close();
+
+                    // Add the uncompressed entry size finishedBytes
+                    synchronized (this) {
+                        finishedBytes += entry.getSize();
+                        cis = null;
+                    }
 
-                // Load user parameters
-                if (entryName.equals(ProjectSavingTask.PARAMETERS_FILENAME)) {
-                    loadUserParameters(cis);
                 }
 
-                // Load a raw data file
-                final Matcher rawFileMatcher = rawFilePattern
-                        .matcher(entryName);
-                if (rawFileMatcher.matches()) {
-                    final String fileID = rawFileMatcher.group(1);
-                    final String fileName = rawFileMatcher.group(2);
-                    loadRawDataFile(cis, fileID, fileName);
-                }
-
-                // Load the scan data of a raw data file
-                final Matcher scansFileMatcher = scansFilePattern
-                        .matcher(entryName);
-                if (scansFileMatcher.matches()) {
-                    final String fileID = scansFileMatcher.group(1);
-                    final String fileName = scansFileMatcher.group(2);
-                    loadScansFile(cis, fileID, fileName);
-                }
-
-                // Load a peak list
-                final Matcher peakListMatcher = peakListPattern
-                        .matcher(entryName);
-                if (peakListMatcher.matches()) {
-                    final String peakListName = peakListMatcher.group(2);
-                    loadPeakList(cis, peakListName);
-                }
-
-                // Close the ZIP entry
-                cis.close();
-
-                // Add the uncompressed entry size finishedBytes
-                synchronized (this) {
-                    finishedBytes += entry.getSize();
-                    cis = null;
-                }
+                // Wait for the worker threads and add the loaded objects to the
+                // project
+                finishRawDataFiles();
+                finishPeakLists();
 
+            } finally {
+                // The worker threads read from the ZIP file, so it can only be
+                // closed after they finished
+                shutdownLoadingExecutor();
+                zipFile.close();
             }
 
-            // Finish and close the project ZIP file
-            zipFile.close();
-
             if (!versionInformationLoaded) {
                 throw new IOException(
                         "This file is not valid MZmine 2 project. It does not contain version information.");
@@ -275,11 +354,15 @@ public class ProjectOpeningTask extends AbstractTask {
 
         setStatus(TaskStatus.CANCELED);
 
-        if (rawDataFileOpenHandler != null)
-            rawDataFileOpenHandler.cancel();
+        synchronized (rawDataFileLoads) {
+            for (RawDataFileLoad load : rawDataFileLoads)
+                load.rawDataFileOpenHandler.cancel();
+        }
 
-        if (peakListOpenHandler != null)
-            peakListOpenHandler.cancel();
+        synchronized (peakListLoads) {
+            for (PeakListLoad load : peakListLoads)
+                load.peakListOpenHandler.cancel();
+        }
 
         if (userParameterOpenHandler != null)
             userParameterOpenHandler.cancel();
@@ -305,6 +388,26 @@ public class ProjectOpeningTask extends AbstractTask {
         String projectVersionString = reader.readLine();
         String mzmineVersionString = MZmineCore.getMZmineVersion();
 
+        if (projectVersionString == null)
+            throw new IOException("Missing project version");
+
+        // Projects of format 2 and later start with the format number (see
+        // ProjectSavingTask.FORMAT_VERSION), followed by the MZmine version
+        Matcher formatMatcher = Pattern.compile("^Format (\\d+) ").matcher(
+                projectVersionString);
+        if (formatMatcher.find()) {
+            final int projectFormat = Integer.parseInt(formatMatcher.group(1));
+            if (projectFormat > ProjectSavingTask.FORMAT_VERSION) {
+                throw new IOException("This project was saved in format "
+                        + projectFormat + " (MZmine "
+                        + projectVersionString.substring(formatMatcher.end())
+                        + "), which cannot be opened in MZmine "
+                        + mzmineVersionString);
+            }
+            projectVersionString = projectVersionString.substring(formatMatcher
+                    .end());
+        }
+
         Matcher m = versionPattern.matcher(mzmineVersionString);
         if (!m.find()) {
             throw new IOException("Invalid MZmine version "
@@ -332,15 +435,13 @@ public class ProjectOpeningTask extends AbstractTask {
 
         // Check if the project version is 2.0 to 2.2
         if ((projectMajorVersion == 2) && (projectMinorVersion <= 2)) {
-            rawDataFileOpenHandler = new RawDataFileOpenHandler_2_0();
-            peakListOpenHandler = new PeakListOpenHandler_2_0(dataFilesIDMap);
+            formatVersion = 0;
             return;
         }
 
         // Check if the project version is 2.3 to 2.4
         if ((projectMajorVersion == 2) && (projectMinorVersion <= 4)) {
-            rawDataFileOpenHandler = new RawDataFileOpenHandler_2_3();
-            peakListOpenHandler = new PeakListOpenHandler_2_3(dataFilesIDMap);
+            formatVersion = 3;
             userParameterOpenHandler = new UserParameterOpenHandler_2_3(
                     newProject, dataFilesIDMap);
             return;
@@ -359,8 +460,8 @@ public class ProjectOpeningTask extends AbstractTask {
         }
 
         // Default opening handler for MZmine 2.5 and higher
-        rawDataFileOpenHandler = new RawDataFileOpenHandler_2_5();
-        peakListOpenHandler = new PeakListOpenHandler_2_5(dataFilesIDMap);
+        currentFormat = true;
+        formatVersion = 5;
         userParameterOpenHandler = new UserParameterOpenHandler_2_5(newProject,
                 dataFilesIDMap);
 
@@ -391,33 +492,111 @@ public class ProjectOpeningTask extends AbstractTask {
         tempConfigFile.delete();
     }
 
-    private void loadRawDataFile(InputStream is, String fileID, String fileName)
-            throws IOException, ParserConfigurationException, SAXException,
-            InstantiationException, IllegalAccessException {
-
-        logger.info("Loading raw data file #" + fileID + ": " + fileName);
+    /**
+     * Creates a new handler for reading a raw data file in the format of the
+     * project. Each raw data file is read by its own handler, because the
+     * handlers keep the state of the parsing.
+     */
+    private RawDataFileOpenHandler createRawDataFileOpenHandler()
+            throws IOException {
+        switch (formatVersion) {
+        case 0:
+            return new RawDataFileOpenHandler_2_0();
+        case 3:
+            return new RawDataFileOpenHandler_2_3();
+        case 5:
+            return new RawDataFileOpenHandler_2_5();
+        default:
+            throw new IOException(
+                    "This file is not valid MZmine 2 project. It does not contain version information.");
+        }
+    }
 
-        currentLoadedObjectName = fileName;
+    /**
+     * Creates a new handler for reading a peak list in the format of the
+     * project
+     */
+    private PeakListOpenHandler createPeakListOpenHandler() throws IOException {
+        switch (formatVersion) {
+        case 0:
+            return new PeakListOpenHandler_2_0(dataFilesIDMap);
+        case 3:
+            return new PeakListOpenHandler_2_3(dataFilesIDMap);
+        case 5:
+            return new PeakListOpenHandler_2_5(dataFilesIDMap);
+        default:
+            throw new IOException(
+                    "This file is not valid MZmine 2 project. It does not contain version information.");
+        }
+    }
 
-        File scansFile = scanFilesIDMap.get(fileID);
-        if (scansFile == null) {
-            throw new IOException("Missing scans data for file ID " + fileID);
+    /**
+     * Starts reading a raw data file in a worker thread. Its scans data must
+     * have been loaded by loadScansFile() before.
+     */
+    private void loadRawDataFile(ZipFile zipFile, ZipEntry entry,
+            String fileID, String fileName) throws IOException {
+
+        final File scansFile;
+        final long scansOffset, scansLength;
+        long scansRegion[] = scanRegionsIDMap.get(fileID);
+        if (scansRegion != null) {
+            scansFile = openFile;
+            scansOffset = scansRegion[0];
+            scansLength = scansRegion[1];
+        } else {
+            scansFile = scanFilesIDMap.get(fileID);
+            if (scansFile == null) {
+                throw new IOException(
+                        "Missing scans data for file ID " + fileID);
+            }
+            scansOffset = 0;
+            scansLength = -1;
         }
 
-        RawDataFile newFile = rawDataFileOpenHandler.readRawDataFile(is,
-                scansFile);
-        newProject.addFile(newFile);
-        dataFilesIDMap.put(fileID, newFile);
+        RawDataFileLoad load = new RawDataFileLoad(zipFile, entry, fileID,
+                fileName, scansFile, scansOffset, scansLength);
+        rawDataFileLoads.add(load);
+        load.future = loadingExecutor.submit(load);
 
     }
 
-    private void loadScansFile(InputStream is, String fileID, String fileName)
-            throws IOException {
+    /**
+     * Waits for the raw data files being read by the worker threads and adds
+     * them to the project. The peak lists and user parameters refer to the
+     * raw data files, so they can only be read afterwards.
+     */
+    private void finishRawDataFiles() throws IOException,
+            ParserConfigurationException, SAXException, InterruptedException {
+
+        while (!rawDataFileLoads.isEmpty()) {
+            RawDataFileLoad load = rawDataFileLoads.get(0);
+            currentLoadedObjectName = load.fileName;
+            RawDataFile newFile = getLoadedObject(load.future);
+            if (newFile == null)
+                return;
+            newProject.addFile(newFile);
+            dataFilesIDMap.put(load.fileID, newFile);
+            rawDataFileLoads.remove(0);
+        }
+
+    }
+
+    private void loadScansFile(InputStream is, ZipEntry entry, String fileID,
+            String fileName) throws IOException {
 
         logger.info("Loading scans data #" + fileID + ": " + fileName);
 
         currentLoadedObjectName = fileName + " scan data";
 
+        // Uncompressed scans data are read in place, without extracting them
+        final long dataOffset = getEntryDataOffset(entry);
+        if (dataOffset >= 0) {
+            scanRegionsIDMap.put(fileID,
+                    new long[] { dataOffset, entry.getSize() });
+            return;
+        }
+
         final File tempFile = RawDataFileImpl.createNewDataPointsFile();
         final FileOutputStream os = new FileOutputStream(tempFile);
 
@@ -429,20 +608,148 @@ public class ProjectOpeningTask extends AbstractTask {
 
     }
 
-    private void loadPeakList(InputStream is, String peakListName)
+    /**
+     * Starts reading a peak list in a worker thread, after all raw data files
+     * were added to the project
+     */
+    private void loadPeakList(ZipFile zipFile, ZipEntry entry,
+            ZipEntry dataPointsEntry, String peakListID, String peakListName)
             throws IOException, ParserConfigurationException, SAXException,
-            InstantiationException, IllegalAccessException {
+            InterruptedException {
+
+        finishRawDataFiles();
+
+        PeakListLoad load = new PeakListLoad(zipFile, entry, dataPointsEntry,
+                peakListID, peakListName);
+        peakListLoads.add(load);
+        load.future = loadingExecutor.submit(load);
+
+    }
+
+    /**
+     * Waits for the peak lists being read by the worker threads and adds them
+     * to the project
+     */
+    private void finishPeakLists() throws IOException,
+            ParserConfigurationException, SAXException, InterruptedException {
+
+        while (!peakListLoads.isEmpty()) {
+            PeakListLoad load = peakListLoads.get(0);
+            currentLoadedObjectName = load.peakListName;
+            PeakList newPeakList = getLoadedObject(load.future);
+            if (newPeakList == null)
+                return;
+            newProject.addPeakList(newPeakList);
+            peakListLoads.remove(0);
+        }
+
+    }
+
+    /**
+     * Waits for given object to be read by a worker thread and returns it, or
+     * null if the opening was canceled meanwhile. Rethrows the exception of
+     * the worker thread, if any.
+     */
+    private static <T> T getLoadedObject(Future<T> future) throws IOException,
+            ParserConfigurationException, SAXException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof ParserConfigurationException)
+                throw (ParserConfigurationException) cause;
+            if (cause instanceof SAXException)
+                throw (SAXException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException("Could not load the data: " + cause, cause);
+        }
+    }
+
+    /**
+     * Cancels the loads which did not start yet after the opening finished,
+     * failed or was canceled, and waits for the running loads to finish. The
+     * running loads are not interrupted, because an interrupt would close the
+     * channels of the raw data files being read.
+     */
+    private void shutdownLoadingExecutor() {
+        synchronized (this) {
+            loadingShutdown = true;
+        }
+        synchronized (rawDataFileLoads) {
+            for (RawDataFileLoad load : rawDataFileLoads)
+                load.future.cancel(false);
+        }
+        synchronized (peakListLoads) {
+            for (PeakListLoad load : peakListLoads)
+                load.future.cancel(false);
+        }
+        synchronized (this) {
+            try {
+                while (runningLoads > 0)
+                    wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
-        logger.info("Loading peak list " + peakListName);
+    /**
+     * Returns the offset of the data of given entry within the project file,
+     * if the entry is uncompressed and its local header offset was saved,
+     * otherwise -1. The local header is checked, so a project file modified by
+     * another tool is read through the ZIP stream.
+     */
+    private long getEntryDataOffset(ZipEntry entry) throws IOException {
 
-        currentLoadedObjectName = peakListName;
+        if (entry.getMethod() != ZipEntry.STORED)
+            return -1;
 
-        PeakList newPeakList = peakListOpenHandler.readPeakList(is);
+        final String offsetText = entryOffsets.getProperty(entry.getName());
+        if (offsetText == null)
+            return -1;
 
-        newProject.addPeakList(newPeakList);
+        final long headerOffset;
+        try {
+            headerOffset = Long.parseLong(offsetText);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+
+        RandomAccessFile projectFile = new RandomAccessFile(openFile, "r");
+        try {
+            // Local file header: signature, then the lengths of the name and
+            // the extra field at offsets 26 and 28
+            final int headerLength = 30;
+            if ((headerOffset < 0)
+                    || (headerOffset + headerLength > projectFile.length()))
+                return -1;
+            byte header[] = new byte[headerLength];
+            projectFile.seek(headerOffset);
+            projectFile.readFully(header);
+            ByteBuffer headerBuffer = ByteBuffer.wrap(header).order(
+                    ByteOrder.LITTLE_ENDIAN);
+            if (headerBuffer.getInt(0) != 0x04034b50)
+                return -1;
+            final int nameLength = headerBuffer.getShort(26) & 0xFFFF;
+            final int extraLength = headerBuffer.getShort(28) & 0xFFFF;
+            byte name[] = new byte[nameLength];
+            projectFile.readFully(name);
+            if (!new String(name, "UTF-8").equals(entry.getName()))
+                return -1;
+            final long dataOffset = headerOffset + headerLength + nameLength
+                    + extraLength;
+            if (dataOffset + entry.getSize() > projectFile.length())
+                return -1;
+            return dataOffset;
+        } finally {
+            projectFile.close();
+        }
 
-        // Add quality parameters to peaks
-        QualityParameters.calculateQualityParameters(newPeakList);
     }
 
     private void loadUserParameters(InputStream is) throws IOException,
@@ -461,4 +768,167 @@ public class ProjectOpeningTask extends AbstractTask {
 
     }
 
+    /**
+     * Reads an XML entry of the project file in a worker thread
+     */
+    private abstract class EntryLoad<T> implements Callable<T> {
+
+        final ZipFile zipFile;
+        private final ZipEntry entry;
+        Future<T> future;
+
+        EntryLoad(ZipFile zipFile, ZipEntry entry) {
+            this.zipFile = zipFile;
+            this.entry = entry;
+        }
+
+        public T call() throws IOException, ParserConfigurationException,
+                SAXException {
+
+            if (isCanceled())
+                return null;
+
+            synchronized (ProjectOpeningTask.this) {
+                if (loadingShutdown)
+                    return null;
+                runningLoads++;
+            }
+
+            try {
+                CountingInputStream is = new CountingInputStream(
+                        zipFile.getInputStream(entry));
+                synchronized (ProjectOpeningTask.this) {
+                    loadingStreams.add(is);
+                }
+
+                try {
+                    return load(is);
+                } finally {
+                    is.close();
+                    synchronized (ProjectOpeningTask.this) {
+                        loadingStreams.remove(is);
+                        finishedBytes += entry.getSize();
+                    }
+                }
+            } finally {
+                synchronized (ProjectOpeningTask.this) {
+                    runningLoads--;
+                    ProjectOpeningTask.this.notifyAll();
+                }
+            }
+        }
+
+        abstract T load(InputStream is) throws IOException,
+                ParserConfigurationException, SAXException;
+
+    }
+
+    private class RawDataFileLoad extends EntryLoad<RawDataFile> {
+
+        private final String fileID, fileName;
+        private final File scansFile;
+        private final long scansOffset, scansLength;
+        private final RawDataFileOpenHandler rawDataFileOpenHandler;
+
+        RawDataFileLoad(ZipFile zipFile, ZipEntry entry, String fileID,
+                String fileName, File scansFile, long scansOffset,
+                long scansLength) throws IOException {
+            super(zipFile, entry);
+            this.fileID = fileID;
+            this.fileName = fileName;
+            this.scansFile = scansFile;
+            this.scansOffset = scansOffset;
+            this.scansLength = scansLength;
+            this.rawDataFileOpenHandler = createRawDataFileOpenHandler();
+        }
+
+        RawDataFile load(InputStream is) throws IOException,
+                ParserConfigurationException, SAXException {
+
+            logger.info("Loading raw data file #" + fileID + ": " + fileName);
+
+            RawDataFile newFile = rawDataFileOpenHandler.readRawDataFile(is,
+                    scansFile, scansOffset, scansLength);
+
+            if (currentFormat) {
+                RawDataFileImpl newFileImpl = (RawDataFileImpl) newFile;
+                newFileImpl.setProjectFileEntry(new ProjectFileEntry(openFile,
+                        "Raw data file #" + fileID + " " + fileName, fileID,
+                        newFileImpl.getModificationStamp()));
+            }
+
+            return newFile;
+        }
+
+    }
+
+    private class PeakListLoad extends EntryLoad<PeakList> {
+
+        private final ZipEntry dataPointsEntry;
+        private final String peakListID, peakListName;
+        private final PeakListOpenHandler peakListOpenHandler;
+
+        PeakListLoad(ZipFile zipFile, ZipEntry entry,
+                ZipEntry dataPointsEntry, String peakListID,
+                String peakListName) throws IOException {
+            super(zipFile, entry);
+            this.dataPointsEntry = dataPointsEntry;
+            this.peakListID = peakListID;
+            this.peakListName = peakListName;
+            this.peakListOpenHandler = createPeakListOpenHandler();
+        }
+
+        PeakList load(InputStream is) throws IOException,
+                ParserConfigurationException, SAXException {
+
+            logger.info("Loading peak list " + peakListName);
+
+            // Binary table of the data points of the peaks, if it was saved.
+            // The peaks are read from the uncompressed entry in place, or
+            // from a temporary file if the entry cannot be read in place.
+            PeakDataPointsTable dataPointsTable = null;
+            if (dataPointsEntry != null) {
+                final long dataOffset = getEntryDataOffset(dataPointsEntry);
+                if (dataOffset >= 0) {
+                    dataPointsTable = PeakDataPointsTable.open(openFile,
+                            dataOffset, dataPointsEntry.getSize());
+                } else {
+                    InputStream tableStream = zipFile
+                            .getInputStream(dataPointsEntry);
+                    try {
+                        dataPointsTable = PeakDataPointsTable
+                                .extract(tableStream);
+                    } finally {
+                        tableStream.close();
+                    }
+                }
+            }
+
+            PeakList newPeakList;
+            try {
+                newPeakList = peakListOpenHandler.readPeakList(is,
+                        dataPointsTable);
+            } finally {
+                if (dataPointsTable != null)
+                    dataPointsTable.close();
+            }
+
+            // Add quality parameters to peaks
+            QualityParameters.calculateQualityParameters(newPeakList);
+
+            // The quality parameters are not saved, so they do not make the
+            // peak list modified
+            if (currentFormat && (newPeakList instanceof SimplePeakList)) {
+                SimplePeakList newSimplePeakList = (SimplePeakList) newPeakList;
+                newSimplePeakList.setProjectFileEntry(new ProjectFileEntry(
+                        openFile, "Peak list #" + peakListID + " "
+                                + peakListName, peakListID,
+                        newSimplePeakList.getModificationStamp()));
+            }
+
+            return newPeakList;
+        }
+
+    }
+
 }
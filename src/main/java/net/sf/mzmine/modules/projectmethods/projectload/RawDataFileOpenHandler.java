@@ -31,7 +31,15 @@ import org.xml.sax.SAXException;
 
 public interface RawDataFileOpenHandler {
 
-    RawDataFile readRawDataFile(InputStream is, File scansFile) throws IOException,
+    /**
+     * Reads the raw data file described by given XML stream. If scansLength is
+     * negative, scansFile is a temporary copy of the scans data, which is then
+     * owned by the raw data file. Otherwise the scans data are the
+     * scansLength bytes at scansOffset within scansFile (the project file),
+     * which are read in place.
+     */
+    RawDataFile readRawDataFile(InputStream is, File scansFile,
+            long scansOffset, long scansLength) throws IOException,
             ParserConfigurationException, SAXException;
 
     void cancel();
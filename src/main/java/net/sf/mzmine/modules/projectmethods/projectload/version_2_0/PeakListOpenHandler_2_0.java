@@ -46,6 +46,7 @@ import net.sf.mzmine.datamodel.impl.SimplePeakIdentity;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.modules.projectmethods.projectload.PeakDataPointsTable;
 import net.sf.mzmine.modules.projectmethods.projectload.PeakListOpenHandler;
 
 import org.xml.sax.Attributes;
@@ -98,8 +99,9 @@ public class PeakListOpenHandler_2_0 extends DefaultHandler implements
     /**
      * Load the peak list from the zip file reading the XML peak list file
      */
-    public PeakList readPeakList(InputStream peakListStream)
-	    throws IOException, ParserConfigurationException, SAXException {
+    public PeakList readPeakList(InputStream peakListStream,
+	    PeakDataPointsTable dataPointsTable) throws IOException,
+	    ParserConfigurationException, SAXException {
 
 	totalRows = 0;
 	parsedRows = 0;
@@ -71,7 +71,8 @@ public class RawDataFileOpenHandler_2_0 extends DefaultHandler implements
      * @throws SAXException
      * @throws ParserConfigurationException
      */
-    public RawDataFile readRawDataFile(InputStream is, File scansFile)
+    public RawDataFile readRawDataFile(InputStream is, File scansFile,
+            long scansOffset, long scansLength)
             throws IOException, ParserConfigurationException, SAXException {
 
         storageFileOffset = 0;
@@ -79,7 +80,11 @@ public class RawDataFileOpenHandler_2_0 extends DefaultHandler implements
         charBuffer = new StringBuffer();
 
         newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
-        newRawDataFile.openDataPointsFile(scansFile);
+        if (scansLength < 0)
+            newRawDataFile.openDataPointsFile(scansFile);
+        else
+            newRawDataFile.openDataPointsFile(scansFile, scansOffset,
+                    scansLength);
 
         // Reads the XML file (raw data description)
         SAXParserFactory factory = SAXParserFactory.newInstance();
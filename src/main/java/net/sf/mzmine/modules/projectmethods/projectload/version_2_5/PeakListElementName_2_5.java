@@ -32,7 +32,7 @@ public enum PeakListElementName_2_5 {
 	    "isotope_pattern"), DESCRIPTION("description"), CHARGE("charge"), ISOTOPE(
 	    "isotope"), MZPEAKS("mzpeaks"), METHOD("applied_method"), METHOD_NAME(
 	    "method_name"), METHOD_PARAMETERS("method_parameters"), REPRESENTATIVE_SCAN(
-	    "best_scan"), FRAGMENT_SCAN("fragment_scan");
+	    "best_scan"), FRAGMENT_SCAN("fragment_scan"), INDEX("index");
 
     private String elementName;
 
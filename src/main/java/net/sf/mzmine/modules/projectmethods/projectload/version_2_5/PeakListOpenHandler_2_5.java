@@ -45,6 +45,7 @@ import net.sf.mzmine.datamodel.impl.SimplePeakIdentity;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.modules.projectmethods.projectload.PeakDataPointsTable;
 import net.sf.mzmine.modules.projectmethods.projectload.PeakListOpenHandler;
 
 import org.xml.sax.Attributes;
@@ -92,6 +93,9 @@ public class PeakListOpenHandler_2_5 extends DefaultHandler
 
     private Hashtable<String, RawDataFile> dataFilesIDMap;
 
+    // Binary data points of the peaks, null if they are saved in the XML
+    private PeakDataPointsTable dataPointsTable;
+
     private int parsedRows, totalRows;
 
     private boolean canceled = false;
@@ -104,9 +108,12 @@ public class PeakListOpenHandler_2_5 extends DefaultHandler
     /**
      * Load the peak list from the zip file reading the XML peak list file
      */
-    public PeakList readPeakList(InputStream peakListStream)
+    public PeakList readPeakList(InputStream peakListStream,
+            PeakDataPointsTable dataPointsTable)
             throws IOException, ParserConfigurationException, SAXException {
 
+        this.dataPointsTable = dataPointsTable;
+
         totalRows = 0;
         parsedRows = 0;
 
@@ -233,6 +240,12 @@ public class PeakListOpenHandler_2_5 extends DefaultHandler
         if (qName.equals(PeakListElementName_2_5.MZPEAKS.getElementName())) {
             numOfMZpeaks = Integer.parseInt(attrs.getValue(
                     PeakListElementName_2_5.QUANTITY.getElementName()));
+
+            // The data points may be saved in the data points table
+            String index = attrs
+                    .getValue(PeakListElementName_2_5.INDEX.getElementName());
+            if (index != null)
+                readDataPoints(Long.parseLong(index));
         }
 
         // <ISOTOPE_PATTERN>
@@ -478,6 +491,28 @@ public class PeakListOpenHandler_2_5 extends DefaultHandler
 
     }
 
+    /**
+     * Reads the scan numbers, m/z values and heights of the peak at given
+     * offset of the data points table
+     */
+    private void readDataPoints(long offset) throws SAXException {
+
+        if (dataPointsTable == null)
+            throw new SAXException("Missing data points of peak list "
+                    + peakListName);
+
+        scanNumbers = new int[numOfMZpeaks];
+        masses = new double[numOfMZpeaks];
+        intensities = new double[numOfMZpeaks];
+        try {
+            dataPointsTable.readPeak(offset, scanNumbers, masses, intensities);
+        } catch (IOException e) {
+            throw new SAXException("Invalid data points of peak list "
+                    + peakListName + " at offset " + offset, e);
+        }
+
+    }
+
     /**
      * Return a string without tab an EOF characters
      * 
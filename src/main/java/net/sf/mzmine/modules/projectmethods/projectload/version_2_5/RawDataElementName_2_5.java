@@ -29,7 +29,8 @@ enum RawDataElementName_2_5 {
 	    "num_dp"), MASS_LIST("mass_list"), STORED_DATAPOINTS(
 	    "stored_datapoints"), STORED_DATA("stored_data"), STORAGE_ID(
 	    "storage_id"), POLARITY("polarity"), SCAN_DESCRIPTION(
-	    "scan_description"), SCAN_MZ_RANGE("scan_mz_range");
+	    "scan_description"), SCAN_MZ_RANGE("scan_mz_range"), MZ_RANGE(
+	    "mz_range"), BASE_PEAK("base_peak"), TIC("tic");
 
     private String elementName;
 
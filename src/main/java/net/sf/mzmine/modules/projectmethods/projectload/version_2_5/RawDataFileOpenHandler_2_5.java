@@ -36,8 +36,11 @@ import org.xml.sax.helpers.DefaultHandler;
 
 import com.google.common.collect.Range;
 
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.MassSpectrumType;
 import net.sf.mzmine.datamodel.PolarityType;
 import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.projectmethods.projectload.RawDataFileOpenHandler;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
@@ -70,6 +73,10 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler
     private PolarityType polarity = PolarityType.UNKNOWN;
     private String scanDescription = "";
     private Range<Double> scanMZRange = null;
+    private MassSpectrumType spectrumType = null;
+    private Range<Double> dataPointsMZRange = null;
+    private DataPoint basePeak = null;
+    private Double totalIonCurrent = null;
 
     private boolean canceled = false;
 
@@ -83,14 +90,19 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler
      * @throws SAXException
      * @throws ParserConfigurationException
      */
-    public RawDataFile readRawDataFile(InputStream is, File scansFile)
+    public RawDataFile readRawDataFile(InputStream is, File scansFile,
+            long scansOffset, long scansLength)
             throws IOException, ParserConfigurationException, SAXException {
 
         charBuffer = new StringBuffer();
         massLists = new ArrayList<StorableMassList>();
 
         newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
-        newRawDataFile.openDataPointsFile(scansFile);
+        if (scansLength < 0)
+            newRawDataFile.openDataPointsFile(scansFile);
+        else
+            newRawDataFile.openDataPointsFile(scansFile, scansOffset,
+                    scansLength);
 
         dataPointsOffsets = newRawDataFile.getDataPointsOffsets();
         dataPointsLengths = newRawDataFile.getDataPointsLengths();
@@ -220,6 +232,37 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler
             scanMZRange = RangeUtils.parseRange(text);
         }
 
+        if (qName.equals(RawDataElementName_2_5.CENTROIDED.getElementName())) {
+            try {
+                spectrumType = MassSpectrumType.valueOf(getTextOfElement());
+            } catch (IllegalArgumentException e) {
+                // Older versions saved other values, so the spectrum type is
+                // detected from the data points
+                spectrumType = null;
+            }
+        }
+
+        // The m/z range, base peak and TIC of the scan are saved since MZmine
+        // 2.27, older projects calculate them from the data points
+        if (qName.equals(RawDataElementName_2_5.MZ_RANGE.getElementName())) {
+            try {
+                dataPointsMZRange = RangeUtils.parseRange(getTextOfElement());
+            } catch (IllegalArgumentException e) {
+                dataPointsMZRange = null;
+            }
+        }
+
+        if (qName.equals(RawDataElementName_2_5.BASE_PEAK.getElementName())) {
+            String basePeakValues[] = getTextOfElement().split(":");
+            basePeak = new SimpleDataPoint(
+                    Double.parseDouble(basePeakValues[0]),
+                    Double.parseDouble(basePeakValues[1]));
+        }
+
+        if (qName.equals(RawDataElementName_2_5.TIC.getElementName())) {
+            totalIonCurrent = Double.parseDouble(getTextOfElement());
+        }
+
         if (qName.equals(
                 RawDataElementName_2_5.PRECURSOR_CHARGE.getElementName())) {
             precursorCharge = Integer.parseInt(getTextOfElement());
@@ -253,7 +296,12 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler
             StorableScan storableScan = new StorableScan(newRawDataFile,
                     currentStorageID, dataPointsNumber, scanNumber, msLevel,
                     retentionTime, precursorMZ, precursorCharge, fragmentScan,
-                    null, polarity, scanDescription, scanMZRange);
+                    spectrumType, polarity, scanDescription, scanMZRange);
+
+            if ((dataPointsMZRange != null) && (totalIonCurrent != null)) {
+                storableScan.setValues(dataPointsMZRange, basePeak,
+                        totalIonCurrent);
+            }
 
             try {
                 newRawDataFile.addScan(storableScan);
@@ -279,6 +327,10 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler
             polarity = PolarityType.UNKNOWN;
             scanDescription = "";
             scanMZRange = null;
+            spectrumType = null;
+            dataPointsMZRange = null;
+            basePeak = null;
+            totalIonCurrent = null;
 
         }
     }
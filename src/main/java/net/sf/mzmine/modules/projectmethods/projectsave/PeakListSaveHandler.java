@@ -19,6 +19,7 @@
 
 package net.sf.mzmine.modules.projectmethods.projectsave;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -27,6 +28,7 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -65,12 +67,61 @@ public class PeakListSaveHandler {
 
     private OutputStream finalStream;
 
+    // Offsets of the data points of the peaks within the data points table,
+    // null if the table was not written
+    private Map<Feature, Long> dataPointsTableOffsets;
+
     public PeakListSaveHandler(OutputStream finalStream,
 	    Hashtable<RawDataFile, String> dataFilesIDMap) {
 	this.finalStream = finalStream;
 	this.dataFilesIDMap = dataFilesIDMap;
     }
 
+    /**
+     * Writes a binary table of the data points of all peaks of given peak list
+     * to given stream. For each peak, the table contains the number of data
+     * points, followed by the scan numbers, m/z values and heights. If this
+     * method is called before savePeakList(), the peaks in the XML document
+     * refer to their offset within the table instead of containing the data
+     * points, so the table must be saved together with the XML document. The
+     * given stream is flushed, but not closed.
+     */
+    public void writeDataPointsTable(PeakList peakList, OutputStream stream)
+	    throws IOException {
+
+	dataPointsTableOffsets = new IdentityHashMap<Feature, Long>();
+
+	DataOutputStream dataStream = new DataOutputStream(
+		new BufferedOutputStream(stream));
+
+	// DataOutputStream counts the written bytes as int, so the offsets are
+	// counted here
+	long offset = 0;
+	for (PeakListRow row : peakList.getRows()) {
+	    for (Feature peak : row.getPeaks()) {
+
+		dataPointsTableOffsets.put(peak, offset);
+
+		int scanNumbers[] = peak.getScanNumbers();
+		DataPoint mzPeaks[] = new DataPoint[scanNumbers.length];
+		dataStream.writeInt(scanNumbers.length);
+		for (int i = 0; i < scanNumbers.length; i++) {
+		    dataStream.writeInt(scanNumbers[i]);
+		    mzPeaks[i] = peak.getDataPoint(scanNumbers[i]);
+		}
+		for (DataPoint mzPeak : mzPeaks)
+		    dataStream.writeFloat(mzPeak != null ? (float) mzPeak
+			    .getMZ() : 0f);
+		for (DataPoint mzPeak : mzPeaks)
+		    dataStream.writeFloat(mzPeak != null ? (float) mzPeak
+			    .getIntensity() : 0f);
+		offset += 4 + scanNumbers.length * 3L * 4;
+	    }
+	}
+
+	dataStream.flush();
+    }
+
     /**
      * Create an XML document with the peak list information an save it into the
      * project zip file
@@ -118,7 +169,10 @@ public class PeakListSaveHandler {
 	    dateText = ((SimplePeakList) peakList).getDateCreated();
 	} else {
 	    Date date = new Date();
-	    dateText = dateFormat.format(date);
+	    // Peak lists are saved in parallel, and DateFormat is not thread-safe
+	    synchronized (dateFormat) {
+		dateText = dateFormat.format(date);
+	    }
 	}
 	hd.startElement("", "",
 		PeakListElementName.PEAKLIST_DATE.getElementName(), atts);
@@ -400,6 +454,19 @@ public class PeakListSaveHandler {
 	atts.addAttribute("", "",
 		PeakListElementName.QUANTITY.getElementName(), "CDATA",
 		String.valueOf(scanNumbers.length));
+
+	// If the data points are saved in the data points table, only their
+	// offset within the table is saved
+	if (dataPointsTableOffsets != null) {
+	    atts.addAttribute("", "",
+		    PeakListElementName.INDEX.getElementName(), "CDATA",
+		    String.valueOf(dataPointsTableOffsets.get(peak)));
+	    hd.startElement("", "",
+		    PeakListElementName.MZPEAKS.getElementName(), atts);
+	    hd.endElement("", "", PeakListElementName.MZPEAKS.getElementName());
+	    return;
+	}
+
 	hd.startElement("", "", PeakListElementName.MZPEAKS.getElementName(),
 		atts);
 	atts.clear();
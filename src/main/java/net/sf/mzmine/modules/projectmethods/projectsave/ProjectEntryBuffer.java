@@ -0,0 +1,148 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectsave;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Temporary file holding the entries of one raw data file or peak list, which
+ * are serialized by a worker thread of ProjectSavingTask in parallel with the
+ * other objects of the project. The entries are then copied to the project
+ * file by writeTo(), in the order of the project. The size and CRC-32 of each
+ * entry are calculated while it is written, so binary entries can be saved
+ * uncompressed without reading their data twice.
+ */
+class ProjectEntryBuffer extends OutputStream {
+
+    private final File tempFile;
+    private final OutputStream fileStream;
+    private final List<BufferedEntry> entries = new ArrayList<BufferedEntry>();
+    private final CRC32 crc = new CRC32();
+    private BufferedEntry currentEntry;
+
+    ProjectEntryBuffer() throws IOException {
+	tempFile = File.createTempFile("mzmineproject", ".tmp");
+	tempFile.deleteOnExit();
+	fileStream = new BufferedOutputStream(new FileOutputStream(tempFile));
+    }
+
+    /**
+     * Begins writing a new entry
+     * 
+     * @param stored
+     *            true if the entry contains binary data, which are saved
+     *            uncompressed in the project file
+     */
+    void putNextEntry(String name, boolean stored) {
+	closeEntry();
+	currentEntry = new BufferedEntry(name, stored);
+	entries.add(currentEntry);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+	fileStream.write(b);
+	crc.update(b);
+	currentEntry.size++;
+    }
+
+    @Override
+    public void write(byte b[], int off, int len) throws IOException {
+	fileStream.write(b, off, len);
+	crc.update(b, off, len);
+	currentEntry.size += len;
+    }
+
+    /**
+     * Finishes the last entry and closes the temporary file
+     */
+    @Override
+    public void close() throws IOException {
+	closeEntry();
+	fileStream.close();
+    }
+
+    /**
+     * Copies the entries to given project file stream. Must be called after
+     * close().
+     */
+    void writeTo(ProjectZipOutputStream zipStream) throws IOException {
+	InputStream is = new BufferedInputStream(new FileInputStream(tempFile));
+	try {
+	    for (BufferedEntry entry : entries) {
+		if (entry.stored)
+		    zipStream.putNextStoredEntry(entry.name, entry.size,
+			    entry.crc);
+		else
+		    zipStream.putNextEntry(new ZipEntry(entry.name));
+		long copied = ByteStreams.copy(
+			ByteStreams.limit(is, entry.size), zipStream);
+		if (copied != entry.size)
+		    throw new EOFException("Temporary file " + tempFile
+			    + " is truncated");
+	    }
+	} finally {
+	    is.close();
+	}
+    }
+
+    /**
+     * Deletes the temporary file
+     */
+    void delete() {
+	tempFile.delete();
+    }
+
+    private void closeEntry() {
+	if (currentEntry == null)
+	    return;
+	currentEntry.crc = crc.getValue();
+	crc.reset();
+	currentEntry = null;
+    }
+
+    private static final class BufferedEntry {
+
+	private final String name;
+	private final boolean stored;
+	private long size, crc;
+
+	BufferedEntry(String name, boolean stored) {
+	    this.name = name;
+	    this.stored = stored;
+	}
+
+    }
+
+}
@@ -19,13 +19,24 @@
 
 package net.sf.mzmine.modules.projectmethods.projectsave;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 import javax.xml.transform.TransformerConfigurationException;
@@ -33,16 +44,19 @@ import javax.xml.transform.TransformerConfigurationException;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.desktop.impl.MainWindow;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.projectmethods.projectload.ProjectLoaderParameters;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.project.impl.ProjectFileEntry;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.StreamCopy;
+import net.sf.mzmine.util.ThreadUtils;
 
 import org.xml.sax.SAXException;
 
@@ -51,23 +65,55 @@ public class ProjectSavingTask extends AbstractTask {
     public static final String VERSION_FILENAME = "MZMINE_VERSION";
     public static final String CONFIG_FILENAME = "configuration.xml";
     public static final String PARAMETERS_FILENAME = "User parameters.xml";
+    public static final String ENTRY_OFFSETS_FILENAME = "Entry offsets.properties";
+
+    /**
+     * Format of the project file, saved in front of the MZmine version in the
+     * VERSION_FILENAME entry. Format 2 saves the data points of the peaks in
+     * the .peaks entries. Projects of format 1 only contain the MZmine
+     * version. Older MZmine versions reject a version entry which does not
+     * start with the version number, so they do not misread the peak lists.
+     */
+    public static final int FORMAT_VERSION = 2;
+
+    // Raw data files and peak lists serialized ahead of the one being
+    // written to the project file, per serializing thread
+    private static final int QUEUED_OBJECTS_PER_THREAD = 2;
 
     private Logger logger = Logger.getLogger(this.getClass().getName());
 
     private File saveFile;
     private MZmineProjectImpl savedProject;
 
-    private RawDataFileSaveHandler rawDataFileSaveHandler;
-    private PeakListSaveHandler peakListSaveHandler;
     private UserParameterSaveHandler userParameterSaveHandler;
 
     private final int totalSaveItems;
-    private int currentStage, finishedSaveItems = 0;
+    private int currentStage;
     private String currentSavedObjectName;
 
+    // Raw data files and peak lists of the project, in the order they are
+    // written to the project file. Those which cannot be copied from the
+    // previous project file are serialized in parallel by worker threads.
+    private volatile List<SavedObject> savedObjects;
+
+    // Set when the serialized entries are no longer needed, because the save
+    // finished, failed or was canceled
+    private volatile boolean discarded = false;
+
     // This hashtable maps raw data files to their ID within the saved project
     private Hashtable<RawDataFile, String> dataFilesIDMap;
 
+    // Previous project file. The entries of the raw data files and peak lists
+    // which were not modified since they were saved in it are copied from it.
+    private File previousFile;
+    private ZipFile previousZipFile;
+    private StreamCopy copyMachine;
+
+    // Entries of the saved raw data files and peak lists, which are set to
+    // them when the project is successfully saved
+    private final Map<RawDataFileImpl, ProjectFileEntry> savedDataFileEntries = new IdentityHashMap<RawDataFileImpl, ProjectFileEntry>();
+    private final Map<SimplePeakList, ProjectFileEntry> savedPeakListEntries = new IdentityHashMap<SimplePeakList, ProjectFileEntry>();
+
     public ProjectSavingTask(MZmineProject project, ParameterSet parameters) {
         this.savedProject = (MZmineProjectImpl) project;
         this.saveFile = parameters
@@ -94,28 +140,29 @@ public class ProjectSavingTask extends AbstractTask {
         if (totalSaveItems == 0)
             return 0.0;
 
-        double currentItemProgress = 0.0;
-
         switch (currentStage) {
         case 2:
-            if (rawDataFileSaveHandler != null)
-                currentItemProgress = rawDataFileSaveHandler.getProgress();
             break;
         case 3:
-            if (peakListSaveHandler != null)
-                currentItemProgress = peakListSaveHandler.getProgress();
-            break;
         case 4:
-        case 5:
             return 1.0;
         default:
             return 0;
         }
 
-        double progress = ((double) finishedSaveItems + currentItemProgress)
-                / totalSaveItems;
+        List<SavedObject> currentSavedObjects = savedObjects;
+        if (currentSavedObjects == null)
+            return 0;
+
+        double progress = 0.0;
+        for (SavedObject savedObject : currentSavedObjects)
+            progress += savedObject.getProgress();
 
-        return progress;
+        StreamCopy currentCopyMachine = copyMachine;
+        if (currentCopyMachine != null)
+            progress += currentCopyMachine.getProgress();
+
+        return progress / totalSaveItems;
     }
 
     /**
@@ -127,15 +174,19 @@ public class ProjectSavingTask extends AbstractTask {
 
         setStatus(TaskStatus.CANCELED);
 
-        if (rawDataFileSaveHandler != null)
-            rawDataFileSaveHandler.cancel();
-
-        if (peakListSaveHandler != null)
-            peakListSaveHandler.cancel();
+        List<SavedObject> currentSavedObjects = savedObjects;
+        if (currentSavedObjects != null) {
+            for (SavedObject savedObject : currentSavedObjects)
+                savedObject.cancel();
+        }
 
         if (userParameterSaveHandler != null)
             userParameterSaveHandler.cancel();
 
+        StreamCopy currentCopyMachine = copyMachine;
+        if (currentCopyMachine != null)
+            currentCopyMachine.cancel();
+
     }
 
     /**
@@ -157,49 +208,52 @@ public class ProjectSavingTask extends AbstractTask {
 
             // Create a ZIP stream writing to the temporary file
             FileOutputStream tempStream = new FileOutputStream(tempFile);
-            ZipOutputStream zipStream = new ZipOutputStream(tempStream);
+            ProjectZipOutputStream zipStream = new ProjectZipOutputStream(
+                    new BufferedOutputStream(tempStream));
+
+            // Open the previous project file, if any
+            previousFile = savedProject.getProjectFile();
+            if ((previousFile != null) && previousFile.exists()) {
+                try {
+                    previousZipFile = new ZipFile(previousFile);
+                } catch (IOException e) {
+                    logger.warning("Could not open the previous project file "
+                            + previousFile + ", saving all data: "
+                            + ExceptionUtils.exceptionToString(e));
+                }
+            }
 
             // Stage 1 - save version and configuration
             currentStage++;
             saveVersion(zipStream);
             saveConfiguration(zipStream);
             if (isCanceled()) {
-                zipStream.close();
-                tempFile.delete();
+                discardTempFile(zipStream, tempFile);
                 return;
             }
 
-            // Stage 2 - save RawDataFile objects
+            // Stage 2 - save RawDataFile and PeakList objects
             currentStage++;
-            saveRawDataFiles(zipStream);
+            saveDataFilesAndPeakLists(zipStream);
             if (isCanceled()) {
-                zipStream.close();
-                tempFile.delete();
+                discardTempFile(zipStream, tempFile);
                 return;
             }
 
-            // Stage 3 - save PeakList objects
-            currentStage++;
-            savePeakLists(zipStream);
-            if (isCanceled()) {
-                zipStream.close();
-                tempFile.delete();
-                return;
-            }
-
-            // Stage 4 - save user parameters
+            // Stage 3 - save user parameters
             currentStage++;
             saveUserParameters(zipStream);
             if (isCanceled()) {
-                zipStream.close();
-                tempFile.delete();
+                discardTempFile(zipStream, tempFile);
                 return;
             }
 
-            // Stage 5 - finish and close the temporary ZIP file
+            // Stage 4 - finish and close the temporary ZIP file
             currentStage++;
             currentSavedObjectName = null;
+            zipStream.writeEntryOffsets();
             zipStream.close();
+            closePreviousZipFile();
 
             // Final check for cancel
             if (isCanceled()) {
@@ -207,9 +261,18 @@ public class ProjectSavingTask extends AbstractTask {
                 return;
             }
 
-            // Move the temporary ZIP file to the final location
+            // Move the temporary ZIP file to the final location. The old file
+            // may be in use by the raw data files which read their scans from
+            // it. Some systems (e.g. Windows) do not allow deleting such file,
+            // so then the raw data files copy their scans and release it.
             if (saveFile.exists() && !saveFile.delete()) {
-                throw new IOException("Could not delete old file " + saveFile);
+                for (RawDataFile dataFile : savedProject.getDataFiles()) {
+                    ((RawDataFileImpl) dataFile).releaseProjectFile(saveFile);
+                }
+                if (!saveFile.delete()) {
+                    throw new IOException("Could not delete old file "
+                            + saveFile);
+                }
             }
 
             boolean renameOK = tempFile.renameTo(saveFile);
@@ -221,6 +284,15 @@ public class ProjectSavingTask extends AbstractTask {
             // Update the location of the project
             savedProject.setProjectFile(saveFile);
 
+            // Remember where the raw data files and peak lists were saved, so
+            // the next save can copy the entries of the unmodified ones
+            for (Map.Entry<RawDataFileImpl, ProjectFileEntry> entry : savedDataFileEntries
+                    .entrySet())
+                entry.getKey().setProjectFileEntry(entry.getValue());
+            for (Map.Entry<SimplePeakList, ProjectFileEntry> entry : savedPeakListEntries
+                    .entrySet())
+                entry.getKey().setProjectFileEntry(entry.getValue());
+
             // Update the window title to reflect the new name of the project
             if (MZmineCore.getDesktop() instanceof MainWindow) {
                 MainWindow mainWindow = (MainWindow) MZmineCore.getDesktop();
@@ -233,6 +305,8 @@ public class ProjectSavingTask extends AbstractTask {
 
         } catch (Throwable e) {
 
+            closePreviousZipFile();
+
             setStatus(TaskStatus.ERROR);
 
             if (currentSavedObjectName == null) {
@@ -258,7 +332,8 @@ public class ProjectSavingTask extends AbstractTask {
 
         String MZmineVersion = MZmineCore.getMZmineVersion();
 
-        zipStream.write(MZmineVersion.getBytes());
+        zipStream.write(("Format " + FORMAT_VERSION + " " + MZmineVersion)
+                .getBytes());
 
     }
 
@@ -294,61 +369,255 @@ public class ProjectSavingTask extends AbstractTask {
     }
 
     /**
-     * Save the raw data files
+     * Save the raw data files and peak lists. The objects are serialized in
+     * parallel by a pool of worker threads, each into its own temporary
+     * ProjectEntryBuffer, while this thread copies the serialized entries to
+     * the project file in the order of the project. The entries of the objects
+     * which were not modified since they were saved in the previous project
+     * file are copied from it instead.
      * 
      * @throws SAXException
      * @throws TransformerConfigurationException
      */
-    private void saveRawDataFiles(ZipOutputStream zipStream) throws IOException,
-            TransformerConfigurationException, SAXException {
-
-        rawDataFileSaveHandler = new RawDataFileSaveHandler(zipStream);
+    private void saveDataFilesAndPeakLists(ProjectZipOutputStream zipStream)
+            throws IOException, TransformerConfigurationException,
+            SAXException, InterruptedException {
 
+        // The IDs of all raw data files must be known before the peak lists
+        // referring to them are serialized
+        List<SavedObject> objects = new ArrayList<SavedObject>();
         RawDataFile rawDataFiles[] = savedProject.getDataFiles();
-
         for (int i = 0; i < rawDataFiles.length; i++) {
+            RawDataFileImpl rawDataFile = (RawDataFileImpl) rawDataFiles[i];
+            dataFilesIDMap.put(rawDataFile, String.valueOf(i + 1));
+            objects.add(new SavedDataFile(rawDataFile, i + 1));
+        }
+        PeakList peakLists[] = savedProject.getPeakLists();
+        for (int i = 0; i < peakLists.length; i++) {
+            objects.add(new SavedPeakList(peakLists[i], i + 1));
+        }
+        savedObjects = objects;
 
-            if (isCanceled())
-                return;
+        final int numOfThreads = ThreadUtils.getNumOfThreads();
+        final int maxQueuedObjects = numOfThreads * QUEUED_OBJECTS_PER_THREAD;
+        ExecutorService executor = ThreadUtils.getSharedExecutor();
 
-            currentSavedObjectName = rawDataFiles[i].getName();
-            rawDataFileSaveHandler
-                    .writeRawDataFile((RawDataFileImpl) rawDataFiles[i], i + 1);
-            dataFilesIDMap.put(rawDataFiles[i], String.valueOf(i + 1));
-            finishedSaveItems++;
+        int submittedObjects = 0, writtenObjects = 0;
+        try {
+            for (SavedObject savedObject : objects) {
+
+                // Start serializing the following objects. Their number is
+                // limited, so the temporary files do not take much more disk
+                // space than the objects being serialized.
+                while ((submittedObjects < objects.size())
+                        && (submittedObjects < writtenObjects
+                                + maxQueuedObjects)) {
+                    SavedObject nextObject = objects.get(submittedObjects++);
+                    if (nextObject.previousEntries == null)
+                        nextObject.serialization = executor.submit(nextObject);
+                }
+
+                if (isCanceled())
+                    return;
+
+                currentSavedObjectName = savedObject.name;
+
+                if (savedObject.previousEntries != null) {
+                    copyPreviousEntries(zipStream, savedObject.previousEntries,
+                            savedObject.savedName);
+                } else {
+                    ProjectEntryBuffer entryBuffer = getSerializedEntries(savedObject.serialization);
+                    if (entryBuffer == null)
+                        return;
+                    try {
+                        entryBuffer.writeTo(zipStream);
+                    } finally {
+                        entryBuffer.delete();
+                    }
+                }
+
+                if (isCanceled())
+                    return;
+
+                savedObject.saved();
+                writtenObjects++;
+            }
+        } finally {
+            // Running serializations delete their entries when they finish.
+            // They are not interrupted, because an interrupt would close the
+            // channels of the raw data files being read.
+            discarded = true;
+            for (int i = writtenObjects; i < submittedObjects; i++) {
+                discardSerialization(objects.get(i).serialization);
+            }
         }
     }
 
     /**
-     * Save the peak lists
+     * Waits for given serialization to finish and returns its entries, or null
+     * if the save was canceled meanwhile. Rethrows the exception of the
+     * serialization, if any.
+     */
+    private static ProjectEntryBuffer getSerializedEntries(
+            Future<ProjectEntryBuffer> serialization) throws IOException,
+            TransformerConfigurationException, SAXException,
+            InterruptedException {
+        try {
+            return serialization.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof TransformerConfigurationException)
+                throw (TransformerConfigurationException) cause;
+            if (cause instanceof SAXException)
+                throw (SAXException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException("Could not serialize the data: " + cause,
+                    cause);
+        }
+    }
+
+    /**
+     * Cancels given serialization, whose entries will not be written, or
+     * deletes its entries if it already finished
+     */
+    private static void discardSerialization(
+            Future<ProjectEntryBuffer> serialization) {
+        if ((serialization == null) || serialization.cancel(false))
+            return;
+        try {
+            ProjectEntryBuffer entryBuffer = serialization.get();
+            if (entryBuffer != null)
+                entryBuffer.delete();
+        } catch (Exception e) {
+            // The serialization failed, there are no entries to delete
+        }
+    }
+
+    /**
+     * Returns the entries of a raw data file or peak list, which was not
+     * modified since it was saved in the previous project file, in the
+     * previous project file. Returns null if the entries cannot be copied, and
+     * the object must be saved again.
      * 
-     * @throws SAXException
-     * @throws TransformerConfigurationException
+     * @param projectFileEntry
+     *            entries of the object in the project file it was last saved
+     *            to or loaded from, may be null
+     * @param modificationStamp
+     *            current modification stamp of the object
+     * @param extensions
+     *            extensions of the entries to copy
      */
-    private void savePeakLists(ZipOutputStream zipStream) throws IOException,
-            TransformerConfigurationException, SAXException {
+    private ZipEntry[] findPreviousEntries(ProjectFileEntry projectFileEntry,
+            long modificationStamp, String... extensions) {
+
+        if ((previousZipFile == null) || (projectFileEntry == null)
+                || !projectFileEntry.isUnmodified(previousFile,
+                        modificationStamp))
+            return null;
+
+        ZipEntry entries[] = new ZipEntry[extensions.length];
+        for (int i = 0; i < extensions.length; i++) {
+            entries[i] = previousZipFile.getEntry(
+                    projectFileEntry.getEntryName() + extensions[i]);
+            if (entries[i] == null)
+                return null;
+        }
 
-        PeakList peakLists[] = savedProject.getPeakLists();
+        return entries;
+    }
 
-        for (int i = 0; i < peakLists.length; i++) {
+    /**
+     * Copies given entries from the previous project file under given new
+     * name. Entries other than XML contain binary data and they are saved
+     * uncompressed.
+     * 
+     * @param newName
+     *            name of the entries in the new project file, without the
+     *            extension
+     */
+    private void copyPreviousEntries(ProjectZipOutputStream zipStream,
+            ZipEntry entries[], String newName) throws IOException {
+
+        logger.info("Copying unmodified " + currentSavedObjectName
+                + " from the previous project file");
+
+        for (ZipEntry entry : entries) {
 
             if (isCanceled())
                 return;
 
-            logger.info("Saving peak list: " + peakLists[i].getName());
+            // The CRC-32 and size of the uncompressed data are known from the
+            // previous project file, so the binary data can be saved
+            // uncompressed even if they were compressed before
+            String entryName = entry.getName();
+            String name = newName
+                    + entryName.substring(entryName.lastIndexOf('.'));
+            if (name.endsWith(".xml"))
+                zipStream.putNextEntry(new ZipEntry(name));
+            else
+                zipStream.putNextStoredEntry(name, entry.getSize(),
+                        entry.getCrc());
+
+            InputStream is = previousZipFile.getInputStream(entry);
+            copyMachine = new StreamCopy();
+            copyMachine.copy(is, zipStream, entry.getSize());
+            is.close();
+            copyMachine = null;
+        }
 
-            String peakListSavedName = "Peak list #" + (i + 1) + " "
-                    + peakLists[i].getName();
+    }
 
-            zipStream.putNextEntry(new ZipEntry(peakListSavedName + ".xml"));
+    /**
+     * Returns true if all raw data files of given peak list have the same IDs
+     * as in the project file the peak list was last saved to or loaded from,
+     * so its saved XML refers to the right raw data files
+     */
+    private boolean hasSameDataFileIDs(SimplePeakList peakList) {
+        ProjectFileEntry peakListEntry = peakList.getProjectFileEntry();
+        if (peakListEntry == null)
+            return false;
+        for (RawDataFile dataFile : peakList.getRawDataFiles()) {
+            ProjectFileEntry dataFileEntry = ((RawDataFileImpl) dataFile)
+                    .getProjectFileEntry();
+            if ((dataFileEntry == null)
+                    || !dataFileEntry.getProjectFile().equals(
+                            peakListEntry.getProjectFile())
+                    || !dataFileEntry.getID().equals(
+                            dataFilesIDMap.get(dataFile)))
+                return false;
+        }
+        return true;
+    }
 
-            peakListSaveHandler = new PeakListSaveHandler(zipStream,
-                    dataFilesIDMap);
+    /**
+     * Closes and deletes the temporary file of a canceled save. Closing may
+     * fail, because the last entry was not completely written.
+     */
+    private void discardTempFile(ZipOutputStream zipStream, File tempFile) {
+        try {
+            zipStream.close();
+        } catch (IOException e) {
+            // Ignore, the file is deleted anyway
+        }
+        closePreviousZipFile();
+        tempFile.delete();
+    }
 
-            currentSavedObjectName = peakLists[i].getName();
-            peakListSaveHandler.savePeakList(peakLists[i]);
-            finishedSaveItems++;
+    private void closePreviousZipFile() {
+        if (previousZipFile == null)
+            return;
+        try {
+            previousZipFile.close();
+        } catch (IOException e) {
+            logger.warning("Could not close the previous project file "
+                    + previousFile + ": " + ExceptionUtils.exceptionToString(e));
         }
+        previousZipFile = null;
     }
 
     /**
@@ -376,4 +645,194 @@ public class ProjectSavingTask extends AbstractTask {
 
     }
 
+    /**
+     * Raw data file or peak list being saved. Unless its entries can be copied
+     * from the previous project file, it is serialized by a worker thread into
+     * a ProjectEntryBuffer, which is returned by call().
+     */
+    private abstract class SavedObject implements Callable<ProjectEntryBuffer> {
+
+        final String name, savedName, id;
+
+        // Entries to copy from the previous project file, or null
+        ZipEntry previousEntries[];
+
+        Future<ProjectEntryBuffer> serialization;
+        volatile boolean written = false;
+
+        SavedObject(String name, String savedName, String id) {
+            this.name = name;
+            this.savedName = savedName;
+            this.id = id;
+        }
+
+        public ProjectEntryBuffer call() throws Exception {
+
+            if (discarded || isCanceled())
+                return null;
+
+            ProjectEntryBuffer entryBuffer = new ProjectEntryBuffer();
+            try {
+                serialize(entryBuffer);
+                entryBuffer.close();
+            } catch (Exception e) {
+                try {
+                    entryBuffer.close();
+                } catch (IOException closeException) {
+                    // Ignore, the file is deleted anyway
+                }
+                entryBuffer.delete();
+                throw e;
+            }
+
+            // The save may have failed or been canceled meanwhile
+            if (discarded || isCanceled()) {
+                entryBuffer.delete();
+                return null;
+            }
+
+            return entryBuffer;
+        }
+
+        /**
+         * Returns the progress of saving this object, as a number between 0
+         * and 1
+         */
+        double getProgress() {
+            if (written)
+                return 1.0;
+            if (previousEntries != null)
+                return 0.0;
+            return 0.9 * getSerializationProgress();
+        }
+
+        /**
+         * Called when the entries of this object were written to the project
+         * file
+         */
+        void saved() {
+            written = true;
+        }
+
+        abstract void serialize(ProjectEntryBuffer entryBuffer)
+                throws IOException, TransformerConfigurationException,
+                SAXException;
+
+        abstract double getSerializationProgress();
+
+        abstract void cancel();
+
+    }
+
+    private class SavedDataFile extends SavedObject {
+
+        private final RawDataFileImpl rawDataFile;
+        private final int number;
+        private final long modificationStamp;
+        private volatile RawDataFileSaveHandler rawDataFileSaveHandler;
+
+        SavedDataFile(RawDataFileImpl rawDataFile, int number) {
+            super(rawDataFile.getName(), "Raw data file #" + number + " "
+                    + rawDataFile.getName(), String.valueOf(number));
+            this.rawDataFile = rawDataFile;
+            this.number = number;
+            // The modification stamp is taken before saving, so changes made
+            // while saving are saved next time
+            this.modificationStamp = rawDataFile.getModificationStamp();
+            this.previousEntries = findPreviousEntries(
+                    rawDataFile.getProjectFileEntry(), modificationStamp,
+                    ".scans", ".xml");
+        }
+
+        void serialize(ProjectEntryBuffer entryBuffer) throws IOException,
+                TransformerConfigurationException, SAXException {
+            rawDataFileSaveHandler = new RawDataFileSaveHandler(entryBuffer);
+            rawDataFileSaveHandler.writeRawDataFile(rawDataFile, number);
+        }
+
+        void saved() {
+            super.saved();
+            savedDataFileEntries.put(rawDataFile, new ProjectFileEntry(
+                    saveFile, savedName, id, modificationStamp));
+        }
+
+        double getSerializationProgress() {
+            RawDataFileSaveHandler handler = rawDataFileSaveHandler;
+            return (handler != null) ? handler.getProgress() : 0.0;
+        }
+
+        void cancel() {
+            RawDataFileSaveHandler handler = rawDataFileSaveHandler;
+            if (handler != null)
+                handler.cancel();
+        }
+
+    }
+
+    /**
+     * Peak list being saved. The data points of its peaks are saved as a
+     * binary table in an uncompressed entry, next to the XML description of
+     * the peak list.
+     */
+    private class SavedPeakList extends SavedObject {
+
+        private final PeakList peakList;
+        private final long modificationStamp;
+        private volatile PeakListSaveHandler peakListSaveHandler;
+
+        SavedPeakList(PeakList peakList, int number) {
+            super(peakList.getName(), "Peak list #" + number + " "
+                    + peakList.getName(), String.valueOf(number));
+            this.peakList = peakList;
+
+            // Peak lists which were not modified are copied, if their raw
+            // data files have the same IDs as in the previous project file
+            if (peakList instanceof SimplePeakList) {
+                SimplePeakList simplePeakList = (SimplePeakList) peakList;
+                this.modificationStamp = simplePeakList.getModificationStamp();
+                if (hasSameDataFileIDs(simplePeakList))
+                    this.previousEntries = findPreviousEntries(
+                            simplePeakList.getProjectFileEntry(),
+                            modificationStamp, ".peaks", ".xml");
+            } else {
+                this.modificationStamp = -1;
+            }
+        }
+
+        void serialize(ProjectEntryBuffer entryBuffer) throws IOException,
+                TransformerConfigurationException, SAXException {
+
+            logger.info("Saving peak list: " + name);
+
+            peakListSaveHandler = new PeakListSaveHandler(entryBuffer,
+                    dataFilesIDMap);
+
+            entryBuffer.putNextEntry(savedName + ".peaks", true);
+            peakListSaveHandler.writeDataPointsTable(peakList, entryBuffer);
+
+            entryBuffer.putNextEntry(savedName + ".xml", false);
+            peakListSaveHandler.savePeakList(peakList);
+        }
+
+        void saved() {
+            super.saved();
+            if (modificationStamp >= 0)
+                savedPeakListEntries.put((SimplePeakList) peakList,
+                        new ProjectFileEntry(saveFile, savedName, id,
+                                modificationStamp));
+        }
+
+        double getSerializationProgress() {
+            PeakListSaveHandler handler = peakListSaveHandler;
+            return (handler != null) ? handler.getProgress() : 0.0;
+        }
+
+        void cancel() {
+            PeakListSaveHandler handler = peakListSaveHandler;
+            if (handler != null)
+                handler.cancel();
+        }
+
+    }
+
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectsave;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * ZIP stream of the project file. Binary data (scans of the raw data files and
+ * data points of the peak lists) are saved as uncompressed (STORED) entries,
+ * and the offsets of their local headers within the project file are saved in
+ * the ENTRY_OFFSETS_FILENAME entry. This allows ProjectOpeningTask to use such
+ * entries in place, e.g. by memory-mapping them, instead of extracting them.
+ */
+class ProjectZipOutputStream extends ZipOutputStream {
+
+    private final CountingOutputStream countingStream;
+    private final Properties entryOffsets = new Properties();
+
+    ProjectZipOutputStream(OutputStream out) {
+	super(new CountingOutputStream(out));
+	// The stream passed to the superclass constructor
+	this.countingStream = (CountingOutputStream) this.out;
+    }
+
+    /**
+     * Begins writing an uncompressed entry. The size and CRC-32 of the data
+     * must be known in advance, because ZIP requires them in the local header
+     * of uncompressed entries.
+     */
+    void putNextStoredEntry(String name, long size, long crc)
+	    throws IOException {
+
+	// Closing the previous entry may write its data descriptor
+	closeEntry();
+
+	ZipEntry entry = new ZipEntry(name);
+	entry.setMethod(ZipEntry.STORED);
+	entry.setSize(size);
+	entry.setCompressedSize(size);
+	entry.setCrc(crc);
+
+	entryOffsets.setProperty(name,
+		String.valueOf(countingStream.getCount()));
+	putNextEntry(entry);
+
+    }
+
+    /**
+     * Writes the offsets of the uncompressed entries. Must be called after all
+     * uncompressed entries are written.
+     */
+    void writeEntryOffsets() throws IOException {
+	putNextEntry(new ZipEntry(ProjectSavingTask.ENTRY_OFFSETS_FILENAME));
+	entryOffsets.store(this, "Offsets of the uncompressed entries");
+	closeEntry();
+    }
+
+}
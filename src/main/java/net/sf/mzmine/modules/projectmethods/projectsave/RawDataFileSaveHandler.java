@@ -21,12 +21,10 @@ package net.sf.mzmine.modules.projectmethods.projectsave;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
@@ -35,9 +33,11 @@ import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 
+import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.MassList;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.project.impl.RawDataFileImpl.DataPointsSnapshot;
 import net.sf.mzmine.project.impl.StorableMassList;
 import net.sf.mzmine.project.impl.StorableScan;
 
@@ -50,21 +50,20 @@ class RawDataFileSaveHandler {
 
     private Logger logger = Logger.getLogger(this.getClass().getName());
     private int numOfScans, completedScans;
-    private ZipOutputStream zipOutputStream;
+    private ProjectEntryBuffer entryBuffer;
     private boolean canceled = false;
-    private Map<Integer, Long> dataPointsOffsets;
     private Map<Integer, Long> consolidatedDataPointsOffsets;
     private Map<Integer, Integer> dataPointsLengths;
     private double progress = 0;
 
-    RawDataFileSaveHandler(ZipOutputStream zipOutputStream) {
-	this.zipOutputStream = zipOutputStream;
+    RawDataFileSaveHandler(ProjectEntryBuffer entryBuffer) {
+	this.entryBuffer = entryBuffer;
     }
 
     /**
      * Copy the data points file of the raw data file from the temporary folder
-     * to the zip file. Create an XML file which contains the description of the
-     * same raw data file an copy it into the same zip file.
+     * to the entry buffer. Create an XML file which contains the description
+     * of the same raw data file an copy it into the same entry buffer.
      * 
      * @param rawDataFile
      *            raw data file to be copied
@@ -79,9 +78,11 @@ class RawDataFileSaveHandler {
 
 	numOfScans = rawDataFile.getNumOfScans();
 
-	// Get the structure of the data points file
-	dataPointsOffsets = rawDataFile.getDataPointsOffsets();
-	dataPointsLengths = rawDataFile.getDataPointsLengths();
+	// Get the structure of the data points file. The snapshot keeps the
+	// stored data points readable while they are copied, even if they are
+	// removed or the file is compacted meanwhile.
+	DataPointsSnapshot snapshot = rawDataFile.openDataPointsSnapshot();
+	dataPointsLengths = snapshot.getDataPointsLengths();
 	consolidatedDataPointsOffsets = new TreeMap<Integer, Long>();
 
 	// step 1 - save data file
@@ -90,31 +91,39 @@ class RawDataFileSaveHandler {
 	String rawDataSavedName = "Raw data file #" + number + " "
 		+ rawDataFile.getName();
 
-	zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".scans"));
-
 	// We save only those data points that still have a reference in the
 	// dataPointsOffset table. Some deleted mass lists may still be present
-	// in the data points file, we don't want to copy those.
-	long newOffset = 0;
-	byte buffer[] = new byte[1 << 20];
-	RandomAccessFile dataPointsFile = rawDataFile.getDataPointsFile();
-	for (Integer storageID : dataPointsOffsets.keySet()) {
-
-	    if (canceled)
-		return;
-
-	    final long offset = dataPointsOffsets.get(storageID);
-	    dataPointsFile.seek(offset);
-
-	    final int bytes = dataPointsLengths.get(storageID) * 4 * 2;
-	    consolidatedDataPointsOffsets.put(storageID, newOffset);
-	    if (buffer.length < bytes) {
-		buffer = new byte[bytes * 2];
+	// in the data points file, we don't want to copy those. The data points
+	// are read through the raw data file, which decodes them if they were
+	// stored compressed, so the project always contains uncompressed data
+	// points. The scans are saved as an uncompressed entry, which can be
+	// used in place when the project is opened. The entry buffer calculates
+	// the size and CRC-32 such entry needs in its local header.
+	entryBuffer.putNextEntry(rawDataSavedName + ".scans", true);
+
+	try {
+	    long newOffset = 0;
+	    byte buffer[] = new byte[1 << 20];
+	    int savedBlocks = 0;
+	    for (Integer storageID : dataPointsLengths.keySet()) {
+
+		if (canceled)
+		    return;
+
+		final int bytes = getBytes(snapshot, storageID, buffer);
+		if (bytes > buffer.length) {
+		    buffer = new byte[bytes * 2];
+		    getBytes(snapshot, storageID, buffer);
+		}
+		entryBuffer.write(buffer, 0, bytes);
+		consolidatedDataPointsOffsets.put(storageID, newOffset);
+		newOffset += bytes;
+		savedBlocks++;
+		progress = 0.9 * ((double) savedBlocks / dataPointsLengths
+			.size());
 	    }
-	    dataPointsFile.read(buffer, 0, bytes);
-	    zipOutputStream.write(buffer, 0, bytes);
-	    newOffset += bytes;
-	    progress = 0.9 * ((double) offset / dataPointsFile.length());
+	} finally {
+	    snapshot.close();
 	}
 
 	if (canceled)
@@ -123,8 +132,8 @@ class RawDataFileSaveHandler {
 	// step 2 - save raw data description
 	logger.info("Saving raw data description of: " + rawDataFile.getName());
 
-	zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".xml"));
-	OutputStream finalStream = zipOutputStream;
+	entryBuffer.putNextEntry(rawDataSavedName + ".xml", false);
+	OutputStream finalStream = entryBuffer;
 
 	StreamResult streamResult = new StreamResult(finalStream);
 	SAXTransformerFactory tf = (SAXTransformerFactory) SAXTransformerFactory
@@ -141,6 +150,20 @@ class RawDataFileSaveHandler {
 	hd.endDocument();
     }
 
+    /**
+     * Reads the data points of given storage ID as uncompressed float pairs
+     * into given buffer. If the buffer is too small, nothing is read. Returns
+     * the number of bytes of the data points.
+     */
+    private static int getBytes(DataPointsSnapshot snapshot, int storageID,
+	    byte buffer[]) throws IOException {
+	float values[] = snapshot.readDataPoints(storageID);
+	final int bytes = values.length * 4;
+	if (bytes <= buffer.length)
+	    ByteBuffer.wrap(buffer).asFloatBuffer().put(values);
+	return bytes;
+    }
+
     /**
      * Function which creates an XML file with the descripcion of the raw data
      * 
@@ -165,11 +188,11 @@ class RawDataFileSaveHandler {
 
 	// <STORED_DATAPOINTS>
 	atts.addAttribute("", "", RawDataElementName.QUANTITY.getElementName(),
-		"CDATA", String.valueOf(dataPointsOffsets.size()));
+		"CDATA", String.valueOf(dataPointsLengths.size()));
 	hd.startElement("", "",
 		RawDataElementName.STORED_DATAPOINTS.getElementName(), atts);
 	atts.clear();
-	for (Integer storageID : dataPointsOffsets.keySet()) {
+	for (Integer storageID : dataPointsLengths.keySet()) {
 	    if (canceled)
 		return;
 	    int length = dataPointsLengths.get(storageID);
@@ -292,6 +315,35 @@ class RawDataFileSaveHandler {
 	hd.endElement("", "",
 		RawDataElementName.QUANTITY_DATAPOINTS.getElementName());
 
+	// The m/z range, base peak and TIC are saved, so they do not need to be
+	// calculated from the data points when the project is opened
+
+	// <MZ_RANGE>
+	hd.startElement("", "", RawDataElementName.MZ_RANGE.getElementName(),
+		atts);
+	Range<Double> dataMZRange = scan.getDataPointMZRange();
+	String dataMZRangeStr = dataMZRange.lowerEndpoint() + "-"
+		+ dataMZRange.upperEndpoint();
+	hd.characters(dataMZRangeStr.toCharArray(), 0, dataMZRangeStr.length());
+	hd.endElement("", "", RawDataElementName.MZ_RANGE.getElementName());
+
+	// <BASE_PEAK>
+	DataPoint basePeak = scan.getHighestDataPoint();
+	if (basePeak != null) {
+	    hd.startElement("", "",
+		    RawDataElementName.BASE_PEAK.getElementName(), atts);
+	    String basePeakStr = basePeak.getMZ() + ":"
+		    + basePeak.getIntensity();
+	    hd.characters(basePeakStr.toCharArray(), 0, basePeakStr.length());
+	    hd.endElement("", "", RawDataElementName.BASE_PEAK.getElementName());
+	}
+
+	// <TIC>
+	hd.startElement("", "", RawDataElementName.TIC.getElementName(), atts);
+	hd.characters(String.valueOf(scan.getTIC()).toCharArray(), 0, String
+		.valueOf(scan.getTIC()).length());
+	hd.endElement("", "", RawDataElementName.TIC.getElementName());
+
 	// <FRAGMENT_SCAN>
 	if (scan.getFragmentScanNumbers() != null) {
 	    int[] fragmentScans = scan.getFragmentScanNumbers();
@@ -359,7 +411,7 @@ class RawDataFileSaveHandler {
     /**
      * 
      * @return the progress of these functions saving the raw data information
-     *         to the zip file.
+     *         to the entry buffer.
      */
     double getProgress() {
 	return progress;
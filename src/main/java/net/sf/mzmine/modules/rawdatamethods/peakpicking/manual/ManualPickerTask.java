@@ -30,7 +30,6 @@ import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
 import net.sf.mzmine.modules.visualization.peaklisttable.table.PeakListTable;
@@ -103,26 +102,26 @@ class ManualPickerTask extends AbstractTask {
 
             int[] scanNumbers = dataFile.getScanNumbers(1, rtRange);
 
-            for (int scanNumber : scanNumbers) {
+            if (isCanceled())
+                return;
 
-                if (isCanceled())
-                    return;
+            // Find most intense m/z peak in each scan
+            DataPoint basePeaks[] = ScanUtils.findBasePeaks(dataFile,
+                    scanNumbers, mzRange);
 
-                // Get next scan
-                Scan scan = dataFile.getScan(scanNumber);
+            for (int i = 0; i < scanNumbers.length; i++) {
 
-                // Find most intense m/z peak
-                DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
+                DataPoint basePeak = basePeaks[i];
 
                 if (basePeak != null) {
                     if (basePeak.getIntensity() > 0)
                         dataPointFound = true;
-                    newPeak.addDatapoint(scan.getScanNumber(), basePeak);
+                    newPeak.addDatapoint(scanNumbers[i], basePeak);
                 } else {
                     final double mzCenter = (mzRange.lowerEndpoint()
                             + mzRange.upperEndpoint()) / 2.0;
                     DataPoint fakeDataPoint = new SimpleDataPoint(mzCenter, 0);
-                    newPeak.addDatapoint(scan.getScanNumber(), fakeDataPoint);
+                    newPeak.addDatapoint(scanNumbers[i], fakeDataPoint);
                 }
 
                 processedScans++;
@@ -20,6 +20,9 @@
 package net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection;
 
 import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.DataPoint;
@@ -31,6 +34,9 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.selectors.ScanSelection;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.DoubleArrayList;
+import net.sf.mzmine.util.ExceptionUtils;
+import net.sf.mzmine.util.ThreadUtils;
 
 import ucar.nc2.NetcdfFileWriter;
 import ucar.nc2.Dimension;
@@ -48,6 +54,10 @@ import ucar.nc2.Attribute;
 public class MassDetectionTask extends AbstractTask {
 
     private Logger logger = Logger.getLogger(this.getClass().getName());
+
+    // Number of scans processed in one parallel job
+    private static final int SCANS_PER_JOB = 16;
+
     private final RawDataFile dataFile;
 
     // scan counter
@@ -123,25 +133,20 @@ public class MassDetectionTask extends AbstractTask {
         //String massOutLocation = outFilename.getPath()+dataFile.getName().substring(0,indexOfPeriod)+".CDF";
         String massOutLocation = outFilename != null ? outFilename.getPath() : "";
 
-        boolean writeMasses = true;
         // make arrays to contain everything you need
-        ArrayList<Integer> pointsInScans = new ArrayList<Integer>();
-        ArrayList<Double> allMZ = new ArrayList<Double>();
-        ArrayList<Double> allIntensities = new ArrayList<Double>();
-        //idecies of full mass list where scan starts?
-        ArrayList<Integer> startIndex = new ArrayList<Integer>();
-        ArrayList<Double> scanAcquisitionTime = new ArrayList<Double>();
-        // XCMS needs this one
-        ArrayList<Double> totalIntensity = new ArrayList<Double>();
-
+        DoubleArrayList allMZ = new DoubleArrayList();
+        DoubleArrayList allIntensities = new DoubleArrayList();
+        // indices of full mass list where scan starts, scan acquisition
+        // times, and total intensities (XCMS needs this one); allocated once
+        // we know the number of scans
+        int pointsInScans[], startIndex[];
+        double scanAcquisitionTime[], totalIntensity[];
 
         NetcdfFileWriter writer = null;
 
         double curTotalIntensity;
         int lastPointCount = 0;
 
-        startIndex.add(0);
-
         try {
 
 
@@ -152,39 +157,57 @@ public class MassDetectionTask extends AbstractTask {
             final Scan scans[] = scanSelection.getMatchingScans(dataFile);
             totalScans = scans.length;
 
-            // Process scans one by one
-            for (Scan scan : scans) {
+            pointsInScans = new int[scans.length];
+            startIndex = new int[scans.length + 1];
+            scanAcquisitionTime = new double[scans.length];
+            totalIntensity = new double[scans.length];
+
+            // Detect the masses of a batch of scans in parallel, then add the
+            // mass lists to the scans in scan order, so the mass lists are
+            // stored in the same order as in sequential processing
+            final int batchSize = SCANS_PER_JOB
+                    * ThreadUtils.getNumOfThreads();
+            for (int batchStart = 0; batchStart < scans.length; batchStart += batchSize) {
 
                 if (isCanceled())
                     return;
 
-                MassDetector detector = massDetector.getModule();
-                DataPoint mzPeaks[] = detector.getMassValues(scan,
-                        massDetector.getParameterSet());
+                int batchEnd = Math.min(batchStart + batchSize, scans.length);
+                DataPoint batchMzPeaks[][] = detectMasses(scans, batchStart,
+                        batchEnd);
+                if (batchMzPeaks == null)
+                    return;
 
-                SimpleMassList newMassList = new SimpleMassList(name, scan, mzPeaks);
+                for (int s = batchStart; s < batchEnd; s++) {
 
-                // Add new mass list to the scan
-                scan.addMassList(newMassList);
+                    Scan scan = scans[s];
+                    DataPoint mzPeaks[] = batchMzPeaks[s - batchStart];
 
-                curTotalIntensity = 0;
-                for (int a=0;a<mzPeaks.length;a++){
-                    DataPoint curMzPeak = mzPeaks[a];
-                    allMZ.add(curMzPeak.getMZ());
-                    allIntensities.add(curMzPeak.getIntensity());
+                    SimpleMassList newMassList = new SimpleMassList(name,
+                            scan, mzPeaks);
 
-                    curTotalIntensity += curMzPeak.getIntensity();
-                }
+                    // Add new mass list to the scan
+                    scan.addMassList(newMassList);
+
+                    if (saveToCDF) {
+                        curTotalIntensity = 0;
+                        for (int a = 0; a < mzPeaks.length; a++) {
+                            DataPoint curMzPeak = mzPeaks[a];
+                            allMZ.add(curMzPeak.getMZ());
+                            allIntensities.add(curMzPeak.getIntensity());
 
-                scanAcquisitionTime.add(scan.getRetentionTime());
-                pointsInScans.add(0);
-                startIndex.add(mzPeaks.length+lastPointCount);
-                totalIntensity.add(curTotalIntensity);
+                            curTotalIntensity += curMzPeak.getIntensity();
+                        }
 
+                        scanAcquisitionTime[s] = scan.getRetentionTime();
+                        startIndex[s + 1] = mzPeaks.length + lastPointCount;
+                        totalIntensity[s] = curTotalIntensity;
 
-                lastPointCount = mzPeaks.length+lastPointCount;
+                        lastPointCount = mzPeaks.length + lastPointCount;
+                    }
 
-                processedScans++;
+                    processedScans++;
+                }
             }
 
             setStatus(TaskStatus.FINISHED);
@@ -198,10 +221,10 @@ public class MassDetectionTask extends AbstractTask {
 
                 Dimension dim_massValues = writer.addDimension(null, "mass_values", allMZ.size());
                 Dimension dim_intensityValues = writer.addDimension(null, "intensity_values", allIntensities.size());
-                Dimension dim_scanIndex = writer.addDimension(null, "scan_index", startIndex.size()-1);
-                Dimension dim_scanAcquisitionTime = writer.addDimension(null, "scan_acquisition_time", scanAcquisitionTime.size());
-                Dimension dim_totalIntensity = writer.addDimension(null, "total_intensity", totalIntensity.size());
-                Dimension dim_pointsInScans = writer.addDimension(null, "point_count", pointsInScans.size());
+                Dimension dim_scanIndex = writer.addDimension(null, "scan_index", startIndex.length-1);
+                Dimension dim_scanAcquisitionTime = writer.addDimension(null, "scan_acquisition_time", scanAcquisitionTime.length);
+                Dimension dim_totalIntensity = writer.addDimension(null, "total_intensity", totalIntensity.length);
+                Dimension dim_pointsInScans = writer.addDimension(null, "point_count", pointsInScans.length);
 
                 // add dimensions to list
                 List<Dimension> dims = new ArrayList<>();
@@ -249,11 +272,11 @@ public class MassDetectionTask extends AbstractTask {
                     arr_intensityValues.set(i,allIntensities.get(i));
                 }
                 int i = 0;
-                for (; i < scanAcquisitionTime.size(); i++ ){
-                    arr_scanAcquisitionTime.set(i,scanAcquisitionTime.get(i)*60);
-                    arr_pointsInScans.set(i,pointsInScans.get(i));
-                    arr_scanIndex.set(i,startIndex.get(i));
-                    arr_totalIntensity.set(i,totalIntensity.get(i));
+                for (; i < scanAcquisitionTime.length; i++ ){
+                    arr_scanAcquisitionTime.set(i,scanAcquisitionTime[i]*60);
+                    arr_pointsInScans.set(i,pointsInScans[i]);
+                    arr_scanIndex.set(i,startIndex[i]);
+                    arr_totalIntensity.set(i,totalIntensity[i]);
                 }
                 //arr_scanIndex.set(i,startIndex.get(i));
 
@@ -299,4 +322,53 @@ public class MassDetectionTask extends AbstractTask {
         }
 
     }
+
+    /**
+     * Runs the mass detector on given range of scans, split into jobs of
+     * SCANS_PER_JOB scans which run in parallel. Returns the detected masses
+     * of each scan in the range, or null if the task was canceled or failed.
+     */
+    private DataPoint[][] detectMasses(final Scan scans[], int from, int to) {
+
+        final DataPoint results[][] = new DataPoint[to - from][];
+        final MassDetector detector = massDetector.getModule();
+        final ParameterSet detectorParameters = massDetector
+                .getParameterSet();
+
+        List<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
+        for (int first = from; first < to; first += SCANS_PER_JOB) {
+            final int jobFrom = first;
+            final int jobTo = Math.min(first + SCANS_PER_JOB, to);
+            final int resultOffset = from;
+            jobs.add(new Callable<Void>() {
+                public Void call() {
+                    for (int i = jobFrom; i < jobTo; i++) {
+                        if (isCanceled())
+                            return null;
+                        results[i - resultOffset] = detector.getMassValues(
+                                scans[i], detectorParameters);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        try {
+            ThreadUtils.runInParallel(jobs);
+        } catch (InterruptedException e) {
+            setStatus(TaskStatus.CANCELED);
+            return null;
+        } catch (ExecutionException e) {
+            logger.log(Level.SEVERE, "Mass detection failed", e.getCause());
+            setStatus(TaskStatus.ERROR);
+            setErrorMessage(ExceptionUtils.exceptionToString(e.getCause()));
+            return null;
+        }
+
+        if (isCanceled())
+            return null;
+
+        return results;
+    }
+
 }
@@ -64,8 +64,50 @@ class Gap {
 	this.noiseLevel = noiseLevel;
     }
 
+    Range<Double> getMZRange() {
+	return mzRange;
+    }
+
+    Range<Double> getRTRange() {
+	return rtRange;
+    }
+
+    /**
+     * Returns false if this gap does not need any more scans, because we have
+     * passed its RT range and finished processing the last peak
+     */
+    boolean isActive(double scanRT) {
+	return (scanRT <= rtRange.upperEndpoint())
+		|| (currentPeakDataPoints != null);
+    }
+
+    /**
+     * Offers the next scan to this gap. The most intense data point within
+     * this gap's m/z range is only searched if the scan is within the RT range
+     * or continues the last peak.
+     */
     void offerNextScan(Scan scan) {
 
+	double scanRT = scan.getRetentionTime();
+	if ((scanRT < rtRange.lowerEndpoint()) || !isActive(scanRT)) {
+	    return;
+	}
+
+	// Find top m/z peak in our range
+	DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
+
+	offerNextScan(scan, basePeak);
+
+    }
+
+    /**
+     * Offers the next scan to this gap, together with its most intense data
+     * point within this gap's m/z range (null if there is no data point in the
+     * m/z range). The base peaks are found by the caller, so they can be read
+     * for many scans at once, see ScanUtils.findBasePeaks().
+     */
+    void offerNextScan(Scan scan, DataPoint basePeak) {
+
 	double scanRT = scan.getRetentionTime();
 
 	// If not yet inside the RT range
@@ -79,9 +121,6 @@ class Gap {
 	    return;
 	}
 
-	// Find top m/z peak in our range
-	DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
-
 	GapDataPoint currentDataPoint;
 	if (basePeak != null) {
 	    currentDataPoint = new GapDataPoint(scan.getScanNumber(),
@@ -21,10 +21,12 @@ package net.sf.mzmine.modules.rawdatamethods.peakpicking.targetedpeakdetection;
 import java.io.File;
 import java.io.FileReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
@@ -41,12 +43,16 @@ import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ScanUtils;
 
 import com.Ostermiller.util.CSVParser;
 import com.google.common.collect.Range;
 
 class TargetedPeakDetectionModuleTask extends AbstractTask {
 
+    // Number of scans whose base peaks are read at once for each gap
+    private static final int XIC_BLOCK_SIZE = 64;
+
     private Logger logger = Logger.getLogger(this.getClass().getName());
 
     private final MZmineProject project;
@@ -58,6 +64,7 @@ class TargetedPeakDetectionModuleTask extends AbstractTask {
     private double intTolerance;
     private ParameterSet parameters;
     private int processedScans, totalScans;
+    private int processedGaps, totalGaps;
     private File peakListFile;
     private String fieldSeparator;
     private boolean ignoreFirstLine;
@@ -97,9 +104,6 @@ class TargetedPeakDetectionModuleTask extends AbstractTask {
 
 	setStatus(TaskStatus.PROCESSING);
 
-	// Calculate total number of scans in all files
-	totalScans = dataFile.getNumOfScans(1);
-
 	// Create new peak list
 	processedPeakList = new SimplePeakList(dataFile.getName() + " "
 		+ suffix, dataFile);
@@ -146,36 +150,61 @@ class TargetedPeakDetectionModuleTask extends AbstractTask {
 
 	}
 
-	// Stop processing this file if there are no gaps
-	if (gaps.isEmpty()) {
-	    processedScans += dataFile.getNumOfScans();
-	}
-
 	// Get all scans of this data file
 	int scanNumbers[] = dataFile.getScanNumbers(1);
 
-	// Process each scan
-	for (int scanNumber : scanNumbers) {
+	// With an XIC index, each gap reads only the data points of its m/z
+	// and RT range. Otherwise, each scan is read once and fed to all gaps.
+	if (dataFile.hasXICIndex()) {
 
-	    // Canceled?
-	    if (isCanceled()) {
-		return;
-	    }
+	    totalGaps = gaps.size();
 
-	    // Get the scan
-	    Scan scan = dataFile.getScan(scanNumber);
+	    double scanRTs[] = new double[scanNumbers.length];
+	    for (int i = 0; i < scanNumbers.length; i++) {
+		scanRTs[i] = dataFile.getScan(scanNumbers[i])
+			.getRetentionTime();
+	    }
 
-	    // Feed this scan to all gaps
+	    // Process each gap
 	    for (Gap gap : gaps) {
-		gap.offerNextScan(scan);
+
+		// Canceled?
+		if (isCanceled()) {
+		    return;
+		}
+
+		fillGap(gap, scanNumbers, scanRTs);
+		processedGaps++;
 	    }
 
-	    processedScans++;
-	}
+	} else {
+
+	    totalScans = scanNumbers.length;
+
+	    // Process each scan
+	    for (int scanNumber : scanNumbers) {
+
+		// Canceled?
+		if (isCanceled()) {
+		    return;
+		}
+
+		// Get the scan
+		Scan scan = dataFile.getScan(scanNumber);
+
+		// Feed this scan to all gaps
+		for (Gap gap : gaps) {
+		    gap.offerNextScan(scan);
+		}
+
+		processedScans++;
+	    }
+
+	    // Finalize gaps
+	    for (Gap gap : gaps) {
+		gap.noMoreOffers();
+	    }
 
-	// Finalize gaps
-	for (Gap gap : gaps) {
-	    gap.noMoreOffers();
 	}
 
 	// Append processed peak list to the project
@@ -194,6 +223,50 @@ class TargetedPeakDetectionModuleTask extends AbstractTask {
 
     }
 
+    /**
+     * Offers the scans to given gap, starting from the first scan in its RT
+     * range until the gap does not need any more scans. The base peaks within
+     * the gap's m/z range are read from the XIC index of the data file, in
+     * blocks of XIC_BLOCK_SIZE scans.
+     */
+    private void fillGap(Gap gap, int scanNumbers[], double scanRTs[]) {
+
+	// Find the first scan in the RT range
+	final double rtMin = gap.getRTRange().lowerEndpoint();
+	int blockStart = 0, high = scanNumbers.length;
+	while (blockStart < high) {
+	    final int mid = (blockStart + high) >>> 1;
+	    if (scanRTs[mid] < rtMin)
+		blockStart = mid + 1;
+	    else
+		high = mid;
+	}
+
+	while (blockStart < scanNumbers.length) {
+
+	    final int blockEnd = Math.min(scanNumbers.length, blockStart
+		    + XIC_BLOCK_SIZE);
+	    final int blockScanNumbers[] = Arrays.copyOfRange(scanNumbers,
+		    blockStart, blockEnd);
+	    final DataPoint basePeaks[] = ScanUtils.findBasePeaks(dataFile,
+		    blockScanNumbers, gap.getMZRange());
+
+	    for (int i = 0; i < blockScanNumbers.length; i++) {
+		if (!gap.isActive(scanRTs[blockStart + i])) {
+		    gap.noMoreOffers();
+		    return;
+		}
+		Scan scan = dataFile.getScan(blockScanNumbers[i]);
+		gap.offerNextScan(scan, basePeaks[i]);
+	    }
+
+	    blockStart = blockEnd;
+	}
+
+	gap.noMoreOffers();
+
+    }
+
     public List<PeakInformation> readFile() {
 	FileReader dbFileReader = null;
 	try {
@@ -231,6 +304,9 @@ class TargetedPeakDetectionModuleTask extends AbstractTask {
     }
 
     public double getFinishedPercentage() {
+	if (totalGaps > 0) {
+	    return (double) processedGaps / (double) totalGaps;
+	}
 	if (totalScans == 0) {
 	    return 0;
 	}
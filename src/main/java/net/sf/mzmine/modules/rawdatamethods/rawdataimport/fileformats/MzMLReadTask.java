@@ -1,17 +1,17 @@
 /*
  * Copyright 2006-2015 The MZmine 2 Development Team
- * 
+ *
  * This file is part of MZmine 2.
- * 
+ *
  * MZmine 2 is free software; you can redistribute it and/or modify it under the
  * terms of the GNU General Public License as published by the Free Software
  * Foundation; either version 2 of the License, or (at your option) any later
  * version.
- * 
+ *
  * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
  * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
  * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
- * 
+ *
  * You should have received a copy of the GNU General Public License along with
  * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
  * St, Fifth Floor, Boston, MA 02110-1301 USA
@@ -19,18 +19,33 @@
 
 package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.MZmineProject;
-import net.sf.mzmine.datamodel.MassSpectrumType;
 import net.sf.mzmine.datamodel.PolarityType;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
@@ -38,25 +53,19 @@ import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimpleScan;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.CompressionUtils;
 import net.sf.mzmine.util.ExceptionUtils;
-import net.sf.mzmine.util.ScanUtils;
-import uk.ac.ebi.jmzml.model.mzml.BinaryDataArray;
-import uk.ac.ebi.jmzml.model.mzml.BinaryDataArrayList;
-import uk.ac.ebi.jmzml.model.mzml.CVParam;
-import uk.ac.ebi.jmzml.model.mzml.ParamGroup;
-import uk.ac.ebi.jmzml.model.mzml.Precursor;
-import uk.ac.ebi.jmzml.model.mzml.PrecursorList;
-import uk.ac.ebi.jmzml.model.mzml.Scan;
-import uk.ac.ebi.jmzml.model.mzml.ScanList;
-import uk.ac.ebi.jmzml.model.mzml.SelectedIonList;
-import uk.ac.ebi.jmzml.model.mzml.Spectrum;
-import uk.ac.ebi.jmzml.xml.io.MzMLObjectIterator;
-import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshaller;
+
+import org.apache.axis.encoding.Base64;
 
 /**
  * This class reads mzML 1.0 and 1.1.0 files
- * (http://www.psidev.info/index.php?q=node/257) using the jmzml library
- * (http://code.google.com/p/jmzml/).
+ * (http://www.psidev.info/index.php?q=node/257). The file is parsed by a
+ * streaming StAX parser, which keeps only the spectrum being parsed in memory.
+ * The binary data arrays are decoded directly into primitive arrays by the
+ * threads of a ScanDecodingPipeline, while the parser continues. The
+ * cvParams of referenceable param groups are applied where the groups are
+ * referenced.
  */
 public class MzMLReadTask extends AbstractTask {
 
@@ -83,6 +92,17 @@ public class MzMLReadTask extends AbstractTask {
     private static final int PARENT_STACK_SIZE = 20;
     private LinkedList<SimpleScan> parentStack = new LinkedList<SimpleScan>();
 
+    private ScanDecodingPipeline decodingPipeline;
+
+    // Parser state
+    private final Map<String, List<CvParam>> paramGroups = new Hashtable<String, List<CvParam>>();
+    private final Deque<String> elementStack = new ArrayDeque<String>();
+    private final StringBuilder binaryText = new StringBuilder();
+    private List<CvParam> currentParamGroup;
+    private SpectrumData currentSpectrum;
+    private BinaryArrayData currentArray;
+    private boolean readingBinary;
+
     public MzMLReadTask(MZmineProject project, File fileToOpen,
             RawDataFileWriter newMZmineFile) {
         this.project = project;
@@ -105,76 +125,30 @@ public class MzMLReadTask extends AbstractTask {
         setStatus(TaskStatus.PROCESSING);
         logger.info("Started parsing file " + file);
 
-        MzMLUnmarshaller unmarshaller = new MzMLUnmarshaller(file);
-
-        totalScans = unmarshaller
-                .getObjectCountForXpath("/run/spectrumList/spectrum");
-
-        MzMLObjectIterator<Spectrum> spectrumIterator = unmarshaller
-                .unmarshalCollectionFromXpath("/run/spectrumList/spectrum",
-                        Spectrum.class);
         try {
 
-            while (spectrumIterator.hasNext()) {
+            InputStream inputStream = new BufferedInputStream(
+                    new FileInputStream(file));
+            // The data points are decoded in parallel with the parsing
+            decodingPipeline = new ScanDecodingPipeline(newMZmineFile);
+            try {
+                XMLInputFactory factory = XMLInputFactory.newInstance();
+                factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+                XMLStreamReader reader = factory
+                        .createXMLStreamReader(inputStream);
+                parse(reader);
+                reader.close();
 
                 if (isCanceled())
                     return;
 
-                Spectrum spectrum = spectrumIterator.next();
-
-                // Ignore scans that are not MS, e.g. UV
-                if (!isMsSpectrum(spectrum)) {
-                    parsedScans++;
-                    continue;
-                }
-
-                String scanId = spectrum.getId();
-                int scanNumber = convertScanIdToScanNumber(scanId);
-
-                // Extract scan data
-                int msLevel = extractMSLevel(spectrum);
-                double retentionTime = extractRetentionTime(spectrum);
-                PolarityType polarity = extractPolarity(spectrum);
-                int parentScan = extractParentScanNumber(spectrum);
-                double precursorMz = extractPrecursorMz(spectrum);
-                int precursorCharge = extractPrecursorCharge(spectrum);
-                String scanDefinition = extractScanDefinition(spectrum);
-                DataPoint dataPoints[] = extractDataPoints(spectrum);
-
-                // Auto-detect whether this scan is centroided
-                MassSpectrumType spectrumType = ScanUtils
-                        .detectSpectrumType(dataPoints);
-
-                SimpleScan scan = new SimpleScan(null, scanNumber, msLevel,
-                        retentionTime, precursorMz, precursorCharge, null,
-                        dataPoints, spectrumType, polarity, scanDefinition,
-                        null);
-
-                for (SimpleScan s : parentStack) {
-                    if (s.getScanNumber() == parentScan) {
-                        s.addFragmentScan(scanNumber);
-                    }
-                }
-
-                /*
-                 * Verify the size of parentStack. The actual size of the window
-                 * to cover possible candidates is defined by limitSize.
-                 */
-                if (parentStack.size() > PARENT_STACK_SIZE) {
-                    SimpleScan firstScan = parentStack.removeLast();
-                    newMZmineFile.addScan(firstScan);
+                while (!parentStack.isEmpty()) {
+                    SimpleScan scan = parentStack.removeLast();
+                    decodingPipeline.addScan(scan);
                 }
-
-                parentStack.addFirst(scan);
-
-                parsedScans++;
-
-            }
-
-            while (!parentStack.isEmpty()) {
-                SimpleScan scan = parentStack.removeLast();
-                newMZmineFile.addScan(scan);
-
+            } finally {
+                decodingPipeline.shutdown();
+                inputStream.close();
             }
 
             finalRawDataFile = newMZmineFile.finishWriting();
@@ -185,7 +159,6 @@ public class MzMLReadTask extends AbstractTask {
             setStatus(TaskStatus.ERROR);
             setErrorMessage("Error parsing mzML: "
                     + ExceptionUtils.exceptionToString(e));
-            e.printStackTrace();
             return;
         }
 
@@ -201,303 +174,482 @@ public class MzMLReadTask extends AbstractTask {
 
     }
 
-    private int convertScanIdToScanNumber(String scanId) {
+    /**
+     * Reads the whole document, adding each spectrum to the raw data file as
+     * soon as its end tag is reached
+     */
+    private void parse(XMLStreamReader reader) throws XMLStreamException,
+            IOException, InterruptedException {
 
-        if (scanIdTable.containsKey(scanId))
-            return scanIdTable.get(scanId);
+        while (reader.hasNext()) {
 
-        final Pattern pattern = Pattern.compile("scan=([0-9]+)");
-        final Matcher matcher = pattern.matcher(scanId);
-        boolean scanNumberFound = matcher.find();
+            switch (reader.next()) {
 
-        // Some vendors include scan=XX in the ID, some don't, such as
-        // mzML converted from WIFF files. See the definition of nativeID in
-        // http://psidev.cvs.sourceforge.net/viewvc/psidev/psi/psi-ms/mzML/controlledVocabulary/psi-ms.obo
-        if (scanNumberFound) {
-            int scanNumber = Integer.parseInt(matcher.group(1));
-            scanIdTable.put(scanId, scanNumber);
-            return scanNumber;
-        }
+            case XMLStreamConstants.START_ELEMENT:
+                if (isCanceled())
+                    return;
+                startElement(reader);
+                break;
 
-        int scanNumber = lastScanNumber + 1;
-        lastScanNumber++;
-        scanIdTable.put(scanId, scanNumber);
-        return scanNumber;
-    }
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+                if (readingBinary)
+                    binaryText.append(reader.getTextCharacters(),
+                            reader.getTextStart(), reader.getTextLength());
+                break;
 
-    private int extractMSLevel(Spectrum spectrum) {
-        // Browse the spectrum parameters
-        List<CVParam> cvParams = spectrum.getCvParam();
-        if (cvParams == null)
-            return 1;
-        for (CVParam param : cvParams) {
-            String accession = param.getAccession();
-            String value = param.getValue();
-            if ((accession == null) || (value == null))
-                continue;
+            case XMLStreamConstants.END_ELEMENT:
+                endElement(reader.getLocalName());
+                break;
 
-            // MS level MS:1000511
-            if (accession.equals("MS:1000511")) {
-                int msLevel = Integer.parseInt(value);
-                return msLevel;
             }
         }
-        return 1;
+
     }
 
-    private double extractRetentionTime(Spectrum spectrum) {
-
-        ScanList scanListElement = spectrum.getScanList();
-        if (scanListElement == null)
-            return 0;
-        List<Scan> scanElements = scanListElement.getScan();
-        if (scanElements == null)
-            return 0;
-
-        for (Scan scan : scanElements) {
-            List<CVParam> cvParams = scan.getCvParam();
-            if (cvParams == null)
-                continue;
-
-            for (CVParam param : cvParams) {
-                String accession = param.getAccession();
-                String unitAccession = param.getUnitAccession();
-                String value = param.getValue();
-                if ((accession == null) || (value == null))
-                    continue;
-
-                // Retention time (actually "Scan start time") MS:1000016
-                if (accession.equals("MS:1000016")) {
-                    // MS:1000038 is used in mzML 1.0, while UO:0000031
-                    // is used in mzML 1.1.0 :-/
-                    double retentionTime;
-                    if ((unitAccession == null)
-                            || (unitAccession.equals("MS:1000038"))
-                            || unitAccession.equals("UO:0000031")) {
-                        retentionTime = Double.parseDouble(value);
-                    } else {
-                        retentionTime = Double.parseDouble(value) / 60d;
-                    }
-                    return retentionTime;
+    private void startElement(XMLStreamReader reader) {
 
-                }
+        final String name = reader.getLocalName();
+        final String parent = elementStack.peek();
+        elementStack.push(name);
+
+        if (name.equals("referenceableParamGroup")) {
+            currentParamGroup = new ArrayList<CvParam>();
+            paramGroups.put(reader.getAttributeValue(null, "id"),
+                    currentParamGroup);
+            return;
+        }
+
+        if (name.equals("cvParam")) {
+            CvParam param = new CvParam(reader.getAttributeValue(null,
+                    "accession"), reader.getAttributeValue(null, "value"),
+                    reader.getAttributeValue(null, "unitAccession"));
+            if (currentParamGroup != null)
+                currentParamGroup.add(param);
+            else
+                processParam(parent, param);
+            return;
+        }
+
+        if (name.equals("referenceableParamGroupRef")) {
+            List<CvParam> group = paramGroups.get(reader.getAttributeValue(
+                    null, "ref"));
+            if (group != null) {
+                for (CvParam param : group)
+                    processParam(parent, param);
             }
+            return;
         }
 
-        return 0;
-    }
+        if (name.equals("spectrumList")) {
+            String count = reader.getAttributeValue(null, "count");
+            if (count != null)
+                totalScans = Integer.parseInt(count);
+            return;
+        }
 
-    private DataPoint[] extractDataPoints(Spectrum spectrum) {
-        BinaryDataArrayList dataList = spectrum.getBinaryDataArrayList();
+        if (name.equals("spectrum")) {
+            String defaultArrayLength = reader.getAttributeValue(null,
+                    "defaultArrayLength");
+            currentSpectrum = new SpectrumData(reader.getAttributeValue(null,
+                    "id"), defaultArrayLength == null ? 0
+                    : Integer.parseInt(defaultArrayLength));
+            return;
+        }
 
-        if ((dataList == null) || (dataList.getCount().equals(0)))
-            return new DataPoint[0];
+        if (currentSpectrum == null)
+            return;
 
-        BinaryDataArray mzArray = dataList.getBinaryDataArray().get(0);
-        BinaryDataArray intensityArray = dataList.getBinaryDataArray().get(1);
-        Number mzValues[] = mzArray.getBinaryDataAsNumberArray();
-        Number intensityValues[] = intensityArray.getBinaryDataAsNumberArray();
-        DataPoint dataPoints[] = new DataPoint[mzValues.length];
-        for (int i = 0; i < dataPoints.length; i++) {
-            double mz = mzValues[i].doubleValue();
-            double intensity = intensityValues[i].doubleValue();
-            dataPoints[i] = new SimpleDataPoint(mz, intensity);
+        if (name.equals("precursor")) {
+            currentSpectrum.numOfPrecursors++;
+            if (currentSpectrum.numOfPrecursors == 1)
+                currentSpectrum.precursorScanId = reader.getAttributeValue(
+                        null, "spectrumRef");
+            return;
         }
-        return dataPoints;
 
-    }
+        if (name.equals("binaryDataArray")) {
+            String arrayLength = reader.getAttributeValue(null, "arrayLength");
+            currentArray = new BinaryArrayData(arrayLength == null ? currentSpectrum.defaultArrayLength
+                    : Integer.parseInt(arrayLength));
+            return;
+        }
 
-    private int extractParentScanNumber(Spectrum spectrum) {
-        PrecursorList precursorListElement = spectrum.getPrecursorList();
-        if ((precursorListElement == null)
-                || (precursorListElement.getCount().equals(0)))
-            return -1;
-
-        List<Precursor> precursorList = precursorListElement.getPrecursor();
-        for (Precursor parent : precursorList) {
-            // Get the precursor scan number
-            String precursorScanId = parent.getSpectrumRef();
-            if (precursorScanId == null) {
-                return -1;
-            }
-            int parentScan = convertScanIdToScanNumber(precursorScanId);
-            return parentScan;
+        if (name.equals("binary") && (currentArray != null)) {
+            binaryText.setLength(0);
+            readingBinary = true;
         }
-        return -1;
+
     }
 
-    private double extractPrecursorMz(Spectrum spectrum) {
-
-        PrecursorList precursorListElement = spectrum.getPrecursorList();
-        if ((precursorListElement == null)
-                || (precursorListElement.getCount().equals(0)))
-            return 0;
-
-        List<Precursor> precursorList = precursorListElement.getPrecursor();
-        for (Precursor parent : precursorList) {
-
-            SelectedIonList selectedIonListElement = parent
-                    .getSelectedIonList();
-            if ((selectedIonListElement == null)
-                    || (selectedIonListElement.getCount().equals(0)))
-                return 0;
-            List<ParamGroup> selectedIonParams = selectedIonListElement
-                    .getSelectedIon();
-            if (selectedIonParams == null)
-                continue;
-
-            for (ParamGroup pg : selectedIonParams) {
-                List<CVParam> pgCvParams = pg.getCvParam();
-                for (CVParam param : pgCvParams) {
-                    String accession = param.getAccession();
-                    String value = param.getValue();
-                    if ((accession == null) || (value == null))
-                        continue;
-                    // MS:1000040 is used in mzML 1.0,
-                    // MS:1000744 is used in mzML 1.1.0
-                    if (accession.equals("MS:1000040")
-                            || accession.equals("MS:1000744")) {
-                        double precursorMz = Double.parseDouble(value);
-                        return precursorMz;
-                    }
-                }
+    private void endElement(String name) throws IOException,
+            InterruptedException {
 
-            }
+        elementStack.pop();
+
+        if (name.equals("referenceableParamGroup")) {
+            currentParamGroup = null;
+            return;
         }
-        return 0;
-    }
 
-    private int extractPrecursorCharge(Spectrum spectrum) {
-        PrecursorList precursorListElement = spectrum.getPrecursorList();
-        if ((precursorListElement == null)
-                || (precursorListElement.getCount().equals(0)))
-            return 0;
-
-        List<Precursor> precursorList = precursorListElement.getPrecursor();
-        for (Precursor parent : precursorList) {
-
-            SelectedIonList selectedIonListElement = parent
-                    .getSelectedIonList();
-            if ((selectedIonListElement == null)
-                    || (selectedIonListElement.getCount().equals(0)))
-                return 0;
-            List<ParamGroup> selectedIonParams = selectedIonListElement
-                    .getSelectedIon();
-            if (selectedIonParams == null)
-                continue;
-
-            for (ParamGroup pg : selectedIonParams) {
-                List<CVParam> pgCvParams = pg.getCvParam();
-                for (CVParam param : pgCvParams) {
-                    String accession = param.getAccession();
-                    String value = param.getValue();
-                    if ((accession == null) || (value == null))
-                        continue;
-                    if (accession.equals("MS:1000041")) {
-                        int precursorCharge = Integer.parseInt(value);
-                        return precursorCharge;
-                    }
+        if (currentSpectrum == null)
+            return;
 
-                }
+        if (name.equals("binary")) {
+            readingBinary = false;
+            return;
+        }
 
-            }
+        if (name.equals("binaryDataArray") && (currentArray != null)) {
+            // The array is decoded later by the decoding pipeline
+            currentArray.base64Text = binaryText.toString();
+            binaryText.setLength(0);
+            // Without a type, the first two arrays are m/z and intensity
+            int type = currentArray.type;
+            if (type == BinaryArrayData.UNKNOWN)
+                type = currentSpectrum.numOfArrays;
+            if (type == BinaryArrayData.MZ)
+                currentSpectrum.mzArray = currentArray;
+            else if (type == BinaryArrayData.INTENSITY)
+                currentSpectrum.intensityArray = currentArray;
+            currentSpectrum.numOfArrays++;
+            currentArray = null;
+            return;
+        }
+
+        if (name.equals("spectrum")) {
+            SpectrumData spectrum = currentSpectrum;
+            currentSpectrum = null;
+            // Ignore scans that are not MS, e.g. UV
+            if (spectrum.isMsSpectrum)
+                addSpectrum(spectrum);
+            parsedScans++;
         }
-        return 0;
+
     }
 
-    private PolarityType extractPolarity(Spectrum spectrum) {
-        List<CVParam> cvParams = spectrum.getCvParam();
-        if (cvParams != null) {
-            for (CVParam param : cvParams) {
-                String accession = param.getAccession();
-
-                if (accession == null)
-                    continue;
-                if (accession.equals("MS:1000130"))
-                    return PolarityType.POSITIVE;
-                if (accession.equals("MS:1000129"))
-                    return PolarityType.NEGATIVE;
-            }
+    /**
+     * Applies a cvParam found inside the element of given name
+     */
+    private void processParam(String parent, CvParam param) {
+
+        final SpectrumData spectrum = currentSpectrum;
+        if ((spectrum == null) || (parent == null)
+                || (param.accession == null))
+            return;
+        final String accession = param.accession;
+        final String value = param.value;
+
+        // mzML 1.0 keeps the spectrum description in a separate element
+        if (parent.equals("spectrum") || parent.equals("spectrumDescription")) {
+
+            // MS level MS:1000511
+            if (accession.equals("MS:1000511") && (value != null)
+                    && (spectrum.msLevel == null))
+                spectrum.msLevel = Integer.parseInt(value);
+            if (spectrum.polarity == null)
+                spectrum.polarity = getPolarity(accession);
+            if (accession.equals("MS:1000512")
+                    && (spectrum.scanDefinition == null))
+                spectrum.scanDefinition = value;
+            // Electromagnetic radiation spectrum MS:1000804, e.g. UV
+            if (accession.equals("MS:1000804"))
+                spectrum.isMsSpectrum = false;
+            return;
         }
-        ScanList scanListElement = spectrum.getScanList();
-        if (scanListElement != null) {
-            List<Scan> scanElements = scanListElement.getScan();
-            if (scanElements != null) {
-                for (Scan scan : scanElements) {
-                    cvParams = scan.getCvParam();
-                    if (cvParams == null)
-                        continue;
-                    for (CVParam param : cvParams) {
-                        String accession = param.getAccession();
-                        if (accession == null)
-                            continue;
-                        if (accession.equals("MS:1000130"))
-                            return PolarityType.POSITIVE;
-                        if (accession.equals("MS:1000129"))
-                            return PolarityType.NEGATIVE;
-                    }
 
+        if (parent.equals("scan")) {
+
+            // Retention time (actually "Scan start time") MS:1000016
+            if (accession.equals("MS:1000016") && (value != null)
+                    && (spectrum.retentionTime == null)) {
+                // MS:1000038 is used in mzML 1.0, while UO:0000031
+                // is used in mzML 1.1.0 :-/
+                final String unitAccession = param.unitAccession;
+                if ((unitAccession == null)
+                        || (unitAccession.equals("MS:1000038"))
+                        || unitAccession.equals("UO:0000031")) {
+                    spectrum.retentionTime = Double.parseDouble(value);
+                } else {
+                    spectrum.retentionTime = Double.parseDouble(value) / 60d;
                 }
             }
+            if (spectrum.scanPolarity == null)
+                spectrum.scanPolarity = getPolarity(accession);
+            if (accession.equals("MS:1000512")
+                    && (spectrum.scanScanDefinition == null))
+                spectrum.scanScanDefinition = value;
+            return;
         }
-        return PolarityType.UNKNOWN;
+
+        // Only the first precursor is used
+        if (parent.equals("selectedIon") && (spectrum.numOfPrecursors == 1)
+                && (value != null)) {
+            // MS:1000040 is used in mzML 1.0,
+            // MS:1000744 is used in mzML 1.1.0
+            if ((accession.equals("MS:1000040") || accession
+                    .equals("MS:1000744")) && (spectrum.precursorMz == null))
+                spectrum.precursorMz = Double.parseDouble(value);
+            if (accession.equals("MS:1000041")
+                    && (spectrum.precursorCharge == null))
+                spectrum.precursorCharge = Integer.parseInt(value);
+            return;
+        }
+
+        if (parent.equals("binaryDataArray") && (currentArray != null))
+            currentArray.processParam(accession);
 
     }
 
-    private String extractScanDefinition(Spectrum spectrum) {
-        List<CVParam> cvParams = spectrum.getCvParam();
-        if (cvParams != null) {
-            for (CVParam param : cvParams) {
-                String accession = param.getAccession();
+    /**
+     * Creates a scan from given spectrum, starts decoding its data points and
+     * adds it to the parent stack
+     */
+    private void addSpectrum(SpectrumData spectrum) throws IOException,
+            InterruptedException {
+
+        int scanNumber = convertScanIdToScanNumber(spectrum.id);
+
+        int parentScan = -1;
+        if (spectrum.precursorScanId != null)
+            parentScan = convertScanIdToScanNumber(spectrum.precursorScanId);
+
+        int msLevel = spectrum.msLevel != null ? spectrum.msLevel : 1;
+        double retentionTime = spectrum.retentionTime != null ? spectrum.retentionTime
+                : 0;
+        PolarityType polarity = spectrum.polarity;
+        if (polarity == null)
+            polarity = spectrum.scanPolarity;
+        if (polarity == null)
+            polarity = PolarityType.UNKNOWN;
+        double precursorMz = spectrum.precursorMz != null ? spectrum.precursorMz
+                : 0;
+        int precursorCharge = spectrum.precursorCharge != null ? spectrum.precursorCharge
+                : 0;
+        String scanDefinition = spectrum.scanDefinition;
+        if (scanDefinition == null)
+            scanDefinition = spectrum.scanScanDefinition;
+        if (scanDefinition == null)
+            scanDefinition = spectrum.id;
+
+        SimpleScan scan = new SimpleScan(null, scanNumber, msLevel,
+                retentionTime, precursorMz, precursorCharge, null,
+                new DataPoint[0], null, polarity, scanDefinition, null);
+
+        final BinaryArrayData mzArray = spectrum.mzArray;
+        final BinaryArrayData intensityArray = spectrum.intensityArray;
+        Callable<DataPoint[]> decoder = new Callable<DataPoint[]>() {
+            public DataPoint[] call() throws IOException {
+                return decodeDataPoints(mzArray, intensityArray);
+            }
+        };
+        decodingPipeline.decode(scan, decoder);
 
-                if (accession == null)
-                    continue;
-                if (accession.equals("MS:1000512"))
-                    return param.getValue();
+        for (SimpleScan s : parentStack) {
+            if (s.getScanNumber() == parentScan) {
+                s.addFragmentScan(scanNumber);
             }
         }
-        ScanList scanListElement = spectrum.getScanList();
-        if (scanListElement != null) {
-            List<Scan> scanElements = scanListElement.getScan();
-            if (scanElements != null) {
-                for (Scan scan : scanElements) {
-                    cvParams = scan.getCvParam();
-                    if (cvParams == null)
-                        continue;
-                    for (CVParam param : cvParams) {
-                        String accession = param.getAccession();
-                        if (accession == null)
-                            continue;
-                        if (accession.equals("MS:1000512"))
-                            return param.getValue();
-                    }
 
-                }
-            }
+        /*
+         * Verify the size of parentStack. The actual size of the window to
+         * cover possible candidates is defined by limitSize.
+         */
+        if (parentStack.size() > PARENT_STACK_SIZE) {
+            SimpleScan firstScan = parentStack.removeLast();
+            decodingPipeline.addScan(firstScan);
+        }
+
+        parentStack.addFirst(scan);
+
+    }
+
+    /**
+     * Decodes given m/z and intensity arrays into data points
+     */
+    private static DataPoint[] decodeDataPoints(BinaryArrayData mzArray,
+            BinaryArrayData intensityArray) throws IOException {
+
+        if ((mzArray == null) || (intensityArray == null))
+            return new DataPoint[0];
+
+        double mzValues[], intensityValues[];
+        try {
+            mzValues = mzArray.decode();
+            intensityValues = intensityArray.decode();
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed binary data array: "
+                    + e.toString());
+        }
+
+        DataPoint dataPoints[] = new DataPoint[Math.min(mzValues.length,
+                intensityValues.length)];
+        for (int i = 0; i < dataPoints.length; i++) {
+            dataPoints[i] = new SimpleDataPoint(mzValues[i],
+                    intensityValues[i]);
+        }
+        return dataPoints;
+
+    }
+
+    private int convertScanIdToScanNumber(String scanId) {
+
+        if (scanIdTable.containsKey(scanId))
+            return scanIdTable.get(scanId);
+
+        final Pattern pattern = Pattern.compile("scan=([0-9]+)");
+        final Matcher matcher = pattern.matcher(scanId);
+        boolean scanNumberFound = matcher.find();
+
+        // Some vendors include scan=XX in the ID, some don't, such as
+        // mzML converted from WIFF files. See the definition of nativeID in
+        // http://psidev.cvs.sourceforge.net/viewvc/psidev/psi/psi-ms/mzML/controlledVocabulary/psi-ms.obo
+        if (scanNumberFound) {
+            int scanNumber = Integer.parseInt(matcher.group(1));
+            scanIdTable.put(scanId, scanNumber);
+            return scanNumber;
         }
-        return spectrum.getId();
+
+        int scanNumber = lastScanNumber + 1;
+        lastScanNumber++;
+        scanIdTable.put(scanId, scanNumber);
+        return scanNumber;
+    }
+
+    /**
+     * Returns the polarity given by the cvParam of given accession, or null
+     * if it does not specify the polarity
+     */
+    private static PolarityType getPolarity(String accession) {
+        if (accession.equals("MS:1000130"))
+            return PolarityType.POSITIVE;
+        if (accession.equals("MS:1000129"))
+            return PolarityType.NEGATIVE;
+        return null;
     }
 
     public String getTaskDescription() {
         return "Opening file " + file;
     }
 
-    boolean isMsSpectrum(Spectrum spectrum) {
+    private static final class CvParam {
+
+        private final String accession, value, unitAccession;
+
+        CvParam(String accession, String value, String unitAccession) {
+            this.accession = accession;
+            this.value = value;
+            this.unitAccession = unitAccession;
+        }
+
+    }
+
+    /**
+     * Values of the spectrum being parsed. The values are null until they are
+     * found, because the first occurrence of each value is used.
+     */
+    private static final class SpectrumData {
+
+        private final String id;
+        private final int defaultArrayLength;
+        private Integer msLevel, precursorCharge;
+        private Double retentionTime, precursorMz;
+        private PolarityType polarity, scanPolarity;
+        private String scanDefinition, scanScanDefinition;
+        private String precursorScanId;
+        private int numOfPrecursors, numOfArrays;
+        private boolean isMsSpectrum = true;
+        private BinaryArrayData mzArray, intensityArray;
+
+        SpectrumData(String id, int defaultArrayLength) {
+            this.id = id;
+            this.defaultArrayLength = defaultArrayLength;
+        }
+
+    }
+
+    /**
+     * Encoding and base64 text of a binary data array
+     */
+    private static final class BinaryArrayData {
 
-        List<CVParam> cvParams = spectrum.getCvParam();
-        if (cvParams != null) {
-            for (CVParam param : cvParams) {
-                String accession = param.getAccession();
-                if (accession == null)
-                    continue;
+        // Array types, MZ and INTENSITY match the positions of the arrays
+        // used when the type is not specified
+        static final int UNKNOWN = -1, MZ = 0, INTENSITY = 1, OTHER = 2;
 
-                if (accession.equals("MS:1000804"))
-                    return false;
+        private final int arrayLength;
+        private int type = UNKNOWN;
+        private int bytesPerValue = 8;
+        private boolean integer, compressed;
+        private String base64Text;
+
+        BinaryArrayData(int arrayLength) {
+            this.arrayLength = arrayLength;
+        }
+
+        void processParam(String accession) {
+            if (accession.equals("MS:1000514"))
+                type = MZ;
+            else if (accession.equals("MS:1000515"))
+                type = INTENSITY;
+            // Charge, signal to noise, time, wavelength and non-standard
+            // data arrays
+            else if (accession.equals("MS:1000516")
+                    || accession.equals("MS:1000517")
+                    || accession.equals("MS:1000595")
+                    || accession.equals("MS:1000617")
+                    || accession.equals("MS:1000786"))
+                type = OTHER;
+            // 32-bit float
+            else if (accession.equals("MS:1000521")) {
+                bytesPerValue = 4;
+                integer = false;
+            }
+            // 64-bit float
+            else if (accession.equals("MS:1000523")) {
+                bytesPerValue = 8;
+                integer = false;
+            }
+            // 32-bit integer
+            else if (accession.equals("MS:1000519")) {
+                bytesPerValue = 4;
+                integer = true;
             }
+            // 64-bit integer
+            else if (accession.equals("MS:1000522")) {
+                bytesPerValue = 8;
+                integer = true;
+            }
+            // zlib compression
+            else if (accession.equals("MS:1000574"))
+                compressed = true;
+        }
+
+        /**
+         * Decodes the base64 text of the array into primitive values
+         */
+        double[] decode() throws DataFormatException {
+
+            byte bytes[] = Base64.decode(base64Text);
+            if (compressed)
+                bytes = CompressionUtils.decompress(bytes, arrayLength
+                        * bytesPerValue);
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes).order(
+                    ByteOrder.LITTLE_ENDIAN);
+            double values[] = new double[bytes.length / bytesPerValue];
+            for (int i = 0; i < values.length; i++) {
+                if (integer)
+                    values[i] = bytesPerValue == 8 ? buffer.getLong() : buffer
+                            .getInt();
+                else
+                    values[i] = bytesPerValue == 8 ? buffer.getDouble()
+                            : buffer.getFloat();
+            }
+            return values;
+
         }
 
-        // By default, let's assume unidentified spectra are MS spectra
-        return true;
     }
 
-}
\ No newline at end of file
+}
@@ -25,6 +25,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Date;
 import java.util.LinkedList;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
 
@@ -35,7 +36,6 @@ import javax.xml.parsers.SAXParserFactory;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.MZmineProject;
-import net.sf.mzmine.datamodel.MassSpectrumType;
 import net.sf.mzmine.datamodel.PolarityType;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
@@ -45,7 +45,6 @@ import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.CompressionUtils;
 import net.sf.mzmine.util.ExceptionUtils;
-import net.sf.mzmine.util.ScanUtils;
 
 import org.apache.axis.encoding.Base64;
 import org.xml.sax.Attributes;
@@ -71,6 +70,7 @@ public class MzXMLReadTask extends AbstractTask {
     private boolean compressFlag = false;
     private DefaultHandler handler = new MzXMLHandler();
     private String precision;
+    private ScanDecodingPipeline decodingPipeline;
 
     // Retention time parser
     private DatatypeFactory dataTypeFactory;
@@ -90,6 +90,13 @@ public class MzXMLReadTask extends AbstractTask {
      */
     private LinkedList<SimpleScan> parentStack;
 
+    /*
+     * Complete scans whose data points are being decoded by the decoding
+     * pipeline. They are written to the RawDataFile (oldest first) only when
+     * the window is full, so the decoding of several scans can overlap.
+     */
+    private LinkedList<SimpleScan> decodingScans;
+
     /*
      * This variable hold the present scan or fragment, it is send to the stack
      * when another scan/fragment appears as a parser.startElement
@@ -101,6 +108,7 @@ public class MzXMLReadTask extends AbstractTask {
         // 256 kilo-chars buffer
         charBuffer = new StringBuilder(1 << 18);
         parentStack = new LinkedList<SimpleScan>();
+        decodingScans = new LinkedList<SimpleScan>();
         this.project = project;
         this.file = fileToOpen;
         this.newMZmineFile = newMZmineFile;
@@ -128,8 +136,21 @@ public class MzXMLReadTask extends AbstractTask {
 
             dataTypeFactory = DatatypeFactory.newInstance();
 
+            // The data points are decoded in parallel with the parsing
+            decodingPipeline = new ScanDecodingPipeline(newMZmineFile);
+
             SAXParser saxParser = factory.newSAXParser();
-            saxParser.parse(file, handler);
+            try {
+                saxParser.parse(file, handler);
+
+                if (isCanceled())
+                    return;
+
+                // Write the scans still in the decoding window
+                writeDecodedScans(0);
+            } finally {
+                decodingPipeline.shutdown();
+            }
 
             // Close file
             finalRawDataFile = newMZmineFile.finishWriting();
@@ -160,10 +181,74 @@ public class MzXMLReadTask extends AbstractTask {
 
     }
 
+    /**
+     * Writes the oldest scans of the decoding window to the RawDataFile, until
+     * at most maxScansLeft scans are left in the window
+     */
+    private void writeDecodedScans(int maxScansLeft) throws IOException,
+            InterruptedException {
+        while (decodingScans.size() > maxScansLeft) {
+            SimpleScan scan = decodingScans.removeLast();
+            decodingPipeline.addScan(scan);
+            parsedScans++;
+        }
+    }
+
     public String getTaskDescription() {
         return "Opening file " + file;
     }
 
+    /**
+     * Decodes the data points from the base64 text of a peaks element
+     */
+    private static DataPoint[] decodePeaks(String peaksText,
+            boolean compressed, boolean doublePrecision, int numOfPeaks)
+            throws IOException {
+
+        byte[] peakBytes = Base64.decode(peaksText);
+
+        if (compressed) {
+            try {
+                peakBytes = CompressionUtils.decompress(peakBytes, numOfPeaks
+                        * (doublePrecision ? 16 : 8));
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt compressed peak: "
+                        + e.toString());
+            }
+        }
+
+        // make a data input stream
+        DataInputStream peakStream = new DataInputStream(
+                new ByteArrayInputStream(peakBytes));
+
+        DataPoint dataPoints[] = new DataPoint[numOfPeaks];
+
+        try {
+            for (int i = 0; i < dataPoints.length; i++) {
+
+                // Always respect this order pairOrder="m/z-int"
+                double massOverCharge;
+                double intensity;
+                if (doublePrecision) {
+                    massOverCharge = peakStream.readDouble();
+                    intensity = peakStream.readDouble();
+                } else {
+                    massOverCharge = (double) peakStream.readFloat();
+                    intensity = (double) peakStream.readFloat();
+                }
+
+                // Copy m/z and intensity data
+                dataPoints[i] = new SimpleDataPoint(massOverCharge, intensity);
+
+            }
+        } catch (IOException eof) {
+            throw new IOException("Corrupt mzXML file");
+        }
+
+        return dataPoints;
+
+    }
+
     private class MzXMLHandler extends DefaultHandler {
         public void startElement(String namespaceURI, String lName, // local
                 // name
@@ -293,28 +378,32 @@ public class MzXMLReadTask extends AbstractTask {
                  * At this point we verify if the scan and his fragments are
                  * closed, so we include the present scan/fragment into the
                  * stack and start to take elements from them (FIFO) for the
-                 * RawDataFile.
+                 * decoding window, which writes the oldest scans to the
+                 * RawDataFile once it is full.
                  */
 
                 if (msLevelTree == 0) {
                     parentStack.addFirst(buildingScan);
                     buildingScan = null;
                     while (!parentStack.isEmpty()) {
-                        SimpleScan currentScan = parentStack.removeLast();
-                        try {
-                            newMZmineFile.addScan(currentScan);
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                            setStatus(TaskStatus.ERROR);
-                            setErrorMessage("IO error: " + e);
-                            throw new SAXException("Parsing error: " + e);
-                        }
-                        parsedScans++;
+                        decodingScans.addFirst(parentStack.removeLast());
+                    }
+                    try {
+                        writeDecodedScans(decodingPipeline
+                                .getMaxPendingScans());
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        setStatus(TaskStatus.ERROR);
+                        setErrorMessage("IO error: " + e);
+                        throw new SAXException("Parsing error: " + e);
+                    } catch (InterruptedException e) {
+                        throw new SAXException("Parsing Cancelled");
                     }
 
                     /*
-                     * The scan with all his fragments is in the RawDataFile,
-                     * now we clean the stack for the next scan and fragments.
+                     * The scan with all his fragments is in the decoding
+                     * window, now we clean the stack for the next scan and
+                     * fragments.
                      */
                     parentStack.clear();
 
@@ -336,60 +425,30 @@ public class MzXMLReadTask extends AbstractTask {
             // <peaks>
             if (qName.equalsIgnoreCase("peaks")) {
 
-                byte[] peakBytes = Base64.decode(charBuffer.toString());
-
-                if (compressFlag) {
-                    try {
-                        peakBytes = CompressionUtils.decompress(peakBytes);
-                    } catch (DataFormatException e) {
-                        setStatus(TaskStatus.ERROR);
-                        setErrorMessage("Corrupt compressed peak: "
-                                + e.toString());
-                        throw new SAXException("Parsing Cancelled");
+                // Only copy the encoded data here, the decoding is done by
+                // the decoding pipeline
+                final String peaksText = charBuffer.toString();
+                final boolean compressed = compressFlag;
+                final boolean doublePrecision = "64".equals(precision);
+                final int numOfPeaks = peaksCount;
+
+                Callable<DataPoint[]> decoder = new Callable<DataPoint[]>() {
+                    public DataPoint[] call() throws IOException {
+                        return decodePeaks(peaksText, compressed,
+                                doublePrecision, numOfPeaks);
                     }
-                }
-
-                // make a data input stream
-                DataInputStream peakStream = new DataInputStream(
-                        new ByteArrayInputStream(peakBytes));
-
-                DataPoint dataPoints[] = new DataPoint[peaksCount];
+                };
 
                 try {
-                    for (int i = 0; i < dataPoints.length; i++) {
-
-                        // Always respect this order pairOrder="m/z-int"
-                        double massOverCharge;
-                        double intensity;
-                        if ("64".equals(precision)) {
-                            massOverCharge = peakStream.readDouble();
-                            intensity = peakStream.readDouble();
-                        } else {
-                            massOverCharge = (double) peakStream.readFloat();
-                            intensity = (double) peakStream.readFloat();
-                        }
-
-                        // Copy m/z and intensity data
-                        dataPoints[i] = new SimpleDataPoint(massOverCharge,
-                                intensity);
-
-                    }
-                } catch (IOException eof) {
+                    decodingPipeline.decode(buildingScan, decoder);
+                } catch (IOException e) {
                     setStatus(TaskStatus.ERROR);
-                    setErrorMessage("Corrupt mzXML file");
+                    setErrorMessage(e.getMessage());
+                    throw new SAXException("Parsing Cancelled");
+                } catch (InterruptedException e) {
                     throw new SAXException("Parsing Cancelled");
                 }
 
-                // Auto-detect whether this scan is centroided
-                MassSpectrumType spectrumType = ScanUtils
-                        .detectSpectrumType(dataPoints);
-
-                // Set the centroided tag
-                buildingScan.setSpectrumType(spectrumType);
-
-                // Set the final data points to the scan
-                buildingScan.setDataPoints(dataPoints);
-
                 return;
             }
         }
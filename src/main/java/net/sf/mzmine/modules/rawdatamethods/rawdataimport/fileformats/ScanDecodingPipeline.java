@@ -0,0 +1,171 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.RawDataFileWriter;
+import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.util.ScanUtils;
+import net.sf.mzmine.util.ThreadUtils;
+
+/**
+ * Decodes the data points of the scans of a file being imported in the shared
+ * executor (see ThreadUtils.getSharedExecutor()), while the parser thread keeps
+ * reading the file. The parser creates each scan without data points and
+ * passes the job decoding its (base64, possibly compressed) binary data to
+ * decode(). Scans are then written by addScan() in the order given by the
+ * parser, waiting for their decoding to finish if necessary, so the scans of
+ * the raw data file are in the same order as if they were decoded by the
+ * parser itself.
+ *
+ * The number of scans waiting to be decoded is limited, so the parser cannot
+ * fill the memory with encoded data when the decoding is slower than parsing.
+ * To keep the decoding threads busy, the parser should delay writing each scan
+ * until getMaxPendingScans() newer scans were passed to decode().
+ */
+class ScanDecodingPipeline {
+
+    // Scans waiting to be decoded, per decoding thread
+    private static final int QUEUED_SCANS_PER_THREAD = 4;
+
+    private final RawDataFileWriter writer;
+    private final ExecutorService executor;
+    private final Semaphore queuedScans;
+    private final int maxPendingScans;
+
+    // Decoding of the scans which were not written yet
+    private final Map<SimpleScan, Future<?>> decodings = new IdentityHashMap<SimpleScan, Future<?>>();
+
+    ScanDecodingPipeline(RawDataFileWriter writer) {
+        this.writer = writer;
+        final int numOfThreads = ThreadUtils.getNumOfThreads();
+        // Decoding in a single thread would only add overhead, so with one
+        // thread the scans are decoded by the parser thread
+        if (numOfThreads > 1) {
+            executor = ThreadUtils.getSharedExecutor();
+            maxPendingScans = numOfThreads * QUEUED_SCANS_PER_THREAD;
+            queuedScans = new Semaphore(maxPendingScans);
+        } else {
+            executor = null;
+            queuedScans = null;
+            maxPendingScans = 0;
+        }
+    }
+
+    /**
+     * Returns the number of scans which can be decoded at the same time, or 0
+     * if the scans are decoded by the parser thread
+     */
+    int getMaxPendingScans() {
+        return maxPendingScans;
+    }
+
+    /**
+     * Starts decoding the data points of given scan. When the decoding is
+     * finished, the data points and the detected spectrum type are set to the
+     * scan. This method blocks while too many scans are waiting to be decoded.
+     */
+    void decode(final SimpleScan scan, final Callable<DataPoint[]> decoder)
+            throws IOException, InterruptedException {
+
+        Callable<Void> job = new Callable<Void>() {
+            public Void call() throws Exception {
+                DataPoint dataPoints[] = decoder.call();
+                // Auto-detect whether this scan is centroided
+                MassSpectrumType spectrumType = ScanUtils
+                        .detectSpectrumType(dataPoints);
+                scan.setDataPoints(dataPoints);
+                scan.setSpectrumType(spectrumType);
+                return null;
+            }
+        };
+
+        if (executor == null) {
+            FutureTask<Void> decoding = new FutureTask<Void>(job);
+            decoding.run();
+            getResult(decoding);
+            return;
+        }
+
+        queuedScans.acquire();
+        FutureTask<Void> decoding = new FutureTask<Void>(job) {
+            @Override
+            protected void done() {
+                queuedScans.release();
+            }
+        };
+        decodings.put(scan, decoding);
+        executor.execute(decoding);
+
+    }
+
+    /**
+     * Writes given scan to the raw data file, after its data points were
+     * decoded
+     */
+    void addScan(SimpleScan scan) throws IOException, InterruptedException {
+        Future<?> decoding = decodings.remove(scan);
+        if (decoding != null)
+            getResult(decoding);
+        writer.addScan(scan);
+    }
+
+    /**
+     * Cancels the decoding of the scans which were not written yet, and
+     * discards them. The shared executor itself keeps running.
+     */
+    void shutdown() {
+        for (Future<?> decoding : decodings.values())
+            decoding.cancel(false);
+        decodings.clear();
+    }
+
+    /**
+     * Waits for given decoding to finish and rethrows its exception, if any
+     */
+    private static void getResult(Future<?> decoding) throws IOException,
+            InterruptedException {
+        try {
+            decoding.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException("Could not decode the data points: "
+                    + cause, cause);
+        }
+    }
+
+}
@@ -35,7 +35,6 @@ import javax.swing.JTable;
 import javax.swing.UIManager;
 import javax.swing.event.RowSorterEvent;
 import javax.swing.table.TableCellEditor;
-import javax.swing.table.TableRowSorter;
 
 import net.sf.mzmine.datamodel.PeakIdentity;
 import net.sf.mzmine.datamodel.PeakList;
@@ -67,7 +66,7 @@ public class PeakListTable extends JTable implements ComponentToolTipProvider {
     private PeakListTableModel pkTableModel;
     private PeakList peakList;
     private PeakListRow peakListRow;
-    private TableRowSorter<PeakListTableModel> sorter;
+    private PeakListTableRowSorter sorter;
     private PeakListTableColumnModel cm;
     private ComponentToolTipManager ttm;
     private DefaultCellEditor currentEditor = null;
@@ -95,8 +94,8 @@ public class PeakListTable extends JTable implements ComponentToolTipProvider {
 	// create default columns
 	cm.createColumns();
 
-	// Initialize sorter
-	sorter = new TableRowSorter<PeakListTableModel>(pkTableModel);
+	// Initialize sorter, which sorts large peak lists in the background
+	sorter = new PeakListTableRowSorter(pkTableModel);
 	setRowSorter(sorter);
 
 	PeakListTablePopupMenu popupMenu = new PeakListTablePopupMenu(window,
@@ -0,0 +1,463 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.visualization.peaklisttable.table;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.SwingUtilities;
+
+import net.sf.mzmine.util.ThreadUtils;
+
+/**
+ * Row sorter of the peak list table. Unlike TableRowSorter, which compares the
+ * boxed cell values on the event dispatch thread, this sorter reads the values
+ * of each sorted column once into a primitive array (or an array of collation
+ * keys for text columns), and sorts an array of row indices in a background
+ * thread. The table keeps showing the previous order until sorting is
+ * finished, with inserted rows at the end and without deleted rows. The column
+ * arrays are cached until the model changes.
+ *
+ * As with TableRowSorter, missing (null) values are sorted first in ascending
+ * order, and updating a row does not sort the table again.
+ */
+class PeakListTableRowSorter extends RowSorter<PeakListTableModel> {
+
+    private static final Logger logger = Logger
+	    .getLogger(PeakListTableRowSorter.class.getName());
+
+    private static final int MAX_SORT_KEYS = 3;
+
+    private static ExecutorService executor;
+
+    private final PeakListTableModel model;
+
+    private List<SortKey> sortKeys = Collections.emptyList();
+
+    // View to model and model to view row mappings
+    private int viewToModel[], modelToView[];
+
+    // Cached values of the columns, by model column index
+    private final Map<Integer, ColumnValues> columnCache =
+	    new HashMap<Integer, ColumnValues>();
+
+    // Incremented on each model change, to discard the results of sorting the
+    // previous rows
+    private int modelGeneration;
+
+    // Incremented on each request to sort, to discard all but the latest
+    // result
+    private int sortRequest;
+
+    // True until the result of the latest request to sort is applied
+    private boolean sorting;
+
+    PeakListTableRowSorter(PeakListTableModel model) {
+	this.model = model;
+	resetMapping();
+    }
+
+    public PeakListTableModel getModel() {
+	return model;
+    }
+
+    public void toggleSortOrder(int column) {
+
+	checkColumn(column);
+
+	List<SortKey> keys = new ArrayList<SortKey>(sortKeys);
+	SortKey newKey = new SortKey(column, SortOrder.ASCENDING);
+	for (int i = 0; i < keys.size(); i++) {
+	    if (keys.get(i).getColumn() == column) {
+		// Clicking the primary sort column again reverses the order
+		if ((i == 0)
+			&& (keys.get(0).getSortOrder() == SortOrder.ASCENDING))
+		    newKey = new SortKey(column, SortOrder.DESCENDING);
+		keys.remove(i);
+		break;
+	    }
+	}
+	keys.add(0, newKey);
+	if (keys.size() > MAX_SORT_KEYS)
+	    keys = keys.subList(0, MAX_SORT_KEYS);
+
+	setSortKeys(keys);
+
+    }
+
+    public int convertRowIndexToModel(int index) {
+	return viewToModel[index];
+    }
+
+    public int convertRowIndexToView(int index) {
+	return modelToView[index];
+    }
+
+    public void setSortKeys(List<? extends SortKey> keys) {
+
+	List<SortKey> newKeys;
+	if (keys == null)
+	    newKeys = Collections.emptyList();
+	else {
+	    for (SortKey key : keys)
+		checkColumn(key.getColumn());
+	    newKeys = Collections.unmodifiableList(new ArrayList<SortKey>(keys));
+	}
+
+	if (newKeys.equals(sortKeys))
+	    return;
+
+	sortKeys = newKeys;
+	fireSortOrderChanged();
+	sort();
+
+    }
+
+    public List<? extends SortKey> getSortKeys() {
+	return sortKeys;
+    }
+
+    public int getViewRowCount() {
+	return viewToModel.length;
+    }
+
+    public int getModelRowCount() {
+	return model.getRowCount();
+    }
+
+    public void modelStructureChanged() {
+	if (!sortKeys.isEmpty()) {
+	    sortKeys = Collections.emptyList();
+	    fireSortOrderChanged();
+	}
+	modelChanged(true);
+    }
+
+    public void allRowsChanged() {
+	modelChanged(true);
+    }
+
+    public void rowsInserted(int firstRow, int endRow) {
+
+	// Keep the current order of the previous rows, which move down by the
+	// number of inserted rows, and show the inserted rows at the end
+	final int numOfRows = endRow - firstRow + 1;
+	final int lastViewToModel[] = viewToModel;
+	if (lastViewToModel.length + numOfRows == model.getRowCount()) {
+	    int newViewToModel[] = new int[lastViewToModel.length + numOfRows];
+	    for (int i = 0; i < lastViewToModel.length; i++) {
+		final int modelRow = lastViewToModel[i];
+		newViewToModel[i] = modelRow >= firstRow ? modelRow + numOfRows
+			: modelRow;
+	    }
+	    for (int i = 0; i < numOfRows; i++)
+		newViewToModel[lastViewToModel.length + i] = firstRow + i;
+	    setMapping(newViewToModel);
+	    fireRowSorterChanged(lastViewToModel);
+	}
+
+	modelChanged(true);
+
+    }
+
+    public void rowsDeleted(int firstRow, int endRow) {
+
+	// Keep the current order of the remaining rows, which move up by the
+	// number of deleted rows
+	final int numOfRows = endRow - firstRow + 1;
+	final int lastViewToModel[] = viewToModel;
+	if (lastViewToModel.length - numOfRows == model.getRowCount()) {
+	    int newViewToModel[] = new int[lastViewToModel.length - numOfRows];
+	    int index = 0;
+	    for (int modelRow : lastViewToModel) {
+		if (modelRow < firstRow)
+		    newViewToModel[index++] = modelRow;
+		else if (modelRow > endRow)
+		    newViewToModel[index++] = modelRow - numOfRows;
+	    }
+	    setMapping(newViewToModel);
+	    fireRowSorterChanged(lastViewToModel);
+	}
+
+	modelChanged(true);
+
+    }
+
+    public void rowsUpdated(int firstRow, int endRow) {
+	modelChanged(false);
+    }
+
+    public void rowsUpdated(int firstRow, int endRow, int column) {
+	modelChanged(false);
+    }
+
+    /**
+     * Invalidates the cached column values, and sorts the rows again if
+     * requested. A sort in progress may have read the previous values, so its
+     * result is discarded and the rows are sorted again. If the number of rows
+     * does not match the current order, the order is dropped.
+     */
+    private void modelChanged(boolean resort) {
+
+	modelGeneration++;
+	columnCache.clear();
+
+	if (viewToModel.length != model.getRowCount()) {
+	    int lastViewToModel[] = viewToModel;
+	    resetMapping();
+	    fireRowSorterChanged(lastViewToModel);
+	}
+
+	if (resort || sorting)
+	    sort();
+
+    }
+
+    private void setMapping(int newViewToModel[]) {
+	viewToModel = newViewToModel;
+	modelToView = new int[newViewToModel.length];
+	for (int i = 0; i < newViewToModel.length; i++)
+	    modelToView[newViewToModel[i]] = i;
+    }
+
+    private void resetMapping() {
+	final int numOfRows = model.getRowCount();
+	viewToModel = new int[numOfRows];
+	modelToView = new int[numOfRows];
+	for (int i = 0; i < numOfRows; i++) {
+	    viewToModel[i] = i;
+	    modelToView[i] = i;
+	}
+    }
+
+    /**
+     * Sorts the rows in the background according to the current sort keys
+     */
+    private void sort() {
+
+	final int request = ++sortRequest;
+	final int generation = modelGeneration;
+	final int numOfRows = model.getRowCount();
+
+	final List<SortKey> activeKeys = new ArrayList<SortKey>();
+	for (SortKey key : sortKeys) {
+	    if (key.getSortOrder() != SortOrder.UNSORTED)
+		activeKeys.add(key);
+	}
+
+	if (activeKeys.isEmpty()) {
+	    sorting = false;
+	    int lastViewToModel[] = viewToModel;
+	    resetMapping();
+	    fireRowSorterChanged(lastViewToModel);
+	    return;
+	}
+
+	// Pass the cached columns to the background thread, the cache itself
+	// is only accessed by the event dispatch thread
+	final ColumnValues columns[] = new ColumnValues[activeKeys.size()];
+	for (int i = 0; i < columns.length; i++)
+	    columns[i] = columnCache.get(activeKeys.get(i).getColumn());
+
+	sorting = true;
+	getExecutor().execute(new Runnable() {
+	    public void run() {
+		try {
+		    for (int i = 0; i < columns.length; i++) {
+			if (columns[i] == null)
+			    columns[i] = new ColumnValues(model, activeKeys
+				    .get(i).getColumn(), numOfRows);
+		    }
+		    final int newViewToModel[] = sortRows(activeKeys, columns,
+			    numOfRows);
+		    SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+			    sortFinished(request, generation, activeKeys,
+				    columns, newViewToModel);
+			}
+		    });
+		} catch (Exception e) {
+		    // The model may change while it is being read
+		    logger.log(Level.WARNING, "Error while sorting peak list", e);
+		}
+	    }
+	});
+
+    }
+
+    /**
+     * Applies the result of sorting, unless the model or the sort keys have
+     * changed in the meantime
+     */
+    private void sortFinished(int request, int generation,
+	    List<SortKey> activeKeys, ColumnValues columns[],
+	    int newViewToModel[]) {
+
+	if (generation != modelGeneration)
+	    return;
+
+	for (int i = 0; i < columns.length; i++)
+	    columnCache.put(activeKeys.get(i).getColumn(), columns[i]);
+
+	if ((request != sortRequest)
+		|| (newViewToModel.length != model.getRowCount()))
+	    return;
+
+	sorting = false;
+	int lastViewToModel[] = viewToModel;
+	setMapping(newViewToModel);
+	fireRowSorterChanged(lastViewToModel);
+
+    }
+
+    /**
+     * Returns the model indices of the rows in sorted order. The sort is
+     * stable, so rows with equal values keep their model order.
+     */
+    private static int[] sortRows(List<SortKey> keys, ColumnValues columns[],
+	    int numOfRows) {
+
+	final boolean descending[] = new boolean[keys.size()];
+	for (int i = 0; i < descending.length; i++)
+	    descending[i] = keys.get(i).getSortOrder() == SortOrder.DESCENDING;
+
+	int rows[] = new int[numOfRows];
+	int buffer[] = new int[numOfRows];
+	for (int i = 0; i < numOfRows; i++)
+	    rows[i] = i;
+
+	// Bottom-up merge sort of the row indices
+	for (int width = 1; width < numOfRows; width *= 2) {
+	    for (int left = 0; left < numOfRows; left += 2 * width) {
+		final int middle = Math.min(left + width, numOfRows);
+		final int right = Math.min(left + 2 * width, numOfRows);
+		int i = left, j = middle, k = left;
+		while ((i < middle) && (j < right)) {
+		    if (compareRows(rows[j], rows[i], columns, descending) < 0)
+			buffer[k++] = rows[j++];
+		    else
+			buffer[k++] = rows[i++];
+		}
+		while (i < middle)
+		    buffer[k++] = rows[i++];
+		while (j < right)
+		    buffer[k++] = rows[j++];
+	    }
+	    int swap[] = rows;
+	    rows = buffer;
+	    buffer = swap;
+	}
+
+	return rows;
+
+    }
+
+    private static int compareRows(int row1, int row2, ColumnValues columns[],
+	    boolean descending[]) {
+	for (int i = 0; i < columns.length; i++) {
+	    int result = columns[i].compare(row1, row2);
+	    if (result != 0)
+		return descending[i] ? -result : result;
+	}
+	return 0;
+    }
+
+    private void checkColumn(int column) {
+	if ((column < 0) || (column >= model.getColumnCount()))
+	    throw new IndexOutOfBoundsException("Column " + column
+		    + " out of range");
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+	if (executor == null)
+	    executor = ThreadUtils.createThreadPool(1);
+	return executor;
+    }
+
+    /**
+     * Values of one column, as doubles (NaN for missing values) for numeric
+     * and enum columns, or as collation keys of the text of other columns
+     */
+    private static class ColumnValues {
+
+	private final double numbers[];
+	private final CollationKey keys[];
+
+	ColumnValues(PeakListTableModel model, int column, int numOfRows) {
+
+	    Class<?> columnClass = model.getColumnClass(column);
+
+	    if (Number.class.isAssignableFrom(columnClass)
+		    || Enum.class.isAssignableFrom(columnClass)) {
+		numbers = new double[numOfRows];
+		keys = null;
+		for (int row = 0; row < numOfRows; row++) {
+		    Object value = model.getValueAt(row, column);
+		    if (value instanceof Number)
+			numbers[row] = ((Number) value).doubleValue();
+		    else if (value instanceof Enum)
+			numbers[row] = ((Enum<?>) value).ordinal();
+		    else
+			numbers[row] = Double.NaN;
+		}
+	    } else {
+		Collator collator = Collator.getInstance();
+		numbers = null;
+		keys = new CollationKey[numOfRows];
+		for (int row = 0; row < numOfRows; row++) {
+		    Object value = model.getValueAt(row, column);
+		    if (value != null)
+			keys[row] = collator.getCollationKey(value.toString());
+		}
+	    }
+
+	}
+
+	int compare(int row1, int row2) {
+
+	    if (numbers != null) {
+		final double value1 = numbers[row1], value2 = numbers[row2];
+		final boolean missing1 = Double.isNaN(value1);
+		final boolean missing2 = Double.isNaN(value2);
+		if (missing1 || missing2)
+		    return missing1 == missing2 ? 0 : (missing1 ? -1 : 1);
+		return Double.compare(value1, value2);
+	    }
+
+	    final CollationKey key1 = keys[row1], key2 = keys[row2];
+	    if ((key1 == null) || (key2 == null))
+		return key1 == key2 ? 0 : (key1 == null ? -1 : 1);
+	    return key1.compareTo(key2);
+
+	}
+
+    }
+
+}
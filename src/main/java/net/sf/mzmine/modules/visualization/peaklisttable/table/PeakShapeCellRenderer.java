@@ -80,7 +80,9 @@ class PeakShapeCellRenderer implements TableCellRenderer {
 		maxHeight = peakList.getDataPointMaxIntensity();
 		break;
 	    case ROWMAX:
-		int rowNumber = peakList.getPeakRowNum(peak);
+		// Searching the row of the peak would take time linear in the
+		// number of rows for each painted cell
+		int rowNumber = table.convertRowIndexToModel(row);
 		maxHeight = peakList.getRow(rowNumber)
 			.getDataPointMaxIntensity();
 		break;
@@ -89,7 +91,10 @@ class PeakShapeCellRenderer implements TableCellRenderer {
 			.upperEndpoint();
 		break;
 	    }
-	    PeakXICComponent xic = new PeakXICComponent(peak, maxHeight);
+	    // The peak shape is computed in the background, so scrolling does not
+	    // need to wait for reading the scans of each peak
+	    PeakXICComponent xic = new PeakXICComponent(peak, maxHeight, table,
+		    table.getCellRect(row, column, false));
 
 	    newPanel.add(xic);
 
@@ -108,7 +113,7 @@ class PeakShapeCellRenderer implements TableCellRenderer {
 	    }
 
 	    CombinedXICComponent xic = new CombinedXICComponent(peaks,
-		    plRow.getID());
+		    plRow.getID(), table, table.getCellRect(row, column, false));
 
 	    newPanel.add(xic);
 
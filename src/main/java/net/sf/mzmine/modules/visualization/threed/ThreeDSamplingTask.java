@@ -19,9 +19,15 @@
 
 package net.sf.mzmine.modules.visualization.threed;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.MassSpectrumType;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
@@ -30,13 +36,16 @@ import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.ScanUtils;
 import net.sf.mzmine.util.ScanUtils.BinningType;
+import net.sf.mzmine.util.ThreadUtils;
 import visad.Linear2DSet;
 import visad.Set;
 
 import com.google.common.collect.Range;
 
 /**
- * Sampling task which loads the raw data and feeds them to ThreeDDisplay
+ * Sampling task which loads the raw data and feeds them to ThreeDDisplay. The
+ * scans are split into slices which are binned in parallel, each into its own
+ * intensity grid, and the grids are merged at the end.
  */
 class ThreeDSamplingTask extends AbstractTask {
 
@@ -49,7 +58,7 @@ class ThreeDSamplingTask extends AbstractTask {
     // Data resolution on m/z and retention time axis
     private int rtResolution, mzResolution;
 
-    private int retrievedScans = 0;
+    private final AtomicInteger retrievedScans = new AtomicInteger();
 
     // The 3D display
     private ThreeDDisplay display;
@@ -93,7 +102,9 @@ class ThreeDSamplingTask extends AbstractTask {
      * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
      */
     public double getFinishedPercentage() {
-        return (double) retrievedScans / scans.length;
+        if (scans.length == 0)
+            return 0;
+        return (double) retrievedScans.get() / scans.length;
     }
 
     /**
@@ -112,59 +123,55 @@ class ThreeDSamplingTask extends AbstractTask {
                     rtResolution, mzRange.lowerEndpoint(),
                     mzRange.upperEndpoint(), mzResolution);
 
-            final double rtStep = (rtRange.upperEndpoint() - rtRange
-                    .lowerEndpoint()) / rtResolution;
-
-            // create an array for all data points
-            float[][] intensityValues = new float[1][mzResolution
-                    * rtResolution];
-            boolean rtDataSet[] = new boolean[rtResolution];
-
-            // load scans
-            for (int scanIndex = 0; scanIndex < scans.length; scanIndex++) {
-
-                if (isCanceled())
-                    return;
+            // Bin the slices of scans in parallel
+            final int numOfSlices = Math.max(1,
+                    Math.min(ThreadUtils.getNumOfThreads(), scans.length));
+            List<Callable<SampledSlice>> jobs = new ArrayList<Callable<SampledSlice>>();
+            for (int slice = 0; slice < numOfSlices; slice++) {
+                final int from = (int) ((long) scans.length * slice / numOfSlices);
+                final int to = (int) ((long) scans.length * (slice + 1) / numOfSlices);
+                jobs.add(new Callable<SampledSlice>() {
+                    public SampledSlice call() {
+                        return sampleScans(from, to);
+                    }
+                });
+            }
 
-                Scan scan = scans[scanIndex];
+            List<SampledSlice> slices;
+            try {
+                slices = ThreadUtils.runInParallel(jobs);
+            } catch (InterruptedException e) {
+                setStatus(TaskStatus.CANCELED);
+                return;
+            } catch (ExecutionException e) {
+                logger.log(Level.SEVERE, "Sampling of 3D data failed",
+                        e.getCause());
+                setStatus(TaskStatus.ERROR);
+                setErrorMessage("Error while sampling 3D data, "
+                        + ExceptionUtils.exceptionToString(e.getCause()));
+                return;
+            }
 
-                DataPoint dataPoints[] = scan.getDataPoints();
-                double[] scanMZValues = new double[dataPoints.length];
-                double[] scanIntensityValues = new double[dataPoints.length];
-                for (int dp = 0; dp < dataPoints.length; dp++) {
-                    scanMZValues[dp] = dataPoints[dp].getMZ();
-                    scanIntensityValues[dp] = dataPoints[dp].getIntensity();
+            if (isCanceled())
+                return;
+
+            // Merge the grids of the slices into the first one
+            float[][] intensityValues = new float[][] { slices.get(0).intensityValues };
+            boolean rtDataSet[] = slices.get(0).rtDataSet;
+            for (int slice = 1; slice < slices.size(); slice++) {
+                float sliceValues[] = slices.get(slice).intensityValues;
+                for (int i = 0; i < sliceValues.length; i++) {
+                    if (sliceValues[i] > intensityValues[0][i])
+                        intensityValues[0][i] = sliceValues[i];
                 }
-
-                double[] binnedIntensities = ScanUtils.binValues(scanMZValues,
-                        scanIntensityValues, mzRange, mzResolution,
-                        scan.getSpectrumType() != MassSpectrumType.CENTROIDED,
-                        BinningType.MAX);
-
-                int scanBinIndex;
-
-                double rt = scan.getRetentionTime();
-                scanBinIndex = (int) ((rt - rtRange.lowerEndpoint()) / rtStep);
-
-                // last scan falls into last bin
-                if (scanBinIndex == rtResolution)
-                    scanBinIndex--;
-
-                for (int mzIndex = 0; mzIndex < mzResolution; mzIndex++) {
-
-                    int intensityValuesIndex = (rtResolution * mzIndex)
-                            + scanBinIndex;
-                    if (binnedIntensities[mzIndex] > intensityValues[0][intensityValuesIndex])
-                        intensityValues[0][intensityValuesIndex] = (float) binnedIntensities[mzIndex];
-
-                    if (intensityValues[0][intensityValuesIndex] > maxBinnedIntensity)
-                        maxBinnedIntensity = (double) binnedIntensities[mzIndex];
+                boolean sliceRTDataSet[] = slices.get(slice).rtDataSet;
+                for (int rtIndex = 0; rtIndex < rtResolution; rtIndex++) {
+                    rtDataSet[rtIndex] |= sliceRTDataSet[rtIndex];
                 }
-
-                rtDataSet[scanBinIndex] = true;
-
-                retrievedScans++;
-
+            }
+            for (float value : intensityValues[0]) {
+                if (value > maxBinnedIntensity)
+                    maxBinnedIntensity = value;
             }
 
             // Interpolate missing values on the RT-axis
@@ -226,4 +233,105 @@ class ThreeDSamplingTask extends AbstractTask {
 
     }
 
+    /**
+     * Bins the scans from given index (inclusive) to given index (exclusive)
+     * into a new intensity grid
+     */
+    private SampledSlice sampleScans(int from, int to) {
+
+        final double rtStep = (rtRange.upperEndpoint() - rtRange
+                .lowerEndpoint()) / rtResolution;
+        final double mzStep = (mzRange.upperEndpoint() - mzRange
+                .lowerEndpoint()) / mzResolution;
+
+        SampledSlice slice = new SampledSlice();
+        slice.intensityValues = new float[mzResolution * rtResolution];
+        slice.rtDataSet = new boolean[rtResolution];
+
+        // m/z and intensity buffers of this slice, grown as needed
+        double buffers[][] = new double[2][0];
+
+        for (int scanIndex = from; scanIndex < to; scanIndex++) {
+
+            if (isCanceled())
+                return slice;
+
+            Scan scan = scans[scanIndex];
+            final boolean interpolate = scan.getSpectrumType() != MassSpectrumType.CENTROIDED;
+
+            // Read the data points within the m/z range. When interpolating,
+            // binValues() also needs the nearest data point on each side of
+            // the m/z range, so the range is widened until it contains them
+            // (or the whole scan).
+            final Range<Double> scanMZRange = scan.getDataPointMZRange();
+            if (buffers[0].length < scan.getNumberOfDataPoints()) {
+                buffers = new double[][] {
+                        new double[scan.getNumberOfDataPoints()],
+                        new double[scan.getNumberOfDataPoints()] };
+            }
+            double margin = mzStep > 0 ? mzStep : 1;
+            int numOfDataPoints;
+            while (true) {
+                final double windowMin = mzRange.lowerEndpoint()
+                        - (interpolate ? margin : 0);
+                final double windowMax = mzRange.upperEndpoint()
+                        + (interpolate ? margin : 0);
+                numOfDataPoints = scan.getDataPointsByMass(
+                        Range.closed(windowMin, windowMax), buffers[0],
+                        buffers[1]);
+                if (!interpolate)
+                    break;
+                final boolean hasPointBefore = (windowMin <= scanMZRange
+                        .lowerEndpoint())
+                        || ((numOfDataPoints > 0) && (buffers[0][0] < mzRange
+                                .lowerEndpoint()));
+                final boolean hasPointAfter = (windowMax >= scanMZRange
+                        .upperEndpoint())
+                        || ((numOfDataPoints > 0) && (buffers[0][numOfDataPoints - 1] > mzRange
+                                .upperEndpoint()));
+                if (hasPointBefore && hasPointAfter)
+                    break;
+                margin *= 4;
+            }
+
+            double[] binnedIntensities = ScanUtils.binValues(
+                    Arrays.copyOf(buffers[0], numOfDataPoints),
+                    Arrays.copyOf(buffers[1], numOfDataPoints), mzRange,
+                    mzResolution, interpolate, BinningType.MAX);
+
+            int scanBinIndex;
+
+            double rt = scan.getRetentionTime();
+            scanBinIndex = (int) ((rt - rtRange.lowerEndpoint()) / rtStep);
+
+            // last scan falls into last bin
+            if (scanBinIndex == rtResolution)
+                scanBinIndex--;
+
+            for (int mzIndex = 0; mzIndex < mzResolution; mzIndex++) {
+
+                int intensityValuesIndex = (rtResolution * mzIndex)
+                        + scanBinIndex;
+                if (binnedIntensities[mzIndex] > slice.intensityValues[intensityValuesIndex])
+                    slice.intensityValues[intensityValuesIndex] = (float) binnedIntensities[mzIndex];
+            }
+
+            slice.rtDataSet[scanBinIndex] = true;
+
+            retrievedScans.incrementAndGet();
+
+        }
+
+        return slice;
+
+    }
+
+    /**
+     * Intensity grid of a slice of scans
+     */
+    private static class SampledSlice {
+        float intensityValues[];
+        boolean rtDataSet[];
+    }
+
 }
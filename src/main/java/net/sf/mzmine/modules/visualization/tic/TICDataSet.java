@@ -30,11 +30,11 @@ import javax.swing.SwingUtilities;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.ScanUtils;
 
 import org.jfree.data.xy.AbstractXYZDataset;
 
@@ -62,6 +62,9 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
     // Refresh interval (in milliseconds).
     private static final long REDRAW_INTERVAL = 100L;
 
+    // Number of scans whose ion chromatogram is extracted at once.
+    private static final int XIC_BLOCK_SIZE = 1000;
+
     // Last time the data set was redrawn.
     private static long lastRedrawTime = System.currentTimeMillis();
 
@@ -347,16 +350,65 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
         // Determine plot type (now done from constructor).
         final TICPlotType plotType = this.plotType;
 
+        // Values of the scans which are not enclosed in the m/z range.
+        final int xicScanNumbers[] = new int[Math.min(totalScans,
+                XIC_BLOCK_SIZE)];
+        final double xicBasePeakMZValues[] = new double[xicScanNumbers.length];
+        final double xicBasePeakIntensities[] = new double[xicScanNumbers.length];
+        final double xicTotalIntensities[] = new double[xicScanNumbers.length];
+        final int xicPositions[] = new int[xicScanNumbers.length];
+
         // Process each scan.
         for (int index = 0; status != TaskStatus.CANCELED && index < totalScans; index++) {
 
+            // Extract the ion chromatogram of the next block of scans at
+            // once, so it can be read from the XIC index of the data file.
+            if (index % XIC_BLOCK_SIZE == 0) {
+
+                final int blockEnd = Math.min(totalScans, index
+                        + XIC_BLOCK_SIZE);
+                int numOfXICScans = 0;
+                for (int i = index; i < blockEnd; i++) {
+
+                    xicPositions[i - index] = -1;
+                    if (!mzRange.encloses(scans[i].getDataPointMZRange())) {
+
+                        xicPositions[i - index] = numOfXICScans;
+                        xicScanNumbers[numOfXICScans++] = scans[i]
+                                .getScanNumber();
+                    }
+                }
+
+                if (numOfXICScans > 0) {
+
+                    dataFile.extractXIC(Arrays.copyOf(xicScanNumbers,
+                            numOfXICScans), mzRange, xicBasePeakMZValues,
+                            xicBasePeakIntensities,
+                            plotType == TICPlotType.TIC ? xicTotalIntensities
+                                    : null);
+                }
+            }
+
             // Current scan.
             final Scan scan = scans[index];
+            final int xicPosition = xicPositions[index % XIC_BLOCK_SIZE];
 
             // Determine base peak value.
-            final DataPoint basePeak = mzRange.encloses(scan
-                    .getDataPointMZRange()) ? scan.getHighestDataPoint()
-                    : ScanUtils.findBasePeak(scan, mzRange);
+            final DataPoint basePeak;
+            if (xicPosition < 0) {
+
+                basePeak = scan.getHighestDataPoint();
+
+            } else if (!Double.isNaN(xicBasePeakMZValues[xicPosition])) {
+
+                basePeak = new SimpleDataPoint(
+                        xicBasePeakMZValues[xicPosition],
+                        xicBasePeakIntensities[xicPosition]);
+
+            } else {
+
+                basePeak = null;
+            }
             if (basePeak != null) {
 
                 basePeakValues[index] = basePeak.getMZ();
@@ -367,8 +419,8 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
             if (plotType == TICPlotType.TIC) {
 
                 // Total ion count.
-                intensity = mzRange.encloses(scan.getDataPointMZRange()) ? scan
-                        .getTIC() : ScanUtils.calculateTIC(scan, mzRange);
+                intensity = xicPosition < 0 ? scan.getTIC()
+                        : xicTotalIntensities[xicPosition];
 
             } else if (plotType == TICPlotType.BASEPEAK && basePeak != null) {
 
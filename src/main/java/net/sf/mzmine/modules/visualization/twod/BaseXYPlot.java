@@ -88,6 +88,16 @@ public class BaseXYPlot extends XYPlot{
                 getRangeAxis().getRange().getUpperBound());
     }
 
+    /**
+     * Clears the zoom out image cache when the data set changes, e.g. while
+     * its intensity pyramid is being built
+     */
+    @Override
+    public void datasetChanged(DatasetChangeEvent event) {
+        zoomOutBitmap = null;
+        super.datasetChanged(event);
+    }
+
     void switchPalette() {
         TwoDPaletteType types[] = TwoDPaletteType.values();
         int newIndex = paletteType.ordinal() + 1;
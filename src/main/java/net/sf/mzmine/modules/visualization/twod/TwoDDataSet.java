@@ -20,9 +20,12 @@
 package net.sf.mzmine.modules.visualization.twod;
 
 import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 
+import javax.swing.SwingUtilities;
+
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
@@ -39,10 +42,25 @@ import org.jfree.data.xy.AbstractXYDataset;
 
 import com.google.common.collect.Range;
 
+/**
+ * 2D visualizer data set. The data points of the scans are summarized in a
+ * TwoDIntensityPyramid, which is built in the background when the data set is
+ * created. The last pyramid built is kept while there is enough memory, so
+ * that it can be reused by the next 2D visualizer of the same raw data file,
+ * scans and ranges. The data points of the scans are only read again when the
+ * plot is zoomed in beyond the finest level of the pyramid.
+ */
 class TwoDDataSet extends AbstractXYDataset implements Task {
 
     private static final long serialVersionUID = 1L;
 
+    // Refresh interval (in milliseconds) while the pyramid is being built
+    private static final long REDRAW_INTERVAL = 1000L;
+
+    // The last pyramid built, and the raw data file it was built for
+    private static SoftReference<TwoDIntensityPyramid> lastPyramid;
+    private static WeakReference<RawDataFile> lastPyramidDataFile;
+
     private RawDataFile rawDataFile;
 
     private double retentionTimes[];
@@ -53,6 +71,8 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
     private int totalScans, processedScans;
     private final Scan scans[];
 
+    private volatile TwoDIntensityPyramid pyramid;
+
     private TaskStatus status = TaskStatus.WAITING;
 
     public double curMaxIntensity;
@@ -86,6 +106,22 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
         status = TaskStatus.PROCESSING;
 
+        int scanNumbers[] = new int[totalScans];
+        for (int index = 0; index < totalScans; index++)
+            scanNumbers[index] = scans[index].getScanNumber();
+
+        // Reuse the pyramid of the previous 2D visualizer of the same scans
+        TwoDIntensityPyramid cachedPyramid = getLastPyramid(rawDataFile);
+        final boolean buildPyramid = (cachedPyramid == null)
+                || !cachedPyramid.matches(scanNumbers, totalRTRange,
+                        totalMZRange);
+        final TwoDIntensityPyramid newPyramid = buildPyramid ? new TwoDIntensityPyramid(
+                scanNumbers, totalRTRange, totalMZRange) : cachedPyramid;
+        pyramid = newPyramid;
+
+        long lastRedrawTime = System.currentTimeMillis();
+        double buffers[][] = new double[2][0];
+
         for (int index = 0; index < totalScans; index++) {
 
             // Cancel?
@@ -97,18 +133,57 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
             retentionTimes[index] = scan.getRetentionTime();
             basePeaks[index] = (scanBasePeak == null ? 0 : scanBasePeak
                     .getIntensity());
-            DataPoint scanDataPoints[] = scan.getDataPoints();
-            dataPointMatrix[index] = new SoftReference<DataPoint[]>(
-                    scanDataPoints);
+
+            if (buildPyramid) {
+                if (buffers[0].length < scan.getNumberOfDataPoints()) {
+                    buffers = new double[][] {
+                            new double[scan.getNumberOfDataPoints()],
+                            new double[scan.getNumberOfDataPoints()] };
+                }
+                int numOfDataPoints = scan.getDataPoints(buffers[0],
+                        buffers[1]);
+                newPyramid.addDataPoints(retentionTimes[index], buffers[0],
+                        buffers[1], numOfDataPoints);
+
+                // Show the part of the pyramid built so far
+                if (System.currentTimeMillis() - lastRedrawTime > REDRAW_INTERVAL) {
+                    refresh();
+                    lastRedrawTime = System.currentTimeMillis();
+                }
+            }
+
             processedScans++;
         }
 
-        fireDatasetChanged();
+        if (buildPyramid) {
+            newPyramid.finish();
+            setLastPyramid(rawDataFile, newPyramid);
+        }
+
+        refresh();
 
         status = TaskStatus.FINISHED;
 
     }
 
+    /**
+     * Returns the last pyramid built, if it was built for given raw data file
+     * and it was not reclaimed yet
+     */
+    private static synchronized TwoDIntensityPyramid getLastPyramid(
+            RawDataFile rawDataFile) {
+        if ((lastPyramid == null)
+                || (lastPyramidDataFile.get() != rawDataFile))
+            return null;
+        return lastPyramid.get();
+    }
+
+    private static synchronized void setLastPyramid(RawDataFile rawDataFile,
+            TwoDIntensityPyramid pyramid) {
+        lastPyramid = new SoftReference<TwoDIntensityPyramid>(pyramid);
+        lastPyramidDataFile = new WeakReference<RawDataFile>(rawDataFile);
+    }
+
     /**
      * @see org.jfree.data.general.AbstractSeriesDataset#getSeriesCount()
      */
@@ -150,9 +225,25 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
             return totalMZRange.upperEndpoint();
     }
 
+    /**
+     * Returns the maximum intensity within given RT and m/z ranges (a pixel of
+     * the plot). The intensity is read from the coarsest level of the pyramid
+     * whose cells are not larger than the ranges, and from the scans only if
+     * the ranges are smaller than the cells of the finest level.
+     */
     double upperEndpointIntensity(Range<Double> rtRange, Range<Double> mzRange,
             PlotMode plotMode) {
 
+        final TwoDIntensityPyramid currentPyramid = pyramid;
+        if (currentPyramid != null) {
+            final int level = currentPyramid.findLevel(rtRange.upperEndpoint()
+                    - rtRange.lowerEndpoint(), mzRange.upperEndpoint()
+                    - mzRange.lowerEndpoint());
+            if (level >= 0)
+                return currentPyramid.getMaxIntensity(level, rtRange, mzRange,
+                        plotMode);
+        }
+
         double maxIntensity = 0;
 
         double searchRetentionTimes[] = retentionTimes;
@@ -251,7 +342,7 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
         for (int scanIndex = startScanIndex; ((scanIndex < searchRetentionTimes.length) && (searchRetentionTimes[scanIndex] <= rtRange
                 .upperEndpoint())); scanIndex++) {
             // get the list of data points
-            DataPoint dataPoints[] = dataPointMatrix[scanIndex].get();
+            DataPoint dataPoints[] = getDataPoints(scanIndex);
             // Binary search for the mz values in the range you want
 
             DataPoint searchMZ = new SimpleDataPoint(mzRange.lowerEndpoint(), 0);
@@ -294,14 +385,36 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
     private double upperEndpointIntensity(int dataPointMatrixIndex,
             Range<Double> mzRange, PlotMode plotMode) {
-        DataPoint dataPoints[] = dataPointMatrix[dataPointMatrixIndex].get();
+        DataPoint dataPoints[] = getDataPoints(dataPointMatrixIndex);
+        return upperEndpointIntensity(dataPoints, mzRange, plotMode);
+    }
+
+    /**
+     * Returns the data points of the scan of given index, which are read on
+     * first use and kept while there is enough memory
+     */
+    private DataPoint[] getDataPoints(int scanIndex) {
+        SoftReference<DataPoint[]> reference = dataPointMatrix[scanIndex];
+        DataPoint dataPoints[] = reference == null ? null : reference.get();
         if (dataPoints == null) {
-            Scan scan = scans[dataPointMatrixIndex];
+            Scan scan = scans[scanIndex];
             dataPoints = scan.getDataPoints();
-            dataPointMatrix[dataPointMatrixIndex] = new SoftReference<DataPoint[]>(
+            dataPointMatrix[scanIndex] = new SoftReference<DataPoint[]>(
                     dataPoints);
         }
-        return upperEndpointIntensity(dataPoints, mzRange, plotMode);
+        return dataPoints;
+    }
+
+    /**
+     * Notify data set listener (on the EDT).
+     */
+    private void refresh() {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                fireDatasetChanged();
+            }
+        });
     }
 
     private double upperEndpointIntensity(DataPoint dataPoints[],
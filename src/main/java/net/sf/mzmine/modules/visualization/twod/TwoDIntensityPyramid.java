@@ -0,0 +1,331 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.visualization.twod;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.Range;
+
+/**
+ * Multi-resolution RT x m/z grid of the maximum intensities of the data points
+ * shown in the 2D visualizer. Level 0 divides the RT and m/z ranges of the
+ * visualizer into at most MAX_COLUMNS x MAX_ROWS cells, and each next level
+ * halves the number of cells in both dimensions, keeping the maximum of the
+ * merged cells. The plot renders from the coarsest level whose cells are not
+ * larger than its pixels, so the scans only need to be read when zoomed in
+ * beyond level 0.
+ *
+ * There are two sets of levels. The centroid levels hold the data points
+ * within each cell, as the centroid plot mode shows them. The other plot
+ * modes show the intensity of the nearest data point of a scan if it has none
+ * within a pixel, so for them, the empty cells of each scan are filled from
+ * its nearest non-empty cell in the same column before the scan is added to
+ * the filled levels. The coarser filled levels keep the maximum of the merged
+ * cells too, so they approximate these modes slightly.
+ *
+ * Level 0 of both sets is filled by addDataPoints() while the scans are read,
+ * and may be used for rendering before the pyramid is finished. The coarser
+ * levels are created by finish().
+ */
+class TwoDIntensityPyramid {
+
+    // Maximum number of cells of level 0
+    private static final int MAX_COLUMNS = 2048, MAX_ROWS = 2048;
+
+    // Coarser levels are created until both dimensions have at most this
+    // number of cells
+    private static final int MIN_CELLS = 16;
+
+    // Value of the cells without any data point, lower than any intensity
+    private static final float NO_DATA_POINT = -1f;
+
+    private final int scanNumbers[];
+    private final Range<Double> rtRange, mzRange;
+
+    // Size of the cells of level 0
+    private final double columnWidth, rowHeight;
+
+    // Number of columns and rows, and the cells (column by column) of each
+    // centroid and filled level. Only level 0 exists until the pyramid is
+    // finished.
+    private volatile int levelSizes[][];
+    private volatile float levels[][], filledLevels[][];
+
+    // Maximum intensity of each row of the scan being added
+    private final float scanRows[];
+
+    // Columns of level 0 which contain a scan, and the range of such columns
+    private final boolean scanColumns[];
+    private int firstScanColumn = Integer.MAX_VALUE, lastScanColumn = -1;
+
+    private volatile boolean finished;
+
+    /**
+     * @param scanNumbers
+     *            Scan numbers of the data set, used to check if this pyramid
+     *            can be reused for another data set
+     */
+    TwoDIntensityPyramid(int scanNumbers[], Range<Double> rtRange,
+            Range<Double> mzRange) {
+
+        this.scanNumbers = scanNumbers;
+        this.rtRange = rtRange;
+        this.mzRange = mzRange;
+
+        final int columns = Math.max(1, Math.min(MAX_COLUMNS,
+                scanNumbers.length));
+        final int rows = MAX_ROWS;
+        final double rtLength = rtRange.upperEndpoint()
+                - rtRange.lowerEndpoint();
+        final double mzLength = mzRange.upperEndpoint()
+                - mzRange.lowerEndpoint();
+        columnWidth = rtLength > 0 ? rtLength / columns : 1;
+        rowHeight = mzLength > 0 ? mzLength / rows : 1;
+
+        levelSizes = new int[][] { { columns, rows } };
+        levels = new float[][] { new float[columns * rows] };
+        filledLevels = new float[][] { new float[columns * rows] };
+        Arrays.fill(levels[0], NO_DATA_POINT);
+        Arrays.fill(filledLevels[0], NO_DATA_POINT);
+        scanColumns = new boolean[columns];
+        scanRows = new float[rows];
+
+    }
+
+    /**
+     * Returns true if this pyramid was built for given scans and ranges
+     */
+    boolean matches(int scanNumbers[], Range<Double> rtRange,
+            Range<Double> mzRange) {
+        return finished && Arrays.equals(this.scanNumbers, scanNumbers)
+                && this.rtRange.equals(rtRange) && this.mzRange.equals(mzRange);
+    }
+
+    /**
+     * Adds the data points of a scan of given retention time to level 0 of
+     * both sets of levels. The data points must be sorted by m/z.
+     */
+    void addDataPoints(double retentionTime, double mzValues[],
+            double intensityValues[], int numOfDataPoints) {
+
+        final int sizes[] = levelSizes[0];
+        final int rows = sizes[1];
+        final float cells[] = levels[0];
+        final float filledCells[] = filledLevels[0];
+
+        final int column = getCell(retentionTime, rtRange.lowerEndpoint(),
+                columnWidth, sizes[0]);
+        scanColumns[column] = true;
+        firstScanColumn = Math.min(firstScanColumn, column);
+        lastScanColumn = Math.max(lastScanColumn, column);
+
+        Arrays.fill(scanRows, NO_DATA_POINT);
+        final double mzMin = mzRange.lowerEndpoint();
+        final double mzMax = mzRange.upperEndpoint();
+        for (int i = 0; i < numOfDataPoints; i++) {
+            if ((mzValues[i] < mzMin) || (mzValues[i] > mzMax))
+                continue;
+            final int row = getCell(mzValues[i], mzMin, rowHeight, rows);
+            if (intensityValues[i] > scanRows[row])
+                scanRows[row] = (float) intensityValues[i];
+        }
+
+        // Add the rows with data points to both levels, and fill the empty
+        // rows between them from the nearest such row (the next one if both
+        // are equally near, as TwoDDataSet does with the data points)
+        final int columnStart = column * rows;
+        int previousRow = -1;
+        for (int row = 0; row < rows; row++) {
+            final float value = scanRows[row];
+            if (value == NO_DATA_POINT)
+                continue;
+            if (value > cells[columnStart + row])
+                cells[columnStart + row] = value;
+            if (value > filledCells[columnStart + row])
+                filledCells[columnStart + row] = value;
+            if (previousRow >= 0) {
+                for (int emptyRow = previousRow + 1; emptyRow < row;
+                        emptyRow++) {
+                    final float nearestValue = (emptyRow - previousRow < row
+                            - emptyRow) ? scanRows[previousRow] : value;
+                    if (nearestValue > filledCells[columnStart + emptyRow])
+                        filledCells[columnStart + emptyRow] = nearestValue;
+                }
+            }
+            previousRow = row;
+        }
+
+    }
+
+    /**
+     * Fills the columns of level 0 without scans from the nearest column with
+     * a scan (as the 2D plot shows the nearest scan if there is no scan in the
+     * RT range of a pixel), and creates the coarser levels
+     */
+    void finish() {
+
+        final int sizes[] = levelSizes[0];
+        final float cells[] = levels[0];
+        final float filledCells[] = filledLevels[0];
+
+        fillEmptyColumns(cells, sizes[1]);
+        fillEmptyColumns(filledCells, sizes[1]);
+
+        final float newLevels[][] = createCoarserLevels(cells);
+        final float newFilledLevels[][] = createCoarserLevels(filledCells);
+
+        // findLevel() counts the centroid levels, so they are set last
+        filledLevels = newFilledLevels;
+        levels = newLevels;
+        finished = true;
+
+    }
+
+    private void fillEmptyColumns(float cells[], int rows) {
+        int previousScanColumn = -1;
+        for (int column = firstScanColumn; column <= lastScanColumn; column++) {
+            if (scanColumns[column]) {
+                previousScanColumn = column;
+                continue;
+            }
+            int nextScanColumn = column + 1;
+            while (!scanColumns[nextScanColumn])
+                nextScanColumn++;
+            final int nearestColumn = (column - previousScanColumn <= nextScanColumn
+                    - column) ? previousScanColumn : nextScanColumn;
+            System.arraycopy(cells, nearestColumn * rows, cells, column
+                    * rows, rows);
+        }
+    }
+
+    /**
+     * Creates the coarser levels of given level 0, and sets their sizes
+     */
+    private float[][] createCoarserLevels(float cells[]) {
+
+        final int sizes[] = levelSizes[0];
+
+        List<int[]> newLevelSizes = new ArrayList<int[]>();
+        List<float[]> newLevels = new ArrayList<float[]>();
+        newLevelSizes.add(sizes);
+        newLevels.add(cells);
+
+        int columns = sizes[0];
+        int currentRows = sizes[1];
+        float currentCells[] = cells;
+        while ((columns > MIN_CELLS) || (currentRows > MIN_CELLS)) {
+
+            final int newColumns = (columns + 1) / 2;
+            final int newRows = (currentRows + 1) / 2;
+            final float newCells[] = new float[newColumns * newRows];
+            Arrays.fill(newCells, NO_DATA_POINT);
+
+            for (int column = 0; column < columns; column++) {
+                for (int row = 0; row < currentRows; row++) {
+                    final float value = currentCells[column * currentRows
+                            + row];
+                    final int newCell = (column / 2) * newRows + row / 2;
+                    if (value > newCells[newCell])
+                        newCells[newCell] = value;
+                }
+            }
+
+            newLevelSizes.add(new int[] { newColumns, newRows });
+            newLevels.add(newCells);
+            columns = newColumns;
+            currentRows = newRows;
+            currentCells = newCells;
+        }
+
+        levelSizes = newLevelSizes.toArray(new int[0][]);
+        return newLevels.toArray(new float[0][]);
+
+    }
+
+    /**
+     * Returns the coarsest level whose cells are not larger than given pixel
+     * size, or -1 if even the cells of level 0 are larger. Before the pyramid
+     * is finished, only level 0 is available.
+     */
+    int findLevel(double pixelRTLength, double pixelMZLength) {
+
+        if ((columnWidth > pixelRTLength) || (rowHeight > pixelMZLength))
+            return -1;
+
+        final int numOfLevels = levels.length;
+        int level = 0;
+        while ((level + 1 < numOfLevels)
+                && (columnWidth * (2 << level) <= pixelRTLength)
+                && (rowHeight * (2 << level) <= pixelMZLength))
+            level++;
+        return level;
+
+    }
+
+    /**
+     * Returns the maximum intensity of the cells of given level which
+     * intersect given RT and m/z ranges, as shown by given plot mode, or 0 if
+     * there is no such data point
+     */
+    double getMaxIntensity(int level, Range<Double> rtRange,
+            Range<Double> mzRange, PlotMode plotMode) {
+
+        if ((rtRange.upperEndpoint() < this.rtRange.lowerEndpoint())
+                || (rtRange.lowerEndpoint() > this.rtRange.upperEndpoint())
+                || (mzRange.upperEndpoint() < this.mzRange.lowerEndpoint())
+                || (mzRange.lowerEndpoint() > this.mzRange.upperEndpoint()))
+            return 0;
+
+        final int sizes[] = levelSizes[level];
+        final int columns = sizes[0], rows = sizes[1];
+        final float cells[] = (plotMode == PlotMode.CENTROID) ? levels[level]
+                : filledLevels[level];
+        final double levelColumnWidth = columnWidth * (1 << level);
+        final double levelRowHeight = rowHeight * (1 << level);
+
+        final int firstColumn = getCell(rtRange.lowerEndpoint(),
+                this.rtRange.lowerEndpoint(), levelColumnWidth, columns);
+        final int lastColumn = getCell(rtRange.upperEndpoint(),
+                this.rtRange.lowerEndpoint(), levelColumnWidth, columns);
+        final int firstRow = getCell(mzRange.lowerEndpoint(),
+                this.mzRange.lowerEndpoint(), levelRowHeight, rows);
+        final int lastRow = getCell(mzRange.upperEndpoint(),
+                this.mzRange.lowerEndpoint(), levelRowHeight, rows);
+
+        float maxIntensity = NO_DATA_POINT;
+        for (int column = firstColumn; column <= lastColumn; column++) {
+            for (int row = firstRow; row <= lastRow; row++) {
+                if (cells[column * rows + row] > maxIntensity)
+                    maxIntensity = cells[column * rows + row];
+            }
+        }
+        return Math.max(0, maxIntensity);
+
+    }
+
+    private static int getCell(double value, double min, double cellSize,
+            int numOfCells) {
+        final int cell = (int) Math.floor((value - min) / cellSize);
+        return Math.max(0, Math.min(numOfCells - 1, cell));
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.main.MZmineConfiguration;
+import net.sf.mzmine.main.MZmineCore;
+
+/**
+ * Cache of decoded data points, shared by all raw data files. The entries are
+ * the arrays of alternating m/z and intensity values read by RawDataFileImpl,
+ * keyed by the raw data file and the storage ID. The cache holds at most the
+ * number of megabytes set in the MZmine preferences, and the least recently
+ * used entries are evicted first. The cached arrays must not be modified.
+ */
+public class DataPointsCache {
+
+    private static final DataPointsCache instance = new DataPointsCache();
+
+    // Used when MZmine is not fully initialized, e.g. in unit tests
+    private static final int DEFAULT_CACHE_SIZE = 256;
+
+    // Estimated memory taken by a cache entry besides the values
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final LinkedHashMap<Key, float[]> entries = new LinkedHashMap<Key, float[]>(
+	    16, 0.75f, true);
+    private long cachedBytes, hits, misses;
+
+    public static DataPointsCache getInstance() {
+	return instance;
+    }
+
+    /**
+     * Returns the cached values of given storage ID of given raw data file,
+     * or null if they are not cached
+     */
+    synchronized float[] get(RawDataFileImpl rawDataFile, int storageID) {
+	float values[] = entries.get(new Key(rawDataFile, storageID));
+	if (values != null)
+	    hits++;
+	else
+	    misses++;
+	return values;
+    }
+
+    /**
+     * Adds given values to the cache, evicting the least recently used
+     * entries if the cache is full
+     */
+    synchronized void put(RawDataFileImpl rawDataFile, int storageID,
+	    float values[]) {
+
+	final long maxBytes = getMaxBytes();
+	final long bytes = getSize(values);
+	if (bytes > maxBytes)
+	    return;
+
+	float previous[] = entries.put(new Key(rawDataFile, storageID), values);
+	if (previous != null)
+	    cachedBytes -= getSize(previous);
+	cachedBytes += bytes;
+
+	Iterator<float[]> iterator = entries.values().iterator();
+	while (cachedBytes > maxBytes) {
+	    cachedBytes -= getSize(iterator.next());
+	    iterator.remove();
+	}
+
+    }
+
+    /**
+     * Removes the cached values of given storage ID of given raw data file
+     */
+    synchronized void remove(RawDataFileImpl rawDataFile, int storageID) {
+	float values[] = entries.remove(new Key(rawDataFile, storageID));
+	if (values != null)
+	    cachedBytes -= getSize(values);
+    }
+
+    /**
+     * Removes all cached values of given raw data file
+     */
+    synchronized void removeAll(RawDataFileImpl rawDataFile) {
+	Iterator<Entry<Key, float[]>> iterator = entries.entrySet().iterator();
+	while (iterator.hasNext()) {
+	    Entry<Key, float[]> entry = iterator.next();
+	    if (entry.getKey().rawDataFile == rawDataFile) {
+		cachedBytes -= getSize(entry.getValue());
+		iterator.remove();
+	    }
+	}
+    }
+
+    /**
+     * Returns true if the cache size set in the MZmine preferences is not 0
+     */
+    boolean isEnabled() {
+	return getMaxBytes() > 0;
+    }
+
+    public synchronized long getHits() {
+	return hits;
+    }
+
+    public synchronized long getMisses() {
+	return misses;
+    }
+
+    public synchronized long getCachedBytes() {
+	return cachedBytes;
+    }
+
+    private static long getSize(float values[]) {
+	return values.length * 4L + ENTRY_OVERHEAD;
+    }
+
+    private static long getMaxBytes() {
+	Integer cacheSize = null;
+	MZmineConfiguration configuration = MZmineCore.getConfiguration();
+	if ((configuration != null) && (configuration.getPreferences() != null))
+	    cacheSize = configuration.getPreferences()
+		    .getParameter(MZminePreferences.scanCacheSize).getValue();
+	if (cacheSize == null)
+	    cacheSize = DEFAULT_CACHE_SIZE;
+	return cacheSize * 1024L * 1024L;
+    }
+
+    /**
+     * Cache key, which compares the raw data files by identity
+     */
+    private static final class Key {
+
+	private final RawDataFileImpl rawDataFile;
+	private final int storageID;
+
+	Key(RawDataFileImpl rawDataFile, int storageID) {
+	    this.rawDataFile = rawDataFile;
+	    this.storageID = storageID;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (!(obj instanceof Key))
+		return false;
+	    Key key = (Key) obj;
+	    return (rawDataFile == key.rawDataFile)
+		    && (storageID == key.storageID);
+	}
+
+	@Override
+	public int hashCode() {
+	    return System.identityHashCode(rawDataFile) * 31 + storageID;
+	}
+
+    }
+
+}
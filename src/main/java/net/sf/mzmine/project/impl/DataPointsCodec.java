@@ -0,0 +1,55 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Codec for the data points stored in the temporary data points file of
+ * RawDataFileImpl. RawDataFileImpl splits the data points into chunks and
+ * encodes each chunk separately, so a codec only needs to handle a limited
+ * number of data points at once. The data points are passed as an array of
+ * alternating m/z and intensity values.
+ *
+ * Codecs are shared by all raw data files, so they must be thread-safe.
+ */
+public interface DataPointsCodec {
+
+    /**
+     * Encodes numOfDataPoints m/z and intensity pairs of given array, starting
+     * with the pair of index from
+     */
+    byte[] encode(float dataPoints[], int from, int numOfDataPoints);
+
+    /**
+     * Decodes numOfDataPoints m/z and intensity pairs from the remaining bytes
+     * of given buffer into given array, starting with the pair of index to
+     */
+    void decode(ByteBuffer encoded, float dataPoints[], int to,
+	    int numOfDataPoints) throws IOException;
+
+    /**
+     * Returns true if the decoded data points are always identical to the
+     * encoded ones
+     */
+    boolean isLossless();
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Base class of the codecs which pack the data points into a compact byte
+ * representation and compress it using Deflate. The encoded data starts with
+ * the length of the packed data, followed by the compressed packed data.
+ * Deflater and Inflater instances are reused, because creating them is
+ * expensive compared to compressing a single chunk. At most POOL_SIZE idle
+ * instances of each are kept, the others are ended right after use to release
+ * their native memory.
+ */
+abstract class DeflatedDataPointsCodec implements DataPointsCodec {
+
+    private static final int POOL_SIZE = Runtime.getRuntime()
+	    .availableProcessors();
+
+    private static final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<Deflater>(
+	    POOL_SIZE);
+
+    private static final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<Inflater>(
+	    POOL_SIZE);
+
+    /**
+     * Returns the maximum number of bytes pack() may write for given number of
+     * data points
+     */
+    abstract int getMaxPackedLength(int numOfDataPoints);
+
+    /**
+     * Writes numOfDataPoints m/z and intensity pairs of given array, starting
+     * with the pair of index from, into given buffer
+     */
+    abstract void pack(float dataPoints[], int from, int numOfDataPoints,
+	    ByteBuffer packed);
+
+    /**
+     * Reads numOfDataPoints m/z and intensity pairs written by pack() into
+     * given array, starting with the pair of index to
+     */
+    abstract void unpack(ByteBuffer packed, float dataPoints[], int to,
+	    int numOfDataPoints);
+
+    public byte[] encode(float dataPoints[], int from, int numOfDataPoints) {
+
+	ByteBuffer packed = ByteBuffer
+		.allocate(getMaxPackedLength(numOfDataPoints));
+	pack(dataPoints, from, numOfDataPoints, packed);
+	final int packedLength = packed.position();
+
+	Deflater deflater = deflaters.poll();
+	if (deflater == null)
+	    deflater = new Deflater(Deflater.BEST_SPEED);
+
+	byte encoded[] = new byte[packedLength / 2 + 64];
+	int encodedLength = 4;
+	try {
+	    deflater.setInput(packed.array(), 0, packedLength);
+	    deflater.finish();
+	    while (!deflater.finished()) {
+		if (encodedLength == encoded.length)
+		    encoded = Arrays.copyOf(encoded, encoded.length * 2);
+		encodedLength += deflater.deflate(encoded, encodedLength,
+			encoded.length - encodedLength);
+	    }
+	} finally {
+	    deflater.reset();
+	    if (!deflaters.offer(deflater))
+		deflater.end();
+	}
+	ByteBuffer.wrap(encoded).putInt(0, packedLength);
+
+	return Arrays.copyOf(encoded, encodedLength);
+
+    }
+
+    public void decode(ByteBuffer encoded, float dataPoints[], int to,
+	    int numOfDataPoints) throws IOException {
+
+	final int packedLength = encoded.getInt();
+	byte compressed[] = new byte[encoded.remaining()];
+	encoded.get(compressed);
+
+	byte packed[] = new byte[packedLength];
+	Inflater inflater = inflaters.poll();
+	if (inflater == null)
+	    inflater = new Inflater();
+	try {
+	    inflater.setInput(compressed);
+	    int unpackedLength = 0;
+	    while (unpackedLength < packedLength) {
+		final int n = inflater.inflate(packed, unpackedLength,
+			packedLength - unpackedLength);
+		if ((n == 0) && (inflater.finished() || inflater.needsInput()))
+		    throw new IOException("Corrupted data points");
+		unpackedLength += n;
+	    }
+	} catch (DataFormatException e) {
+	    throw new IOException("Corrupted data points", e);
+	} finally {
+	    inflater.reset();
+	    if (!inflaters.offer(inflater))
+		inflater.end();
+	}
+
+	unpack(ByteBuffer.wrap(packed), dataPoints, to, numOfDataPoints);
+
+    }
+
+    /**
+     * Writes given value as a zigzag-encoded variable-length integer, so that
+     * small positive and negative values take few bytes
+     */
+    static void putVarLong(ByteBuffer buffer, long value) {
+	long zigzag = (value << 1) ^ (value >> 63);
+	while ((zigzag & ~0x7FL) != 0) {
+	    buffer.put((byte) ((zigzag & 0x7F) | 0x80));
+	    zigzag >>>= 7;
+	}
+	buffer.put((byte) zigzag);
+    }
+
+    /**
+     * Reads a value written by putVarLong()
+     */
+    static long getVarLong(ByteBuffer buffer) {
+	long zigzag = 0;
+	int shift = 0;
+	byte b;
+	do {
+	    b = buffer.get();
+	    zigzag |= (long) (b & 0x7F) << shift;
+	    shift += 7;
+	} while ((b & 0x80) != 0);
+	return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+}
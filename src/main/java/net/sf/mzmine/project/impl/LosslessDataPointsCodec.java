@@ -0,0 +1,82 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Lossless codec. The m/z values are stored as differences of their float bit
+ * patterns, which are small for data points sorted by m/z (positive floats are
+ * ordered like their bit patterns). The bit patterns of the intensities are
+ * split into byte planes (all highest bytes first, then all second bytes and
+ * so on), which Deflate compresses much better than interleaved bytes.
+ */
+class LosslessDataPointsCodec extends DeflatedDataPointsCodec {
+
+    @Override
+    int getMaxPackedLength(int numOfDataPoints) {
+	return numOfDataPoints * (10 + 4);
+    }
+
+    @Override
+    void pack(float dataPoints[], int from, int numOfDataPoints,
+	    ByteBuffer packed) {
+
+	long previousBits = 0;
+	for (int i = from; i < from + numOfDataPoints; i++) {
+	    final long bits = Float.floatToRawIntBits(dataPoints[i * 2]);
+	    putVarLong(packed, bits - previousBits);
+	    previousBits = bits;
+	}
+
+	for (int shift = 24; shift >= 0; shift -= 8) {
+	    for (int i = from; i < from + numOfDataPoints; i++) {
+		final int bits = Float.floatToRawIntBits(dataPoints[i * 2 + 1]);
+		packed.put((byte) (bits >>> shift));
+	    }
+	}
+
+    }
+
+    @Override
+    void unpack(ByteBuffer packed, float dataPoints[], int to,
+	    int numOfDataPoints) {
+
+	long bits = 0;
+	for (int i = to; i < to + numOfDataPoints; i++) {
+	    bits += getVarLong(packed);
+	    dataPoints[i * 2] = Float.intBitsToFloat((int) bits);
+	}
+
+	int intensityBits[] = new int[numOfDataPoints];
+	for (int shift = 24; shift >= 0; shift -= 8) {
+	    for (int i = 0; i < numOfDataPoints; i++)
+		intensityBits[i] |= (packed.get() & 0xFF) << shift;
+	}
+	for (int i = 0; i < numOfDataPoints; i++)
+	    dataPoints[(to + i) * 2 + 1] = Float.intBitsToFloat(intensityBits[i]);
+
+    }
+
+    public boolean isLossless() {
+	return true;
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Lossy codec following the ideas of MS-Numpress. The m/z values are rounded
+ * to fixed-point integers (absolute error at most 0.5 / MZ_FIXED_POINT, plus
+ * the float rounding of the decoded value) and stored as the differences from
+ * a linear prediction of the two previous values. The intensities are stored
+ * as 16-bit fixed-point values of log(intensity + 1), scaled to the highest
+ * intensity of the chunk, so their relative error is at most about
+ * log(maxIntensity + 1) / 131070 (e.g. 0.03% for intensities up to 1E17).
+ * Negative and NaN intensities are stored as 0.
+ */
+class NumpressDataPointsCodec extends DeflatedDataPointsCodec {
+
+    private static final double MZ_FIXED_POINT = 1E5;
+
+    @Override
+    int getMaxPackedLength(int numOfDataPoints) {
+	return 8 + numOfDataPoints * (10 + 2);
+    }
+
+    @Override
+    void pack(float dataPoints[], int from, int numOfDataPoints,
+	    ByteBuffer packed) {
+
+	double maxLogIntensity = 0;
+	for (int i = from; i < from + numOfDataPoints; i++)
+	    maxLogIntensity = Math.max(maxLogIntensity,
+		    logIntensity(dataPoints[i * 2 + 1]));
+	final double intensityFixedPoint = maxLogIntensity > 0 ? 0xFFFF
+		/ maxLogIntensity : 1;
+	packed.putDouble(intensityFixedPoint);
+
+	long previous = 0, beforePrevious = 0;
+	for (int i = 0; i < numOfDataPoints; i++) {
+	    final long mz = Math.round(dataPoints[(from + i) * 2]
+		    * MZ_FIXED_POINT);
+	    putVarLong(packed, mz - predict(i, previous, beforePrevious));
+	    beforePrevious = previous;
+	    previous = mz;
+	}
+
+	for (int i = from; i < from + numOfDataPoints; i++) {
+	    packed.putShort((short) Math.round(logIntensity(dataPoints[i * 2 + 1])
+		    * intensityFixedPoint));
+	}
+
+    }
+
+    @Override
+    void unpack(ByteBuffer packed, float dataPoints[], int to,
+	    int numOfDataPoints) {
+
+	final double intensityFixedPoint = packed.getDouble();
+
+	long previous = 0, beforePrevious = 0;
+	for (int i = 0; i < numOfDataPoints; i++) {
+	    final long mz = predict(i, previous, beforePrevious)
+		    + getVarLong(packed);
+	    dataPoints[(to + i) * 2] = (float) (mz / MZ_FIXED_POINT);
+	    beforePrevious = previous;
+	    previous = mz;
+	}
+
+	for (int i = to; i < to + numOfDataPoints; i++) {
+	    dataPoints[i * 2 + 1] = (float) Math.expm1((packed.getShort() & 0xFFFF)
+		    / intensityFixedPoint);
+	}
+
+    }
+
+    public boolean isLossless() {
+	return false;
+    }
+
+    /**
+     * Predicts the fixed-point m/z value of the data point of given index from
+     * the two previous values
+     */
+    private static long predict(int index, long previous, long beforePrevious) {
+	switch (index) {
+	case 0:
+	    return 0;
+	case 1:
+	    return previous;
+	default:
+	    return 2 * previous - beforePrevious;
+	}
+    }
+
+    private static double logIntensity(float intensity) {
+	return intensity > 0 ? Math.log1p(intensity) : 0;
+    }
+
+}
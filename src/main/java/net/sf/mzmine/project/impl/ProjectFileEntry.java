@@ -0,0 +1,80 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.File;
+
+/**
+ * Location of a raw data file or a peak list in the project file it was last
+ * saved to or loaded from, together with its modification stamp at that time.
+ * When the project is saved again, the entries of the objects whose
+ * modification stamp did not change are copied from the previous project file
+ * instead of being saved again.
+ */
+public class ProjectFileEntry {
+
+    private final File projectFile;
+    private final String entryName;
+    private final String id;
+    private final long modificationStamp;
+
+    /**
+     * @param projectFile
+     *            project file
+     * @param entryName
+     *            name of the entries of the object in the project file,
+     *            without the extension
+     * @param id
+     *            ID of the object in the project file
+     * @param modificationStamp
+     *            modification stamp of the object when it was saved or loaded
+     */
+    public ProjectFileEntry(File projectFile, String entryName, String id,
+	    long modificationStamp) {
+	this.projectFile = projectFile;
+	this.entryName = entryName;
+	this.id = id;
+	this.modificationStamp = modificationStamp;
+    }
+
+    public File getProjectFile() {
+	return projectFile;
+    }
+
+    public String getEntryName() {
+	return entryName;
+    }
+
+    public String getID() {
+	return id;
+    }
+
+    /**
+     * Returns true if this entry is in given project file and the object was
+     * not modified since, i.e. its modification stamp is still the same
+     */
+    public boolean isUnmodified(File projectFile, long modificationStamp) {
+	return (modificationStamp >= 0)
+		&& (modificationStamp == this.modificationStamp)
+		&& this.projectFile.getAbsoluteFile().equals(
+			projectFile.getAbsoluteFile());
+    }
+
+}
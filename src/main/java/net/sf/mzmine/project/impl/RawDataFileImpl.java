@@ -19,19 +19,35 @@
 
 package net.sf.mzmine.project.impl;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -42,6 +58,11 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.main.MZmineConfiguration;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.util.ScanUtils;
+import net.sf.mzmine.util.ThreadUtils;
 
 import com.google.common.collect.Range;
 import com.google.common.primitives.Ints;
@@ -53,15 +74,83 @@ import com.google.common.primitives.Ints;
  * the file is stored in two TreeMaps. The dataPointsOffsets maps storage ID to
  * the offset in the dataPointsFile. The dataPointsLength maps the storage ID to
  * the number of data points stored under this ID. When stored data points are
- * deleted using removeStoredDataPoints(), the dataPointsFile is not modified,
- * the storage ID is just deleted from the two TreeMaps. When the project is
- * saved, the contents of the dataPointsFile are consolidated - only data points
- * referenced by the TreeMaps are saved (see the RawDataFileSaveHandler class).
+ * deleted using removeStoredDataPoints(), the storage ID is deleted from the
+ * two TreeMaps and its block of the dataPointsFile becomes free. Free blocks
+ * are kept in free lists by size class and reused by storeDataPoints(). When
+ * the free space exceeds the fraction of the file set in the MZmine
+ * preferences, the dataPointsFile is compacted in the background (see
+ * compactDataPointsFile()). When the project is saved, the contents of the
+ * dataPointsFile are consolidated - only data points referenced by the
+ * TreeMaps are saved (see the RawDataFileSaveHandler class).
+ * 
+ * Reading of the data points does not hold the lock of this instance, so
+ * multiple threads may read scans of the same file concurrently. Depending on
+ * the MZmine preferences, the data points file is either memory-mapped in
+ * segments of MAPPED_SEGMENT_SIZE bytes, or read using positional reads of the
+ * FileChannel.
+ * 
+ * Reads hold the read lock of storageLock, so compaction (which moves the
+ * stored blocks) can wait until no read is in progress. The storageLock is
+ * always acquired before the lock of this instance, never while holding it.
+ * Each read is registered with the read epoch in which it started, and each
+ * freed block with the epoch in which it was freed. A freed block is only
+ * reused when no read which started in the same or an earlier epoch is in
+ * progress, because such a read may have looked up the block just before it
+ * was freed. Compaction runs in a single background thread shared by all raw
+ * data files. A DataPointsSnapshot pins the stored blocks in the same way, and
+ * compaction is skipped while a snapshot is open.
+ * 
+ * For each storage ID, a sparse m/z index is kept in memory (every
+ * MZ_INDEX_STEP-th m/z value). It allows readDataPointsByMass() to read only
+ * the part of the stored data points that covers the requested m/z range.
+ * 
+ * Depending on the MZmine preferences, the data points are compressed by a
+ * DataPointsCodec. Compressed data points are stored in chunks of CHUNK_SIZE
+ * data points, preceded by the end offsets of the chunks, so that
+ * readDataPointsByMass() only decodes the chunks covering the requested m/z
+ * range. The number of bytes of compressed data points is kept in
+ * encodedLengths. Data points without an entry there (e.g. loaded from a
+ * project, which always contains uncompressed data points) are stored as
+ * uncompressed float pairs.
+ * 
+ * Decoded data points are kept in the DataPointsCache shared by all raw data
+ * files, so repeated reads of the same scan do not need to read and decode
+ * them again.
+ * 
+ * When a project is opened, the data points may be read in place from the
+ * (uncompressed) scans entry of the project file, see the
+ * openDataPointsFile(File, long, long) method. The project file is never
+ * modified - before the first write, the data points are copied to a new
+ * temporary file.
+ * 
+ * Depending on the MZmine preferences, an XICIndex of the MS1 scans is built
+ * in the background when writing is finished, so that extracted ion
+ * chromatograms can be read without reading all scans. It is rebuilt in the
+ * background after the scans change, and until it is ready, extractXIC()
+ * reads the scans.
  */
 public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     private final Logger logger = Logger.getLogger(this.getClass().getName());
 
+    // Size of the memory-mapped segments of the data points file
+    private static final int MAPPED_SEGMENT_SIZE = 1 << 28;
+
+    // Every n-th m/z value of the stored data points is kept in the m/z index
+    private static final int MZ_INDEX_STEP = 64;
+
+    // Number of data points encoded together by the codec
+    static final int CHUNK_SIZE = 16 * MZ_INDEX_STEP;
+
+    // Data points files smaller than this are never compacted automatically
+    private static final long MIN_COMPACTION_FILE_SIZE = 1 << 24;
+
+    // Number of free blocks of the same size class checked for fitting a new
+    // block, before a block of a bigger size class is used
+    private static final int MAX_SIZE_CLASS_CANDIDATES = 16;
+
+    private static ExecutorService compactionExecutor, xicIndexExecutor;
+
     // Name of this raw data file - may be changed by the user
     private String dataFileName;
 
@@ -70,19 +159,77 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 	    dataMaxTIC;
     private final Hashtable<Integer, int[]> scanNumbersCache;
 
-    private ByteBuffer buffer = ByteBuffer.allocate(20000);
     private final TreeMap<Integer, Long> dataPointsOffsets;
     private final TreeMap<Integer, Integer> dataPointsLengths;
+    private final Map<Integer, Integer> encodedLengths;
+    private final Map<Integer, float[]> mzIndexes;
+
+    // Codec of the data points, null if they are stored uncompressed
+    private DataPointsCodec codec;
+
+    // Free blocks of the data points file (offset -> length in bytes), and
+    // their offsets by size class (size class n holds the blocks of 2^n to
+    // 2^(n+1)-1 bytes). Freed blocks wait in pendingFreeBlocks (offset,
+    // length, read epoch) until no read which may use them is in progress.
+    private final TreeMap<Long, Long> freeBlocks = new TreeMap<Long, Long>();
+    private final List<TreeSet<Long>> freeBlocksBySizeClass = new ArrayList<TreeSet<Long>>();
+    private final List<long[]> pendingFreeBlocks = new ArrayList<long[]>();
+
+    // Current read epoch, and the number of reads in progress by the epoch in
+    // which they started, guarded by readEpochLock. No other lock is acquired
+    // while holding readEpochLock.
+    private long readEpoch;
+    private final TreeMap<Long, Integer> activeReads = new TreeMap<Long, Integer>();
+    private final Object readEpochLock = new Object();
+
+    // Number of bytes used by stored data points, -1 if unknown
+    private long liveBytes = 0;
+
+    private final ReentrantReadWriteLock storageLock = new ReentrantReadWriteLock();
+    private volatile boolean compactionScheduled;
+
+    // Number of open DataPointsSnapshots
+    private int openSnapshots;
 
     // Temporary file for scan data storage
     private File dataPointsFileName;
     private RandomAccessFile dataPointsFile;
 
+    // Data points read in place from a project file are the region of
+    // regionLength bytes starting at regionStart. The regionLength is -1 if
+    // the data points file is a temporary file.
+    private long regionStart = 0;
+    private volatile long regionLength = -1;
+
+    // Memory-mapped segments of the data points file, mapped on demand
+    private boolean useMemoryMapping;
+    private volatile MappedByteBuffer mappedSegments[] = new MappedByteBuffer[0];
+    private final Object mappingLock = new Object();
+
     /**
      * Scans
      */
     private final Hashtable<Integer, StorableScan> scans;
 
+    // Counts the changes of the scans, mass lists and name, which need the
+    // file to be saved again in the project
+    private final AtomicLong modificationCount = new AtomicLong();
+
+    // Entries of this file in the project file it was last saved to or
+    // loaded from, null if it was not saved yet
+    private volatile ProjectFileEntry projectFileEntry;
+
+    // Index of the MS1 scans for extracting ion chromatograms, built in the
+    // background. The scanChanges counter is incremented whenever a scan is
+    // added, and xicIndexScanChanges holds its value when the index was
+    // built. The fields of the index are guarded by xicIndexLock, which is
+    // never held while acquiring another lock.
+    private XICIndex xicIndex;
+    private long xicIndexScanChanges;
+    private boolean xicIndexScheduled, xicIndexClosed;
+    private volatile long scanChanges;
+    private final Object xicIndexLock = new Object();
+
     public RawDataFileImpl(String dataFileName) throws IOException {
 
 	this.dataFileName = dataFileName;
@@ -96,6 +243,10 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 	scans = new Hashtable<Integer, StorableScan>();
 	dataPointsOffsets = new TreeMap<Integer, Long>();
 	dataPointsLengths = new TreeMap<Integer, Integer>();
+	encodedLengths = new HashMap<Integer, Integer>();
+	mzIndexes = new ConcurrentHashMap<Integer, float[]>();
+	for (int i = 0; i < 64; i++)
+	    freeBlocksBySizeClass.add(new TreeSet<Long>());
 
     }
 
@@ -134,6 +285,8 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
 	this.dataPointsFileName = dataPointsFileName;
 	this.dataPointsFile = new RandomAccessFile(dataPointsFileName, "rw");
+	this.useMemoryMapping = isMemoryMappingEnabled();
+	this.codec = getStorageCodec();
 
 	// Locks the temporary file so it is not removed when another instance
 	// of MZmine is starting. Lock will be automatically released when this
@@ -152,6 +305,99 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     }
 
+    /**
+     * Opens the region of given length starting at given offset of given
+     * project file as the data points file, without copying it. The region
+     * must contain uncompressed data points, as saved in the project. The
+     * project file is opened read-only, and the region is copied to a new
+     * temporary file before any data points are stored.
+     */
+    public synchronized void openDataPointsFile(File projectFile,
+	    long regionStart, long regionLength) throws IOException {
+
+	if (this.dataPointsFile != null) {
+	    throw new IOException(
+		    "Cannot open another data points file, because one is already open");
+	}
+
+	this.dataPointsFileName = projectFile;
+	this.dataPointsFile = new RandomAccessFile(projectFile, "r");
+	this.regionStart = regionStart;
+	this.regionLength = regionLength;
+	this.useMemoryMapping = isMemoryMappingEnabled();
+	this.codec = getStorageCodec();
+
+    }
+
+    /**
+     * Makes sure the data points are not read in place from given project
+     * file, by copying them to a temporary file. Called before the project
+     * file is replaced.
+     */
+    public void releaseProjectFile(File projectFile) throws IOException {
+	synchronized (this) {
+	    if ((regionLength < 0)
+		    || !projectFile.getAbsoluteFile().equals(
+			    dataPointsFileName.getAbsoluteFile()))
+		return;
+	}
+	copyDataPointsRegion();
+    }
+
+    /**
+     * If the data points are read in place from a project file, copies them to
+     * a new temporary data points file, which can be modified. Waits until no
+     * read is in progress. Must not be called while holding the lock of this
+     * instance.
+     */
+    private void copyDataPointsRegion() throws IOException {
+
+	storageLock.writeLock().lock();
+	try {
+	    synchronized (this) {
+
+		if (regionLength < 0)
+		    return;
+
+		final File projectFile = dataPointsFileName;
+		final File newFile = createNewDataPointsFile();
+		RandomAccessFile newDataPointsFile = new RandomAccessFile(
+			newFile, "rw");
+		try {
+		    FileChannel source = dataPointsFile.getChannel();
+		    FileChannel target = newDataPointsFile.getChannel();
+		    long copiedBytes = 0;
+		    while (copiedBytes < regionLength) {
+			long bytes = source.transferTo(regionStart + copiedBytes,
+				regionLength - copiedBytes, target);
+			if (bytes <= 0)
+			    throw new EOFException("Unexpected end of file "
+				    + projectFile);
+			copiedBytes += bytes;
+		    }
+		} catch (IOException e) {
+		    newDataPointsFile.close();
+		    newFile.delete();
+		    throw e;
+		}
+		newDataPointsFile.close();
+
+		mappedSegments = new MappedByteBuffer[0];
+		dataPointsFile.close();
+		dataPointsFile = null;
+		regionStart = 0;
+		regionLength = -1;
+		openDataPointsFile(newFile);
+
+		logger.finest("Copied data points of " + dataFileName
+			+ " from project file " + projectFile + " to " + newFile);
+	    }
+	} finally {
+	    storageLock.writeLock().unlock();
+	}
+
+    }
+
     /**
      * @see net.sf.mzmine.datamodel.RawDataFile#getNumOfScans()
      */
@@ -316,121 +562,1091 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     }
 
-    public synchronized int storeDataPoints(DataPoint dataPoints[])
+    public int storeDataPoints(DataPoint dataPoints[]) throws IOException {
+	return storeDataPoints(toFloatValues(dataPoints));
+    }
+
+    /**
+     * Stores given array of alternating m/z and intensity values. If the
+     * values are compressed by a lossy codec, they are replaced by the values
+     * which will be read. Must not be called while holding the lock of this
+     * instance, because it may need to copy the data points region (see
+     * copyDataPointsRegion()).
+     */
+    private int storeDataPoints(float values[]) throws IOException {
+
+	modificationCount.incrementAndGet();
+
+	// The project file must not be modified
+	if (regionLength >= 0)
+	    copyDataPointsRegion();
+
+	final DataPointsCodec codec;
+	synchronized (this) {
+	    if (dataPointsFile == null) {
+		File newFile = RawDataFileImpl.createNewDataPointsFile();
+		openDataPointsFile(newFile);
+	    }
+	    codec = this.codec;
+	}
+
+	final int numOfDataPoints = values.length / 2;
+
+	// Convert the data points into a byte array. Encoding is done before
+	// locking this instance, so multiple threads can encode at once.
+	final byte block[];
+	if (codec == null) {
+	    block = new byte[numOfDataPoints * 2 * 4];
+	    ByteBuffer.wrap(block).asFloatBuffer().put(values);
+	} else {
+	    block = encodeDataPoints(codec, values, numOfDataPoints);
+	    // The m/z index must match the values which will be read
+	    if (!codec.isLossless())
+		decodeChunks(codec, ByteBuffer.wrap(block), 0, ByteBuffer
+			.wrap(block).asIntBuffer(), 0, numOfDataPoints, 0,
+			getNumOfChunks(numOfDataPoints), values);
+	}
+	float mzIndex[] = buildMzIndex(FloatBuffer.wrap(values));
+
+	synchronized (this) {
+
+	    final int currentID;
+	    if (!dataPointsOffsets.isEmpty())
+		currentID = dataPointsOffsets.lastKey() + 1;
+	    else
+		currentID = 1;
+
+	    final long currentOffset = allocateBlock(block.length);
+
+	    dataPointsFile.seek(currentOffset);
+	    dataPointsFile.write(block);
+
+	    dataPointsOffsets.put(currentID, currentOffset);
+	    dataPointsLengths.put(currentID, numOfDataPoints);
+	    if (codec != null)
+		encodedLengths.put(currentID, block.length);
+	    if (liveBytes >= 0)
+		liveBytes += block.length;
+
+	    mzIndexes.put(currentID, mzIndex);
+
+	    return currentID;
+	}
+
+    }
+
+    private static float[] toFloatValues(DataPoint dataPoints[]) {
+	float values[] = new float[dataPoints.length * 2];
+	for (int i = 0; i < dataPoints.length; i++) {
+	    values[i * 2] = (float) dataPoints[i].getMZ();
+	    values[i * 2 + 1] = (float) dataPoints[i].getIntensity();
+	}
+	return values;
+    }
+
+    /**
+     * Encodes given m/z and intensity pairs using given codec. The encoded
+     * block starts with the end offset of each chunk (relative to the start
+     * of the block), followed by the encoded chunks.
+     */
+    static byte[] encodeDataPoints(DataPointsCodec codec,
+	    float values[], int numOfDataPoints) {
+
+	final int numOfChunks = getNumOfChunks(numOfDataPoints);
+	byte chunks[][] = new byte[numOfChunks][];
+	int numOfBytes = numOfChunks * 4;
+	for (int i = 0; i < numOfChunks; i++) {
+	    final int from = i * CHUNK_SIZE;
+	    chunks[i] = codec.encode(values, from,
+		    Math.min(CHUNK_SIZE, numOfDataPoints - from));
+	    numOfBytes += chunks[i].length;
+	}
+
+	ByteBuffer block = ByteBuffer.allocate(numOfBytes);
+	int chunkEnd = numOfChunks * 4;
+	for (byte chunk[] : chunks) {
+	    chunkEnd += chunk.length;
+	    block.putInt(chunkEnd);
+	}
+	for (byte chunk[] : chunks)
+	    block.put(chunk);
+
+	return block.array();
+
+    }
+
+    /**
+     * Decodes the chunks from firstChunk (inclusive) to endChunk (exclusive)
+     * of a block written by encodeDataPoints() into given array. The data
+     * buffer holds the block starting at dataOffset, and the header holds the
+     * chunk end offsets starting with the one of chunk headerStart.
+     */
+    static void decodeChunks(DataPointsCodec codec, ByteBuffer data,
+	    int dataOffset, IntBuffer header, int headerStart,
+	    int numOfDataPoints, int firstChunk, int endChunk, float values[])
 	    throws IOException {
 
-	if (dataPointsFile == null) {
-	    File newFile = RawDataFileImpl.createNewDataPointsFile();
-	    openDataPointsFile(newFile);
+	// The first chunk starts right after the header, the others where the
+	// previous chunk ends
+	int chunkStart = firstChunk == 0 ? getNumOfChunks(numOfDataPoints) * 4
+		: header.get(firstChunk - 1 - headerStart);
+
+	for (int chunk = firstChunk; chunk < endChunk; chunk++) {
+	    final int chunkEnd = header.get(chunk - headerStart);
+	    ByteBuffer encoded = data.duplicate();
+	    encoded.limit(chunkEnd - dataOffset);
+	    encoded.position(chunkStart - dataOffset);
+	    final int from = chunk * CHUNK_SIZE;
+	    codec.decode(encoded.slice(), values, from - firstChunk
+		    * CHUNK_SIZE, Math.min(CHUNK_SIZE, numOfDataPoints - from));
+	    chunkStart = chunkEnd;
 	}
 
-	final long currentOffset = dataPointsFile.length();
+    }
 
-	final int currentID;
-	if (!dataPointsOffsets.isEmpty())
-	    currentID = dataPointsOffsets.lastKey() + 1;
-	else
-	    currentID = 1;
+    static int getNumOfChunks(int numOfDataPoints) {
+	return (numOfDataPoints + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
 
-	final int numOfDataPoints = dataPoints.length;
+    public DataPoint[] readDataPoints(int ID) throws IOException {
 
-	// Convert the dataPoints into a byte array. Each float takes 4 bytes,
-	// so we get the current float offset by dividing the size of the file
-	// by 4
-	final int numOfBytes = numOfDataPoints * 2 * 4;
+	final long epoch = beginRead();
+	try {
 
-	if (buffer.capacity() < numOfBytes) {
-	    buffer = ByteBuffer.allocate(numOfBytes * 2);
-	} else {
-	    buffer.clear();
+	    FloatBuffer floatBuffer = readStoredFloats(ID);
+	    final int numOfDataPoints = floatBuffer.remaining() / 2;
+
+	    DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
+
+	    for (int i = 0; i < numOfDataPoints; i++) {
+		float mz = floatBuffer.get();
+		float intensity = floatBuffer.get();
+		dataPoints[i] = new SimpleDataPoint(mz, intensity);
+	    }
+
+	    return dataPoints;
+
+	} finally {
+	    endRead(epoch);
 	}
 
-	FloatBuffer floatBuffer = buffer.asFloatBuffer();
-	for (DataPoint dp : dataPoints) {
-	    floatBuffer.put((float) dp.getMZ());
-	    floatBuffer.put((float) dp.getIntensity());
+    }
+
+    /**
+     * Reads the data points stored under given ID into the given arrays,
+     * without creating DataPoint instances. The arrays must be large enough to
+     * hold all stored data points.
+     * 
+     * @return Number of data points read
+     */
+    public int readDataPoints(int ID, double mzValues[],
+	    double intensityValues[]) throws IOException {
+
+	final long epoch = beginRead();
+	try {
+
+	    FloatBuffer floatBuffer = readStoredFloats(ID);
+	    final int numOfDataPoints = floatBuffer.remaining() / 2;
+
+	    for (int i = 0; i < numOfDataPoints; i++) {
+		mzValues[i] = floatBuffer.get();
+		intensityValues[i] = floatBuffer.get();
+	    }
+
+	    return numOfDataPoints;
+
+	} finally {
+	    endRead(epoch);
+	}
+
+    }
+
+    /**
+     * Reads the data points stored under given ID, which are within given m/z
+     * range. The stored data points must be sorted by m/z.
+     */
+    public DataPoint[] readDataPointsByMass(int ID, Range<Double> mzRange)
+	    throws IOException {
+
+	final long epoch = beginRead();
+	try {
+
+	    FloatBuffer floatBuffer = readStoredFloatsByMass(ID, mzRange);
+	    final int startIndex = findFirstStoredIndex(floatBuffer,
+		    mzRange.lowerEndpoint());
+	    final int endIndex = findFirstStoredIndex(floatBuffer,
+		    Math.nextUp(mzRange.upperEndpoint()));
+
+	    DataPoint dataPoints[] = new DataPoint[endIndex - startIndex];
+
+	    for (int i = startIndex; i < endIndex; i++) {
+		float mz = floatBuffer.get(i * 2);
+		float intensity = floatBuffer.get(i * 2 + 1);
+		dataPoints[i - startIndex] = new SimpleDataPoint(mz, intensity);
+	    }
+
+	    return dataPoints;
+
+	} finally {
+	    endRead(epoch);
+	}
+
+    }
+
+    /**
+     * Reads the data points stored under given ID, which are within given m/z
+     * range, into the given arrays. The stored data points must be sorted by
+     * m/z. The arrays must be large enough to hold all stored data points.
+     * 
+     * @return Number of data points read
+     */
+    public int readDataPointsByMass(int ID, Range<Double> mzRange,
+	    double mzValues[], double intensityValues[]) throws IOException {
+
+	final long epoch = beginRead();
+	try {
+
+	    FloatBuffer floatBuffer = readStoredFloatsByMass(ID, mzRange);
+	    final int startIndex = findFirstStoredIndex(floatBuffer,
+		    mzRange.lowerEndpoint());
+	    final int endIndex = findFirstStoredIndex(floatBuffer,
+		    Math.nextUp(mzRange.upperEndpoint()));
+
+	    for (int i = startIndex; i < endIndex; i++) {
+		mzValues[i - startIndex] = floatBuffer.get(i * 2);
+		intensityValues[i - startIndex] = floatBuffer.get(i * 2 + 1);
+	    }
+
+	    return endIndex - startIndex;
+
+	} finally {
+	    endRead(epoch);
 	}
 
-	dataPointsFile.seek(currentOffset);
-	dataPointsFile.write(buffer.array(), 0, numOfBytes);
+    }
 
-	dataPointsOffsets.put(currentID, currentOffset);
-	dataPointsLengths.put(currentID, numOfDataPoints);
+    /**
+     * Opens a snapshot of the stored data points, used when saving the
+     * project. The snapshot must be closed by the thread which opened it.
+     */
+    public DataPointsSnapshot openDataPointsSnapshot() {
+	return new DataPointsSnapshot();
+    }
+
+    /**
+     * Starts a read of the stored data points. Acquires the read lock of
+     * storageLock, and registers the read in the current read epoch.
+     * 
+     * @return Read epoch, to be passed to endRead()
+     */
+    private long beginRead() {
+	storageLock.readLock().lock();
+	return registerRead();
+    }
 
-	return currentID;
+    /**
+     * Finishes a read started by beginRead()
+     */
+    private void endRead(long epoch) {
+	unregisterRead(epoch);
+	storageLock.readLock().unlock();
+    }
 
+    /**
+     * Registers a read in the current read epoch, so the blocks freed from now
+     * on are not reused until unregisterRead() is called
+     */
+    private long registerRead() {
+	synchronized (readEpochLock) {
+	    final long epoch = readEpoch;
+	    final Integer numOfReads = activeReads.get(epoch);
+	    activeReads.put(epoch, numOfReads == null ? 1 : numOfReads + 1);
+	    return epoch;
+	}
     }
 
-    public synchronized DataPoint[] readDataPoints(int ID) throws IOException {
+    private void unregisterRead(long epoch) {
+	synchronized (readEpochLock) {
+	    final int numOfReads = activeReads.get(epoch);
+	    if (numOfReads == 1)
+		activeReads.remove(epoch);
+	    else
+		activeReads.put(epoch, numOfReads - 1);
+	}
+    }
 
-	final Long currentOffset = dataPointsOffsets.get(ID);
+    /**
+     * Returns the number of data points stored under given ID
+     */
+    synchronized int getNumOfDataPoints(int ID) {
 	final Integer numOfDataPoints = dataPointsLengths.get(ID);
+	if (numOfDataPoints == null) {
+	    throw new IllegalArgumentException("Unknown storage ID " + ID);
+	}
+	return numOfDataPoints;
+    }
+
+    /**
+     * Returns the stored m/z and intensity pairs of given ID as a FloatBuffer
+     */
+    private FloatBuffer readStoredFloats(int ID) throws IOException {
+
+	final DataPointsCache cache = DataPointsCache.getInstance();
+	final float cachedValues[] = cache.get(this, ID);
+	if (cachedValues != null)
+	    return FloatBuffer.wrap(cachedValues);
+
+	final Long currentOffset;
+	final Integer numOfDataPoints, encodedLength;
+	final DataPointsCodec codec;
+	synchronized (this) {
+	    currentOffset = dataPointsOffsets.get(ID);
+	    numOfDataPoints = dataPointsLengths.get(ID);
+	    encodedLength = encodedLengths.get(ID);
+	    codec = this.codec;
+	}
 
 	if ((currentOffset == null) || (numOfDataPoints == null)) {
 	    throw new IllegalArgumentException("Unknown storage ID " + ID);
 	}
 
-	final int numOfBytes = numOfDataPoints * 2 * 4;
+	FloatBuffer floatBuffer = readStoredFloats(currentOffset,
+		numOfDataPoints, encodedLength != null ? codec : null, 0,
+		numOfDataPoints);
+	if (!cache.isEnabled())
+	    return floatBuffer;
+
+	// The buffer may be a view of the memory-mapped file, so the values
+	// are copied before caching them
+	float values[] = new float[floatBuffer.remaining()];
+	floatBuffer.get(values);
+	synchronized (this) {
+	    // Make sure the data points were not removed in the meantime
+	    if (currentOffset.equals(dataPointsOffsets.get(ID)))
+		cache.put(this, ID, values);
+	}
+	return FloatBuffer.wrap(values);
 
-	if (buffer.capacity() < numOfBytes) {
-	    buffer = ByteBuffer.allocate(numOfBytes * 2);
-	} else {
-	    buffer.clear();
+    }
+
+    /**
+     * Returns the stored m/z and intensity pairs from firstDataPoint
+     * (inclusive) to lastDataPoint (exclusive) of the data points stored at
+     * given offset, decoded by given codec (null for uncompressed data points).
+     * Compressed data points are decoded in whole chunks, so the returned
+     * pairs may start before firstDataPoint and end after lastDataPoint.
+     */
+    private FloatBuffer readStoredFloats(long offset, int numOfDataPoints,
+	    DataPointsCodec codec, int firstDataPoint, int lastDataPoint)
+	    throws IOException {
+
+	if (codec == null)
+	    return readBlock(offset + firstDataPoint * 2L * 4,
+		    (lastDataPoint - firstDataPoint) * 2 * 4).asFloatBuffer();
+
+	final int firstChunk = firstDataPoint / CHUNK_SIZE;
+	final int endChunk = (lastDataPoint + CHUNK_SIZE - 1) / CHUNK_SIZE;
+	if (endChunk <= firstChunk)
+	    return FloatBuffer.allocate(0);
+
+	// Read the end offsets of the previous and of the requested chunks,
+	// and then the requested chunks
+	final int headerStart = Math.max(firstChunk - 1, 0);
+	IntBuffer header = readBlock(offset + headerStart * 4L,
+		(endChunk - headerStart) * 4).asIntBuffer();
+	final int dataStart = firstChunk == 0 ? getNumOfChunks(numOfDataPoints) * 4
+		: header.get(0);
+	final int dataEnd = header.get(endChunk - 1 - headerStart);
+	ByteBuffer data = readBlock(offset + dataStart, dataEnd - dataStart);
+
+	final int numOfDecoded = Math.min(endChunk * CHUNK_SIZE,
+		numOfDataPoints) - firstChunk * CHUNK_SIZE;
+	float values[] = new float[numOfDecoded * 2];
+	decodeChunks(codec, data, dataStart, header, headerStart,
+		numOfDataPoints, firstChunk, endChunk, values);
+
+	return FloatBuffer.wrap(values);
+
+    }
+
+    /**
+     * Returns a part of the stored m/z and intensity pairs of given ID, which
+     * contains all data points within given m/z range. The range of data
+     * points to read is determined using the m/z index. If there is no m/z
+     * index for given ID yet (e.g. after loading a project), all data points
+     * are read and the m/z index is built from them. If the data points are
+     * cached, all of them are returned.
+     */
+    private FloatBuffer readStoredFloatsByMass(int ID, Range<Double> mzRange)
+	    throws IOException {
+
+	final float cachedValues[] = DataPointsCache.getInstance().get(this, ID);
+	if (cachedValues != null)
+	    return FloatBuffer.wrap(cachedValues);
+
+	final Long currentOffset;
+	final Integer numOfDataPoints, encodedLength;
+	final DataPointsCodec codec;
+	synchronized (this) {
+	    currentOffset = dataPointsOffsets.get(ID);
+	    numOfDataPoints = dataPointsLengths.get(ID);
+	    encodedLength = encodedLengths.get(ID);
+	    codec = this.codec;
+	}
+
+	if ((currentOffset == null) || (numOfDataPoints == null)) {
+	    throw new IllegalArgumentException("Unknown storage ID " + ID);
+	}
+
+	final DataPointsCodec blockCodec = encodedLength != null ? codec : null;
+	final float mzIndex[] = mzIndexes.get(ID);
+
+	if (mzIndex == null) {
+	    FloatBuffer floatBuffer = readStoredFloats(currentOffset,
+		    numOfDataPoints, blockCodec, 0, numOfDataPoints);
+	    float newMzIndex[] = buildMzIndex(floatBuffer);
+	    synchronized (this) {
+		// Make sure the data points were not removed in the meantime
+		if (currentOffset.equals(dataPointsOffsets.get(ID)))
+		    mzIndexes.put(ID, newMzIndex);
+	    }
+	    return floatBuffer;
+	}
+
+	// Index entry i holds the m/z value of data point i * MZ_INDEX_STEP.
+	// The data point of the last index entry below the m/z range is
+	// outside of the range, and so is the data point of the first index
+	// entry above the m/z range.
+	final int lowerEntry = findFirstIndexEntry(mzIndex,
+		mzRange.lowerEndpoint());
+	final int upperEntry = findFirstIndexEntry(mzIndex,
+		Math.nextUp(mzRange.upperEndpoint()));
+	final int firstDataPoint = Math.max(0, lowerEntry - 1) * MZ_INDEX_STEP;
+	final int lastDataPoint = Math.min(numOfDataPoints, upperEntry
+		* MZ_INDEX_STEP);
+
+	if (lastDataPoint <= firstDataPoint)
+	    return FloatBuffer.allocate(0);
+
+	return readStoredFloats(currentOffset, numOfDataPoints, blockCodec,
+		firstDataPoint, lastDataPoint);
+
+    }
+
+    /**
+     * Builds the m/z index from given m/z and intensity pairs
+     */
+    private static float[] buildMzIndex(FloatBuffer floatBuffer) {
+	final int numOfDataPoints = floatBuffer.remaining() / 2;
+	float mzIndex[] = new float[(numOfDataPoints + MZ_INDEX_STEP - 1)
+		/ MZ_INDEX_STEP];
+	for (int i = 0; i < mzIndex.length; i++) {
+	    mzIndex[i] = floatBuffer.get(floatBuffer.position() + i
+		    * MZ_INDEX_STEP * 2);
+	}
+	return mzIndex;
+    }
+
+    /**
+     * Binary search for the first m/z index entry equal or greater than given
+     * m/z
+     */
+    private static int findFirstIndexEntry(float mzIndex[], double mz) {
+	int low = 0, high = mzIndex.length;
+	while (low < high) {
+	    final int mid = (low + high) >>> 1;
+	    if (mzIndex[mid] < mz)
+		low = mid + 1;
+	    else
+		high = mid;
+	}
+	return low;
+    }
+
+    /**
+     * Binary search for the index of the first stored data point with m/z
+     * value equal or greater than given m/z
+     */
+    private static int findFirstStoredIndex(FloatBuffer floatBuffer, double mz) {
+	int low = 0, high = floatBuffer.remaining() / 2;
+	while (low < high) {
+	    final int mid = (low + high) >>> 1;
+	    if (floatBuffer.get(mid * 2) < mz)
+		low = mid + 1;
+	    else
+		high = mid;
+	}
+	return low;
+    }
+
+    /**
+     * Returns a buffer containing numOfBytes bytes of the data points file,
+     * starting at given offset. This method does not modify any shared state,
+     * so it can be called by multiple threads at the same time.
+     */
+    private ByteBuffer readBlock(long offset, int numOfBytes)
+	    throws IOException {
+
+	final int segmentIndex = (int) (offset / MAPPED_SEGMENT_SIZE);
+	final int segmentOffset = (int) (offset % MAPPED_SEGMENT_SIZE);
+
+	// Blocks crossing the segment boundary are read from the channel
+	if (useMemoryMapping
+		&& (segmentOffset + numOfBytes <= MAPPED_SEGMENT_SIZE)) {
+	    MappedByteBuffer segment = getMappedSegment(segmentIndex,
+		    segmentOffset + numOfBytes);
+	    ByteBuffer block = segment.duplicate();
+	    block.position(segmentOffset);
+	    block.limit(segmentOffset + numOfBytes);
+	    return block.slice();
+	}
+
+	ByteBuffer block = ByteBuffer.allocate(numOfBytes);
+	FileChannel fileChannel = dataPointsFile.getChannel();
+	while (block.hasRemaining()) {
+	    int bytesRead = fileChannel.read(block, regionStart + offset
+		    + block.position());
+	    if (bytesRead < 0)
+		throw new EOFException("Unexpected end of file "
+			+ dataPointsFileName);
 	}
+	block.flip();
+	return block;
+
+    }
+
+    /**
+     * Returns the memory-mapped segment of given index, which covers at least
+     * requiredLength bytes. The segment is (re)mapped if it does not exist yet
+     * or if the data points file has grown since it was mapped.
+     */
+    private MappedByteBuffer getMappedSegment(int segmentIndex,
+	    int requiredLength) throws IOException {
 
-	dataPointsFile.seek(currentOffset);
-	dataPointsFile.read(buffer.array(), 0, numOfBytes);
+	MappedByteBuffer segments[] = mappedSegments;
+	if ((segmentIndex < segments.length)
+		&& (segments[segmentIndex] != null)
+		&& (segments[segmentIndex].capacity() >= requiredLength))
+	    return segments[segmentIndex];
 
-	FloatBuffer floatBuffer = buffer.asFloatBuffer();
+	synchronized (mappingLock) {
 
-	DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
+	    // Check again, another thread may have mapped the segment already
+	    segments = mappedSegments;
+	    if ((segmentIndex < segments.length)
+		    && (segments[segmentIndex] != null)
+		    && (segments[segmentIndex].capacity() >= requiredLength))
+		return segments[segmentIndex];
 
-	for (int i = 0; i < numOfDataPoints; i++) {
-	    float mz = floatBuffer.get();
-	    float intensity = floatBuffer.get();
-	    dataPoints[i] = new SimpleDataPoint(mz, intensity);
+	    FileChannel fileChannel = dataPointsFile.getChannel();
+	    final long dataLength = regionLength >= 0 ? regionLength
+		    : fileChannel.size();
+	    final long segmentStart = (long) segmentIndex * MAPPED_SEGMENT_SIZE;
+	    final long segmentSize = Math.min(MAPPED_SEGMENT_SIZE, dataLength
+		    - segmentStart);
+	    if (segmentSize < requiredLength)
+		throw new EOFException("Unexpected end of file "
+			+ dataPointsFileName);
+
+	    MappedByteBuffer segment = fileChannel.map(MapMode.READ_ONLY,
+		    regionStart + segmentStart, segmentSize);
+
+	    MappedByteBuffer newSegments[] = Arrays.copyOf(segments,
+		    Math.max(segments.length, segmentIndex + 1));
+	    newSegments[segmentIndex] = segment;
+	    mappedSegments = newSegments;
+
+	    return segment;
 	}
 
-	return dataPoints;
+    }
 
+    /**
+     * Checks the MZmine preferences whether the data points file should be
+     * memory-mapped. Memory mapping is used by default, e.g. when MZmine is
+     * not fully initialized in unit tests.
+     */
+    private static boolean isMemoryMappingEnabled() {
+	MZmineConfiguration configuration = MZmineCore.getConfiguration();
+	if ((configuration == null) || (configuration.getPreferences() == null))
+	    return true;
+	Boolean value = configuration.getPreferences()
+		.getParameter(MZminePreferences.memoryMappedStorage).getValue();
+	return (value == null) || value;
     }
 
-    public synchronized void removeStoredDataPoints(int ID) throws IOException {
-	dataPointsOffsets.remove(ID);
-	dataPointsLengths.remove(ID);
+    /**
+     * Returns the codec selected in the MZmine preferences, or null if the
+     * data points should be stored uncompressed (also when MZmine is not fully
+     * initialized, e.g. in unit tests)
+     */
+    private static DataPointsCodec getStorageCodec() {
+	MZmineConfiguration configuration = MZmineCore.getConfiguration();
+	if ((configuration == null) || (configuration.getPreferences() == null))
+	    return null;
+	DataPointsCompression compression = configuration.getPreferences()
+		.getParameter(MZminePreferences.storageCompression).getValue();
+	return compression == null ? null : compression.getCodec();
+    }
+
+    public void removeStoredDataPoints(int ID) throws IOException {
+
+	synchronized (this) {
+	    final Long offset = dataPointsOffsets.get(ID);
+	    if ((offset == null) || !dataPointsLengths.containsKey(ID))
+		return;
+	    final long numOfBytes = getStoredLength(ID);
+
+	    dataPointsOffsets.remove(ID);
+	    dataPointsLengths.remove(ID);
+	    encodedLengths.remove(ID);
+	    modificationCount.incrementAndGet();
+	    mzIndexes.remove(ID);
+	    DataPointsCache.getInstance().remove(this, ID);
+	    if (numOfBytes > 0) {
+		// Reads starting from now on cannot find the block
+		final long epoch;
+		synchronized (readEpochLock) {
+		    epoch = readEpoch++;
+		}
+		pendingFreeBlocks.add(new long[] { offset, numOfBytes, epoch });
+	    }
+	    if (liveBytes >= 0)
+		liveBytes -= numOfBytes;
+	}
+
+	scheduleCompaction();
+
     }
 
-    public synchronized void addScan(Scan newScan) throws IOException {
+    /**
+     * Compacts the data points file in the background, if its free space
+     * exceeds the fraction set in the MZmine preferences. Compaction must not
+     * run while holding the lock of this instance (see
+     * compactDataPointsFile()), and it may take a while, so it runs in the
+     * background. The compactionScheduled flag makes sure each file is queued
+     * at most once.
+     */
+    private void scheduleCompaction() throws IOException {
+
+	synchronized (this) {
+	    if (!isCompactionNeeded())
+		return;
+	    compactionScheduled = true;
+	}
+
+	getCompactionExecutor().execute(new Runnable() {
+	    public void run() {
+		try {
+		    compactDataPointsFile();
+		} catch (IOException e) {
+		    logger.log(Level.WARNING, "Could not compact file "
+			    + dataPointsFileName, e);
+		} finally {
+		    compactionScheduled = false;
+		}
+	    }
+	});
+
+    }
+
+    private static synchronized ExecutorService getCompactionExecutor() {
+	if (compactionExecutor == null)
+	    compactionExecutor = ThreadUtils.createThreadPool(1);
+	return compactionExecutor;
+    }
+
+    /**
+     * Rewrites the data points file so that the stored blocks are contiguous,
+     * and truncates the file. The storage IDs are kept, only their offsets
+     * change. Waits until no read is in progress, and blocks reading while the
+     * file is compacted. The file is not compacted while a DataPointsSnapshot
+     * is open. Must not be called while holding the lock of this instance.
+     */
+    public void compactDataPointsFile() throws IOException {
+
+	storageLock.writeLock().lock();
+	try {
+	    synchronized (this) {
+
+		// A project file read in place is never modified
+		if ((dataPointsFile == null) || (regionLength >= 0)
+			|| (openSnapshots > 0))
+		    return;
+
+		final long oldLength = dataPointsFile.length();
+
+		// Sort the storage IDs by their offsets. Several IDs may have
+		// the same offset, if they have no data points.
+		List<Entry<Integer, Long>> blocks = new ArrayList<Entry<Integer, Long>>(
+			dataPointsOffsets.entrySet());
+		Collections.sort(blocks, new Comparator<Entry<Integer, Long>>() {
+		    public int compare(Entry<Integer, Long> a,
+			    Entry<Integer, Long> b) {
+			return a.getValue().compareTo(b.getValue());
+		    }
+		});
+
+		// Move each block to the end of the previous one. Blocks only
+		// move towards the beginning of the file, so no block is
+		// overwritten before it is moved.
+		FileChannel fileChannel = dataPointsFile.getChannel();
+		Map<Integer, Long> newOffsets = new HashMap<Integer, Long>();
+		ByteBuffer blockBuffer = ByteBuffer.allocate(0);
+		long newOffset = 0;
+		for (Entry<Integer, Long> block : blocks) {
+		    final int ID = block.getKey();
+		    final long offset = block.getValue();
+		    final int numOfBytes = (int) getStoredLength(ID);
+		    if (offset != newOffset) {
+			if (blockBuffer.capacity() < numOfBytes)
+			    blockBuffer = ByteBuffer.allocate(numOfBytes);
+			blockBuffer.clear();
+			blockBuffer.limit(numOfBytes);
+			while (blockBuffer.hasRemaining()) {
+			    if (fileChannel.read(blockBuffer, offset
+				    + blockBuffer.position()) < 0)
+				throw new EOFException("Unexpected end of file "
+					+ dataPointsFileName);
+			}
+			blockBuffer.flip();
+			while (blockBuffer.hasRemaining()) {
+			    fileChannel.write(blockBuffer, newOffset
+				    + blockBuffer.position());
+			}
+			newOffsets.put(ID, newOffset);
+		    }
+		    newOffset += numOfBytes;
+		}
+		dataPointsOffsets.putAll(newOffsets);
+
+		freeBlocks.clear();
+		for (TreeSet<Long> sizeClass : freeBlocksBySizeClass)
+		    sizeClass.clear();
+		pendingFreeBlocks.clear();
+		liveBytes = newOffset;
+
+		// The mapped segments must be released before the file can be
+		// truncated. This may still fail on some platforms, if the old
+		// segments were not garbage collected yet. In such case, the
+		// rest of the file is kept as a free block.
+		mappedSegments = new MappedByteBuffer[0];
+		try {
+		    dataPointsFile.setLength(newOffset);
+		} catch (IOException e) {
+		    logger.log(Level.FINE, "Could not truncate file "
+			    + dataPointsFileName, e);
+		    if (oldLength > newOffset)
+			addFreeBlock(newOffset, oldLength - newOffset);
+		}
+
+		logger.finest("Compacted file " + dataPointsFileName + " from "
+			+ oldLength + " to " + newOffset + " bytes");
+	    }
+	} finally {
+	    storageLock.writeLock().unlock();
+	}
+
+    }
+
+    /**
+     * Returns true if the free space of the data points file exceeds the
+     * fraction set in the MZmine preferences
+     */
+    private boolean isCompactionNeeded() throws IOException {
+
+	if (compactionScheduled || (dataPointsFile == null)
+		|| (regionLength >= 0) || (openSnapshots > 0))
+	    return false;
+
+	final long fileLength = dataPointsFile.length();
+	if (fileLength < MIN_COMPACTION_FILE_SIZE)
+	    return false;
+
+	if (liveBytes < 0) {
+	    liveBytes = 0;
+	    for (Integer ID : dataPointsLengths.keySet())
+		liveBytes += getStoredLength(ID);
+	}
+
+	final double freeFraction = (double) (fileLength - liveBytes)
+		/ fileLength;
+	return freeFraction > getCompactionThreshold();
+
+    }
+
+    /**
+     * Returns the number of bytes taken by the data points stored under given
+     * ID in the data points file
+     */
+    private long getStoredLength(int ID) {
+	final Integer encodedLength = encodedLengths.get(ID);
+	if (encodedLength != null)
+	    return encodedLength;
+	return dataPointsLengths.get(ID) * 2L * 4;
+    }
+
+    /**
+     * Returns the position for storing a block of given size. A large enough
+     * free block of the same size class is used if one is found among the
+     * first MAX_SIZE_CLASS_CANDIDATES blocks of that class, otherwise the
+     * first free block of the smallest bigger size class. If there is none,
+     * the block is appended to the end of the file.
+     */
+    private long allocateBlock(int numOfBytes) throws IOException {
+
+	// A block freed in epoch n is safe to reuse once all reads which
+	// started in epoch n or before are finished, because later reads cannot
+	// find the block
+	if (!pendingFreeBlocks.isEmpty()) {
+	    final long oldestReadEpoch;
+	    synchronized (readEpochLock) {
+		oldestReadEpoch = activeReads.isEmpty() ? Long.MAX_VALUE
+			: activeReads.firstKey();
+	    }
+	    Iterator<long[]> iterator = pendingFreeBlocks.iterator();
+	    while (iterator.hasNext()) {
+		long block[] = iterator.next();
+		if (block[2] < oldestReadEpoch) {
+		    addFreeBlock(block[0], block[1]);
+		    iterator.remove();
+		}
+	    }
+	}
+
+	if (numOfBytes > 0) {
+
+	    // Blocks of the same size class may be smaller than numOfBytes
+	    final int ownSizeClass = getSizeClass(numOfBytes);
+	    int numOfCandidates = 0;
+	    for (long offset : freeBlocksBySizeClass.get(ownSizeClass)) {
+		if (freeBlocks.get(offset) >= numOfBytes)
+		    return useFreeBlock(offset, numOfBytes);
+		if (++numOfCandidates == MAX_SIZE_CLASS_CANDIDATES)
+		    break;
+	    }
+
+	    // All blocks of the bigger size classes are large enough
+	    for (int sizeClass = ownSizeClass + 1; sizeClass < freeBlocksBySizeClass
+		    .size(); sizeClass++) {
+		TreeSet<Long> offsets = freeBlocksBySizeClass.get(sizeClass);
+		if (!offsets.isEmpty())
+		    return useFreeBlock(offsets.first(), numOfBytes);
+	    }
+	}
+
+	return dataPointsFile.length();
+
+    }
+
+    /**
+     * Removes the free block at given offset from the free lists, and returns
+     * its unused rest after numOfBytes to them
+     */
+    private long useFreeBlock(long offset, int numOfBytes) {
+	final long length = freeBlocks.get(offset);
+	removeFreeBlock(offset);
+	if (length > numOfBytes)
+	    addFreeBlock(offset + numOfBytes, length - numOfBytes);
+	return offset;
+    }
+
+    /**
+     * Adds a block to the free lists, merging it with the adjacent free blocks
+     */
+    private void addFreeBlock(long offset, long length) {
+
+	Entry<Long, Long> previous = freeBlocks.lowerEntry(offset);
+	if ((previous != null)
+		&& (previous.getKey() + previous.getValue() == offset)) {
+	    removeFreeBlock(previous.getKey());
+	    offset = previous.getKey();
+	    length += previous.getValue();
+	}
+
+	Long nextLength = freeBlocks.get(offset + length);
+	if (nextLength != null) {
+	    removeFreeBlock(offset + length);
+	    length += nextLength;
+	}
+
+	freeBlocks.put(offset, length);
+	freeBlocksBySizeClass.get(getSizeClass(length)).add(offset);
+
+    }
+
+    private void removeFreeBlock(long offset) {
+	final Long length = freeBlocks.remove(offset);
+	if (length != null)
+	    freeBlocksBySizeClass.get(getSizeClass(length)).remove(offset);
+    }
+
+    /**
+     * Returns floor(log2(length)), or 0 for length 0
+     */
+    private static int getSizeClass(long length) {
+	return Math.max(0, 63 - Long.numberOfLeadingZeros(length));
+    }
+
+    /**
+     * Returns the fraction of free space in the data points file above which
+     * the file is compacted, as set in the MZmine preferences
+     */
+    private static double getCompactionThreshold() {
+	MZmineConfiguration configuration = MZmineCore.getConfiguration();
+	if ((configuration == null) || (configuration.getPreferences() == null))
+	    return 0.5;
+	Double value = configuration.getPreferences()
+		.getParameter(MZminePreferences.compactionThreshold).getValue();
+	return value == null ? 0.5 : value;
+    }
+
+    /**
+     * Adds given scan. The data points are stored before locking this
+     * instance, because storing them may acquire the storageLock.
+     */
+    public void addScan(Scan newScan) throws IOException {
 
 	// When we are loading the project, scan data file is already prepare
 	// and we just need store the reference
 	if (newScan instanceof StorableScan) {
-	    scans.put(newScan.getScanNumber(), (StorableScan) newScan);
+	    synchronized (this) {
+		modificationCount.incrementAndGet();
+		scanChanges++;
+		scans.put(newScan.getScanNumber(), (StorableScan) newScan);
+	    }
 	    return;
 	}
 
 	DataPoint dataPoints[] = newScan.getDataPoints();
-	final int storageID = storeDataPoints(dataPoints);
+	float values[] = toFloatValues(dataPoints);
+	final int storageID = storeDataPoints(values);
+	final DataPointsCodec codec;
+	synchronized (this) {
+	    codec = this.codec;
+	}
 
 	StorableScan storedScan = new StorableScan(newScan, this,
 		dataPoints.length, storageID);
 
-	scans.put(newScan.getScanNumber(), storedScan);
+	// Calculate the scan values while we have the data points in memory,
+	// so finishWriting() does not need to read them back. A lossy codec
+	// changes the data points, so then the values are calculated from the
+	// data points which will be read.
+	if ((codec != null) && !codec.isLossless()) {
+	    DataPoint storedDataPoints[] = new DataPoint[dataPoints.length];
+	    for (int i = 0; i < storedDataPoints.length; i++)
+		storedDataPoints[i] = new SimpleDataPoint(values[i * 2],
+			values[i * 2 + 1]);
+	    storedScan.updateValues(storedDataPoints);
+	} else {
+	    storedScan.updateValues(dataPoints);
+	}
+
+	synchronized (this) {
+	    modificationCount.incrementAndGet();
+	    scanChanges++;
+	    scans.put(newScan.getScanNumber(), storedScan);
+	}
 
     }
 
     /**
      * @see net.sf.mzmine.datamodel.RawDataFileWriter#finishWriting()
      */
-    public synchronized RawDataFile finishWriting() throws IOException {
-	for (StorableScan scan : scans.values()) {
-	    scan.updateValues();
+    public RawDataFile finishWriting() throws IOException {
+
+	// Only the scans which were not added as data points (e.g. when loading
+	// a project) need to be read to calculate their values. Reading
+	// acquires the storageLock, so it is done without holding the lock of
+	// this instance.
+	final List<StorableScan> scanList;
+	synchronized (this) {
+	    scanList = new ArrayList<StorableScan>(scans.values());
+	}
+	for (StorableScan scan : scanList) {
+	    if (!scan.hasValues())
+		scan.updateValues();
+	}
+
+	synchronized (this) {
+	    updateDataValues();
 	}
+
+	scheduleXICIndex();
+
 	logger.finest("Writing of scans to file " + dataPointsFileName
 		+ " finished");
 	return this;
     }
 
+    /**
+     * Calculates the m/z and RT ranges, the highest base peak and the highest
+     * TIC of each MS level in a single pass over the scans, from the values of
+     * the scans. Values which were already set (e.g. by setMZRange()) are
+     * kept.
+     */
+    private void updateDataValues() {
+
+	Hashtable<Integer, Range<Double>> mzRanges = new Hashtable<Integer, Range<Double>>();
+	Hashtable<Integer, Range<Double>> rtRanges = new Hashtable<Integer, Range<Double>>();
+	Hashtable<Integer, Double> maxBasePeaks = new Hashtable<Integer, Double>();
+	Hashtable<Integer, Double> maxTICs = new Hashtable<Integer, Double>();
+
+	for (StorableScan scan : scans.values()) {
+
+	    final int msLevel = scan.getMSLevel();
+	    final Range<Double> scanMZRange = scan.getDataPointMZRange();
+	    final Range<Double> scanRTRange = Range.singleton(scan
+		    .getRetentionTime());
+
+	    // Ranges are calculated for the scan's MS level and for all
+	    // levels together (MS level 0)
+	    for (int level : new int[] { 0, msLevel }) {
+		Range<Double> mzRange = mzRanges.get(level);
+		mzRanges.put(level,
+			mzRange == null ? scanMZRange : mzRange.span(scanMZRange));
+		Range<Double> rtRange = rtRanges.get(level);
+		rtRanges.put(level,
+			rtRange == null ? scanRTRange : rtRange.span(scanRTRange));
+		if (msLevel == 0)
+		    break;
+	    }
+
+	    Double maxBasePeak = maxBasePeaks.get(msLevel);
+	    DataPoint scanBasePeak = scan.getHighestDataPoint();
+	    if ((scanBasePeak != null)
+		    && ((maxBasePeak == null) || (scanBasePeak
+			    .getIntensity() > maxBasePeak)))
+		maxBasePeaks.put(msLevel, scanBasePeak.getIntensity());
+
+	    Double maxTIC = maxTICs.get(msLevel);
+	    if ((maxTIC == null) || (scan.getTIC() > maxTIC))
+		maxTICs.put(msLevel, scan.getTIC());
+
+	}
+
+	// -1 if there is no base peak at the MS level
+	for (Integer msLevel : maxTICs.keySet()) {
+	    if (!maxBasePeaks.containsKey(msLevel))
+		maxBasePeaks.put(msLevel, -1d);
+	}
+
+	copyMissingValues(mzRanges, dataMZRange);
+	copyMissingValues(rtRanges, dataRTRange);
+	copyMissingValues(maxBasePeaks, dataMaxBasePeakIntensity);
+	copyMissingValues(maxTICs, dataMaxTIC);
+
+    }
+
+    private static <T> void copyMissingValues(Hashtable<Integer, T> source,
+	    Hashtable<Integer, T> target) {
+	for (Integer key : source.keySet()) {
+	    if (!target.containsKey(key))
+		target.put(key, source.get(key));
+	}
+    }
+
     public @Nonnull Range<Double> getDataMZRange() {
 	return getDataMZRange(0);
     }
@@ -515,18 +1731,33 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     }
 
     public synchronized TreeMap<Integer, Long> getDataPointsOffsets() {
+	// The caller may modify the map
+	liveBytes = -1;
 	return dataPointsOffsets;
     }
 
     public synchronized TreeMap<Integer, Integer> getDataPointsLengths() {
+	liveBytes = -1;
 	return dataPointsLengths;
     }
 
     public synchronized void close() {
+	DataPointsCache.getInstance().removeAll(this);
+	XICIndex index;
+	synchronized (xicIndexLock) {
+	    xicIndexClosed = true;
+	    index = xicIndex;
+	    xicIndex = null;
+	}
+	if (index != null)
+	    index.delete();
 	try {
 	    if(dataPointsFileName != null) {
+    	    	mappedSegments = new MappedByteBuffer[0];
     	    	dataPointsFile.close();
-    	    	dataPointsFileName.delete();
+		// A project file read in place must not be deleted
+		if (regionLength < 0)
+		    dataPointsFileName.delete();
 	    }
 	} catch (IOException e) {
 	    logger.warning("Could not close file " + dataPointsFileName + ": "
@@ -534,12 +1765,281 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 	}
     }
 
+    /**
+     * Snapshot of the data points stored when it was opened. The stored blocks
+     * of the snapshot are not moved or reused until it is closed, even if
+     * their data points are removed from the file meanwhile, so all of them
+     * can be read consistently, e.g. while saving the project.
+     */
+    public class DataPointsSnapshot {
+
+	private final TreeMap<Integer, Long> offsets;
+	private final TreeMap<Integer, Integer> lengths;
+	private final Map<Integer, Integer> snapshotEncodedLengths;
+	private final DataPointsCodec snapshotCodec;
+	private final long epoch;
+	private boolean closed;
+
+	private DataPointsSnapshot() {
+	    // Wait for a compaction in progress, then register the snapshot
+	    // together with the current read epoch, so the blocks of the
+	    // snapshot are not reused after they are freed
+	    final long readEpoch = beginRead();
+	    try {
+		synchronized (RawDataFileImpl.this) {
+		    offsets = new TreeMap<Integer, Long>(dataPointsOffsets);
+		    lengths = new TreeMap<Integer, Integer>(dataPointsLengths);
+		    snapshotEncodedLengths = new HashMap<Integer, Integer>(
+			    encodedLengths);
+		    snapshotCodec = codec;
+		    openSnapshots++;
+		    epoch = registerRead();
+		}
+	    } finally {
+		endRead(readEpoch);
+	    }
+	}
+
+	/**
+	 * Returns the number of data points of each storage ID of this
+	 * snapshot, sorted by the storage ID
+	 */
+	public TreeMap<Integer, Integer> getDataPointsLengths() {
+	    return lengths;
+	}
+
+	/**
+	 * Returns the data points stored under given ID as an array of
+	 * alternating m/z and intensity values, decoded if they were stored
+	 * compressed
+	 */
+	public float[] readDataPoints(int ID) throws IOException {
+
+	    final Long offset = offsets.get(ID);
+	    if (offset == null)
+		throw new IllegalArgumentException("Unknown storage ID " + ID);
+	    final int numOfDataPoints = lengths.get(ID);
+	    final DataPointsCodec blockCodec = snapshotEncodedLengths
+		    .containsKey(ID) ? snapshotCodec : null;
+
+	    final long readEpoch = beginRead();
+	    try {
+		FloatBuffer floatBuffer = readStoredFloats(offset,
+			numOfDataPoints, blockCodec, 0, numOfDataPoints);
+		float values[] = new float[floatBuffer.remaining()];
+		floatBuffer.get(values);
+		return values;
+	    } finally {
+		endRead(readEpoch);
+	    }
+
+	}
+
+	/**
+	 * Releases the blocks of this snapshot, and compacts the file if it
+	 * was not compacted while the snapshot was open
+	 */
+	public void close() throws IOException {
+	    if (closed)
+		return;
+	    closed = true;
+	    synchronized (RawDataFileImpl.this) {
+		openSnapshots--;
+	    }
+	    unregisterRead(epoch);
+	    scheduleCompaction();
+	}
+
+    }
+
+    /**
+     * @see net.sf.mzmine.datamodel.RawDataFile#extractXIC(int[], Range,
+     *      double[], double[], double[])
+     */
+    public void extractXIC(@Nonnull int scanNumbers[],
+	    @Nonnull Range<Double> mzRange, @Nonnull double basePeakMZValues[],
+	    @Nonnull double basePeakIntensities[], double totalIntensities[]) {
+
+	final XICIndex index = getXICIndex();
+	if (index == null) {
+	    ScanUtils.extractXIC(this, scanNumbers, mzRange, basePeakMZValues,
+		    basePeakIntensities, totalIntensities);
+	    return;
+	}
+
+	index.extractXIC(scanNumbers, mzRange, basePeakMZValues,
+		basePeakIntensities, totalIntensities);
+
+	// Scans which are not indexed (e.g. MS/MS scans) are read
+	int numOfScans = 0;
+	final int positions[] = new int[scanNumbers.length];
+	for (int i = 0; i < scanNumbers.length; i++) {
+	    if (!index.isIndexed(scanNumbers[i]))
+		positions[numOfScans++] = i;
+	}
+	if (numOfScans == 0)
+	    return;
+
+	final int readScanNumbers[] = new int[numOfScans];
+	for (int i = 0; i < numOfScans; i++)
+	    readScanNumbers[i] = scanNumbers[positions[i]];
+	final double readMZValues[] = new double[numOfScans];
+	final double readIntensities[] = new double[numOfScans];
+	final double readTotalIntensities[] = (totalIntensities == null) ? null
+		: new double[numOfScans];
+	ScanUtils.extractXIC(this, readScanNumbers, mzRange, readMZValues,
+		readIntensities, readTotalIntensities);
+	for (int i = 0; i < numOfScans; i++) {
+	    basePeakMZValues[positions[i]] = readMZValues[i];
+	    basePeakIntensities[positions[i]] = readIntensities[i];
+	    if (totalIntensities != null)
+		totalIntensities[positions[i]] = readTotalIntensities[i];
+	}
+
+    }
+
+    /**
+     * @see net.sf.mzmine.datamodel.RawDataFile#hasXICIndex()
+     */
+    public boolean hasXICIndex() {
+	return getXICIndex() != null;
+    }
+
+    /**
+     * Returns the XIC index of the MS1 scans of this file, or null if it is
+     * disabled in the MZmine preferences, or if it is not built for the
+     * current scans yet. In that case, the index is built in the background
+     * and the ion chromatograms must be extracted from the scans meanwhile.
+     */
+    XICIndex getXICIndex() {
+
+	if (!isXICIndexEnabled())
+	    return null;
+
+	synchronized (xicIndexLock) {
+	    if ((xicIndex != null) && (xicIndexScanChanges == scanChanges))
+		return xicIndex;
+	}
+
+	scheduleXICIndex();
+	return null;
+
+    }
+
+    /**
+     * Builds the XIC index of the current scans in the background, unless it
+     * is disabled in the MZmine preferences. The xicIndexScheduled flag makes
+     * sure each file is queued at most once.
+     */
+    private void scheduleXICIndex() {
+
+	if (!isXICIndexEnabled())
+	    return;
+
+	synchronized (xicIndexLock) {
+	    if (xicIndexScheduled || xicIndexClosed)
+		return;
+	    xicIndexScheduled = true;
+	}
+
+	getXICIndexExecutor().execute(new Runnable() {
+	    public void run() {
+		try {
+		    buildXICIndex();
+		} catch (Exception e) {
+		    logger.log(Level.WARNING, "Could not build the XIC index of "
+			    + dataFileName, e);
+		} finally {
+		    synchronized (xicIndexLock) {
+			xicIndexScheduled = false;
+		    }
+		}
+	    }
+	});
+
+    }
+
+    /**
+     * Builds the XIC index of the current MS1 scans and replaces the previous
+     * index, unless the index is up to date or this file was closed
+     */
+    private void buildXICIndex() throws IOException {
+
+	final long currentScanChanges = scanChanges;
+	synchronized (xicIndexLock) {
+	    if (xicIndexClosed
+		    || ((xicIndex != null) && (xicIndexScanChanges == currentScanChanges)))
+		return;
+	}
+
+	int scanNumbers[] = getScanNumbers(1, Range.<Double> all());
+	Scan ms1Scans[] = new Scan[scanNumbers.length];
+	for (int i = 0; i < scanNumbers.length; i++)
+	    ms1Scans[i] = getScan(scanNumbers[i]);
+
+	final XICIndex newIndex = XICIndex.build(ms1Scans);
+
+	final XICIndex oldIndex;
+	synchronized (xicIndexLock) {
+	    if (xicIndexClosed) {
+		oldIndex = newIndex;
+	    } else {
+		oldIndex = xicIndex;
+		xicIndex = newIndex;
+		xicIndexScanChanges = currentScanChanges;
+	    }
+	}
+	if (oldIndex != null)
+	    oldIndex.delete();
+
+    }
+
+    private static synchronized ExecutorService getXICIndexExecutor() {
+	if (xicIndexExecutor == null)
+	    xicIndexExecutor = ThreadUtils.createThreadPool(1);
+	return xicIndexExecutor;
+    }
+
+    /**
+     * Checks the MZmine preferences whether the XIC index should be used. It
+     * is not used when MZmine is not fully initialized, e.g. in unit tests.
+     */
+    private static boolean isXICIndexEnabled() {
+	MZmineConfiguration configuration = MZmineCore.getConfiguration();
+	if ((configuration == null) || (configuration.getPreferences() == null))
+	    return false;
+	Boolean value = configuration.getPreferences()
+		.getParameter(MZminePreferences.xicIndex).getValue();
+	return (value != null) && value;
+    }
+
     public @Nonnull String getName() {
 	return dataFileName;
     }
 
     public void setName(@Nonnull String name) {
 	this.dataFileName = name;
+	modificationCount.incrementAndGet();
+    }
+
+    /**
+     * Returns a number which changes whenever the scans, mass lists or name of
+     * this file are modified
+     */
+    public long getModificationStamp() {
+	return modificationCount.get();
+    }
+
+    /**
+     * Returns the entries of this file in the project file it was last saved
+     * to or loaded from, or null
+     */
+    public ProjectFileEntry getProjectFileEntry() {
+	return projectFileEntry;
+    }
+
+    public void setProjectFileEntry(ProjectFileEntry projectFileEntry) {
+	this.projectFileEntry = projectFileEntry;
     }
 
     public String toString() {
@@ -28,6 +28,8 @@ import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.MassList;
 import net.sf.mzmine.datamodel.Scan;
 
+import com.google.common.collect.Range;
+
 /**
  * Implementation of the Scan interface which stores raw data points in a
  * temporary file, accessed by RawDataFileImpl.readFromFloatBufferFile()
@@ -76,6 +78,37 @@ public class StorableMassList implements MassList {
 	}
     }
 
+    @Override
+    public int getNumberOfDataPoints() {
+	return rawDataFile.getNumOfDataPoints(storageID);
+    }
+
+    @Override
+    public int getDataPoints(@Nonnull double mzValues[],
+	    @Nonnull double intensityValues[]) {
+	try {
+	    return rawDataFile.readDataPoints(storageID, mzValues,
+		    intensityValues);
+	} catch (IOException e) {
+	    logger.severe("Could not read data from temporary file "
+		    + e.toString());
+	    return 0;
+	}
+    }
+
+    @Override
+    public int getDataPointsByMass(@Nonnull Range<Double> mzRange,
+	    @Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+	try {
+	    return rawDataFile.readDataPointsByMass(storageID, mzRange,
+		    mzValues, intensityValues);
+	} catch (IOException e) {
+	    logger.severe("Could not read data from temporary file "
+		    + e.toString());
+	    return 0;
+	}
+    }
+
     public void removeStoredData() {
 	try {
 	    rawDataFile.removeStoredDataPoints(storageID);
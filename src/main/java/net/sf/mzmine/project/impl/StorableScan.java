@@ -34,6 +34,7 @@ import net.sf.mzmine.datamodel.MassSpectrumType;
 import net.sf.mzmine.datamodel.PolarityType;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.desktop.impl.projecttree.RawDataTreeModel;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.util.ScanUtils;
@@ -137,28 +138,52 @@ public class StorableScan implements Scan {
     public @Nonnull DataPoint[] getDataPointsByMass(
 	    @Nonnull Range<Double> mzRange) {
 
-	DataPoint dataPoints[] = getDataPoints();
-
-	int startIndex, endIndex;
-	for (startIndex = 0; startIndex < dataPoints.length; startIndex++) {
-	    if (dataPoints[startIndex].getMZ() >= mzRange.lowerEndpoint()) {
-		break;
-	    }
+	try {
+	    DataPoint result[] = rawDataFile.readDataPointsByMass(storageID,
+		    mzRange);
+	    return result;
+	} catch (IOException e) {
+	    logger.severe("Could not read data from temporary file "
+		    + e.toString());
+	    return new DataPoint[0];
 	}
 
-	for (endIndex = startIndex; endIndex < dataPoints.length; endIndex++) {
-	    if (dataPoints[endIndex].getMZ() > mzRange.upperEndpoint()) {
-		break;
-	    }
+    }
+
+    /**
+     * @see net.sf.mzmine.datamodel.MassSpectrum#getDataPoints(double[],
+     *      double[])
+     */
+    public int getDataPoints(@Nonnull double mzValues[],
+	    @Nonnull double intensityValues[]) {
+
+	try {
+	    return rawDataFile.readDataPoints(storageID, mzValues,
+		    intensityValues);
+	} catch (IOException e) {
+	    logger.severe("Could not read data from temporary file "
+		    + e.toString());
+	    return 0;
 	}
 
-	DataPoint pointsWithinRange[] = new DataPoint[endIndex - startIndex];
+    }
 
-	// Copy the relevant points
-	System.arraycopy(dataPoints, startIndex, pointsWithinRange, 0, endIndex
-		- startIndex);
+    /**
+     * @see net.sf.mzmine.datamodel.MassSpectrum#getDataPointsByMass(Range,
+     *      double[], double[])
+     */
+    public int getDataPointsByMass(@Nonnull Range<Double> mzRange,
+	    @Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+
+	try {
+	    return rawDataFile.readDataPointsByMass(storageID, mzRange,
+		    mzValues, intensityValues);
+	} catch (IOException e) {
+	    logger.severe("Could not read data from temporary file "
+		    + e.toString());
+	    return 0;
+	}
 
-	return pointsWithinRange;
     }
 
     /**
@@ -231,26 +256,47 @@ public class StorableScan implements Scan {
     }
 
     void updateValues() {
-	DataPoint dataPoints[] = getDataPoints();
+	updateValues(getDataPoints());
+    }
+
+    /**
+     * Calculates the m/z range, base peak and TIC of the scan from given data
+     * points. The values are rounded to float precision first, so the result
+     * is the same as if the data points were read back from the temporary
+     * file. This allows RawDataFileImpl to calculate the values while storing
+     * the data points, without reading them again.
+     */
+    void updateValues(DataPoint dataPoints[]) {
 
 	// find m/z range and base peak
 	if (dataPoints.length > 0) {
 
-	    basePeak = dataPoints[0];
-	    mzRange = Range.singleton(dataPoints[0].getMZ());
+	    float basePeakMZ = (float) dataPoints[0].getMZ();
+	    float basePeakIntensity = (float) dataPoints[0].getIntensity();
+	    double minMZ = basePeakMZ, maxMZ = basePeakMZ;
 	    double tic = 0;
 
 	    for (DataPoint dp : dataPoints) {
 
-		if (dp.getIntensity() > basePeak.getIntensity())
-		    basePeak = dp;
+		float mz = (float) dp.getMZ();
+		float intensity = (float) dp.getIntensity();
 
-		mzRange = mzRange.span(Range.singleton(dp.getMZ()));
+		if (intensity > basePeakIntensity) {
+		    basePeakMZ = mz;
+		    basePeakIntensity = intensity;
+		}
+
+		if (mz < minMZ)
+		    minMZ = mz;
+		if (mz > maxMZ)
+		    maxMZ = mz;
 
-		tic += dp.getIntensity();
+		tic += intensity;
 
 	    }
 
+	    basePeak = new SimpleDataPoint(basePeakMZ, basePeakIntensity);
+	    mzRange = Range.closed(minMZ, maxMZ);
 	    totalIonCurrent = new Double(tic);
 
 	} else {
@@ -259,6 +305,25 @@ public class StorableScan implements Scan {
 	}
     }
 
+    /**
+     * Returns true if the m/z range, base peak and TIC of the scan are known
+     */
+    boolean hasValues() {
+	return (mzRange != null) && (totalIonCurrent != null);
+    }
+
+    /**
+     * Sets the m/z range, base peak and TIC of the scan, e.g. when they are
+     * loaded from a project, so they do not need to be calculated from the
+     * data points
+     */
+    public void setValues(@Nonnull Range<Double> mzRange, DataPoint basePeak,
+	    double totalIonCurrent) {
+	this.mzRange = mzRange;
+	this.basePeak = basePeak;
+	this.totalIonCurrent = totalIonCurrent;
+    }
+
     /**
      * @see net.sf.mzmine.datamodel.Scan#getMZRangeMax()
      */
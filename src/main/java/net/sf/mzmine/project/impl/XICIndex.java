@@ -0,0 +1,325 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import net.sf.mzmine.datamodel.Scan;
+
+import com.google.common.collect.Range;
+
+/**
+ * Extracted ion chromatogram (XIC) index of a raw data file. The data points of
+ * the indexed scans are grouped into m/z bins of BIN_WIDTH, and within each bin
+ * sorted by scan (and then by m/z). Each entry holds the index of the scan in
+ * the scan numbers of this index, and the m/z and intensity of the data point.
+ * The entries are stored in a temporary file next to the data points file of
+ * the raw data file, memory-mapped in segments of SEGMENT_ENTRIES entries, and
+ * the start of each bin is kept in memory.
+ *
+ * Extracting an XIC therefore only reads the data points of the bins covering
+ * its m/z range, in the scans of its RT range, instead of reading all scans.
+ * The index holds the same float values as the data points file, so the
+ * extracted values are identical to the values read from the scans.
+ *
+ * The index is built in the background by RawDataFileImpl and is immutable.
+ * It is replaced when the scans of the raw data file change.
+ */
+public class XICIndex {
+
+    private static final Logger logger = Logger.getLogger(XICIndex.class
+	    .getName());
+
+    // Width of the m/z bins, increased for very wide m/z ranges so there are
+    // at most MAX_BINS bins
+    private static final double BIN_WIDTH = 0.1;
+    private static final int MAX_BINS = 1 << 20;
+
+    // Scan index (int), m/z (float) and intensity (float)
+    private static final int ENTRY_SIZE = 12;
+
+    // Number of entries in each memory-mapped segment of the index file
+    private static final int SEGMENT_ENTRIES = 1 << 24;
+
+    private final File indexFileName;
+    private final RandomAccessFile indexFile;
+    private final MappedByteBuffer segments[];
+
+    // Sorted scan numbers of the indexed scans
+    private final int scanNumbers[];
+
+    // Bin i covers the m/z values from minMZ + i * binWidth (inclusive) to
+    // minMZ + (i + 1) * binWidth (exclusive), and its entries are from
+    // binStarts[i] (inclusive) to binStarts[i + 1] (exclusive)
+    private final double minMZ, binWidth;
+    private final long binStarts[];
+
+    private XICIndex(File indexFileName, RandomAccessFile indexFile,
+	    MappedByteBuffer segments[], int scanNumbers[], double minMZ,
+	    double binWidth, long binStarts[]) {
+	this.indexFileName = indexFileName;
+	this.indexFile = indexFile;
+	this.segments = segments;
+	this.scanNumbers = scanNumbers;
+	this.minMZ = minMZ;
+	this.binWidth = binWidth;
+	this.binStarts = binStarts;
+    }
+
+    /**
+     * Builds the index of given scans. The data points of the scans are read
+     * twice, first to count the entries of each bin and then to write them.
+     *
+     * @param scans
+     *            Scans to index, sorted by scan number
+     */
+    static XICIndex build(@Nonnull Scan scans[]) throws IOException {
+
+	final int scanNumbers[] = new int[scans.length];
+	double minMZ = Double.MAX_VALUE, maxMZ = -Double.MAX_VALUE;
+	int maxDataPoints = 0;
+	for (int i = 0; i < scans.length; i++) {
+	    scanNumbers[i] = scans[i].getScanNumber();
+	    maxDataPoints = Math.max(maxDataPoints,
+		    scans[i].getNumberOfDataPoints());
+	    if (scans[i].getNumberOfDataPoints() == 0)
+		continue;
+	    Range<Double> scanMZRange = scans[i].getDataPointMZRange();
+	    minMZ = Math.min(minMZ, scanMZRange.lowerEndpoint());
+	    maxMZ = Math.max(maxMZ, scanMZRange.upperEndpoint());
+	}
+	if (minMZ > maxMZ)
+	    minMZ = maxMZ = 0;
+
+	final double binWidth = Math.max(BIN_WIDTH, (maxMZ - minMZ)
+		/ (MAX_BINS - 1));
+	final int numOfBins = (int) ((maxMZ - minMZ) / binWidth) + 1;
+	final double mzValues[] = new double[maxDataPoints];
+	final double intensityValues[] = new double[maxDataPoints];
+
+	// Count the entries of each bin
+	final long binStarts[] = new long[numOfBins + 1];
+	for (Scan scan : scans) {
+	    final int numOfDataPoints = scan.getDataPoints(mzValues,
+		    intensityValues);
+	    for (int i = 0; i < numOfDataPoints; i++)
+		binStarts[getBin(mzValues[i], minMZ, binWidth, numOfBins) + 1]++;
+	}
+	for (int i = 0; i < numOfBins; i++)
+	    binStarts[i + 1] += binStarts[i];
+	final long numOfEntries = binStarts[numOfBins];
+
+	final File indexFileName = File.createTempFile("mzmine", ".xic");
+	indexFileName.deleteOnExit();
+	final RandomAccessFile indexFile = new RandomAccessFile(indexFileName,
+		"rw");
+
+	try {
+
+	    // Map the whole index file
+	    indexFile.setLength(numOfEntries * ENTRY_SIZE);
+	    FileChannel fileChannel = indexFile.getChannel();
+	    final int numOfSegments = (int) ((numOfEntries + SEGMENT_ENTRIES - 1) / SEGMENT_ENTRIES);
+	    MappedByteBuffer segments[] = new MappedByteBuffer[numOfSegments];
+	    for (int i = 0; i < numOfSegments; i++) {
+		final long segmentStart = (long) i * SEGMENT_ENTRIES;
+		final long segmentEntries = Math.min(SEGMENT_ENTRIES,
+			numOfEntries - segmentStart);
+		segments[i] = fileChannel.map(MapMode.READ_WRITE, segmentStart
+			* ENTRY_SIZE, segmentEntries * ENTRY_SIZE);
+	    }
+
+	    // Write the entries. The scans are processed in the order of the
+	    // scan numbers, so the entries of each bin are sorted by scan.
+	    final long nextEntries[] = Arrays.copyOf(binStarts, numOfBins);
+	    for (int scanIndex = 0; scanIndex < scans.length; scanIndex++) {
+		final int numOfDataPoints = scans[scanIndex].getDataPoints(
+			mzValues, intensityValues);
+		for (int i = 0; i < numOfDataPoints; i++) {
+		    final int bin = getBin(mzValues[i], minMZ, binWidth,
+			    numOfBins);
+		    final long entry = nextEntries[bin]++;
+		    if (entry >= binStarts[bin + 1])
+			throw new IllegalStateException(
+				"Data points of scan "
+					+ scans[scanIndex].getScanNumber()
+					+ " changed while building the XIC index");
+		    final MappedByteBuffer segment = segments[(int) (entry / SEGMENT_ENTRIES)];
+		    final int position = (int) (entry % SEGMENT_ENTRIES)
+			    * ENTRY_SIZE;
+		    segment.putInt(position, scanIndex);
+		    segment.putFloat(position + 4, (float) mzValues[i]);
+		    segment.putFloat(position + 8, (float) intensityValues[i]);
+		}
+	    }
+
+	    logger.finest("Built XIC index of " + scans.length + " scans, "
+		    + numOfEntries + " data points in " + numOfBins
+		    + " m/z bins");
+
+	    return new XICIndex(indexFileName, indexFile, segments,
+		    scanNumbers, minMZ, binWidth, binStarts);
+
+	} catch (IOException e) {
+	    indexFile.close();
+	    indexFileName.delete();
+	    throw e;
+	} catch (RuntimeException e) {
+	    indexFile.close();
+	    indexFileName.delete();
+	    throw e;
+	}
+
+    }
+
+    /**
+     * Returns true if given scan is in this index
+     */
+    public boolean isIndexed(int scanNumber) {
+	return Arrays.binarySearch(scanNumbers, scanNumber) >= 0;
+    }
+
+    /**
+     * Extracts the ion chromatogram of given m/z range in given scans. For
+     * each scan, the m/z and intensity of the most intense data point within
+     * the m/z range (the base peak) and the sum of the intensities within the
+     * m/z range are set to the given arrays, at the same index as the scan
+     * number. If there is no data point of the scan within the m/z range, its
+     * base peak m/z is NaN and its intensities are 0. The values of scans
+     * which are not in this index are not set. The arrays must be at least as
+     * long as the scanNumbers array, and the totalIntensities array may be
+     * null.
+     */
+    public void extractXIC(@Nonnull int scanNumbers[],
+	    @Nonnull Range<Double> mzRange, @Nonnull double basePeakMZValues[],
+	    @Nonnull double basePeakIntensities[], double totalIntensities[]) {
+
+	// Position of the indexed scans in the given scan numbers, -1 if the
+	// scan was not requested
+	final int positions[] = new int[this.scanNumbers.length];
+	Arrays.fill(positions, -1);
+	int firstScanIndex = Integer.MAX_VALUE, lastScanIndex = -1;
+	for (int i = 0; i < scanNumbers.length; i++) {
+	    final int scanIndex = Arrays.binarySearch(this.scanNumbers,
+		    scanNumbers[i]);
+	    if (scanIndex < 0)
+		continue;
+	    positions[scanIndex] = i;
+	    firstScanIndex = Math.min(firstScanIndex, scanIndex);
+	    lastScanIndex = Math.max(lastScanIndex, scanIndex);
+	    basePeakMZValues[i] = Double.NaN;
+	    basePeakIntensities[i] = 0;
+	    if (totalIntensities != null)
+		totalIntensities[i] = 0;
+	}
+
+	if (lastScanIndex < 0)
+	    return;
+
+	final double mzMin = mzRange.lowerEndpoint();
+	final double mzMax = mzRange.upperEndpoint();
+	final int numOfBins = binStarts.length - 1;
+	final int firstBin = getBin(mzMin, minMZ, binWidth, numOfBins);
+	final int lastBin = getBin(mzMax, minMZ, binWidth, numOfBins);
+
+	for (int bin = firstBin; bin <= lastBin; bin++) {
+
+	    final long binEnd = binStarts[bin + 1];
+	    for (long entry = findFirstEntry(bin, firstScanIndex); entry < binEnd; entry++) {
+
+		final MappedByteBuffer segment = segments[(int) (entry / SEGMENT_ENTRIES)];
+		final int position = (int) (entry % SEGMENT_ENTRIES)
+			* ENTRY_SIZE;
+
+		final int scanIndex = segment.getInt(position);
+		if (scanIndex > lastScanIndex)
+		    break;
+		final int i = positions[scanIndex];
+		if (i < 0)
+		    continue;
+
+		final double mz = segment.getFloat(position + 4);
+		if ((mz < mzMin) || (mz > mzMax))
+		    continue;
+		final double intensity = segment.getFloat(position + 8);
+
+		// The data points of each scan are visited in the order of m/z,
+		// so the first of equally intense data points is kept, as in
+		// ScanUtils.findBasePeak()
+		if (Double.isNaN(basePeakMZValues[i])
+			|| (intensity > basePeakIntensities[i])) {
+		    basePeakMZValues[i] = mz;
+		    basePeakIntensities[i] = intensity;
+		}
+		if (totalIntensities != null)
+		    totalIntensities[i] += intensity;
+
+	    }
+	}
+
+    }
+
+    /**
+     * Deletes the index file. Extractions which are in progress may still read
+     * the memory-mapped index.
+     */
+    void delete() {
+	try {
+	    indexFile.close();
+	} catch (IOException e) {
+	    logger.warning("Could not close file " + indexFileName + ": "
+		    + e.toString());
+	}
+	indexFileName.delete();
+    }
+
+    /**
+     * Binary search for the first entry of given bin with scan index equal or
+     * greater than given scan index
+     */
+    private long findFirstEntry(int bin, int scanIndex) {
+	long low = binStarts[bin], high = binStarts[bin + 1];
+	while (low < high) {
+	    final long mid = (low + high) >>> 1;
+	    final MappedByteBuffer segment = segments[(int) (mid / SEGMENT_ENTRIES)];
+	    if (segment.getInt((int) (mid % SEGMENT_ENTRIES) * ENTRY_SIZE) < scanIndex)
+		low = mid + 1;
+	    else
+		high = mid;
+	}
+	return low;
+    }
+
+    private static int getBin(double mz, double minMZ, double binWidth,
+	    int numOfBins) {
+	final int bin = (int) Math.floor((mz - minMZ) / binWidth);
+	return Math.max(0, Math.min(numOfBins - 1, bin));
+    }
+
+}
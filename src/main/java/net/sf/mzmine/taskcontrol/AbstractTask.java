@@ -25,7 +25,7 @@ package net.sf.mzmine.taskcontrol;
  */
 public abstract class AbstractTask implements Task {
 
-    private TaskStatus status = TaskStatus.WAITING;
+    private volatile TaskStatus status = TaskStatus.WAITING;
     private String errorMessage = null;
 
     /**
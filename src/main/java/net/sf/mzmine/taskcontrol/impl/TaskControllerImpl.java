@@ -27,15 +27,13 @@ import java.util.Set;
 import java.util.Vector;
 import java.util.logging.Logger;
 
-import net.sf.mzmine.desktop.preferences.MZminePreferences;
-import net.sf.mzmine.desktop.preferences.NumOfThreadsParameter;
 import net.sf.mzmine.main.GoogleAnalyticsTracker;
-import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskControlListener;
 import net.sf.mzmine.taskcontrol.TaskController;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ThreadUtils;
 
 /**
  * Task controller implementation
@@ -176,14 +174,7 @@ public class TaskControllerImpl implements TaskController, Runnable {
 	    WrappedTask[] queueSnapshot = taskQueue.getQueueSnapshot();
 
 	    // Obtain the settings of max concurrent threads
-	    NumOfThreadsParameter parameter = MZmineCore.getConfiguration()
-		    .getPreferences()
-		    .getParameter(MZminePreferences.numOfThreads);
-	    int maxRunningThreads;
-	    if (parameter.isAutomatic() || (parameter.getValue() == null))
-		maxRunningThreads = Runtime.getRuntime().availableProcessors();
-	    else
-		maxRunningThreads = parameter.getValue();
+	    int maxRunningThreads = ThreadUtils.getNumOfThreads();
 
 	    // Check all tasks in the queue
 	    for (WrappedTask task : queueSnapshot) {
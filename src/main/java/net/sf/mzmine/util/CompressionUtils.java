@@ -19,6 +19,7 @@
 
 package net.sf.mzmine.util;
 
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -59,4 +60,38 @@ public class CompressionUtils {
 	return resultTotal;
     }
 
+    /**
+     * Decompress the zlib-compressed bytes and return an array of decompressed
+     * bytes. The decompressed bytes are written directly into an array of the
+     * expected length, which is only enlarged if there are more bytes.
+     */
+    public static byte[] decompress(byte compressedBytes[], int expectedLength)
+	    throws DataFormatException {
+
+	Inflater decompresser = new Inflater();
+
+	decompresser.setInput(compressedBytes);
+
+	byte result[] = new byte[Math.max(expectedLength, 64)];
+	int resultLength = 0;
+
+	while (!decompresser.finished()) {
+	    if (resultLength == result.length)
+		result = Arrays.copyOf(result, result.length * 2);
+	    int inflatedLength = decompresser.inflate(result, resultLength,
+		    result.length - resultLength);
+	    if ((inflatedLength == 0)
+		    && (decompresser.needsInput() || decompresser
+			    .needsDictionary()))
+		break;
+	    resultLength += inflatedLength;
+	}
+
+	decompresser.end();
+
+	if (resultLength == result.length)
+	    return result;
+	return Arrays.copyOf(result, resultLength);
+    }
+
 }
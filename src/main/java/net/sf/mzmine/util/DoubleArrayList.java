@@ -0,0 +1,69 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive double values. Unlike ArrayList<Double>, it does
+ * not box the values, which matters when collecting millions of data points.
+ */
+public class DoubleArrayList {
+
+    private double values[];
+    private int size;
+
+    public DoubleArrayList() {
+	this(16);
+    }
+
+    public DoubleArrayList(int initialCapacity) {
+	values = new double[Math.max(initialCapacity, 1)];
+    }
+
+    public void add(double value) {
+	if (size == values.length)
+	    values = Arrays.copyOf(values, values.length * 2);
+	values[size++] = value;
+    }
+
+    public double get(int index) {
+	if (index >= size)
+	    throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+		    + size);
+	return values[index];
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public void clear() {
+	size = 0;
+    }
+
+    /**
+     * Returns a copy of the values, trimmed to the size of the list
+     */
+    public double[] toArray() {
+	return Arrays.copyOf(values, size);
+    }
+
+}
@@ -105,16 +105,23 @@ public class ScanUtils {
     public static @Nonnull DataPoint findBasePeak(@Nonnull Scan scan,
 	    @Nonnull Range<Double> mzRange) {
 
-	DataPoint dataPoints[] = scan.getDataPointsByMass(mzRange);
-	DataPoint basePeak = null;
-
-	for (DataPoint dp : dataPoints) {
-	    if ((basePeak == null)
-		    || (dp.getIntensity() > basePeak.getIntensity()))
-		basePeak = dp;
+	double buffers[][] = getDataPointBuffers(scan.getNumberOfDataPoints());
+	final double mzValues[] = buffers[0], intensityValues[] = buffers[1];
+	final int numOfDataPoints = scan.getDataPointsByMass(mzRange, mzValues,
+		intensityValues);
+
+	int basePeakIndex = -1;
+	for (int i = 0; i < numOfDataPoints; i++) {
+	    if ((basePeakIndex < 0)
+		    || (intensityValues[i] > intensityValues[basePeakIndex]))
+		basePeakIndex = i;
 	}
 
-	return basePeak;
+	if (basePeakIndex < 0)
+	    return null;
+
+	return new SimpleDataPoint(mzValues[basePeakIndex],
+		intensityValues[basePeakIndex]);
     }
 
     /**
@@ -128,13 +135,194 @@ public class ScanUtils {
      */
     public static double calculateTIC(Scan scan, Range<Double> mzRange) {
 
+	double buffers[][] = getDataPointBuffers(scan.getNumberOfDataPoints());
+	final double mzValues[] = buffers[0], intensityValues[] = buffers[1];
+	final int numOfDataPoints = scan.getDataPointsByMass(mzRange, mzValues,
+		intensityValues);
+
 	double tic = 0.0;
-	for (final DataPoint dataPoint : scan.getDataPointsByMass(mzRange)) {
-	    tic += dataPoint.getIntensity();
+	for (int i = 0; i < numOfDataPoints; i++) {
+	    tic += intensityValues[i];
 	}
 	return tic;
     }
 
+    /**
+     * Per-thread m/z and intensity buffers, reused by findBasePeak() and
+     * calculateTIC(). These methods do not call each other or any other code
+     * which could use the buffers while they are in use, so the buffers are
+     * never used by two callers at once.
+     */
+    private static final ThreadLocal<double[][]> dataPointBuffers = new ThreadLocal<double[][]>() {
+	@Override
+	protected double[][] initialValue() {
+	    return new double[2][0];
+	}
+    };
+
+    /**
+     * Returns m/z and intensity buffers of the calling thread, which can hold
+     * at least given number of data points. The buffers are not re-entrant:
+     * the caller must not call any method which uses them (directly or
+     * indirectly) until it is done with the returned arrays.
+     */
+    private static double[][] getDataPointBuffers(int numOfDataPoints) {
+	double buffers[][] = dataPointBuffers.get();
+	if (buffers[0].length < numOfDataPoints) {
+	    buffers = new double[][] { new double[numOfDataPoints],
+		    new double[numOfDataPoints] };
+	    dataPointBuffers.set(buffers);
+	}
+	return buffers;
+    }
+
+    /**
+     * Extracts the ion chromatogram of given m/z range in given scans of a raw
+     * data file by reading each scan, see RawDataFile.extractXIC(). The base
+     * peak of each scan is found by findBasePeak() and its total ion count is
+     * calculated by calculateTIC(). Callers should use
+     * RawDataFile.extractXIC(), which may read the values from an index of the
+     * data file instead.
+     */
+    public static void extractXIC(@Nonnull RawDataFile dataFile,
+	    @Nonnull int scanNumbers[], @Nonnull Range<Double> mzRange,
+	    @Nonnull double basePeakMZValues[],
+	    @Nonnull double basePeakIntensities[], double totalIntensities[]) {
+
+	for (int i = 0; i < scanNumbers.length; i++) {
+
+	    Scan scan = dataFile.getScan(scanNumbers[i]);
+	    DataPoint basePeak = findBasePeak(scan, mzRange);
+	    if (basePeak != null) {
+		basePeakMZValues[i] = basePeak.getMZ();
+		basePeakIntensities[i] = basePeak.getIntensity();
+	    } else {
+		basePeakMZValues[i] = Double.NaN;
+		basePeakIntensities[i] = 0;
+	    }
+	    if (totalIntensities != null)
+		totalIntensities[i] = calculateTIC(scan, mzRange);
+
+	}
+
+    }
+
+    /**
+     * Finds the base peak within given m/z range in each of given scans of a
+     * raw data file, see RawDataFile.extractXIC()
+     * 
+     * @return Base peaks, null for the scans without data points within the
+     *         m/z range
+     */
+    public static @Nonnull DataPoint[] findBasePeaks(
+	    @Nonnull RawDataFile dataFile, @Nonnull int scanNumbers[],
+	    @Nonnull Range<Double> mzRange) {
+
+	final double basePeakMZValues[] = new double[scanNumbers.length];
+	final double basePeakIntensities[] = new double[scanNumbers.length];
+	dataFile.extractXIC(scanNumbers, mzRange, basePeakMZValues,
+		basePeakIntensities, null);
+
+	DataPoint basePeaks[] = new DataPoint[scanNumbers.length];
+	for (int i = 0; i < scanNumbers.length; i++) {
+	    if (!Double.isNaN(basePeakMZValues[i]))
+		basePeaks[i] = new SimpleDataPoint(basePeakMZValues[i],
+			basePeakIntensities[i]);
+	}
+	return basePeaks;
+
+    }
+
+    /**
+     * Binary search for the index of the first data point with m/z value equal
+     * or greater than given m/z. The data points must be sorted by m/z.
+     * 
+     * @return index of the first such data point, or dataPoints.length if all
+     *         data points have lower m/z
+     */
+    public static int findFirstDataPointIndex(@Nonnull DataPoint dataPoints[],
+	    double mz) {
+	int low = 0, high = dataPoints.length;
+	while (low < high) {
+	    final int mid = (low + high) >>> 1;
+	    if (dataPoints[mid].getMZ() < mz)
+		low = mid + 1;
+	    else
+		high = mid;
+	}
+	return low;
+    }
+
+    /**
+     * Binary search for the index of the first value equal or greater than
+     * given m/z among the first numOfValues values of the sorted mzValues
+     * array.
+     * 
+     * @return index of the first such value, or numOfValues if all values are
+     *         lower
+     */
+    public static int findFirstDataPointIndex(@Nonnull double mzValues[],
+	    int numOfValues, double mz) {
+	int low = 0, high = numOfValues;
+	while (low < high) {
+	    final int mid = (low + high) >>> 1;
+	    if (mzValues[mid] < mz)
+		low = mid + 1;
+	    else
+		high = mid;
+	}
+	return low;
+    }
+
+    /**
+     * Returns the data points within given m/z range. The data points must be
+     * sorted by m/z, which allows a binary search for the range boundaries.
+     */
+    public static @Nonnull DataPoint[] selectSortedDataPointsByMass(
+	    @Nonnull DataPoint dataPoints[], @Nonnull Range<Double> mzRange) {
+	final int startIndex = findFirstDataPointIndex(dataPoints,
+		mzRange.lowerEndpoint());
+	final int endIndex = findFirstDataPointIndex(dataPoints,
+		Math.nextUp(mzRange.upperEndpoint()));
+	return Arrays.copyOfRange(dataPoints, startIndex,
+		Math.max(startIndex, endIndex));
+    }
+
+    /**
+     * Copies the m/z and intensity values of given data points into the given
+     * arrays.
+     * 
+     * @return Number of data points copied
+     */
+    public static int copyDataPoints(@Nonnull DataPoint dataPoints[],
+	    @Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+	for (int i = 0; i < dataPoints.length; i++) {
+	    mzValues[i] = dataPoints[i].getMZ();
+	    intensityValues[i] = dataPoints[i].getIntensity();
+	}
+	return dataPoints.length;
+    }
+
+    /**
+     * Copies the m/z and intensity values of data points within given m/z range
+     * into the given arrays. The data points must be sorted by m/z.
+     * 
+     * @return Number of data points copied
+     */
+    public static int copyDataPointsByMass(@Nonnull DataPoint dataPoints[],
+	    @Nonnull Range<Double> mzRange, @Nonnull double mzValues[],
+	    @Nonnull double intensityValues[]) {
+	final int startIndex = findFirstDataPointIndex(dataPoints,
+		mzRange.lowerEndpoint());
+	final int endIndex = findFirstDataPointIndex(dataPoints,
+		Math.nextUp(mzRange.upperEndpoint()));
+	for (int i = startIndex; i < endIndex; i++) {
+	    mzValues[i - startIndex] = dataPoints[i].getMZ();
+	    intensityValues[i - startIndex] = dataPoints[i].getIntensity();
+	}
+	return Math.max(0, endIndex - startIndex);
+    }
+
     /**
      * Selects data points within given m/z range
      * 
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.desktop.preferences.NumOfThreadsParameter;
+import net.sf.mzmine.main.MZmineConfiguration;
+import net.sf.mzmine.main.MZmineCore;
+
+/**
+ * Utilities for running parts of a task in parallel
+ */
+public class ThreadUtils {
+
+    private static final AtomicInteger poolNumber = new AtomicInteger(1);
+
+    private static ForkJoinPool sharedExecutor;
+
+    /**
+     * Returns the number of threads set in the MZmine preferences, or the
+     * number of available processors if it is set to automatic (or if MZmine
+     * is not fully initialized, e.g. in unit tests)
+     */
+    public static int getNumOfThreads() {
+	MZmineConfiguration configuration = MZmineCore.getConfiguration();
+	if ((configuration == null) || (configuration.getPreferences() == null))
+	    return Runtime.getRuntime().availableProcessors();
+	NumOfThreadsParameter parameter = configuration.getPreferences()
+		.getParameter(MZminePreferences.numOfThreads);
+	if (parameter.isAutomatic() || (parameter.getValue() == null))
+	    return Runtime.getRuntime().availableProcessors();
+	return Math.max(1, parameter.getValue());
+    }
+
+    /**
+     * Creates a thread pool with given number of daemon threads
+     */
+    public static ExecutorService createThreadPool(int numOfThreads) {
+	final String namePrefix = "MZmine worker pool "
+		+ poolNumber.getAndIncrement() + " thread ";
+	ThreadFactory threadFactory = new ThreadFactory() {
+	    private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+	    public Thread newThread(Runnable r) {
+		Thread thread = new Thread(r, namePrefix
+			+ threadNumber.getAndIncrement());
+		thread.setDaemon(true);
+		return thread;
+	    }
+	};
+	return Executors.newFixedThreadPool(numOfThreads, threadFactory);
+    }
+
+    /**
+     * Returns the executor shared by all tasks for running their parts in
+     * parallel, so that concurrently running tasks do not each start their own
+     * threads. It has getNumOfThreads() daemon threads, and is replaced when
+     * that number is changed in the preferences. Jobs running in the executor
+     * may submit other jobs and wait for them, because a waiting thread of the
+     * executor runs the queued jobs meanwhile. The executor must not be shut
+     * down by its users; they should cancel their unfinished jobs instead.
+     */
+    public static synchronized ExecutorService getSharedExecutor() {
+	final int numOfThreads = getNumOfThreads();
+	if ((sharedExecutor == null)
+		|| (sharedExecutor.getParallelism() != numOfThreads)) {
+	    // Jobs already submitted to the previous executor still finish
+	    if (sharedExecutor != null)
+		sharedExecutor.shutdown();
+	    final String namePrefix = "MZmine shared worker thread ";
+	    ForkJoinPool.ForkJoinWorkerThreadFactory threadFactory = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+		    ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+		    };
+		    thread.setName(namePrefix + threadNumber.getAndIncrement());
+		    return thread;
+		}
+	    };
+	    sharedExecutor = new ForkJoinPool(numOfThreads, threadFactory,
+		    null, false);
+	}
+	return sharedExecutor;
+    }
+
+    /**
+     * Runs all given jobs in the shared executor (see getSharedExecutor()) and
+     * waits until all of them are finished. If any job throws an exception, it
+     * is rethrown wrapped in an ExecutionException after all jobs have
+     * finished. If the calling thread is interrupted, the jobs which did not
+     * start yet are cancelled.
+     */
+    public static <T> List<T> runInParallel(
+	    Collection<? extends Callable<T>> jobs)
+	    throws InterruptedException, ExecutionException {
+
+	final int numOfThreads = Math.min(getNumOfThreads(), jobs.size());
+	List<T> results = new ArrayList<T>(jobs.size());
+
+	// Avoid the thread pool overhead if there is nothing to parallelize
+	if (numOfThreads <= 1) {
+	    for (Callable<T> job : jobs) {
+		try {
+		    results.add(job.call());
+		} catch (Exception e) {
+		    throw new ExecutionException(e);
+		}
+	    }
+	    return results;
+	}
+
+	List<Future<T>> futures = new ArrayList<Future<T>>(jobs.size());
+	boolean finished = false;
+	try {
+	    ExecutorService executor = getSharedExecutor();
+	    for (Callable<T> job : jobs)
+		futures.add(executor.submit(job));
+	    // Wait for all jobs before reporting an exception of any of them
+	    ExecutionException exception = null;
+	    for (Future<T> future : futures) {
+		try {
+		    results.add(future.get());
+		} catch (ExecutionException e) {
+		    if (exception == null)
+			exception = e;
+		}
+	    }
+	    finished = true;
+	    if (exception != null)
+		throw exception;
+	    return results;
+	} finally {
+	    if (!finished) {
+		for (Future<T> future : futures)
+		    future.cancel(false);
+	    }
+	}
+
+    }
+
+}
@@ -23,6 +23,7 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 
 import javax.swing.BorderFactory;
@@ -31,7 +32,6 @@ import javax.swing.border.Border;
 
 import com.google.common.collect.Range;
 
-import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Feature;
 
 /**
@@ -55,11 +55,35 @@ public class CombinedXICComponent extends JComponent {
     private Range<Double> rtRange;
     private double maxIntensity;
 
+    // Component and its area to repaint when the peak shapes have been
+    // computed in the background, or null to compute them while painting
+    private JComponent repaintComponent;
+    private Rectangle repaintBounds;
+
     /**
      * @param ChromatographicPeak
      *            [] Picked peaks to plot
      */
     public CombinedXICComponent(Feature[] peaks, int id) {
+        this(peaks, id, null, null);
+    }
+
+    /**
+     * @param ChromatographicPeak
+     *            [] Picked peaks to plot
+     * @param repaintComponent
+     *            Component to repaint when the peak shapes are computed in the
+     *            background (e.g. the table this component is rendered in), or
+     *            null to compute the peak shapes while painting
+     * @param repaintBounds
+     *            Area of repaintComponent this component is rendered in (e.g.
+     *            the table cell)
+     */
+    public CombinedXICComponent(Feature[] peaks, int id,
+            JComponent repaintComponent, Rectangle repaintBounds) {
+
+        this.repaintComponent = repaintComponent;
+        this.repaintBounds = repaintBounds;
 
         // We use the tool tip text as a id for customTooltipProvider
         if (id >= 0)
@@ -109,40 +133,27 @@ public class CombinedXICComponent extends JComponent {
             g2.setColor(plotColors[colorIndex]);
             colorIndex = (colorIndex + 1) % plotColors.length;
 
-            // if we have no data, just return
-            if ((peak == null) || (peak.getScanNumbers().length == 0))
+            if (peak == null)
                 continue;
 
-            // get scan numbers, one data point per each scan
-            int scanNumbers[] = peak.getScanNumbers();
+            // get the downsampled peak shape, which may not be computed yet
+            PeakShapeThumbnail thumbnail;
+            if (repaintComponent == null)
+                thumbnail = PeakShapeThumbnail.getThumbnail(peak);
+            else
+                thumbnail = PeakShapeThumbnail.getThumbnail(peak,
+                        repaintComponent, repaintBounds);
 
-            // for each datapoint, find [X:Y] coordinates of its point in
-            // painted image
-            int xValues[] = new int[scanNumbers.length + 2];
-            int yValues[] = new int[scanNumbers.length + 2];
-            
-            // find one datapoint with maximum intensity in each scan
-            for (int i = 0; i < scanNumbers.length; i++) {
-
-                double dataPointIntensity = 0;
-                DataPoint dataPoint = peak.getDataPoint(scanNumbers[i]);
-
-                if (dataPoint != null)
-                    dataPointIntensity = dataPoint.getIntensity();
-
-                // get retention time (X value)
-                double retentionTime = peak.getDataFile()
-                        .getScan(scanNumbers[i]).getRetentionTime();
-
-                // calculate [X:Y] coordinates
-                xValues[i + 1] = (int) Math
-                        .floor((retentionTime - rtRange.lowerEndpoint())
-                                / (rtRange.upperEndpoint()
-                                        - rtRange.lowerEndpoint())
-                        * (size.width - 1));
-                yValues[i + 1] = size.height - (int) Math.floor(
-                        dataPointIntensity / maxIntensity * (size.height - 1));
-            }
+            // if we have no data, just return
+            if ((thumbnail == null) || (thumbnail.getNumOfPoints() == 0))
+                continue;
+
+            // for each point of the peak shape, find [X:Y] coordinates of its
+            // point in painted image
+            int xValues[] = new int[thumbnail.getNumOfPoints() + 2];
+            int yValues[] = new int[thumbnail.getNumOfPoints() + 2];
+            thumbnail.getCoordinates(size.width, size.height, rtRange,
+                    maxIntensity, xValues, yValues, 1);
             
             // add first point
             xValues[0] = xValues[1];
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.util.components;
+
+import java.awt.Rectangle;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimpleFeature;
+import net.sf.mzmine.util.ThreadUtils;
+
+import com.google.common.collect.Range;
+
+/**
+ * Downsampled retention time / intensity polyline of a peak shape, used by
+ * PeakXICComponent and CombinedXICComponent. The RT range of the peak is
+ * divided into at most MAX_POINTS bins and the most intense data point of each
+ * bin is kept, so painting does not need to read the scans of the peak.
+ *
+ * The thumbnails are cached per feature and recomputed when a SimpleFeature is
+ * modified (see SimpleFeature.getModificationStamp()). The data points of
+ * other features (e.g. chromatograms) do not change once they are shown.
+ *
+ * Thumbnails requested for a table are computed in the background, and the
+ * requests of the cells which were scrolled out of view before their turn are
+ * dropped.
+ */
+public class PeakShapeThumbnail {
+
+    private static final Logger logger = Logger
+            .getLogger(PeakShapeThumbnail.class.getName());
+
+    // Maximum number of points of a thumbnail, enough for the width of the
+    // peak shape cells of the peak list table
+    private static final int MAX_POINTS = 128;
+
+    private static final Map<Feature, PeakShapeThumbnail> cache = Collections
+            .synchronizedMap(new WeakHashMap<Feature, PeakShapeThumbnail>());
+
+    // Requests of the features whose thumbnails are being computed in the
+    // background
+    private static final Map<Feature, Request> pending = Collections
+            .synchronizedMap(new HashMap<Feature, Request>());
+
+    // Visible area of each component which requested thumbnails, as of its
+    // last request
+    private static final Map<JComponent, Rectangle> visibleRects = Collections
+            .synchronizedMap(new WeakHashMap<JComponent, Rectangle>());
+
+    private static ExecutorService executor;
+
+    private final double retentionTimes[], intensities[];
+
+    // Modification stamp of the feature when this thumbnail was computed
+    private final long modificationStamp;
+
+    private PeakShapeThumbnail(Feature peak) {
+
+        modificationStamp = getModificationStamp(peak);
+
+        final RawDataFile dataFile = peak.getDataFile();
+        final int scanNumbers[] = peak.getScanNumbers();
+        final int numOfScans = scanNumbers.length;
+
+        if (numOfScans == 0) {
+            retentionTimes = new double[0];
+            intensities = new double[0];
+            return;
+        }
+
+        final double rtValues[] = new double[numOfScans];
+        for (int i = 0; i < numOfScans; i++)
+            rtValues[i] = dataFile.getScan(scanNumbers[i]).getRetentionTime();
+
+        final int numOfBins = Math.min(numOfScans, MAX_POINTS);
+        final double rtMin = rtValues[0];
+        final double rtLength = rtValues[numOfScans - 1] - rtMin;
+        final double binRTValues[] = new double[numOfBins];
+        final double binIntensities[] = new double[numOfBins];
+        final boolean binUsed[] = new boolean[numOfBins];
+
+        for (int i = 0; i < numOfScans; i++) {
+
+            double intensity = 0;
+            DataPoint dataPoint = peak.getDataPoint(scanNumbers[i]);
+            if (dataPoint != null)
+                intensity = dataPoint.getIntensity();
+
+            int bin = i;
+            if ((numOfBins < numOfScans) && (rtLength > 0))
+                bin = (int) ((rtValues[i] - rtMin) / rtLength * numOfBins);
+            bin = Math.max(0, Math.min(numOfBins - 1, bin));
+
+            if (!binUsed[bin] || (intensity > binIntensities[bin])) {
+                binRTValues[bin] = rtValues[i];
+                binIntensities[bin] = intensity;
+                binUsed[bin] = true;
+            }
+        }
+
+        int numOfPoints = 0;
+        for (int bin = 0; bin < numOfBins; bin++) {
+            if (binUsed[bin])
+                numOfPoints++;
+        }
+        retentionTimes = new double[numOfPoints];
+        intensities = new double[numOfPoints];
+        int point = 0;
+        for (int bin = 0; bin < numOfBins; bin++) {
+            if (!binUsed[bin])
+                continue;
+            retentionTimes[point] = binRTValues[bin];
+            intensities[point] = binIntensities[bin];
+            point++;
+        }
+
+        // Keep the shape spanning the same RT range as the peak
+        retentionTimes[0] = rtMin;
+        retentionTimes[numOfPoints - 1] = rtValues[numOfScans - 1];
+
+    }
+
+    /**
+     * Returns true if this thumbnail was computed for the current data of
+     * given feature
+     */
+    private boolean isValidFor(Feature peak) {
+        return modificationStamp == getModificationStamp(peak);
+    }
+
+    private static long getModificationStamp(Feature peak) {
+        if (peak instanceof SimpleFeature)
+            return ((SimpleFeature) peak).getModificationStamp();
+        return -1;
+    }
+
+    /**
+     * Returns the number of points of this thumbnail
+     */
+    public int getNumOfPoints() {
+        return retentionTimes.length;
+    }
+
+    /**
+     * Converts the points of this thumbnail to pixel coordinates of a plot of
+     * given size, retention time range and maximum intensity
+     */
+    public void getCoordinates(int width, int height, Range<Double> rtRange,
+            double maxIntensity, int xValues[], int yValues[], int offset) {
+
+        final double rtMin = rtRange.lowerEndpoint();
+        final double rtLength = rtRange.upperEndpoint() - rtMin;
+
+        for (int i = 0; i < retentionTimes.length; i++) {
+            xValues[offset + i] = (int) Math.floor((retentionTimes[i] - rtMin)
+                    / rtLength * (width - 1));
+            yValues[offset + i] = height - (int) Math.floor(
+                    intensities[i] / maxIntensity * (height - 1));
+        }
+
+    }
+
+    /**
+     * Returns the thumbnail of given feature, computing it if it is not
+     * cached
+     */
+    public static PeakShapeThumbnail getThumbnail(Feature peak) {
+        PeakShapeThumbnail thumbnail = cache.get(peak);
+        if ((thumbnail == null) || !thumbnail.isValidFor(peak)) {
+            thumbnail = new PeakShapeThumbnail(peak);
+            cache.put(peak, thumbnail);
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Returns the cached thumbnail of given feature, or null if it is not
+     * cached yet. In that case the thumbnail is computed in the background and
+     * given area of given component is repainted when it is ready, unless the
+     * area is no longer visible by then. Must be called on the event dispatch
+     * thread, e.g. while painting the component.
+     */
+    public static PeakShapeThumbnail getThumbnail(final Feature peak,
+            final JComponent repaintComponent, final Rectangle repaintBounds) {
+
+        visibleRects.put(repaintComponent, repaintComponent.getVisibleRect());
+
+        PeakShapeThumbnail thumbnail = cache.get(peak);
+        if ((thumbnail != null) && thumbnail.isValidFor(peak))
+            return thumbnail;
+
+        // A pending request is moved to the area of the latest request, e.g.
+        // after the table was sorted
+        final Request request = new Request(repaintComponent, repaintBounds);
+        if (pending.put(peak, request) != null)
+            return null;
+
+        getExecutor().execute(new Runnable() {
+            public void run() {
+                Request currentRequest = pending.get(peak);
+                boolean failed = true;
+                try {
+                    // Skip the peaks which were scrolled out of view, they
+                    // are requested again when they are painted
+                    if (currentRequest.isVisible())
+                        cache.put(peak, new PeakShapeThumbnail(peak));
+                    failed = false;
+                } catch (Exception e) {
+                    logger.log(Level.WARNING,
+                            "Could not compute the peak shape of " + peak, e);
+                } finally {
+                    currentRequest = pending.remove(peak);
+                }
+
+                // Repaint the area of the latest request, which may have
+                // been made meanwhile
+                if (failed || !currentRequest.isVisible())
+                    return;
+                final Request repaintRequest = currentRequest;
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        repaintRequest.component
+                                .repaint(repaintRequest.bounds);
+                    }
+                });
+            }
+        });
+
+        return null;
+
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null)
+            executor = ThreadUtils.createThreadPool(1);
+        return executor;
+    }
+
+    /**
+     * Component and area to repaint when a thumbnail is computed
+     */
+    private static class Request {
+
+        private final JComponent component;
+        private final Rectangle bounds;
+
+        Request(JComponent component, Rectangle bounds) {
+            this.component = component;
+            this.bounds = bounds;
+        }
+
+        /**
+         * Returns true if the area of this request was visible when the
+         * component last requested a thumbnail
+         */
+        boolean isVisible() {
+            if (!component.isShowing())
+                return false;
+            Rectangle visibleRect = visibleRects.get(component);
+            return (visibleRect == null) || visibleRect.intersects(bounds);
+        }
+
+    }
+
+}
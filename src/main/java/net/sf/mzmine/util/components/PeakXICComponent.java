@@ -23,15 +23,14 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.geom.GeneralPath;
-import java.util.Arrays;
 
 import javax.swing.BorderFactory;
 import javax.swing.JComponent;
 import javax.swing.border.Border;
 
-import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.RawDataFile;
 
@@ -52,6 +51,11 @@ public class PeakXICComponent extends JComponent {
     private Range<Double> rtRange;
     private double maxIntensity;
 
+    // Component and its area to repaint when the peak shape has been computed
+    // in the background, or null to compute it while painting
+    private JComponent repaintComponent;
+    private Rectangle repaintBounds;
+
     /**
      * @param peak
      *            Picked peak to plot
@@ -65,8 +69,26 @@ public class PeakXICComponent extends JComponent {
      *            Picked peak to plot
      */
     public PeakXICComponent(Feature peak, double maxIntensity) {
+        this(peak, maxIntensity, null, null);
+    }
+
+    /**
+     * @param peak
+     *            Picked peak to plot
+     * @param repaintComponent
+     *            Component to repaint when the peak shape is computed in the
+     *            background (e.g. the table this component is rendered in), or
+     *            null to compute the peak shape while painting
+     * @param repaintBounds
+     *            Area of repaintComponent this component is rendered in (e.g.
+     *            the table cell)
+     */
+    public PeakXICComponent(Feature peak, double maxIntensity,
+            JComponent repaintComponent, Rectangle repaintBounds) {
 
         this.peak = peak;
+        this.repaintComponent = repaintComponent;
+        this.repaintBounds = repaintBounds;
 
         // find data boundaries
         RawDataFile dataFile = peak.getDataFile();
@@ -94,42 +116,24 @@ public class PeakXICComponent extends JComponent {
         // get canvas size
         Dimension size = getSize();
 
-        // get scan numbers, one data point per each scan
-        RawDataFile dataFile = peak.getDataFile();
-        int scanNumbers[] = peak.getScanNumbers();
+        // get the downsampled peak shape, which may not be computed yet
+        PeakShapeThumbnail thumbnail;
+        if (repaintComponent == null)
+            thumbnail = PeakShapeThumbnail.getThumbnail(peak);
+        else
+            thumbnail = PeakShapeThumbnail.getThumbnail(peak,
+                    repaintComponent, repaintBounds);
 
         // If we have no data, just return
-        if (scanNumbers.length == 0)
+        if ((thumbnail == null) || (thumbnail.getNumOfPoints() == 0))
             return;
 
-        // for each datapoint, find [X:Y] coordinates of its point in painted
-        // image
-        int xValues[] = new int[scanNumbers.length];
-        int yValues[] = new int[scanNumbers.length];
-
-        // find one datapoint with maximum intensity in each scan
-        for (int i = 0; i < scanNumbers.length; i++) {
-
-            double dataPointIntensity = 0;
-            DataPoint dataPoint = peak.getDataPoint(scanNumbers[i]);
-
-            if (dataPoint != null)
-                dataPointIntensity = dataPoint.getIntensity();
-
-            // get retention time (X value)
-            double retentionTime = dataFile.getScan(scanNumbers[i])
-                    .getRetentionTime();
-
-            // calculate [X:Y] coordinates
-            final double rtLen = rtRange.upperEndpoint()
-                    - rtRange.lowerEndpoint();
-            xValues[i] = (int) Math
-                    .floor((retentionTime - rtRange.lowerEndpoint()) / rtLen
-                            * (size.width - 1));
-            yValues[i] = size.height - (int) Math.floor(
-                    dataPointIntensity / maxIntensity * (size.height - 1));
-
-        }
+        // for each point of the peak shape, find [X:Y] coordinates of its
+        // point in painted image
+        int xValues[] = new int[thumbnail.getNumOfPoints()];
+        int yValues[] = new int[thumbnail.getNumOfPoints()];
+        thumbnail.getCoordinates(size.width, size.height, rtRange,
+                maxIntensity, xValues, yValues, 0);
 
         // create a path for a peak polygon
         GeneralPath path = new GeneralPath(GeneralPath.WIND_EVEN_ODD);
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import net.sf.mzmine.datamodel.DataPoint;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PackedDataPointsTest {
+
+    private static final int SCAN_TABLE[] = new int[] { 1, 2, 4, 5, 7, 8, 9,
+	    12 };
+
+    /**
+     * Test that the builder packs the range from the first to the last added
+     * scan, with missing values for the scans without a data point
+     */
+    @Test
+    public void testBuilderGaps() {
+
+	PackedDataPoints.Builder builder = new PackedDataPoints.Builder(
+		SCAN_TABLE);
+	builder.add(4, 100.1, 10);
+	builder.add(7, 100.2, 20);
+	builder.add(9, 100.3, 30);
+	Assert.assertEquals(3, builder.size());
+	Assert.assertEquals(7, builder.getScanNumber(1));
+	Assert.assertNull(builder.getDataPoint(5));
+	Assert.assertEquals(20, builder.getDataPoint(7).getIntensity(), 0);
+
+	PackedDataPoints dataPoints = builder.build();
+	Assert.assertArrayEquals(new int[] { 4, 5, 7, 8, 9 },
+		dataPoints.getScanNumbers());
+	Assert.assertEquals(5, dataPoints.getNumberOfScans());
+	Assert.assertTrue(dataPoints.hasDataPoint(0));
+	Assert.assertFalse(dataPoints.hasDataPoint(1));
+	Assert.assertTrue(Double.isNaN(dataPoints.getMZ(3)));
+	Assert.assertTrue(Double.isNaN(dataPoints.getIntensity(3)));
+	Assert.assertEquals(100.3, dataPoints.getMZ(4), 0);
+	Assert.assertNull(dataPoints.getDataPoint(8));
+
+    }
+
+    /**
+     * Test the indices and scan numbers of a range which does not span the
+     * whole scan table
+     */
+    @Test
+    public void testSubRange() {
+
+	PackedDataPoints dataPoints = new PackedDataPoints(SCAN_TABLE, 2,
+		new double[] { 1, 2, 3 }, new double[] { 4, 5, 6 });
+
+	Assert.assertEquals(4, dataPoints.getScanNumber(0));
+	Assert.assertEquals(7, dataPoints.getScanNumber(2));
+	Assert.assertEquals(1, dataPoints.getIndex(5));
+	Assert.assertTrue(dataPoints.getIndex(2) < 0);
+	Assert.assertTrue(dataPoints.getIndex(8) < 0);
+	Assert.assertTrue(dataPoints.getIndex(6) < 0);
+	Assert.assertNull(dataPoints.getDataPoint(12));
+
+	// The scan numbers of the range are copied only once
+	int scanNumbers[] = dataPoints.getScanNumbers();
+	Assert.assertArrayEquals(new int[] { 4, 5, 7 }, scanNumbers);
+	Assert.assertSame(scanNumbers, dataPoints.getScanNumbers());
+
+	// A range spanning the whole table returns the table itself
+	PackedDataPoints whole = PackedDataPoints.pack(SCAN_TABLE,
+		new DataPoint[SCAN_TABLE.length]);
+	Assert.assertSame(SCAN_TABLE, whole.getScanNumbers());
+
+    }
+
+    /**
+     * Test that packed data points are returned unchanged, and null data
+     * points as missing
+     */
+    @Test
+    public void testPackRoundTrip() {
+
+	DataPoint dataPoints[] = new DataPoint[SCAN_TABLE.length];
+	for (int i = 0; i < dataPoints.length; i++) {
+	    if (i % 3 != 1)
+		dataPoints[i] = new SimpleDataPoint(200 + i * 0.01, i * 1000);
+	}
+
+	PackedDataPoints packed = PackedDataPoints.pack(SCAN_TABLE, dataPoints);
+	Assert.assertEquals(SCAN_TABLE.length, packed.getNumberOfScans());
+	for (int i = 0; i < dataPoints.length; i++) {
+	    DataPoint dataPoint = packed.getDataPoint(SCAN_TABLE[i]);
+	    if (dataPoints[i] == null) {
+		Assert.assertNull(dataPoint);
+		Assert.assertFalse(packed.hasDataPoint(i));
+		continue;
+	    }
+	    Assert.assertEquals(dataPoints[i].getMZ(), dataPoint.getMZ(), 0);
+	    Assert.assertEquals(dataPoints[i].getIntensity(),
+		    dataPoint.getIntensity(), 0);
+	}
+
+    }
+
+    /**
+     * Test that truncating the builder drops the last data points from the
+     * packed range, and that the scans must be added in table order
+     */
+    @Test
+    public void testBuilderTruncate() {
+
+	PackedDataPoints.Builder builder = new PackedDataPoints.Builder(
+		SCAN_TABLE);
+	builder.add(2, 1, 1);
+	builder.add(5, 2, 2);
+	builder.add(12, 3, 3);
+	builder.truncate(2);
+	Assert.assertArrayEquals(new int[] { 2, 4, 5 }, builder.build()
+		.getScanNumbers());
+
+	try {
+	    builder.add(4, 4, 4);
+	    Assert.fail("Adding a preceding scan must fail");
+	} catch (IllegalArgumentException e) {
+	    // Expected
+	}
+
+	Assert.assertEquals(0, new PackedDataPoints.Builder(SCAN_TABLE)
+		.build().getNumberOfScans());
+
+    }
+
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.visualization.peaklisttable.table;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.RowSorter.SortKey;
+import javax.swing.SortOrder;
+import javax.swing.SwingUtilities;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PeakListTableRowSorterTest {
+
+    // Time to wait for sorting in the background
+    private static final long TIMEOUT = 10000L;
+
+    /**
+     * Test that the rows are sorted by the first key, and rows of equal values
+     * by the next keys
+     */
+    @Test
+    public void testMultiKeyOrder() throws Exception {
+
+	TestTableModel model = new TestTableModel(Integer.class, String.class);
+	model.values = new Object[][] { { 2, "b" }, { 1, "c" }, { 2, "a" },
+		{ 1, "a" }, { 3, "x" } };
+	PeakListTableRowSorter sorter = createSorter(model);
+
+	setSortKeys(sorter, new SortKey(0, SortOrder.ASCENDING), new SortKey(
+		1, SortOrder.DESCENDING));
+	waitForOrder(sorter, 1, 3, 0, 2, 4);
+
+	setSortKeys(sorter, new SortKey(1, SortOrder.ASCENDING), new SortKey(
+		0, SortOrder.DESCENDING));
+	waitForOrder(sorter, 2, 3, 0, 1, 4);
+
+    }
+
+    /**
+     * Test that rows of equal values keep their model order, in both sort
+     * orders
+     */
+    @Test
+    public void testStability() throws Exception {
+
+	TestTableModel model = new TestTableModel(Integer.class);
+	model.values = new Object[][] { { 1 }, { 0 }, { 1 }, { 0 }, { 1 } };
+	PeakListTableRowSorter sorter = createSorter(model);
+
+	setSortKeys(sorter, new SortKey(0, SortOrder.ASCENDING));
+	waitForOrder(sorter, 1, 3, 0, 2, 4);
+
+	setSortKeys(sorter, new SortKey(0, SortOrder.DESCENDING));
+	waitForOrder(sorter, 0, 2, 4, 1, 3);
+
+    }
+
+    /**
+     * Test that missing values (null and NaN) are sorted first in ascending
+     * order, as equal values
+     */
+    @Test
+    public void testMissingValuesFirst() throws Exception {
+
+	TestTableModel model = new TestTableModel(Double.class, String.class);
+	model.values = new Object[][] { { 3.0, "b" }, { null, null },
+		{ Double.NaN, "a" }, { 1.0, null } };
+	PeakListTableRowSorter sorter = createSorter(model);
+
+	setSortKeys(sorter, new SortKey(0, SortOrder.ASCENDING));
+	waitForOrder(sorter, 1, 2, 3, 0);
+
+	setSortKeys(sorter, new SortKey(1, SortOrder.ASCENDING));
+	waitForOrder(sorter, 1, 3, 2, 0);
+
+    }
+
+    /**
+     * Test that the result of a sort which read the values before they were
+     * updated is discarded, and the rows are sorted again by the new values
+     */
+    @Test
+    public void testStaleResultDiscarded() throws Exception {
+
+	final TestTableModel model = new TestTableModel(Integer.class);
+	model.values = new Object[][] { { 0 }, { 1 }, { 2 }, { 3 } };
+	final PeakListTableRowSorter sorter = createSorter(model);
+
+	// Block the sort while it reads the first value
+	final CountDownLatch gate = new CountDownLatch(1);
+	model.reading = new CountDownLatch(1);
+	model.gate = gate;
+	setSortKeys(sorter, new SortKey(0, SortOrder.ASCENDING));
+	Assert.assertTrue(model.reading.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+	SwingUtilities.invokeAndWait(new Runnable() {
+	    public void run() {
+		model.values = new Object[][] { { 3 }, { 2 }, { 1 }, { 0 } };
+		sorter.rowsUpdated(0, 3);
+	    }
+	});
+	model.gate = null;
+	gate.countDown();
+
+	waitForOrder(sorter, 3, 2, 1, 0);
+
+    }
+
+    /**
+     * Test that inserted rows are shown at the end and deleted rows are
+     * removed, keeping the order of the other rows until they are sorted
+     * again
+     */
+    @Test
+    public void testInsertedAndDeletedRows() throws Exception {
+
+	final TestTableModel model = new TestTableModel(Integer.class);
+	model.values = new Object[][] { { 5 }, { 3 }, { 4 } };
+	final PeakListTableRowSorter sorter = createSorter(model);
+
+	setSortKeys(sorter, new SortKey(0, SortOrder.ASCENDING));
+	waitForOrder(sorter, 1, 2, 0);
+
+	final int insertedOrder[][] = new int[1][];
+	SwingUtilities.invokeAndWait(new Runnable() {
+	    public void run() {
+		model.values = new Object[][] { { 5 }, { 3 }, { 1 }, { 4 } };
+		sorter.rowsInserted(2, 2);
+		insertedOrder[0] = getOrder(sorter);
+	    }
+	});
+	Assert.assertArrayEquals(new int[] { 1, 3, 0, 2 }, insertedOrder[0]);
+	waitForOrder(sorter, 2, 1, 3, 0);
+
+	final int deletedOrder[][] = new int[1][];
+	SwingUtilities.invokeAndWait(new Runnable() {
+	    public void run() {
+		model.values = new Object[][] { { 3 }, { 1 }, { 4 } };
+		sorter.rowsDeleted(0, 0);
+		deletedOrder[0] = getOrder(sorter);
+	    }
+	});
+	Assert.assertArrayEquals(new int[] { 1, 0, 2 }, deletedOrder[0]);
+	waitForOrder(sorter, 1, 0, 2);
+
+    }
+
+    private static PeakListTableRowSorter createSorter(
+	    final TestTableModel model) throws Exception {
+	final PeakListTableRowSorter sorter[] = new PeakListTableRowSorter[1];
+	SwingUtilities.invokeAndWait(new Runnable() {
+	    public void run() {
+		sorter[0] = new PeakListTableRowSorter(model);
+	    }
+	});
+	return sorter[0];
+    }
+
+    private static void setSortKeys(final PeakListTableRowSorter sorter,
+	    final SortKey... keys) throws Exception {
+	SwingUtilities.invokeAndWait(new Runnable() {
+	    public void run() {
+		sorter.setSortKeys(Arrays.asList(keys));
+	    }
+	});
+    }
+
+    /**
+     * Returns the model indices of the rows in view order. Must be called on
+     * the event dispatch thread.
+     */
+    private static int[] getOrder(PeakListTableRowSorter sorter) {
+	int order[] = new int[sorter.getViewRowCount()];
+	for (int i = 0; i < order.length; i++)
+	    order[i] = sorter.convertRowIndexToModel(i);
+	return order;
+    }
+
+    /**
+     * Waits until the sorter shows the rows of given model indices in the
+     * given order
+     */
+    private static void waitForOrder(final PeakListTableRowSorter sorter,
+	    int... expected) throws Exception {
+	final int order[][] = new int[1][];
+	final long endTime = System.currentTimeMillis() + TIMEOUT;
+	do {
+	    SwingUtilities.invokeAndWait(new Runnable() {
+		public void run() {
+		    order[0] = getOrder(sorter);
+		}
+	    });
+	    if (Arrays.equals(expected, order[0]))
+		return;
+	    Thread.sleep(10);
+	} while (System.currentTimeMillis() < endTime);
+	Assert.assertArrayEquals(expected, order[0]);
+    }
+
+    /**
+     * Table model of given values, without a peak list
+     */
+    private static class TestTableModel extends PeakListTableModel {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Class<?> columnClasses[];
+
+	// Values by row and column
+	volatile Object values[][];
+
+	// If set, reading a value counts down the reading latch and waits for
+	// the gate to open
+	volatile CountDownLatch gate, reading;
+
+	TestTableModel(Class<?>... columnClasses) {
+	    super(null);
+	    this.columnClasses = columnClasses;
+	}
+
+	public int getColumnCount() {
+	    return columnClasses.length;
+	}
+
+	public int getRowCount() {
+	    return values.length;
+	}
+
+	public Class<?> getColumnClass(int col) {
+	    return columnClasses[col];
+	}
+
+	public Object getValueAt(int row, int col) {
+	    final Object value = values[row][col];
+	    final CountDownLatch currentGate = gate;
+	    if (currentGate != null) {
+		reading.countDown();
+		try {
+		    currentGate.await();
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		}
+	    }
+	    return value;
+	}
+
+    }
+
+}
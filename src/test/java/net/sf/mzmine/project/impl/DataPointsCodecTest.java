@@ -0,0 +1,187 @@
+/*
+ * Copyright 2006-2015 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DataPointsCodecTest {
+
+    // Two full chunks and a shorter tail chunk of odd length
+    private static final int NUM_OF_DATA_POINTS = 2
+	    * RawDataFileImpl.CHUNK_SIZE + 37;
+
+    /**
+     * Test that the lossless codec returns exactly the encoded values, also
+     * for an odd number of data points not starting at the beginning of the
+     * array
+     */
+    @Test
+    public void testLosslessRoundTrip() throws Exception {
+
+	DataPointsCodec codec = DataPointsCompression.LOSSLESS.getCodec();
+	Assert.assertTrue(codec.isLossless());
+
+	float values[] = createValues(NUM_OF_DATA_POINTS);
+	byte encoded[] = codec.encode(values, 5, 7);
+	float decoded[] = new float[(3 + 7) * 2];
+	codec.decode(ByteBuffer.wrap(encoded), decoded, 3, 7);
+
+	for (int i = 0; i < 7 * 2; i++)
+	    Assert.assertEquals(Float.floatToRawIntBits(values[5 * 2 + i]),
+		    Float.floatToRawIntBits(decoded[3 * 2 + i]));
+
+    }
+
+    /**
+     * Test that the lossy codec keeps the m/z values within the fixed-point
+     * precision, and the intensities within the documented error of their
+     * logarithm
+     */
+    @Test
+    public void testLossyErrorBound() throws Exception {
+
+	DataPointsCodec codec = DataPointsCompression.LOSSY.getCodec();
+	Assert.assertFalse(codec.isLossless());
+
+	final int numOfDataPoints = RawDataFileImpl.CHUNK_SIZE;
+	float values[] = createValues(numOfDataPoints);
+	byte encoded[] = codec.encode(values, 0, numOfDataPoints);
+	float decoded[] = new float[numOfDataPoints * 2];
+	codec.decode(ByteBuffer.wrap(encoded), decoded, 0, numOfDataPoints);
+
+	double maxLogIntensity = 0;
+	for (int i = 0; i < numOfDataPoints; i++)
+	    maxLogIntensity = Math.max(maxLogIntensity,
+		    Math.log1p(values[i * 2 + 1]));
+
+	for (int i = 0; i < numOfDataPoints; i++) {
+	    final float mz = values[i * 2];
+	    Assert.assertEquals(mz, decoded[i * 2], 0.5E-5 + Math.ulp(mz));
+	    final float intensity = values[i * 2 + 1];
+	    Assert.assertEquals(Math.log1p(intensity),
+		    Math.log1p(decoded[i * 2 + 1]), maxLogIntensity / 131070
+			    + Math.ulp((float) maxLogIntensity));
+	}
+
+	// Negative and NaN intensities are stored as 0
+	float invalid[] = new float[] { 100f, -5f, 101f, Float.NaN };
+	decoded = new float[invalid.length];
+	codec.decode(ByteBuffer.wrap(codec.encode(invalid, 0, 2)), decoded, 0,
+		2);
+	Assert.assertEquals(0f, decoded[1], 0f);
+	Assert.assertEquals(0f, decoded[3], 0f);
+
+    }
+
+    /**
+     * Test the chunk end offsets at the start of an encoded block, and that
+     * each chunk, including the shorter tail chunk, can be decoded alone
+     */
+    @Test
+    public void testChunkHeader() throws Exception {
+
+	for (DataPointsCompression compression : DataPointsCompression
+		.values()) {
+
+	    DataPointsCodec codec = compression.getCodec();
+	    if (codec == null)
+		continue;
+
+	    float values[] = createValues(NUM_OF_DATA_POINTS);
+	    float expected[] = values.clone();
+	    byte block[] = RawDataFileImpl.encodeDataPoints(codec, values,
+		    NUM_OF_DATA_POINTS);
+
+	    final int numOfChunks = RawDataFileImpl
+		    .getNumOfChunks(NUM_OF_DATA_POINTS);
+	    Assert.assertEquals(3, numOfChunks);
+
+	    IntBuffer header = ByteBuffer.wrap(block).asIntBuffer();
+	    int previousEnd = numOfChunks * 4;
+	    for (int chunk = 0; chunk < numOfChunks; chunk++) {
+		Assert.assertTrue(header.get(chunk) > previousEnd);
+		previousEnd = header.get(chunk);
+	    }
+	    Assert.assertEquals(block.length, header.get(numOfChunks - 1));
+
+	    float decoded[] = new float[NUM_OF_DATA_POINTS * 2];
+	    RawDataFileImpl.decodeChunks(codec, ByteBuffer.wrap(block), 0,
+		    header, 0, NUM_OF_DATA_POINTS, 0, numOfChunks, decoded);
+	    assertValues(codec, expected, 0, decoded, NUM_OF_DATA_POINTS);
+
+	    // Decode only the tail chunk, from the part of the block starting
+	    // where the previous chunk ends
+	    final int tailStart = header.get(numOfChunks - 2);
+	    ByteBuffer tail = ByteBuffer.wrap(block, tailStart,
+		    block.length - tailStart).slice();
+	    IntBuffer tailHeader = ByteBuffer.wrap(block).asIntBuffer();
+	    tailHeader.position(numOfChunks - 2);
+	    float decodedTail[] = new float[37 * 2];
+	    RawDataFileImpl.decodeChunks(codec, tail, tailStart,
+		    tailHeader.slice(), numOfChunks - 2, NUM_OF_DATA_POINTS,
+		    numOfChunks - 1, numOfChunks, decodedTail);
+	    assertValues(codec, decoded, 2 * RawDataFileImpl.CHUNK_SIZE,
+		    decodedTail, 37);
+
+	}
+
+    }
+
+    /**
+     * Returns alternating m/z and intensity values sorted by m/z, with some
+     * zero intensities
+     */
+    private static float[] createValues(int numOfDataPoints) {
+	Random random = new Random(42);
+	float values[] = new float[numOfDataPoints * 2];
+	double mz = 100;
+	for (int i = 0; i < numOfDataPoints; i++) {
+	    mz += random.nextDouble() * 0.1;
+	    values[i * 2] = (float) mz;
+	    values[i * 2 + 1] = i % 10 == 0 ? 0f
+		    : (float) (random.nextDouble() * 1E6);
+	}
+	return values;
+    }
+
+    /**
+     * Checks that numOfDataPoints decoded pairs match the expected pairs
+     * starting at the pair of index from. A lossy codec must decode the
+     * values it decoded before exactly the same way.
+     */
+    private static void assertValues(DataPointsCodec codec,
+	    float expected[], int from, float decoded[], int numOfDataPoints) {
+	for (int i = 0; i < numOfDataPoints * 2; i++) {
+	    final float expectedValue = expected[from * 2 + i];
+	    if (codec.isLossless())
+		Assert.assertEquals(Float.floatToRawIntBits(expectedValue),
+			Float.floatToRawIntBits(decoded[i]));
+	    else
+		Assert.assertEquals(expectedValue, decoded[i],
+			Math.abs(expectedValue) * 1E-3 + 1E-4);
+	}
+    }
+
+}
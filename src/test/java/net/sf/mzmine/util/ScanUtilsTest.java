@@ -26,6 +26,7 @@ import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.MassSpectrumType;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats.MzDataReadTask;
 import net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats.MzMLReadTask;
 import net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats.MzXMLReadTask;
@@ -37,6 +38,8 @@ import net.sf.mzmine.taskcontrol.TaskStatus;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.collect.Range;
+
 public class ScanUtilsTest {
 
     private final Logger logger = Logger.getLogger(this.getClass().getName());
@@ -113,4 +116,35 @@ public class ScanUtilsTest {
 	Assert.assertTrue(filesTested > 10);
     }
 
+    /**
+     * Test the binary search based selection of data points by m/z
+     */
+    @Test
+    public void testCopyDataPointsByMass() {
+
+	DataPoint dataPoints[] = new DataPoint[] {
+		new SimpleDataPoint(100.0, 1.0), new SimpleDataPoint(200.0, 2.0),
+		new SimpleDataPoint(200.5, 3.0), new SimpleDataPoint(300.0, 4.0) };
+
+	Assert.assertEquals(0, ScanUtils.findFirstDataPointIndex(dataPoints, 50));
+	Assert.assertEquals(1, ScanUtils.findFirstDataPointIndex(dataPoints, 200));
+	Assert.assertEquals(4, ScanUtils.findFirstDataPointIndex(dataPoints, 400));
+
+	double mzValues[] = new double[dataPoints.length];
+	double intensityValues[] = new double[dataPoints.length];
+
+	int count = ScanUtils.copyDataPointsByMass(dataPoints,
+		Range.closed(200.0, 300.0), mzValues, intensityValues);
+	Assert.assertEquals(3, count);
+	Assert.assertEquals(200.0, mzValues[0], 0.0);
+	Assert.assertEquals(4.0, intensityValues[2], 0.0);
+
+	count = ScanUtils.copyDataPointsByMass(dataPoints,
+		Range.closed(201.0, 299.0), mzValues, intensityValues);
+	Assert.assertEquals(0, count);
+
+	Assert.assertEquals(2, ScanUtils.selectSortedDataPointsByMass(
+		dataPoints, Range.closed(150.0, 250.0)).length);
+    }
+
 }